@@ -0,0 +1,119 @@
+package norswap.sigh.bench;
+
+import norswap.sigh.interpreter.Interpreter;
+import org.openjdk.jmh.annotations.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how much memory the interpreter allocates while running the arithmetic and call loops
+ * of {@link InterpreterBenchmark}, the struct allocation loop of {@link StructBenchmark} and the
+ * grid of {@link ArrayBenchmark}, using the per-thread allocation counter of the JVM ({@link
+ * com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}).
+ *
+ * <p>The {@code allocatedBytes} secondary result is the allocation rate in bytes per second;
+ * dividing it by the score (runs per second) gives the number of bytes allocated per run.
+ *
+ * <p>Run with {@code ./gradlew bench --args="AllocationBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Counts the bytes allocated by the benchmark thread while running the programs.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Allocations
+    {
+        public long allocatedBytes;
+
+        @Setup(Level.Iteration) public void reset () {
+            allocatedBytes = 0;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private AnalysedProgram whileLoop;
+    private AnalysedProgram floatLoop;
+    private AnalysedProgram calls;
+    private AnalysedProgram fractions;
+    private AnalysedProgram grid;
+    private Interpreter whileLoopInterpreter;
+    private Interpreter floatLoopInterpreter;
+    private Interpreter callsInterpreter;
+    private Interpreter fractionsInterpreter;
+    private Interpreter gridInterpreter;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup () {
+        whileLoop = AnalysedProgram.fromSource(InterpreterBenchmark.WHILE_LOOP);
+        floatLoop = AnalysedProgram.fromSource(InterpreterBenchmark.FLOAT_LOOP);
+        whileLoopInterpreter = new Interpreter(whileLoop.reactor);
+        floatLoopInterpreter = new Interpreter(floatLoop.reactor);
+        calls = AnalysedProgram.fromSource(InterpreterBenchmark.CALLS);
+        callsInterpreter = new Interpreter(calls.reactor);
+        fractions = AnalysedProgram.fromSource(StructBenchmark.FRACTIONS);
+        fractionsInterpreter = new Interpreter(fractions.reactor);
+        grid = AnalysedProgram.fromSource(ArrayBenchmark.GRID);
+        gridInterpreter = new Interpreter(grid.reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object measure
+            (Allocations allocations, Interpreter interpreter, AnalysedProgram program)
+    {
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        Object result = interpreter.interpret(program.root);
+        allocations.allocatedBytes += threads.getThreadAllocatedBytes(thread) - before;
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object whileLoop (Allocations allocations) {
+        return measure(allocations, whileLoopInterpreter, whileLoop);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object floatLoop (Allocations allocations) {
+        return measure(allocations, floatLoopInterpreter, floatLoop);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object calls (Allocations allocations) {
+        return measure(allocations, callsInterpreter, calls);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object fractions (Allocations allocations) {
+        return measure(allocations, fractionsInterpreter, fractions);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object grid (Allocations allocations) {
+        return measure(allocations, gridInterpreter, grid);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,80 @@
+package norswap.sigh.bench;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.SighNode;
+import norswap.uranium.Reactor;
+import norswap.utils.IO;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * A parsed and semantically analysed Sigh program, ready to be run by the benchmarks.
+ */
+public final class AnalysedProgram
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final SighGrammar grammar = new SighGrammar();
+
+    private static final ParseOptions parseOptions = ParseOptions.builder()
+            .wellFormednessCheck(false)
+            .get();
+
+    // ---------------------------------------------------------------------------------------------
+
+    public final RootNode root;
+    public final Reactor reactor;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private AnalysedProgram (RootNode root, Reactor reactor) {
+        this.root = root;
+        this.reactor = reactor;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static AnalysedProgram fromFile (String path) {
+        return fromSource(IO.slurp(path));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static AnalysedProgram fromSource (String source)
+    {
+        ParseResult result = Autumn.parse(grammar.root, source, parseOptions);
+        if (!result.fullMatch)
+            throw new IllegalArgumentException("could not parse benchmark program: " + result);
+
+        RootNode root = result.topValue();
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor).walk(root);
+        reactor.run();
+
+        if (!reactor.errors().isEmpty())
+            throw new IllegalArgumentException(reactor.reportErrors(it ->
+                it.toString() + " (" + ((SighNode) it).span + ")"));
+
+        return new AnalysedProgram(root, reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Replaces {@link System#out} by a stream that discards everything, so that benchmarks of
+     * printing programs measure the interpreter and not the terminal.
+     */
+    public static void silenceStdout () {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override public void write (int b) {}
+            @Override public void write (byte[] b, int off, int len) {}
+        }));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,256 @@
+package norswap.sigh.bench;
+
+import norswap.sigh.interpreter.Interpreter;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the interpreter on array-heavy programs: filling and reading a
+ * {@code Float} grid element by element, element-wise operations on {@code Int} matrices,
+ * element-wise operations on million-element {@code Float} matrices, reading the properties of
+ * such matrices, reducing them along an axis, operating on slices of them, broadcasting
+ * vectors over them, multiplying the sparse adjacency matrix of a 20000-node graph, and operating
+ * on a million-element {@code Float} matrix mapped from a file.
+ *
+ * <p>Run with {@code ./gradlew bench --args="ArrayBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArrayBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    static final String GRID = String.join("\n",
+        "var g: Float[300][300]",
+        "var i: Int = 0",
+        "while i < 300 {",
+        "    var j: Int = 0",
+        "    while j < 300 {",
+        "        g[i][j] = i * 0.5 + j",
+        "        j = j + 1",
+        "    }",
+        "    i = i + 1",
+        "}",
+        "var acc: Float = 0.0",
+        "i = 0",
+        "while i < 300 {",
+        "    var j: Int = 0",
+        "    while j < 300 {",
+        "        acc = acc + g[i][j]",
+        "        j = j + 1",
+        "    }",
+        "    i = i + 1",
+        "}",
+        "return acc + g.sum");
+
+    static final String ELEMENTWISE = String.join("\n",
+        "var a: Int[300][300]",
+        "var b: Int[300][300]",
+        "a[1][2] = 3",
+        "b[2][1] = 4",
+        "var sum: Int = 0",
+        "var k: Int = 0",
+        "while k < 10 {",
+        "    sum = sum + ((a + b) * 2 - a).sum",
+        "    k = k + 1",
+        "}",
+        "return sum");
+
+    static final String LARGE_ELEMENTWISE = String.join("\n",
+        "var a: Float[1000][1000]",
+        "var b: Float[1000][1000]",
+        "a = a + 1.5",
+        "b = b + 0.5",
+        "var sum: Float = 0.0",
+        "var k: Int = 0",
+        "while k < 10 {",
+        "    sum = sum + (a * b + a - b / 2.0).sum",
+        "    k = k + 1",
+        "}",
+        "return sum");
+
+    static final String REDUCTIONS = String.join("\n",
+        "var a: Float[1000][1000]",
+        "var b: Int[1000][1000]",
+        "a = a + 0.5",
+        "b = b + 3",
+        "var sum: Float = 0.0",
+        "var k: Int = 0",
+        "while k < 50 {",
+        "    sum = sum + a.sum + a.avg + b.sum + b.avg + a.count + b.nDim",
+        "    k = k + 1",
+        "}",
+        "return sum");
+
+    static final String AXIS_REDUCTIONS = String.join("\n",
+        "var a: Float[1000][1000]",
+        "a[3][7] = 2.5",
+        "a = a + 0.5",
+        "var columns: Float[] = sum(a, 0)",
+        "var rows: Float[] = max(a, 1)",
+        "var best: Int[] = argmax(a, 0)",
+        "var s: Float[] = stats(a)",
+        "return columns[7] + rows[3] + best[7] + s[1] + s[2]");
+
+    static final String SLICES = String.join("\n",
+        "var a: Float[1000][1000]",
+        "a[3][7] = 2.5",
+        "a = a + 0.5",
+        "var sum: Float = 0.0",
+        "var k: Int = 0",
+        "while k < 10 {",
+        "    sum = sum + (a[:, 1:] - a[:, :999] * 0.5).sum",
+        "    sum = sum + (a[:200, 1:201] @ a[200:400, :200]).sum",
+        "    k = k + 1",
+        "}",
+        "return sum");
+
+    static final String BROADCASTING = String.join("\n",
+        "var a: Float[1000][1000]",
+        "var row: Float[1000]",
+        "var column: Float[1000][1]",
+        "a = a + 1.5",
+        "row[3] = 2.0",
+        "column[7][0] = 0.5",
+        "var sum: Float = 0.0",
+        "var k: Int = 0",
+        "while k < 10 {",
+        "    sum = sum + (a - row * 0.5 + column).sum",
+        "    k = k + 1",
+        "}",
+        "return sum");
+
+    static final String SPARSE = String.join("\n",
+        "var a: Int[20000][20000]",
+        "var i: Int = 0",
+        "while i < 20000 {",
+        "    a[i][(i * 7 + 1) % 20000] = 1",
+        "    a[i][(i * 13 + 5) % 20000] = 1",
+        "    i = i + 1",
+        "}",
+        "var paths: Int[][] = a @ a",
+        "var degrees: Int[] = sum(a + paths, 0)",
+        "return paths.sum + degrees[5] + (a * 2).sum");
+
+    /** Formatted with the path of the mapped file. */
+    static final String MAPPED = String.join("\n",
+        "var a: Float[][] = mapFloats(\"%s\", 1000, 1000)",
+        "a[3][7] = a[3][7] + 1.0",
+        "var total: Float = 0.0",
+        "var k: Int = 0",
+        "while k < 10 {",
+        "    total = total + (a * 2.0 - a).sum + a.sum + sum(a, 0)[7]",
+        "    k = k + 1",
+        "}",
+        "return total");
+
+    // ---------------------------------------------------------------------------------------------
+
+    private AnalysedProgram grid;
+    private AnalysedProgram elementwise;
+    private Interpreter gridInterpreter;
+    private Interpreter elementwiseInterpreter;
+    private AnalysedProgram largeElementwise;
+    private Interpreter largeElementwiseInterpreter;
+    private AnalysedProgram reductions;
+    private Interpreter reductionsInterpreter;
+    private AnalysedProgram axisReductions;
+    private Interpreter axisReductionsInterpreter;
+    private AnalysedProgram slices;
+    private Interpreter slicesInterpreter;
+    private AnalysedProgram broadcasting;
+    private Interpreter broadcastingInterpreter;
+    private AnalysedProgram sparse;
+    private Interpreter sparseInterpreter;
+    private AnalysedProgram mapped;
+    private Interpreter mappedInterpreter;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup () throws IOException {
+        grid = AnalysedProgram.fromSource(GRID);
+        gridInterpreter = new Interpreter(grid.reactor);
+        elementwise = AnalysedProgram.fromSource(ELEMENTWISE);
+        elementwiseInterpreter = new Interpreter(elementwise.reactor);
+        largeElementwise = AnalysedProgram.fromSource(LARGE_ELEMENTWISE);
+        largeElementwiseInterpreter = new Interpreter(largeElementwise.reactor);
+        reductions = AnalysedProgram.fromSource(REDUCTIONS);
+        reductionsInterpreter = new Interpreter(reductions.reactor);
+        axisReductions = AnalysedProgram.fromSource(AXIS_REDUCTIONS);
+        axisReductionsInterpreter = new Interpreter(axisReductions.reactor);
+        slices = AnalysedProgram.fromSource(SLICES);
+        slicesInterpreter = new Interpreter(slices.reactor);
+        broadcasting = AnalysedProgram.fromSource(BROADCASTING);
+        broadcastingInterpreter = new Interpreter(broadcasting.reactor);
+        sparse = AnalysedProgram.fromSource(SPARSE);
+        sparseInterpreter = new Interpreter(sparse.reactor);
+        Path file = Files.createTempFile("sigh", ".bin");
+        file.toFile().deleteOnExit();
+        mapped = AnalysedProgram.fromSource(
+            String.format(MAPPED, file.toString().replace('\\', '/')));
+        mappedInterpreter = new Interpreter(mapped.reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object grid () {
+        return gridInterpreter.interpret(grid.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object elementwise () {
+        return elementwiseInterpreter.interpret(elementwise.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object largeElementwise () {
+        return largeElementwiseInterpreter.interpret(largeElementwise.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object reductions () {
+        return reductionsInterpreter.interpret(reductions.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object axisReductions () {
+        return axisReductionsInterpreter.interpret(axisReductions.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object slices () {
+        return slicesInterpreter.interpret(slices.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object broadcasting () {
+        return broadcastingInterpreter.interpret(broadcasting.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object sparse () {
+        return sparseInterpreter.interpret(sparse.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object mapped () {
+        return mappedInterpreter.interpret(mapped.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
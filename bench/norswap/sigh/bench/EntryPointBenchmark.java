@@ -0,0 +1,73 @@
+package norswap.sigh.bench;
+
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.bytecode.CompiledProgram;
+import org.openjdk.jmh.annotations.*;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of repeatedly invoking a small compiled program: through the reflective
+ * {@link CompilationResult#callRun}, through {@link CompiledProgram#run}, and by calling one of
+ * its functions through the handle returned by {@link CompiledProgram#function}.
+ *
+ * <p>Run with {@code ./gradlew bench --args="EntryPointBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntryPointBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    static final String SOURCE = String.join("\n",
+        "fun clamp (x: Int, low: Int, high: Int): Int {",
+        "    if x < low { return low }",
+        "    if x > high { return high }",
+        "    return x",
+        "}",
+        "return clamp(42, 0, 10)");
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Class<?> mainClass;
+    private CompiledProgram program;
+    private MethodHandle clamp;
+    private long x = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup () {
+        AnalysedProgram analysed = AnalysedProgram.fromSource(SOURCE);
+        CompilationResult result =
+            new BytecodeCompiler(analysed.reactor).compile("EntryPointRun", analysed.root);
+        mainClass = result.load(new ByteArrayClassLoader());
+        program = new CompiledProgram(mainClass);
+        clamp = program.function("clamp");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object callRun () {
+        return CompilationResult.callRun(mainClass);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object run () {
+        return program.run();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public long function () throws Throwable {
+        return (long) clamp.invokeExact(++x & 15, 0L, 10L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
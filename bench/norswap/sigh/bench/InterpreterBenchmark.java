@@ -0,0 +1,134 @@
+package norswap.sigh.bench;
+
+import norswap.sigh.interpreter.Interpreter;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the interpreter on variable-heavy programs: {@code
+ * examples/fizzbuzz.si}, tight {@code while} loops that only read and write local variables,
+ * performing integer or float arithmetic, the same integer loop written as a tail-recursive
+ * function, and a loop performing a million calls to a small function.
+ *
+ * <p>Run with {@code ./gradlew bench --args="InterpreterBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    static final String WHILE_LOOP = String.join("\n",
+        "fun loop (n: Int): Int {",
+        "    var i: Int = 0",
+        "    var acc: Int = 0",
+        "    while i < n {",
+        "        acc = acc + i % 7",
+        "        i = i + 1",
+        "    }",
+        "    return acc",
+        "}",
+        "return loop(10000)");
+
+    static final String FLOAT_LOOP = String.join("\n",
+        "fun loop (n: Int): Float {",
+        "    var i: Int = 0",
+        "    var x: Float = 0.5",
+        "    var acc: Float = 0.0",
+        "    while i < n {",
+        "        acc = acc + x * x - acc / 3.0",
+        "        x = x + 0.25",
+        "        i = i + 1",
+        "    }",
+        "    return acc",
+        "}",
+        "return loop(10000)");
+
+    static final String TAIL_LOOP = String.join("\n",
+        "fun loop (i: Int, n: Int, acc: Int): Int {",
+        "    if i >= n { return acc }",
+        "    return loop(i + 1, n, acc + i % 7)",
+        "}",
+        "return loop(0, 10000, 0)");
+
+    static final String CALLS = String.join("\n",
+        "fun inc (x: Int): Int { return x + 1 }",
+        "fun loop (n: Int): Int {",
+        "    var i: Int = 0",
+        "    var acc: Int = 0",
+        "    while i < n {",
+        "        acc = inc(acc)",
+        "        i = i + 1",
+        "    }",
+        "    return acc",
+        "}",
+        "return loop(1000000)");
+
+    // ---------------------------------------------------------------------------------------------
+
+    private AnalysedProgram fizzbuzz;
+    private AnalysedProgram whileLoop;
+    private AnalysedProgram floatLoop;
+    private AnalysedProgram tailLoop;
+    private AnalysedProgram calls;
+
+    // Reusing the interpreters measures execution only: the translation of a program to
+    // execution nodes is cached by the interpreter after the first run.
+    private Interpreter fizzbuzzInterpreter;
+    private Interpreter whileLoopInterpreter;
+    private Interpreter floatLoopInterpreter;
+    private Interpreter tailLoopInterpreter;
+    private Interpreter callsInterpreter;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup () {
+        AnalysedProgram.silenceStdout();
+        fizzbuzz  = AnalysedProgram.fromFile("examples/fizzbuzz.si");
+        whileLoop = AnalysedProgram.fromSource(WHILE_LOOP);
+        fizzbuzzInterpreter  = new Interpreter(fizzbuzz.reactor);
+        whileLoopInterpreter = new Interpreter(whileLoop.reactor);
+        floatLoop = AnalysedProgram.fromSource(FLOAT_LOOP);
+        floatLoopInterpreter = new Interpreter(floatLoop.reactor);
+        tailLoop = AnalysedProgram.fromSource(TAIL_LOOP);
+        tailLoopInterpreter = new Interpreter(tailLoop.reactor);
+        calls = AnalysedProgram.fromSource(CALLS);
+        callsInterpreter = new Interpreter(calls.reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object fizzbuzz () {
+        return fizzbuzzInterpreter.interpret(fizzbuzz.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object whileLoop () {
+        return whileLoopInterpreter.interpret(whileLoop.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object floatLoop () {
+        return floatLoopInterpreter.interpret(floatLoop.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object tailLoop () {
+        return tailLoopInterpreter.interpret(tailLoop.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object calls () {
+        return callsInterpreter.interpret(calls.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,52 @@
+package norswap.sigh.bench;
+
+import norswap.sigh.interpreter.Interpreter;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken by the {@code @} operator on square {@code Float} matrices of various
+ * sizes. The program also fills both matrices, which only takes time quadratic in the size.
+ *
+ * <p>Run with {@code ./gradlew bench --args="MatMulBenchmark"}, or with e.g. {@code
+ * --args="MatMulBenchmark -p size=512"} for a single size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatMulBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Param({"64", "512", "2048"})
+    public int size;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private AnalysedProgram program;
+    private Interpreter interpreter;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup ()
+    {
+        program = AnalysedProgram.fromSource(String.join("\n",
+            "var a: Float[" + size + "][" + size + "]",
+            "var b: Float[" + size + "][" + size + "]",
+            "a = a + 1.5",
+            "b = b - 0.5",
+            "return (a @ b)[1][2]"));
+        interpreter = new Interpreter(program.reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object multiply () {
+        return interpreter.interpret(program.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,44 @@
+package norswap.sigh.bench;
+
+import norswap.sigh.bytecode.CompiledProgram;
+import norswap.sigh.bytecode.ProgramCache;
+
+/**
+ * Compiles, loads and runs many distinct programs through a {@link ProgramCache}, to check that
+ * evicted programs are unloaded: the number of loaded classes and the Metaspace usage must stay
+ * bounded, no matter the number of programs.
+ *
+ * <p>Run with {@code ./gradlew soak --args="<programs> <capacity>"} (100000 and 256 by default).
+ * The task caps the Metaspace, so that a leak makes the run fail.
+ */
+public final class ProgramCacheSoak
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args)
+    {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        ProgramCache cache = new ProgramCache(capacity);
+        long start = System.nanoTime();
+
+        for (int i = 1; i <= count; ++i) {
+            String source = String.join("\n",
+                "struct Box { var value: Int }",
+                "fun f (x: Int): Int { return x * " + i + " + 1 }",
+                "return f($Box(2).value)");
+            CompiledProgram program = cache.get("Soak", source);
+            Object result = program.run();
+            if (!result.equals(2L * i + 1))
+                throw new AssertionError("program " + i + " returned " + result);
+            if (i % 10_000 == 0)
+                System.out.printf("%d programs in %.1f s: %s%n",
+                    i, (System.nanoTime() - start) / 1e9, cache);
+        }
+
+        System.gc();
+        System.out.println("after GC: " + cache);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,75 @@
+package norswap.sigh.bench;
+
+import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.Tiering;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the call throughput of the interpreter on recursion-heavy programs, where most of the
+ * time is spent entering and returning from functions: the naive Fibonacci function and the
+ * Ackermann function. With {@code tiered}, the functions are promoted to bytecode once hot (see
+ * {@link Tiering}).
+ *
+ * <p>Run with {@code ./gradlew bench --args="RecursionBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecursionBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    static final String FIB = String.join("\n",
+        "fun fib (n: Int): Int {",
+        "    if n < 2 { return n }",
+        "    return fib(n - 1) + fib(n - 2)",
+        "}",
+        "return fib(20)");
+
+    static final String ACKERMANN = String.join("\n",
+        "fun ack (m: Int, n: Int): Int {",
+        "    if m == 0 { return n + 1 }",
+        "    if n == 0 { return ack(m - 1, 1) }",
+        "    return ack(m - 1, ack(m, n - 1))",
+        "}",
+        "return ack(2, 200)");
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Param({"false", "true"})
+    public boolean tiered;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private AnalysedProgram fib;
+    private AnalysedProgram ackermann;
+    private Interpreter fibInterpreter;
+    private Interpreter ackermannInterpreter;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup () {
+        fib = AnalysedProgram.fromSource(FIB);
+        ackermann = AnalysedProgram.fromSource(ACKERMANN);
+        fibInterpreter = new Interpreter(fib.reactor, tiered ? new Tiering() : null);
+        ackermannInterpreter = new Interpreter(ackermann.reactor, tiered ? new Tiering() : null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object fib () {
+        return fibInterpreter.interpret(fib.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object ackermann () {
+        return ackermannInterpreter.interpret(ackermann.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,85 @@
+package norswap.sigh.bench;
+
+import norswap.sigh.interpreter.Interpreter;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the interpreter on struct-heavy programs: allocating a million small
+ * {@code Fraction} instances and reading their fields, and adding fractions through a method.
+ *
+ * <p>Run with {@code ./gradlew bench --args="StructBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    static final String FRACTIONS = String.join("\n",
+        "struct Fraction { var num: Int; var den: Int }",
+        "fun loop (n: Int): Int {",
+        "    var i: Int = 0",
+        "    var acc: Int = 0",
+        "    while i < n {",
+        "        var f: Fraction = $Fraction(i, i + 1)",
+        "        acc = acc + f.den - f.num",
+        "        i = i + 1",
+        "    }",
+        "    return acc",
+        "}",
+        "return loop(1000000)");
+
+    static final String METHODS = String.join("\n",
+        "struct Fraction {",
+        "    var num: Int; var den: Int",
+        "    fun plus (x: Fraction): Fraction {",
+        "        return $Fraction(num * x.den + den * x.num, den * x.den)",
+        "    }",
+        "    fun inverse (): Fraction { return $Fraction(den, num) }",
+        "    fun to_Number (): Int { return num / den }",
+        "}",
+        "fun loop (n: Int): Int {",
+        "    var i: Int = 0",
+        "    var acc: Int = 0",
+        "    var one: Fraction = $Fraction(1, 1)",
+        "    while i < n {",
+        "        acc = acc + one.plus($Fraction(i, i + 1)).inverse().to_Number()",
+        "        i = i + 1",
+        "    }",
+        "    return acc",
+        "}",
+        "return loop(1000000)");
+
+    // ---------------------------------------------------------------------------------------------
+
+    private AnalysedProgram fractions;
+    private Interpreter fractionsInterpreter;
+    private AnalysedProgram methods;
+    private Interpreter methodsInterpreter;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup () {
+        fractions = AnalysedProgram.fromSource(FRACTIONS);
+        fractionsInterpreter = new Interpreter(fractions.reactor);
+        methods = AnalysedProgram.fromSource(METHODS);
+        methodsInterpreter = new Interpreter(methods.reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public Object fractions () {
+        return fractionsInterpreter.interpret(fractions.root);
+    }
+
+    @Benchmark public Object methods () {
+        return methodsInterpreter.interpret(methods.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
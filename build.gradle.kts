@@ -19,6 +19,15 @@ val vcs = "https://github.com/norswap/${project.name}.git"
 sourceSets.main.get().java.srcDir("src")
 sourceSets.test.get().java.srcDir("test")
 
+val bench: SourceSet by sourceSets.creating {
+    java.srcDir("bench")
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[bench.implementationConfigurationName]
+    .extendsFrom(configurations.implementation.get())
+
 java {
     withSourcesJar()
     withJavadocJar()
@@ -30,6 +39,24 @@ tasks.withType<JavaCompile> {
 
 tasks.test.get().useTestNG()
 
+// Runs the JMH benchmarks in bench/, e.g. ./gradlew bench --args="InterpreterBenchmark"
+tasks.register<JavaExec>("bench") {
+    group = "verification"
+    description = "Runs the JMH benchmarks."
+    classpath = bench.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+}
+
+// Loads many programs through a ProgramCache with a capped Metaspace, to check that evicted
+// programs are unloaded, e.g. ./gradlew soak --args="100000 256"
+tasks.register<JavaExec>("soak") {
+    group = "verification"
+    description = "Runs the ProgramCache soak test."
+    classpath = bench.runtimeClasspath
+    mainClass.set("norswap.sigh.bench.ProgramCacheSoak")
+    jvmArgs("-XX:MaxMetaspaceSize=64m")
+}
+
 tasks.javadoc.get().options {
     // https://github.com/gradle/gradle/issues/7038
     this as StandardJavadocDocletOptions
@@ -68,6 +95,8 @@ dependencies {
     implementation("com.norswap:uranium:1.0.9-ALPHA")
     implementation("org.ow2.asm:asm-all:5.2")
     testImplementation("org.testng:testng:6.14.3")
+    "benchImplementation"("org.openjdk.jmh:jmh-core:1.35")
+    "benchAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.35")
 }
 
 // =================================================================================================
\ No newline at end of file
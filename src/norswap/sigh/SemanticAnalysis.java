@@ -56,6 +56,12 @@ import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
  *     their {@code scope} attribute set to the scope in which they appear (this also speeds up the
  *     interpreter).</li>
  *
+ *     <li>{@link VarDeclarationNode}, {@link ArrayDeclarationNode} and {@link ParameterNode} (as
+ *     well as the variables of {@link RootScope}) must have their {@code slot} attribute set to the
+ *     index of the slot allocated to them in the frame of their scope (cf. {@link Scope#slot}).
+ *     Together with {@link Scope#depth}, this is the fixed address at which the interpreter stores
+ *     the variable.</li>
+ *
  *     <li>All statements introducing a new scope must have their {@code scope} attribute set to the
  *     corresponding {@link Scope} (only {@link RootNode}, {@link BlockNode} and {@link
  *     FunDeclarationNode} (for parameters)). These nodes must also update the {@code scope}
@@ -68,6 +74,11 @@ import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
  *     returns} attribute set to a boolean to indicate whether its execution causes
  *     unconditional exit from the surrounding function or main script.</li>
  *
+ *     <li>Every {@link ReturnNode} must also have its {@code tailCall} attribute set to a boolean
+ *     indicating whether it returns the result of a direct call to the function that contains it
+ *     (a self tail call). The interpreter and the compiler run these calls as jumps back to the
+ *     start of the function, instead of recursive calls.</li>
+ *
  *     <li>The rules check typing constraints: assignment of values to variables, of arguments to
  *     parameters, checking that if/while conditions are booleans, and array indices are
  *     integers.</li>
@@ -122,6 +133,8 @@ public final class SemanticAnalysis
         walker.register(ParenthesizedNode.class,        PRE_VISIT,  analysis::parenthesized);
         walker.register(FieldAccessNode.class,          PRE_VISIT,  analysis::fieldAccess);
         walker.register(ArrayAccessNode.class,          PRE_VISIT,  analysis::arrayAccess);
+        walker.register(ArraySliceNode.class,           PRE_VISIT,  analysis::arraySlice);
+        walker.register(RangeNode.class,                PRE_VISIT,  analysis::range);
         walker.register(FunCallNode.class,              PRE_VISIT,  analysis::funCall);
         walker.register(UnaryExpressionNode.class,      PRE_VISIT,  analysis::unaryExpression);
         walker.register(BinaryExpressionNode.class,     PRE_VISIT,  analysis::binaryExpression);
@@ -348,13 +361,16 @@ public final class SemanticAnalysis
                             .by(rr -> rr.set(0, IntType.INSTANCE));
                 else if(node.fieldName.equals("avg"))
                     R.rule(node, "type")
-                            .by(rr -> rr.set(0, IntType.INSTANCE));
+                            .by(rr -> rr.set(0, FloatType.INSTANCE));
                 else if(node.fieldName.equals("count"))
                     R.rule(node, "type")
                             .by(rr -> rr.set(0, IntType.INSTANCE));
                 else if(node.fieldName.equals("sum"))
+                    // Summing non-numeric elements (e.g. structs) yields 0.
                     R.rule(node, "type")
-                            .by(rr -> rr.set(0, IntType.INSTANCE));
+                            .by(rr -> rr.set(0, elementType(type) instanceof FloatType
+                                ? FloatType.INSTANCE
+                                : IntType.INSTANCE));
                 else if(node.fieldName.equals("nDim"))
                     R.rule(node, "type")
                         .by(rr -> rr.set(0, IntType.INSTANCE));
@@ -425,20 +441,145 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
+    private void arraySlice (ArraySliceNode node)
+    {
+        List<ExpressionNode> components = node.components;
+        Attribute[] dependencies = new Attribute[components.size() + 1];
+        dependencies[0] = node.array.attr("type");
+        forEachIndexed(components, (i, component) -> dependencies[i + 1] =
+            component instanceof RangeNode ? component.attr("bounds") : component.attr("type"));
+
+        R.rule(node, "type")
+        .using(dependencies)
+        .by(r -> {
+            Type type = r.get(0);
+            if (!(type instanceof ArrayType)) {
+                r.error("Trying to slice a non-array expression of type " + type, node);
+                return;
+            }
+
+            // slices are views of tensors, which only hold numbers
+            Type element = elementType(type);
+            if (!(element instanceof IntType || element instanceof FloatType)) {
+                r.error("Slicing is only supported on arrays of Int or Float values, not " + type,
+                    node);
+                return;
+            }
+
+            for (int i = 0; i < components.size(); ++i)
+                if (!(components.get(i) instanceof RangeNode) && !(r.get(i + 1) instanceof IntType))
+                    r.errorFor("Indexing an array using a non-Int-valued expression",
+                        components.get(i));
+
+            int rank = rank(type);
+            if (components.size() > rank) {
+                r.error(format("Trying to slice %d dimensions of an array with %d",
+                    components.size(), rank), node);
+                return;
+            }
+
+            // The dimensions of the slice are known if those of the array and the range bounds
+            // are known.
+            List<StringLiteralNode> dimensions = cast(((ArrayType) type).dimensions);
+            boolean known = dimensions.size() == rank;
+            List<StringLiteralNode> sliced = known ? new ArrayList<>() : null;
+            for (int i = 0; i < rank; ++i) {
+                StringLiteralNode size = known ? dimensions.get(i) : null;
+                if (i >= components.size()) {
+                    if (sliced != null) sliced.add(size);
+                    continue;
+                }
+                if (!(components.get(i) instanceof RangeNode))
+                    continue;
+                RangeNode range = cast(components.get(i));
+                Long start = range.start == null ? (Long) 0L : literalValue(range.start);
+                Long end = range.end != null ? literalValue(range.end)
+                    : size != null ? Long.valueOf(size.value) : null;
+                if (start != null && end != null && end <= start) {
+                    r.errorFor(format("Empty range %d:%d", start, end), range, node.attr("type"));
+                    return;
+                }
+                if (end != null && size != null && end > Long.parseLong(size.value)) {
+                    r.errorFor(format("Range end %d out of bounds for length %s", end, size.value),
+                        range, node.attr("type"));
+                    return;
+                }
+                if (sliced == null)
+                    continue;
+                if (start == null || end == null)
+                    sliced = null;
+                else
+                    sliced.add(new StringLiteralNode(range.span, String.valueOf(end - start)));
+            }
+
+            int kept = rank;
+            for (ExpressionNode component: components)
+                if (!(component instanceof RangeNode)) --kept;
+            r.set(0, arrayType(elementType(type), kept, sliced));
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value of the given expression if it is an integer literal, or null.
+     */
+    private static Long literalValue (ExpressionNode node) {
+        return node instanceof IntLiteralNode ? ((IntLiteralNode) node).value : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void range (RangeNode node)
+    {
+        // The "bounds" attribute of a range only records that its bounds have been checked.
+        ExpressionNode[] bounds = Arrays.stream(new ExpressionNode[] { node.start, node.end })
+            .filter(Objects::nonNull).toArray(ExpressionNode[]::new);
+
+        R.rule(node, "bounds")
+        .using(Arrays.stream(bounds).map(it -> it.attr("type")).toArray(Attribute[]::new))
+        .by(r -> {
+            r.set(0, true);
+            for (int i = 0; i < bounds.length; ++i)
+                if (!(r.get(i) instanceof IntType))
+                    r.errorFor("Slicing an array using a non-Int-valued bound", bounds[i]);
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private void funCall (FunCallNode node)
     {
         this.inferenceContext = node;
 
-        Attribute[] dependencies = new Attribute[node.arguments.size() + 1];
+        // The declaration of the function, if it is named, tells whether it is a reduction or
+        // mapping built-in, whose type depends on its arguments.
+        boolean named = node.function instanceof ReferenceNode;
+        int argCount = node.arguments.size();
+        Attribute[] dependencies = new Attribute[argCount + (named ? 2 : 1)];
         dependencies[0] = node.function.attr("type");
         forEachIndexed(node.arguments, (i, arg) -> {
             dependencies[i + 1] = arg.attr("type");
             R.set(arg, "index", i);
         });
+        if (named)
+            dependencies[argCount + 1] = node.function.attr("decl");
 
         R.rule(node, "type")
         .using(dependencies)
         .by(r -> {
+            DeclarationNode decl = named ? r.get(argCount + 1) : null;
+            if (isReduction(decl) || isMapping(decl)) {
+                Type[] argTypes = new Type[argCount];
+                for (int i = 0; i < argCount; ++i)
+                    argTypes[i] = r.get(i + 1);
+                if (isReduction(decl))
+                    reductionCall(r, node, argTypes);
+                else
+                    mappingCall(r, node, argTypes);
+                return;
+            }
+
             Type maybeFunType = r.get(0);
 
             if (!(maybeFunType instanceof FunType)) {
@@ -473,6 +614,130 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
+    private static boolean isReduction (DeclarationNode decl)
+    {
+        if (!(decl instanceof SyntheticDeclarationNode)) return false;
+        switch (decl.name()) {
+            case "sum": case "min": case "max": case "argmax": case "stats":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Types a call to one of the reduction built-ins on arrays of {@code Int} or {@code Float}:
+     * {@code sum}, {@code min}, {@code max} and {@code argmax} take an array and an axis, and
+     * return an array with one less dimension (or a scalar for a one-dimensional array), while
+     * {@code stats} returns a {@code Float[]} holding the count, mean, variance, minimum and maximum
+     * of the elements of an array.
+     */
+    private void reductionCall (Rule r, FunCallNode node, Type[] argTypes)
+    {
+        String name = ((ReferenceNode) node.function).name;
+        int arity = name.equals("stats") ? 1 : 2;
+
+        if (argTypes.length != arity) {
+            r.errorFor(format("wrong number of arguments, expected %d but got %d",
+                arity, argTypes.length), node, node.attr("type"));
+            return;
+        }
+
+        Type element = elementType(argTypes[0]);
+        if (!(argTypes[0] instanceof ArrayType)
+                || !(element instanceof IntType || element instanceof FloatType)) {
+            r.errorFor(format("%s expects an array of Int or Float, but got %s",
+                name, argTypes[0]), node.arguments.get(0), node.attr("type"));
+            return;
+        }
+
+        if (name.equals("stats")) {
+            r.set(0, new ArrayType(FloatType.INSTANCE, new ArrayList<>()));
+            return;
+        }
+
+        if (!(argTypes[1] instanceof IntType)) {
+            r.errorFor(format("%s expects an Int axis, but got %s", name, argTypes[1]),
+                node.arguments.get(1), node.attr("type"));
+            return;
+        }
+
+        ArrayType type = (ArrayType) argTypes[0];
+        int rank = rank(type);
+
+        // When the axis and the dimensions are known, so are the dimensions of the result.
+        List<StringLiteralNode> dimensions = null;
+        ExpressionNode axis = node.arguments.get(1);
+        if (axis instanceof IntLiteralNode) {
+            long value = ((IntLiteralNode) axis).value;
+            if (value < 0 || value >= rank) {
+                r.errorFor(format("axis %d out of range for an array with %d dimensions",
+                    value, rank), axis, node.attr("type"));
+                return;
+            }
+            if (type.dimensions.size() == rank) {
+                dimensions = new ArrayList<>(cast(type.dimensions));
+                dimensions.remove((int) value);
+            }
+        }
+
+        r.set(0, arrayType(name.equals("argmax") ? IntType.INSTANCE : element, rank - 1, dimensions));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isMapping (DeclarationNode decl)
+    {
+        return decl instanceof SyntheticDeclarationNode
+            && (decl.name().equals("mapInts") || decl.name().equals("mapFloats"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Types a call to {@code mapInts} or {@code mapFloats}, which take the path of a binary file
+     * and the dimensions of the {@code Int} or {@code Float} array that the file is mapped into.
+     */
+    private void mappingCall (Rule r, FunCallNode node, Type[] argTypes)
+    {
+        String name = ((ReferenceNode) node.function).name;
+
+        if (argTypes.length < 2) {
+            r.errorFor(format("%s expects a path and at least one dimension, but got %d arguments",
+                name, argTypes.length), node, node.attr("type"));
+            return;
+        }
+
+        if (!(argTypes[0] instanceof StringType)) {
+            r.errorFor(format("%s expects a String path, but got %s", name, argTypes[0]),
+                node.arguments.get(0), node.attr("type"));
+            return;
+        }
+
+        // When the dimensions are literals, they are known.
+        List<StringLiteralNode> dimensions = new ArrayList<>();
+        for (int i = 1; i < argTypes.length; ++i) {
+            ExpressionNode arg = node.arguments.get(i);
+            if (!(argTypes[i] instanceof IntType)) {
+                r.errorFor(format("%s expects Int dimensions, but got %s", name, argTypes[i]),
+                    arg, node.attr("type"));
+                return;
+            }
+            if (dimensions != null && arg instanceof IntLiteralNode)
+                dimensions.add(new StringLiteralNode(arg.span,
+                    String.valueOf(((IntLiteralNode) arg).value)));
+            else
+                dimensions = null;
+        }
+
+        Type element = name.equals("mapInts") ? IntType.INSTANCE : FloatType.INSTANCE;
+        r.set(0, arrayType(element, argTypes.length - 1, dimensions));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private void unaryExpression (UnaryExpressionNode node)
     {
         assert node.operator == UnaryOperator.NOT; // only one for now
@@ -536,18 +801,39 @@ public final class SemanticAnalysis
     private boolean isMatrix(BinaryOperator op){return op==DOTPRODUCT;}
 
     // ---------------------------------------------------------------------------------------------
-    private boolean equal(List a,List b){
-        if(a.size()!=b.size()) return false;
-        for(int i=0;i< a.size();i++){
-            String aValue=((StringLiteralNode)a.get(i)).value;
-            String bValue=((StringLiteralNode)b.get(i)).value;
-            if(!aValue.equals(bValue)) return false;
+    /**
+     * Returns the type of the result of an element-wise operator on arrays of the given types, or
+     * null if their dimensions are known and cannot be broadcast together.
+     *
+     * <p>The dimensions are aligned on the right. Each pair of dimensions must be equal, or one of
+     * them must be 1 (or missing), in which case the array is repeated along that dimension. The
+     * dimensions of the result are unknown if those of either array are.
+     */
+    private static Type broadcast (ArrayType left, ArrayType right)
+    {
+        int lRank = rank(left), rRank = rank(right), rank = Math.max(lRank, rRank);
+        Type element = elementType(left);
+        List<StringLiteralNode> a = cast(left.dimensions), b = cast(right.dimensions);
+        if (a.size() != lRank || b.size() != rRank)
+            return arrayType(element, rank, null);
+
+        List<StringLiteralNode> dimensions = new ArrayList<>();
+        for (int i = 0; i < rank; ++i) {
+            StringLiteralNode x = i < rank - lRank ? null : a.get(i - rank + lRank);
+            StringLiteralNode y = i < rank - rRank ? null : b.get(i - rank + rRank);
+            if (x == null || y != null && x.value.equals("1"))
+                dimensions.add(y);
+            else if (y == null || y.value.equals("1") || y.value.equals(x.value))
+                dimensions.add(x);
+            else
+                return null;
         }
-        return true;
+        return arrayType(element, rank, dimensions);
     }
 
     private boolean compatible(List<StringLiteralNode> a, List<StringLiteralNode> b){
-        if(a.size()>2 ||b.size()>2||a.size()==0||b.size()==0) return false;
+        if(a.isEmpty()||b.isEmpty()) return true; // unknown dimensions are checked at run time
+        if(a.size()>2 ||b.size()>2) return false;
         if(b.get(0).value.equals(a.get(0).value)||b.get(0).value.equals(a.get(1).value)||b.get(1).value.equals(a.get(0).value)) return true;
         return false;
     }
@@ -562,6 +848,14 @@ public final class SemanticAnalysis
     }
     private void binaryArithmetic (Rule r, BinaryExpressionNode node, Type left, Type right)
     {
+        // array operators do not convert between Int and Float elements
+        if ((left instanceof ArrayType || right instanceof ArrayType)
+                && mixedElements(left, right)) {
+            r.error(arithmeticError(node, left, right) + ": their elements have different types",
+                node);
+            return;
+        }
+
         if (left instanceof IntType)
             if (right instanceof IntType)
                 r.set(0, IntType.INSTANCE);
@@ -574,7 +868,7 @@ public final class SemanticAnalysis
         else if (left instanceof FloatType)
             if (right instanceof IntType || right instanceof FloatType)
                 r.set(0, FloatType.INSTANCE);
-            else if(right instanceof ArrayType)
+            else if(right instanceof ArrayType && node.operator!=DOTPRODUCT)
                 r.set(0,new ArrayType(((ArrayType) right).componentType,((ArrayType) right).dimensions));
             else
                 r.error(arithmeticError(node, "Float", right), node);
@@ -584,13 +878,27 @@ public final class SemanticAnalysis
                 if(node.operator== DOTPRODUCT&&!compatible(((ArrayType) left).dimensions,(((ArrayType) right).dimensions))){
                     r.error(format("Trying to operate on arrays with different dimensions: %s and %s", conversionDimension(((ArrayType) left).dimensions),conversionDimension(((ArrayType) right).dimensions)),node);
                     return;
-                }else if(node.operator!=DOTPRODUCT&& !equal(((ArrayType) left).dimensions,(((ArrayType) right).dimensions))) {
-                    r.error(format("Trying to operate on arrays with different dimensions: %s and %s", conversionDimension(((ArrayType) left).dimensions), conversionDimension(((ArrayType) right).dimensions)), node);
+                }else if(node.operator!=DOTPRODUCT) {
+                    Type result = broadcast((ArrayType) left, (ArrayType) right);
+                    if (result == null)
+                        r.error(format("Trying to operate on arrays with different dimensions: %s and %s", conversionDimension(((ArrayType) left).dimensions), conversionDimension(((ArrayType) right).dimensions)), node);
+                    else
+                        r.set(0, result);
+                    return;
+                }
+                if (rank(left) > 2 || rank(right) > 2 || rank(left) == 2 && rank(right) == 1) {
+                    r.error(format("Operator @ is only defined on a vector and a vector or a "
+                        + "matrix, or on two matrices, not %s and %s", left, right), node);
                     return;
                 }
-                r.set(0, new ArrayType(((ArrayType) left).componentType,((ArrayType) left).dimensions));
+                // a vector times a vector or a matrix is a scalar
+                if (rank(left) == 1)
+                    r.set(0, elementType(left));
+                else
+                    r.set(0, new ArrayType(((ArrayType) left).componentType,((ArrayType) left).dimensions));
             }
-            else if(right instanceof IntType || right instanceof FloatType)
+            else if((right instanceof IntType || right instanceof FloatType)
+                    && node.operator!=DOTPRODUCT)
                 r.set(0,new ArrayType(((ArrayType) left).componentType,((ArrayType) left).dimensions));
             else
                 r.error(arithmeticError(node, left, right), node);
@@ -599,6 +907,20 @@ public final class SemanticAnalysis
     }
 
 
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether the operands of an arithmetic operator, or their elements if they are arrays,
+     * are numbers of different types.
+     */
+    private static boolean mixedElements (Type left, Type right)
+    {
+        Type a = elementType(left), b = elementType(right);
+        return (a instanceof IntType || a instanceof FloatType)
+            && (b instanceof IntType || b instanceof FloatType)
+            && a.getClass() != b.getClass();
+    }
+
     // ---------------------------------------------------------------------------------------------
 
     private static String arithmeticError (BinaryExpressionNode node, Object left, Object right) {
@@ -775,6 +1097,49 @@ public final class SemanticAnalysis
             return null;
     }
 
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the type of the scalar elements of the given (possibly multi-dimensional) array
+     * type, or the type itself if it is not an array type.
+     */
+    private static Type elementType (Type type)
+    {
+        while (type instanceof ArrayType)
+            type = ((ArrayType) type).componentType;
+        return type;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of dimensions of the given array type, or 0 if it is not an array type.
+     */
+    private static int rank (Type type)
+    {
+        int rank = 0;
+        for (; type instanceof ArrayType; type = ((ArrayType) type).componentType)
+            ++rank;
+        return rank;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the type of the arrays with the given number of dimensions, whose scalar elements
+     * have the given type, and whose dimensions are the given ones (or unknown if null). Returns
+     * the element type itself if the number of dimensions is 0.
+     */
+    private static Type arrayType (Type element, int rank, List<StringLiteralNode> dimensions)
+    {
+        Type result = element;
+        for (int i = rank - 1; i >= 0; --i)
+            result = new ArrayType(result, dimensions == null
+                ? new ArrayList<>()
+                : new ArrayList<>(dimensions.subList(i, rank)));
+        return result;
+    }
+
     // endregion
     // =============================================================================================
     // region [Scopes & Declarations]
@@ -812,6 +1177,7 @@ public final class SemanticAnalysis
 
         scope.declare(node.name, node);
         R.set(node, "scope", scope);
+        R.set(node, "slot", scope.slot(node));
 
         R.rule(node, "type")
         .using(node.type, "value")
@@ -841,6 +1207,7 @@ public final class SemanticAnalysis
 
         scope.declare(node.name, node);
         R.set(node, "scope", scope);
+        R.set(node, "slot", scope.slot(node));
 
         R.rule(node, "type")
             .using(node.type, "value")
@@ -882,6 +1249,7 @@ public final class SemanticAnalysis
     {
         R.set(node, "scope", scope);
         scope.declare(node.name, node); // scope pushed by FunDeclarationNode
+        R.set(node, "slot", scope.slot(node));
 
         R.rule(node, "type")
         .using(node.type, "value")
@@ -972,6 +1340,19 @@ public final class SemanticAnalysis
         R.set(node, "returns", true);
 
         FunDeclarationNode function = currentFunction();
+        ExpressionNode expression = node.expression;
+        while (expression instanceof ParenthesizedNode)
+            expression = ((ParenthesizedNode) expression).expression;
+
+        if (function != null
+                && expression instanceof FunCallNode
+                && ((FunCallNode) expression).function instanceof ReferenceNode)
+            R.rule(node, "tailCall")
+            .using(((FunCallNode) expression).function, "decl")
+            .by(r -> r.set(0, r.get(0) == function));
+        else
+            R.set(node, "tailCall", false);
+
         if (function == null) // top-level return
             return;
 
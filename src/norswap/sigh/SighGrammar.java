@@ -130,12 +130,22 @@ public class SighGrammar extends Grammar
     public rule function_args =
         seq(LPAREN, expressions, RPAREN);
 
+    public rule slice_range = lazy(() ->
+        seq(this.expression.or_push_null(), COLON, this.expression.or_push_null())
+        .push($ -> new RangeNode($.span(), $.$[0], $.$[1])));
+
+    public rule slice_components = lazy(() ->
+        choice(slice_range, this.expression).sep(1, COMMA)
+        .as_list(ExpressionNode.class));
+
     public rule suffix_expression = left_expression()
         .left(basic_expression)
         .suffix(seq(DOT, identifier),
             $ -> new FieldAccessNode($.span(), $.$[0], $.$[1]))
         .suffix(seq(LSQUARE, lazy(() -> this.expression), RSQUARE),
             $ -> new ArrayAccessNode($.span(), $.$[0], $.$[1]))
+        .suffix(seq(LSQUARE, slice_components, RSQUARE),
+            $ -> new ArraySliceNode($.span(), $.$[0], $.$[1]))
         .suffix(function_args,
             $ -> new FunCallNode($.span(), $.$[0], $.$[1]));
 
@@ -1,10 +1,7 @@
 package norswap.sigh.ast;
 
 import norswap.autumn.positions.Span;
-import norswap.sigh.types.ArrayType;
 import norswap.utils.Util;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public final class ArrayDeclarationNode extends DeclarationNode
@@ -34,32 +31,4 @@ public final class ArrayDeclarationNode extends DeclarationNode
     @Override public String declaredThing () {
         return "variable";
     }
-
-    public Object[] createArray(int index) {
-            String contents = type.contents();
-            String t = contents.replace("[]", "");
-            int size = Integer.parseInt(((StringLiteralNode) initializer.get(index)).value);
-
-            if (index == initializer.size() - 1) {
-                if (t.equals("Int") || t.equals("Long")) {
-                    Long[] array = new Long[size];
-                    Arrays.fill(array, new Long(0));
-                    return array;
-                } else if (t.equals("Float") || t.equals("Double")) {
-                    Double[] array = new Double[size];
-                    Arrays.fill(array, new Double(0));
-                    return array;
-                } else {
-                    return new Object[size];
-                }
-            }
-            Object[] array = new Object[size];
-            for (int i = 0; i < size; i++) {
-                array[i] = createArray(index + 1);
-            }
-            return array;
-
-
-    }
 }
-
@@ -0,0 +1,33 @@
+package norswap.sigh.ast;
+
+import norswap.autumn.positions.Span;
+import norswap.utils.Util;
+import java.util.List;
+
+/**
+ * A slice of an array ({@code x[1:3]}, {@code x[:, 2]}, ...): one component per dimension,
+ * starting from the first, which is either an index (dropping the dimension) or a {@link
+ * RangeNode} (keeping it). The dimensions without a component are kept whole.
+ */
+public final class ArraySliceNode extends ExpressionNode
+{
+    public final ExpressionNode array;
+    public final List<ExpressionNode> components;
+
+    @SuppressWarnings("unchecked")
+    public ArraySliceNode (Span span, Object array, Object components) {
+        super(span);
+        this.array = Util.cast(array, ExpressionNode.class);
+        this.components = Util.cast(components, List.class);
+    }
+
+    @Override public String contents ()
+    {
+        StringBuilder b = new StringBuilder(array.contents()).append('[');
+        for (int i = 0; i < components.size(); ++i) {
+            if (i > 0) b.append(", ");
+            b.append(components.get(i).contents());
+        }
+        return b.append(']').toString();
+    }
+}
@@ -0,0 +1,29 @@
+package norswap.sigh.ast;
+
+import norswap.autumn.positions.Span;
+import norswap.utils.Util;
+
+/**
+ * A range of indices in an array slice ({@code start:end}, where both bounds are optional), see
+ * {@link ArraySliceNode}.
+ */
+public final class RangeNode extends ExpressionNode
+{
+    /** The first index of the range, or null to start at 0. */
+    public final ExpressionNode start;
+
+    /** The index after the last index of the range, or null to end at the end of the dimension. */
+    public final ExpressionNode end;
+
+    public RangeNode (Span span, Object start, Object end) {
+        super(span);
+        this.start = start == null ? null : Util.cast(start, ExpressionNode.class);
+        this.end = end == null ? null : Util.cast(end, ExpressionNode.class);
+    }
+
+    @Override public String contents () {
+        return String.format("%s:%s",
+            start == null ? "" : start.contents(),
+            end == null ? "" : end.contents());
+    }
+}
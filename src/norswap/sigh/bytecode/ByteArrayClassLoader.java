@@ -15,6 +15,9 @@ public final class ByteArrayClassLoader extends ClassLoader
 
     /**
      * Default reusable instance of the class loader.
+     *
+     * <p>The classes it loads are never unloaded: hosts that load many programs should give each
+     * its own loader instead (see {@link ProgramCache}).
      */
     public static final ByteArrayClassLoader INSTANCE = new ByteArrayClassLoader();
 
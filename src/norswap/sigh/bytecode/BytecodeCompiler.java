@@ -16,6 +16,7 @@ import org.objectweb.asm.MethodVisitor;
 import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -41,8 +42,8 @@ import static org.objectweb.asm.Opcodes.*;
  *     in type descriptors)</li>
  *     <li>{@code String}: {@link String}</li>
  *     <li>{@code null}: {@link norswap.sigh.bytecode.Null#INSTANCE}</li>
- *     <li>Arrays: proper array type for the representation of the component. For multi-dimension
- *     arrays, object arrays (e.g. {@code Object[][]}).</li>
+ *     <li>Arrays: proper array type for the representation of the component, nested for
+ *     multi-dimension arrays (e.g. {@code long[][]}).</li>
  *     <li>Structs: A Java class encoding the structure, in the default package and using the
  *     structure's name.</li>
  *     <li>TODO: Functions: a {@link MethodHandle} to the method that implements the function in
@@ -95,6 +96,7 @@ public class BytecodeCompiler
         visitor.register(ParenthesizedNode.class,        this::parenthesized);
         visitor.register(FieldAccessNode.class,          this::fieldAccess);
         visitor.register(ArrayAccessNode.class,          this::arrayAccess);
+        visitor.register(ArraySliceNode.class,           this::arraySlice);
         visitor.register(FunCallNode.class,              this::funCall);
         visitor.register(UnaryExpressionNode.class,      this::unaryExpression);
         visitor.register(BinaryExpressionNode.class,     this::binaryExpression);
@@ -104,6 +106,7 @@ public class BytecodeCompiler
         visitor.register(RootNode.class,                 this::root);
         visitor.register(BlockNode.class,                this::block);
         visitor.register(VarDeclarationNode.class,       this::varDecl);
+        visitor.register(ArrayDeclarationNode.class,     this::arrayDecl);
         visitor.register(FieldDeclarationNode.class,     this::fieldDecl);
         visitor.register(ParameterNode.class,            this::parameter);
         visitor.register(FunDeclarationNode.class,       this::funDecl);
@@ -144,6 +147,24 @@ public class BytecodeCompiler
     /** Whether we are in top-level code. */
     private boolean topLevel;
 
+    /** The function whose code is currently being emitted, if any. */
+    private FunDeclarationNode function;
+
+    /** Label at the start of the code of {@link #function}, targeted by self tail calls. */
+    private Label functionStart;
+
+    /** Whether the code uses {@code mapInts} or {@code mapFloats}, see {@link #MAPS_FILES}. */
+    private boolean mapsFiles;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Name of the static field that the main class of programs which map files into arrays
+     * declares. The function handles of {@link CompiledProgram} write these arrays back to their
+     * files when they return, as the {@code run} method does.
+     */
+    public static final String MAPS_FILES = "mapsFiles$";
+
     // ---------------------------------------------------------------------------------------------
 
     /**
@@ -164,6 +185,28 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compile the given functions into a class whose (dot-separated) binary name is {@code
+     * binaryName}, and which holds a static method for each function, named like it.
+     *
+     * <p>The functions may only call each other and built-ins, and may not use variables declared
+     * outside of their body. This is used to promote hot functions during tiered execution (see
+     * {@link norswap.sigh.interpreter.Tiering}).
+     */
+    public CompilationResult compileFunctions (
+            String binaryName, List<FunDeclarationNode> functions) {
+
+        this.containerName = binaryName.replace('.', '/');
+        container = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        container.visit(V1_8, ACC_PUBLIC, containerName, null, "java/lang/Object", null);
+        functions.forEach(this::run);
+        container.visitEnd();
+        GeneratedClass mainClass = new GeneratedClass(containerName, container.toByteArray());
+        return new CompilationResult(mainClass, Collections.emptyList());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object run (SighNode node) {
         return visitor.apply(node);
     }
@@ -175,17 +218,40 @@ public class BytecodeCompiler
         container = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
         container.visit(V1_8, ACC_PUBLIC, containerName, null, "java/lang/Object", null);
 
-        // Top-level code belongs in the run method.
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, "run",
+        // Top-level code belongs in the run$body method ($ is not valid in Sigh identifiers).
+        method = container.visitMethod(ACC_PRIVATE | ACC_STATIC, "run$body",
             "([Ljava/lang/String;)Ljava/lang/Object;", null, null);
         method.visitCode();
         topLevel = true;
         node.statements.forEach(this::run);
+        if (mapsFiles)
+            container.visitField(ACC_PUBLIC | ACC_STATIC | ACC_FINAL, MAPS_FILES, "Z", null, 1)
+                .visitEnd();
         // append "return null;" since we do not know if top-level code always returns
         loadConstant(method, null);
         method.visitInsn(ARETURN);
         method.visitEnd();
         method.visitMaxs(-1, -1);
+
+        // The run method calls run$body, then writes the mapped arrays back to their files, even
+        // if an exception is thrown.
+        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, "run",
+            "([Ljava/lang/String;)Ljava/lang/Object;", null, null);
+        method.visitCode();
+        Label start = new Label(), end = new Label(), handler = new Label();
+        method.visitTryCatchBlock(start, end, handler, null);
+        method.visitLabel(start);
+        method.visitVarInsn(ALOAD, 0);
+        method.visitMethodInsn(INVOKESTATIC, containerName,
+            "run$body", "([Ljava/lang/String;)Ljava/lang/Object;", false);
+        method.visitLabel(end);
+        invokeStatic(method, SighRuntime.class, "unmapAll");
+        method.visitInsn(ARETURN);
+        method.visitLabel(handler);
+        invokeStatic(method, SighRuntime.class, "unmapAll");
+        method.visitInsn(ATHROW);
+        method.visitEnd();
+        method.visitMaxs(-1, -1);
         container.visitEnd();
 
         // Traditional java main method to run standalone.
@@ -211,14 +277,19 @@ public class BytecodeCompiler
         int surroundingVariableCounter = variableCounter;
         MethodVisitor surroundingMethod = method;
         boolean surroundingIsTopLevel = topLevel;
+        FunDeclarationNode surroundingFunction = function;
+        Label surroundingFunctionStart = functionStart;
 
         variableCounter = 0;
         topLevel = false;
+        function = node;
+        functionStart = new Label();
         node.parameters.forEach(this::run);
 
         String descriptor = methodDescriptor(reactor.get(node, "type"));
         method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, node.name, descriptor, null, null);
         method.visitCode();
+        method.visitLabel(functionStart);
         run(node.block);
 
         // NOTE: The current semantic analysis check guarantee that there is we unconditionally
@@ -235,6 +306,8 @@ public class BytecodeCompiler
         method = surroundingMethod;
         variableCounter = surroundingVariableCounter;
         topLevel = surroundingIsTopLevel;
+        function = surroundingFunction;
+        functionStart = surroundingFunctionStart;
         return null;
     }
 
@@ -288,10 +361,11 @@ public class BytecodeCompiler
             throw new UnsupportedOperationException("TODO"); // TODO
         } else if (compType instanceof NullType) {
             method.visitTypeInsn(ANEWARRAY, "norswap/sigh/bytecode/Null");
-        } else if (compType instanceof VoidType || compType instanceof ArrayType) {
-            // Sigh does not have a syntax for multi-dimensional arrays, so use an array of
-            // Object that we'll be able to cast to array themselves.
+        } else if (compType instanceof VoidType) {
             method.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        } else if (compType instanceof ArrayType) {
+            // array types are named by their descriptor
+            method.visitTypeInsn(ANEWARRAY, fieldDescriptor(compType));
         } else if (compType instanceof StructType) {
             method.visitTypeInsn(ANEWARRAY, structBinaryName((StructType) compType));
         }
@@ -314,11 +388,16 @@ public class BytecodeCompiler
         if (isShortCircuit(node.operator))
             return shortCircuit(node);
 
-        run(node.left);
-
         Type left  = reactor.get(node.left, "type");
         Type right = reactor.get(node.right, "type");
 
+        if ((isArithmetic(node.operator) || node.operator == DOTPRODUCT)
+                && (left instanceof ArrayType || right instanceof ArrayType)
+                && !(left instanceof StringType || right instanceof StringType))
+            return arrayOperation(node, left, right);
+
+        run(node.left);
+
         // promote long to double for mixed operations
         if (enablesPromotion(node.operator) && left instanceof IntType && right instanceof FloatType)
             method.visitInsn(L2D);
@@ -367,6 +446,91 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits an arithmetic operator or {@code @} with an array operand, as a call to one of the
+     * kernels of {@link SighRuntime}. Operators on one-dimensional arrays call the kernels for
+     * {@code long[]} and {@code double[]} directly, while multi-dimensional arrays go through a
+     * generic kernel that takes boxed scalars and returns an {@link Object}.
+     */
+    private Object arrayOperation (BinaryExpressionNode node, Type left, Type right)
+    {
+        // semantic analysis rejects operands whose elements have different numeric types
+        Type element = elementType(left instanceof ArrayType ? left : right);
+        if (!(element instanceof IntType || element instanceof FloatType))
+            throw new UnsupportedOperationException(
+                "operator " + node.operator.string + " on " + left + " and " + right);
+
+        int lRank = rank(left), rRank = rank(right);
+        if (node.operator == DOTPRODUCT)
+            return dotProduct(node, left, right, lRank, rRank);
+
+        run(node.left);
+        if (lRank == 0 && rRank > 1) box(left);
+        run(node.right);
+        if (rRank == 0 && lRank > 1) box(right);
+        loadConstant(method, arrayOperator(node.operator));
+
+        if (lRank <= 1 && rRank <= 1) {
+            invokeStatic(method, SighRuntime.class, "operate",
+                javaClass(left), javaClass(right), int.class);
+        } else {
+            invokeStatic(method, SighRuntime.class, "operate",
+                Object.class, Object.class, int.class);
+            method.visitTypeInsn(CHECKCAST, nodeFieldDescriptor(node));
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int arrayOperator (BinaryOperator op)
+    {
+        switch (op) {
+            case ADD:       return SighRuntime.ADD;
+            case SUBTRACT:  return SighRuntime.SUBTRACT;
+            case MULTIPLY:  return SighRuntime.MULTIPLY;
+            case DIVIDE:    return SighRuntime.DIVIDE;
+            case REMAINDER: return SighRuntime.REMAINDER;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits {@code @} as a call to {@link SighRuntime#dot} for a vector left operand, or to
+     * {@link SighRuntime#matmul} for two matrices.
+     */
+    private Object dotProduct (BinaryExpressionNode node, Type left, Type right,
+                               int lRank, int rRank)
+    {
+        // semantic analysis rejects the other ranks
+        if (lRank == 0 || lRank > 2 || rRank == 0 || rRank > 2 || lRank == 2 && rRank == 1)
+            throw new Error("should not reach here");
+
+        run(node.left);
+        run(node.right);
+        invokeStatic(method, SighRuntime.class, lRank == 1 ? "dot" : "matmul",
+            javaClass(left), javaClass(right));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Boxes the value at the top of the stack, of type {@code Int} or {@code Float}.
+     */
+    private void box (Type type)
+    {
+        if (type instanceof IntType)
+            invokeStatic(method, Long.class, "valueOf", long.class);
+        else
+            invokeStatic(method, Double.class, "valueOf", double.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private boolean enablesPromotion (BinaryOperator op) {
         return isArithmetic(op) || isComparison(op) || isEquality(op);
     }
@@ -526,6 +690,73 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits a call to {@link SighRuntime#slice}, which copies the slice, with the bounds and kind
+     * of one component per dimension of the array (the dimensions without a component are whole
+     * ranges). The bounds are evaluated in the order of the source. If every dimension is indexed,
+     * the element is loaded directly instead.
+     */
+    private Object arraySlice (ArraySliceNode node)
+    {
+        List<ExpressionNode> components = node.components;
+        int rank = rank(reactor.get(node.array, "type"));
+        run(node.array);
+
+        boolean element = components.size() == rank;
+        for (ExpressionNode component: components)
+            if (component instanceof RangeNode) element = false;
+        if (element) {
+            for (int i = 0; i < rank; ++i) {
+                run(components.get(i));
+                method.visitInsn(L2I);
+                method.visitInsn(i < rank - 1 ? AALOAD : nodeAsmType(node).getOpcode(IALOAD));
+            }
+            return null;
+        }
+
+        loadConstant(method, 2 * rank);
+        method.visitIntInsn(NEWARRAY, T_LONG);
+        for (int i = 0; i < rank; ++i) {
+            ExpressionNode component = i < components.size() ? components.get(i) : null;
+            RangeNode range = component instanceof RangeNode ? (RangeNode) component : null;
+            method.visitInsn(DUP);
+            loadConstant(method, 2 * i);
+            if (component != null && range == null)
+                run(component);
+            else if (range != null && range.start != null)
+                run(range.start);
+            else
+                loadConstant(method, 0L);
+            method.visitInsn(LASTORE);
+            if (component != null && range == null)
+                continue;
+            method.visitInsn(DUP);
+            loadConstant(method, 2 * i + 1);
+            if (range != null && range.end != null)
+                run(range.end);
+            else
+                loadConstant(method, SighRuntime.END);
+            method.visitInsn(LASTORE);
+        }
+
+        loadConstant(method, rank);
+        method.visitIntInsn(NEWARRAY, T_BOOLEAN);
+        for (int i = 0; i < rank; ++i) {
+            method.visitInsn(DUP);
+            loadConstant(method, i);
+            loadConstant(method, i >= components.size() || components.get(i) instanceof RangeNode
+                ? 1 : 0);
+            method.visitInsn(BASTORE);
+        }
+
+        invokeStatic(method, SighRuntime.class, "slice", Object.class, long[].class,
+            boolean[].class);
+        method.visitTypeInsn(CHECKCAST, nodeFieldDescriptor(node));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object funCall (FunCallNode node)
     {
         FunType funType = reactor.get(node.function, "type");
@@ -536,7 +767,7 @@ public class BytecodeCompiler
         if (node.function instanceof ReferenceNode) {
             DeclarationNode decl = reactor.get(node.function, "decl");
             if (decl instanceof SyntheticDeclarationNode) {
-                return builtin(funType, decl.name(), node.arguments);
+                return builtin(node, funType, decl.name());
             }
             else if (decl instanceof FunDeclarationNode) {
                 runArguments(funType, node.arguments);
@@ -564,12 +795,16 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object builtin (FunType funType, String name, List<ExpressionNode> arguments)
+    private Object builtin (FunCallNode node, FunType funType, String name)
     {
-        assert name.equals("print"); // only one at the moment
+        if (name.equals("mapInts") || name.equals("mapFloats"))
+            return mapping(node, name);
+        if (!name.equals("print"))
+            return reduction(node, name);
+
         method.visitFieldInsn(GETSTATIC, "java/lang/System", "out",
             "Ljava/io/PrintStream;");
-        runArguments(funType, arguments);
+        runArguments(funType, node.arguments);
         method.visitInsn(DUP_X1); // we return the printed string!
         method.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println",
             "(Ljava/lang/String;)V", false);
@@ -578,6 +813,79 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits a call to one of the reduction built-ins ({@code sum}, {@code min}, {@code max}, {@code
+     * argmax}, {@code stats}), implemented in {@link SighRuntime} by typed overloads for
+     * one-dimensional arrays, and by {@link SighRuntime#reduce} for multi-dimensional arrays.
+     */
+    private Object reduction (FunCallNode node, String name)
+    {
+        ArrayType arrayType = reactor.get(node.arguments.get(0), "type");
+        boolean nested = arrayType.componentType instanceof ArrayType;
+        Class<?> array = nested ? Object.class : javaClass(arrayType);
+
+        run(node.arguments.get(0));
+        if (name.equals("stats")) {
+            invokeStatic(method, SighRuntime.class, name, array);
+            return null;
+        }
+        run(node.arguments.get(1));
+        if (!nested) {
+            invokeStatic(method, SighRuntime.class, name, array, long.class);
+            return null;
+        }
+        loadConstant(method, reductionOperator(name));
+        invokeStatic(method, SighRuntime.class, "reduce", Object.class, long.class, int.class);
+        method.visitTypeInsn(CHECKCAST, nodeFieldDescriptor(node));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int reductionOperator (String name)
+    {
+        switch (name) {
+            case "sum":    return SighRuntime.SUM;
+            case "min":    return SighRuntime.MIN;
+            case "max":    return SighRuntime.MAX;
+            case "argmax": return SighRuntime.ARGMAX;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a call to one of the mapping built-ins ({@code mapInts}, {@code mapFloats}),
+     * implemented in {@link SighRuntime}, which takes the dimensions as a {@code long[]} for
+     * multi-dimensional arrays.
+     */
+    private Object mapping (FunCallNode node, String name)
+    {
+        mapsFiles = true;
+        List<ExpressionNode> arguments = node.arguments;
+        run(arguments.get(0));
+        if (arguments.size() == 2) {
+            run(arguments.get(1));
+            invokeStatic(method, SighRuntime.class, name, String.class, long.class);
+            return null;
+        }
+        loadConstant(method, arguments.size() - 1);
+        method.visitIntInsn(NEWARRAY, T_LONG);
+        for (int i = 1; i < arguments.size(); ++i) {
+            method.visitInsn(DUP);
+            loadConstant(method, i - 1);
+            run(arguments.get(i));
+            method.visitInsn(LASTORE);
+        }
+        invokeStatic(method, SighRuntime.class, name, String.class, long[].class);
+        method.visitTypeInsn(CHECKCAST, nodeFieldDescriptor(node));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Visit all argument nodes, adding implicit conversion based on the target parameter type
      * if needed.
@@ -616,6 +924,9 @@ public class BytecodeCompiler
             return null;
         }
 
+        if (reactor.get(node, "tailCall"))
+            return tailCall(node.expression);
+
         run(node.expression);
 
         if (topLevel) {
@@ -636,6 +947,31 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits a self tail call (cf. the {@code tailCall} attribute of {@link ReturnNode}) as a jump
+     * to the start of the function, after storing the arguments in the parameter variables.
+     */
+    private Object tailCall (ExpressionNode expression)
+    {
+        while (expression instanceof ParenthesizedNode)
+            expression = ((ParenthesizedNode) expression).expression;
+
+        FunCallNode call = (FunCallNode) expression;
+        runArguments(reactor.get(call.function, "type"), call.arguments);
+
+        // All arguments are on the stack: store them, last first.
+        for (int i = function.parameters.size() - 1; i >= 0; --i) {
+            ParameterNode param = function.parameters.get(i);
+            int index = variables.get(new Pair<>((Scope) reactor.get(param, "scope"), param.name));
+            method.visitVarInsn(nodeAsmType(param).getOpcode(ISTORE), index);
+        }
+
+        method.visitJumpInsn(GOTO, functionStart);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object block (BlockNode node) {
         node.statements.forEach(this::run);
         return null;
@@ -682,7 +1018,8 @@ public class BytecodeCompiler
         DeclarationNode decl = reactor.get(node, "decl");
 
         // TODO distinguish local variables from closures
-        if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode) {
+        if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode
+                || decl instanceof ArrayDeclarationNode) {
             method.visitVarInsn(nodeAsmType(node).getOpcode(ILOAD), varIndex(node));
         }
         else if (decl instanceof StructDeclarationNode) {
@@ -725,6 +1062,19 @@ public class BytecodeCompiler
                     // TODO cf FunDeclarationNode case above
                     method.visitLdcInsn(staticHandle(SighRuntime.class, "print", String.class));
                     break;
+                case "sum": case "min": case "max": case "argmax":
+                    // the variant for Float[], whose signature the reduction has as a value
+                    method.visitLdcInsn(
+                        staticHandle(SighRuntime.class, decl.name(), double[].class, long.class));
+                    break;
+                case "stats":
+                    method.visitLdcInsn(staticHandle(SighRuntime.class, "stats", double[].class));
+                    break;
+                case "mapInts": case "mapFloats":
+                    mapsFiles = true;
+                    method.visitLdcInsn(
+                        staticHandle(SighRuntime.class, decl.name(), String.class, long.class));
+                    break;
                 case "true":  loadConstant(method, 1);      break;
                 case "false": loadConstant(method, 0);      break;
                 case "null":  loadConstant(method, null);   break;
@@ -751,6 +1101,23 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Allocates the array of a declaration such as {@code var x: Int[2][3]}, whose elements are
+     * zeros (or false).
+     */
+    private Object arrayDecl (ArrayDeclarationNode node)
+    {
+        org.objectweb.asm.Type type = nodeAsmType(node);
+        int index = registerVariable(node, type);
+        for (Object dimension: node.initializer)
+            loadConstant(method, Integer.parseInt(((StringLiteralNode) dimension).value));
+        method.visitMultiANewArrayInsn(type.getDescriptor(), node.initializer.size());
+        method.visitVarInsn(ASTORE, index);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object parameter (ParameterNode node) {
         registerVariable(node);
         return null;
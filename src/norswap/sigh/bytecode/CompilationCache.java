@@ -0,0 +1,298 @@
+package norswap.sigh.bytecode;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.SighNode;
+import norswap.uranium.Reactor;
+import norswap.utils.visitors.Walker;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static norswap.utils.Util.cast;
+
+/**
+ * A directory storing the classes generated by the {@link BytecodeCompiler}, so that programs
+ * whose source did not change are not parsed, analysed and compiled again.
+ *
+ * <p>Each entry is a file named after a SHA-256 hash of the source text, of the binary name of the
+ * main class, and of the version of the compiler ({@link #compilerVersion()}). It holds the
+ * bytes of the main class followed by those of the structure classes.
+ *
+ * <p>Entries are written to a temporary file that is then moved in place, so that processes
+ * sharing the directory never read a partial entry. Entries that cannot be read are treated as
+ * missing, and overwritten.
+ *
+ * <p>The cache is thread-safe. Threads that miss on the same entry at the same time all compile
+ * the source, and all count as misses.
+ */
+public final class CompilationCache
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Marks the start of entries, and changes with their format. */
+    private static final int MAGIC = 0x51_6C_01;
+
+    private static String compilerVersion;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Path directory;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a cache in the given directory, which is created if it does not exist.
+     */
+    public CompilationCache (Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of compilations served from the cache. */
+    public long hits () {
+        return hits.get();
+    }
+
+    /** Number of compilations that had to run the compiler. */
+    public long misses () {
+        return misses.get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the version of the compiler, as a hash of all the class files of the {@code
+     * norswap.sigh} package and its subpackages (the grammar, the AST, the types, the scopes, the
+     * semantic analysis and the bytecode backend all determine the generated code), so that
+     * changing any of them invalidates the cache. The class files are read from the directory or
+     * jar that this class was loaded from.
+     */
+    public static synchronized String compilerVersion ()
+    {
+        if (compilerVersion != null)
+            return compilerVersion;
+        MessageDigest digest = sha256();
+        try {
+            Path location = Paths.get(CompilationCache.class
+                .getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isDirectory(location))
+                digestClassFiles(digest, location);
+            else try (FileSystem jar = FileSystems.newFileSystem(location, (ClassLoader) null)) {
+                digestClassFiles(digest, jar.getPath("/"));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (URISyntaxException | RuntimeException e) {
+            throw new IllegalStateException("cannot locate the class files of the compiler", e);
+        }
+        return compilerVersion = hex(digest.digest());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the names and contents of the class files under {@code norswap/sigh} in the given
+     * root directory to the digest, in name order.
+     */
+    private static void digestClassFiles (MessageDigest digest, Path root) throws IOException
+    {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root.resolve("norswap/sigh"))) {
+            files = walk
+                .filter(it -> it.toString().endsWith(".class") && Files.isRegularFile(it))
+                .sorted(Comparator.comparing(it -> root.relativize(it).toString()))
+                .collect(Collectors.toList());
+        }
+        for (Path file: files) {
+            digest.update(root.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Files.readAllBytes(file));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the result of compiling the given source into a main class whose (dot-separated)
+     * binary name is {@code binaryName}, reading it from the cache if possible, or else compiling
+     * the source and storing the result.
+     *
+     * @throws IllegalArgumentException if the source has syntax or semantic errors
+     */
+    public CompilationResult compile (String binaryName, String source)
+    {
+        Path entry = entry(binaryName, source);
+        CompilationResult result = read(entry);
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        misses.incrementAndGet();
+        result = compileSource(binaryName, source);
+        write(entry, result);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses, analyses and compiles the given source.
+     *
+     * @throws IllegalArgumentException if the source has syntax or semantic errors
+     */
+    static CompilationResult compileSource (String binaryName, String source)
+    {
+        SighGrammar grammar = new SighGrammar();
+        ParseOptions options = ParseOptions.builder().wellFormednessCheck(false).get();
+        ParseResult parseResult = Autumn.parse(grammar.root, source, options);
+        if (!parseResult.fullMatch)
+            throw new IllegalArgumentException(parseResult.toString());
+
+        SighNode tree = cast(parseResult.topValue());
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(tree);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new IllegalArgumentException(reactor.reportErrors(Object::toString));
+
+        return new BytecodeCompiler(reactor).compile(binaryName, tree);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the key of the program compiled from the given source into a main class with the
+     * given binary name: a SHA-256 hash of these and of the compiler version, in hexadecimal.
+     */
+    static String key (String binaryName, String source)
+    {
+        MessageDigest digest = sha256();
+        digest.update(compilerVersion().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(binaryName.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        return hex(digest.digest());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Path entry (String binaryName, String source) {
+        return directory.resolve(key(binaryName, source) + ".classes");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the given entry, returning null if it is missing or cannot be read.
+     */
+    private static CompilationResult read (Path entry)
+    {
+        if (!Files.exists(entry))
+            return null;
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(entry))) {
+            if (input.readInt() != MAGIC)
+                return null;
+            int count = input.readInt();
+            List<GeneratedClass> classes = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                String name = input.readUTF();
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                classes.add(new GeneratedClass(name, bytes));
+            }
+            if (input.read() != -1 || classes.isEmpty())
+                return null;
+            return new CompilationResult(classes.get(0), classes.subList(1, classes.size()));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void write (Path entry, CompilationResult result)
+    {
+        List<GeneratedClass> classes = new ArrayList<>();
+        classes.add(result.mainClass);
+        classes.addAll(result.structures);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(MAGIC);
+            output.writeInt(classes.size());
+            for (GeneratedClass klass: classes) {
+                output.writeUTF(klass.slashBinaryName());
+                output.writeInt(klass.bytes().length);
+                output.write(klass.bytes());
+            }
+        } catch (IOException e) {
+            throw new Error("should not reach here", e);
+        }
+
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(directory, "entry", ".tmp");
+            Files.write(temporary, bytes.toByteArray());
+            Files.move(temporary, entry, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                if (temporary != null) Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static MessageDigest sha256 () {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error("should not reach here", e); // every JVM supports SHA-256
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String hex (byte[] bytes) {
+        StringBuilder b = new StringBuilder(bytes.length * 2);
+        for (byte x: bytes)
+            b.append(String.format("%02x", x));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,8 +1,26 @@
 package norswap.sigh.bytecode;
 
 import norswap.utils.exceptions.NoStackException;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.objectweb.asm.Opcodes.ASM5;
 
 /**
  * Represents the result of compiling a single source unit (~ a source file, but it could
@@ -14,6 +32,15 @@ public final class CompilationResult
 {
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The classes that compiled code may use at run time, and which are copied into the jars
+     * written by {@link #writeJar}, along with their nested classes. They may only depend on the
+     * Java standard library.
+     */
+    private static final Class<?>[] RUNTIME_CLASSES = { SighRuntime.class, Null.class };
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * The generated class coresponding to the compiled source unit.
      */
@@ -47,11 +74,99 @@ public final class CompilationResult
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Load the generated class in the current JVM (using {@link ByteArrayClassLoader#INSTANCE} and
-     * return the {@link Class} object for {@link #mainClass}.
+     * Load the generated class in the current JVM (using a new {@link ByteArrayClassLoader}, so
+     * that the classes can be unloaded once they are no longer referenced) and return the {@link
+     * Class} object for {@link #mainClass}.
      */
     public Class<?> load() {
-        return load(ByteArrayClassLoader.INSTANCE);
+        return load(new ByteArrayClassLoader());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the generated classes, along with the Sigh runtime classes they use, to a jar whose
+     * manifest names {@link #mainClass} as its main class, so that the program can be run with
+     * {@code java -jar}, without the compiler or its dependencies on the classpath.
+     *
+     * @throws UnsupportedOperationException if the generated classes reference a class of the
+     * compiler which is not part of the Sigh runtime (e.g. type values refer to {@code
+     * norswap.sigh.types.Type})
+     */
+    public void writeJar (Path jar)
+    {
+        List<GeneratedClass> classes = new ArrayList<>();
+        classes.add(mainClass);
+        classes.addAll(structures);
+
+        List<Class<?>> runtime = new ArrayList<>();
+        for (Class<?> klass: RUNTIME_CLASSES)
+            addWithNested(runtime, klass);
+
+        Set<String> available = new HashSet<>();
+        classes.forEach(it -> available.add(it.slashBinaryName()));
+        for (Class<?> klass: runtime)
+            available.add(klass.getName().replace('.', '/'));
+
+        for (GeneratedClass klass: classes)
+            for (String name: references(klass))
+                if (name.startsWith("norswap/") && !available.contains(name))
+                    throw new UnsupportedOperationException(klass.binaryName() + " references "
+                        + name.replace('/', '.') + ", which is not part of the Sigh runtime");
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClass.binaryName());
+
+        try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            for (GeneratedClass klass: classes) {
+                output.putNextEntry(new JarEntry(klass.slashBinaryName() + ".class"));
+                output.write(klass.bytes());
+                output.closeEntry();
+            }
+            for (Class<?> klass: runtime) {
+                String name = klass.getName();
+                String file = name.substring(name.lastIndexOf('.') + 1) + ".class";
+                output.putNextEntry(new JarEntry(klass.getName().replace('.', '/') + ".class"));
+                try (InputStream input = klass.getResourceAsStream(file)) {
+                    if (input == null)
+                        throw new IllegalStateException("cannot read the class file of " + klass);
+                    byte[] buffer = new byte[8192];
+                    for (int n; (n = input.read(buffer)) > 0; )
+                        output.write(buffer, 0, n);
+                }
+                output.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void addWithNested (List<Class<?>> classes, Class<?> klass) {
+        classes.add(klass);
+        for (Class<?> nested: klass.getDeclaredClasses())
+            addWithNested(classes, nested);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the (slash-separated) binary names of the classes referenced by the given class.
+     */
+    private static Set<String> references (GeneratedClass klass)
+    {
+        Set<String> names = new HashSet<>();
+        Remapper collector = new Remapper() {
+            @Override public String map (String name) {
+                names.add(name);
+                return name;
+            }
+        };
+        new ClassReader(klass.bytes())
+            .accept(new ClassRemapper(new ClassVisitor(ASM5) {}, collector), 0);
+        return names;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -61,6 +176,9 @@ public final class CompilationResult
      *
      * <p>Unlike the {@code main} method, the {@code run} method is able to return a value!
      * The {@code main} method just calls the {@code run} method and ignores its return value.
+     *
+     * <p>This looks up the method reflectively on each call: use a {@link CompiledProgram} to run
+     * a program repeatedly.
      */
     public static Object callRun (Class<?> mainClass, String... args) {
         try {
@@ -76,8 +194,8 @@ public final class CompilationResult
     /**
      * Call the {@code run} method of the given class, see {@link #callRun}.
      */
-    public static void callRun (Class<?> mainClass) {
-        callMain(mainClass, new String[0]);
+    public static Object callRun (Class<?> mainClass) {
+        return callRun(mainClass, new String[0]);
     }
 
     // ---------------------------------------------------------------------------------------------
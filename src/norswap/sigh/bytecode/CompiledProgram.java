@@ -0,0 +1,167 @@
+package norswap.sigh.bytecode;
+
+import norswap.utils.exceptions.NoStackException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+
+/**
+ * A loaded compiled program, whose entry point and functions are resolved once into method
+ * handles, so that it can be run or called repeatedly at the cost of a direct call.
+ *
+ * <p>Unlike {@link CompilationResult#callRun} and {@link CompilationResult#callMain}, which look
+ * up the method and go through {@link Method#invoke} on each call, {@link #run} invokes a
+ * handle resolved at construction. {@link #function} returns handles to the top-level
+ * functions of the program, typed as their Java counterparts (e.g. {@code (JJ)J} for a function
+ * taking two {@code Int} and returning an {@code Int}), which can be called with {@link
+ * MethodHandle#invokeExact} without boxing. These calls are inlined by the JIT when the handle is
+ * a constant (e.g. stored in a {@code static final} field).
+ *
+ * <p>Exceptions thrown by the program are propagated unchanged.
+ *
+ * <p>If the program maps files into arrays ({@code mapInts}, {@code mapFloats}), the function
+ * handles write the arrays mapped during the call back to their files when the call completes,
+ * as {@link #run} does.
+ */
+public final class CompiledProgram
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final MethodType RUN_TYPE =
+        MethodType.methodType(Object.class, String[].class);
+
+    private static final MethodHandle UNMAP_ALL;
+    static {
+        try {
+            UNMAP_ALL = MethodHandles.publicLookup().findStatic(
+                SighRuntime.class, "unmapAll", MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new Error("should not reach here", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The class generated for the compiled source unit. */
+    public final Class<?> mainClass;
+
+    private final MethodHandle run;
+    private final HashMap<String, MethodHandle> functions = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a program from a class generated by the {@link BytecodeCompiler}.
+     */
+    public CompiledProgram (Class<?> mainClass)
+    {
+        this.mainClass = mainClass;
+        try {
+            run = MethodHandles.publicLookup().findStatic(mainClass, "run", RUN_TYPE);
+            boolean mapsFiles = mapsFiles(mainClass);
+            for (Method method: mainClass.getDeclaredMethods()) {
+                int modifiers = method.getModifiers();
+                String name = method.getName();
+                if (!Modifier.isPublic(modifiers) || !Modifier.isStatic(modifiers)
+                        || name.equals("run") || name.equals("main"))
+                    continue;
+                MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+                functions.put(name, mapsFiles ? unmapping(handle) : handle);
+            }
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException(mainClass + " is not a compiled Sigh program", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Loads the classes of the given compilation result using the given class loader and creates
+     * a program from its main class.
+     */
+    public CompiledProgram (CompilationResult result, ByteArrayClassLoader loader) {
+        this(result.load(loader));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the top-level code of the program with the given arguments, returning the value of its
+     * top-level {@code return} statement, or null if there is none.
+     */
+    public Object run (String... args) {
+        try {
+            return (Object) run.invokeExact(args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new NoStackException(t);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a handle to the top-level function with the given name, whose type is the
+     * method type of the function in the generated class.
+     *
+     * @throws IllegalArgumentException if the program has no such function
+     */
+    public MethodHandle function (String name) {
+        MethodHandle handle = functions.get(name);
+        if (handle == null)
+            throw new IllegalArgumentException("no function named " + name + " in " + mainClass);
+        return handle;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a handle to the top-level function with the given name, adapted to the given type
+     * (see {@link MethodHandle#asType}), e.g. to box its result.
+     *
+     * @throws IllegalArgumentException if the program has no such function
+     * @throws java.lang.invoke.WrongMethodTypeException if the function cannot be adapted to the
+     * given type
+     */
+    public MethodHandle function (String name, MethodType type) {
+        return function(name).asType(type);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean mapsFiles (Class<?> mainClass) {
+        try {
+            mainClass.getField(BytecodeCompiler.MAPS_FILES);
+            return true;
+        } catch (NoSuchFieldException e) {
+            return false;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a handle that calls the given handle, then {@link SighRuntime#unmapAll}, whether
+     * the call returns or throws.
+     */
+    private static MethodHandle unmapping (MethodHandle handle)
+    {
+        MethodType type = handle.type();
+        Class<?> result = type.returnType();
+        MethodHandle returned = result == void.class
+            ? MethodHandles.filterReturnValue(handle, UNMAP_ALL)
+            : MethodHandles.filterReturnValue(handle,
+                MethodHandles.foldArguments(MethodHandles.identity(result), UNMAP_ALL));
+        MethodHandle rethrow = MethodHandles.dropArguments(
+            MethodHandles.foldArguments(
+                MethodHandles.throwException(result, Throwable.class), UNMAP_ALL),
+            1, type.parameterList());
+        return MethodHandles.catchException(returned, Throwable.class, rethrow);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,163 @@
+package norswap.sigh.bytecode;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of loaded programs, for hosts that compile and run many scripts.
+ *
+ * <p>Each program is loaded in its own {@link ByteArrayClassLoader}, so that once it is evicted
+ * (and no longer referenced), its classes and their loader can be garbage-collected, releasing
+ * their Metaspace. Classes loaded through {@link ByteArrayClassLoader#INSTANCE}, on the contrary,
+ * are never unloaded.
+ *
+ * <p>Programs are keyed by a hash of their source, of the name of their main class and of the
+ * compiler version (see {@link CompilationCache}), and the least recently used program is
+ * evicted when the cache is full. Programs that miss are read from a {@link CompilationCache} if
+ * one is given, or else compiled.
+ *
+ * <p>The cache is thread-safe. Two threads missing on the same program at the same time may both
+ * compile it, in which case only one of the results is kept.
+ */
+public final class ProgramCache
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum number of programs held by the cache. */
+    public final int capacity;
+
+    private final CompilationCache compilationCache;
+    private final LinkedHashMap<String, CompiledProgram> programs;
+    private long hits = 0, misses = 0, evictions = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public ProgramCache (int capacity) {
+        this(capacity, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a cache holding at most {@code capacity} programs, compiling the programs that miss
+     * through {@code compilationCache} if it is not null.
+     */
+    public ProgramCache (int capacity, CompilationCache compilationCache)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+        this.capacity = capacity;
+        this.compilationCache = compilationCache;
+        this.programs = new LinkedHashMap<String, CompiledProgram>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry (Map.Entry<String, CompiledProgram> e) {
+                if (size() <= ProgramCache.this.capacity) return false;
+                ++evictions;
+                return true;
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the program compiled from the given source into a main class whose (dot-separated)
+     * binary name is {@code binaryName}, loading it if it is not in the cache.
+     *
+     * @throws IllegalArgumentException if the source has syntax or semantic errors
+     */
+    public CompiledProgram get (String binaryName, String source)
+    {
+        String key = CompilationCache.key(binaryName, source);
+        synchronized (this) {
+            CompiledProgram program = programs.get(key);
+            if (program != null) {
+                ++hits;
+                return program;
+            }
+            ++misses;
+        }
+
+        CompilationResult result = compilationCache != null
+            ? compilationCache.compile(binaryName, source)
+            : CompilationCache.compileSource(binaryName, source);
+        CompiledProgram program = new CompiledProgram(result, new ByteArrayClassLoader());
+
+        synchronized (this) {
+            CompiledProgram previous = programs.putIfAbsent(key, program);
+            return previous != null ? previous : program;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Removes all programs from the cache. */
+    public synchronized void clear () {
+        programs.clear();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of programs currently in the cache. */
+    public synchronized int size () {
+        return programs.size();
+    }
+
+    /** Number of requests served from the cache. */
+    public synchronized long hits () {
+        return hits;
+    }
+
+    /** Number of requests that had to load a program. */
+    public synchronized long misses () {
+        return misses;
+    }
+
+    /** Number of programs evicted to make room for others. */
+    public synchronized long evictions () {
+        return evictions;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of classes currently loaded in the JVM (including those of the host and of the
+     * standard library).
+     */
+    public static int loadedClasses () {
+        return ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of classes unloaded since the start of the JVM.
+     */
+    public static long unloadedClasses () {
+        return ManagementFactory.getClassLoadingMXBean().getUnloadedClassCount();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of bytes of Metaspace in use, or -1 if the JVM does not have a Metaspace (i.e. it is
+     * not HotSpot).
+     */
+    public static long metaspaceUsed () {
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getName().equals("Metaspace"))
+                return pool.getUsage().getUsed();
+        return -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public synchronized String toString () {
+        return String.format("%d/%d programs, %d hits, %d misses, %d evictions; %d classes loaded, "
+            + "%d unloaded, %.1f MiB of Metaspace", programs.size(), capacity, hits, misses,
+            evictions, loadedClasses(), unloadedClasses(), metaspaceUsed() / (1024.0 * 1024.0));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,5 +1,24 @@
 package norswap.sigh.bytecode;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
 public final class SighRuntime
 {
     /**
@@ -22,4 +41,755 @@ public final class SighRuntime
         System.out.println(string);
         return string;
     }
+
+    // ---------------------------------------------------------------------------------------------
+    // Reduction built-ins. One-dimensional arrays, whose only axis is 0, have their own overloads.
+    // Multi-dimensional arrays are flattened, reduced along the axis, and rebuilt.
+
+    public static final int SUM = 0, MIN = 1, MAX = 2, ARGMAX = 3;
+
+    private static void checkAxis (long axis, int length) {
+        checkAxis(axis, 1, length);
+    }
+
+    private static void checkAxis (long axis, int rank, int length) {
+        if (axis < 0 || axis >= rank)
+            throw new IndexOutOfBoundsException("Reduction axis " + axis
+                + " out of range for an array with " + rank + " dimensions");
+        if (length == 0)
+            throw new IllegalArgumentException("Reduction of an empty array");
+    }
+
+    public static long sum (long[] array, long axis) {
+        checkAxis(axis, array.length);
+        long sum = 0;
+        for (long x: array) sum += x;
+        return sum;
+    }
+
+    public static double sum (double[] array, long axis) {
+        checkAxis(axis, array.length);
+        double sum = 0;
+        for (double x: array) sum += x;
+        return sum;
+    }
+
+    public static long min (long[] array, long axis) {
+        checkAxis(axis, array.length);
+        long min = array[0];
+        for (long x: array) min = Math.min(min, x);
+        return min;
+    }
+
+    public static double min (double[] array, long axis) {
+        checkAxis(axis, array.length);
+        double min = array[0];
+        for (double x: array) min = Math.min(min, x);
+        return min;
+    }
+
+    public static long max (long[] array, long axis) {
+        checkAxis(axis, array.length);
+        long max = array[0];
+        for (long x: array) max = Math.max(max, x);
+        return max;
+    }
+
+    public static double max (double[] array, long axis) {
+        checkAxis(axis, array.length);
+        double max = array[0];
+        for (double x: array) max = Math.max(max, x);
+        return max;
+    }
+
+    /** Returns the index of the first maximum. */
+    public static long argmax (long[] array, long axis) {
+        checkAxis(axis, array.length);
+        int best = 0;
+        for (int i = 1; i < array.length; ++i)
+            if (array[i] > array[best]) best = i;
+        return best;
+    }
+
+    /** Returns the index of the first maximum. */
+    public static long argmax (double[] array, long axis) {
+        checkAxis(axis, array.length);
+        int best = 0;
+        for (int i = 1; i < array.length; ++i)
+            if (array[i] > array[best]) best = i;
+        return best;
+    }
+
+    /**
+     * Returns the count, mean, (population) variance, minimum and maximum of the elements of the
+     * array, computed in a single pass with Welford's algorithm.
+     */
+    public static double[] stats (long[] array) {
+        checkAxis(0, array.length);
+        long count = 0;
+        double mean = 0, m2 = 0;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (long element: array) {
+            double x = element;
+            double delta = x - mean;
+            mean += delta / ++count;
+            m2 += delta * (x - mean);
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        return new double[] { count, mean, m2 / count, min, max };
+    }
+
+    /** See {@link #stats(long[])}. */
+    public static double[] stats (double[] array) {
+        checkAxis(0, array.length);
+        long count = 0;
+        double mean = 0, m2 = 0;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (double x: array) {
+            double delta = x - mean;
+            mean += delta / ++count;
+            m2 += delta * (x - mean);
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        return new double[] { count, mean, m2 / count, min, max };
+    }
+
+    /** See {@link #stats(long[])}, for multi-dimensional arrays. */
+    public static double[] stats (Object array) {
+        Flat flat = new Flat(array);
+        return flat.longs != null ? stats(flat.longs) : stats(flat.doubles);
+    }
+
+    /**
+     * Reduces a multi-dimensional array ({@code long[][]}, {@code double[][][]}, ...) along the
+     * given axis, using one of the SUM ... ARGMAX operations, and returns the array of the results,
+     * which has one less dimension.
+     *
+     * <p>The array is seen as an {@code [outer, n, inner]} array, where {@code n} is the length of
+     * the axis. For each of the {@code outer} blocks, the {@code n} rows of {@code inner} elements
+     * are combined element-wise.
+     */
+    public static Object reduce (Object array, long axis, int op) {
+        Flat flat = new Flat(array);
+        int rank = flat.shape.length;
+        checkAxis(axis, rank, axis >= 0 && axis < rank ? flat.shape[(int) axis] : 1);
+        int outer = 1, n = flat.shape[(int) axis], inner = 1;
+        int[] shape = new int[rank - 1];
+        for (int dim = 0, j = 0; dim < rank; ++dim) {
+            if (dim == axis) continue;
+            if (dim < axis) outer *= flat.shape[dim];
+            else inner *= flat.shape[dim];
+            shape[j++] = flat.shape[dim];
+        }
+
+        boolean longs = flat.longs != null || op == ARGMAX;
+        long[] lr = longs ? new long[outer * inner] : null;
+        double[] dr = longs ? null : new double[outer * inner];
+        for (int o = 0; o < outer; ++o) {
+            for (int k = 0; k < inner; ++k) {
+                int base = o * n * inner + k;
+                int r = o * inner + k;
+                if (flat.longs != null) {
+                    long[] a = flat.longs;
+                    long acc = a[base];
+                    int best = 0;
+                    for (int i = 1; i < n; ++i) {
+                        long x = a[base + i * inner];
+                        if (op == SUM) acc += x;
+                        else if (op == MIN) acc = Math.min(acc, x);
+                        else if (x > acc) { acc = x; best = i; }
+                    }
+                    lr[r] = op == ARGMAX ? best : acc;
+                } else {
+                    double[] a = flat.doubles;
+                    double acc = a[base];
+                    int best = 0;
+                    for (int i = 1; i < n; ++i) {
+                        double x = a[base + i * inner];
+                        if (op == SUM) acc += x;
+                        else if (op == MIN) acc = Math.min(acc, x);
+                        else if (op == MAX) acc = Math.max(acc, x);
+                        else if (x > acc) { acc = x; best = i; }
+                    }
+                    if (op == ARGMAX) lr[r] = best;
+                    else dr[r] = acc;
+                }
+            }
+        }
+        return unflatten(longs ? lr : dr, shape);
+    }
+
+    /**
+     * A rectangular multi-dimensional array, flattened in row-major order.
+     */
+    private static final class Flat {
+        final int[] shape;
+        final long[] longs;
+        final double[] doubles;
+        private int done = 0;
+
+        Flat (Object array) {
+            shape = new int[rank(array)];
+            Object row = array;
+            for (int dim = 0; dim < shape.length; ++dim) {
+                shape[dim] = Array.getLength(row);
+                if (shape[dim] == 0) break;
+                if (dim < shape.length - 1) row = ((Object[]) row)[0];
+            }
+            int size = 1;
+            for (int length: shape) size *= length;
+            boolean isLong = array.getClass().getName().endsWith("J");
+            longs = isLong ? new long[size] : null;
+            doubles = isLong ? null : new double[size];
+            if (size > 0) copy(array, 0);
+        }
+
+        private void copy (Object row, int dim) {
+            if (Array.getLength(row) != shape[dim])
+                throw new IllegalArgumentException("Reduction of a non-rectangular array");
+            if (dim < shape.length - 1) {
+                for (Object sub: (Object[]) row) copy(sub, dim + 1);
+                return;
+            }
+            if (longs != null) System.arraycopy(row, 0, longs, done, shape[dim]);
+            else System.arraycopy(row, 0, doubles, done, shape[dim]);
+            done += shape[dim];
+        }
+    }
+
+    /**
+     * Rebuilds a (possibly multi-dimensional) array of the given shape from the given flat
+     * {@code long[]} or {@code double[]}.
+     */
+    private static Object unflatten (Object flat, int[] shape) {
+        if (shape.length == 1)
+            return flat;
+        Object result = Array.newInstance(flat.getClass().getComponentType(), shape);
+        int[] done = { 0 };
+        fill(result, flat, shape, 0, done);
+        return result;
+    }
+
+    private static void fill (Object array, Object flat, int[] shape, int dim, int[] done) {
+        if (dim == shape.length - 1) {
+            System.arraycopy(flat, done[0], array, 0, shape[dim]);
+            done[0] += shape[dim];
+            return;
+        }
+        for (Object row: (Object[]) array)
+            fill(row, flat, shape, dim + 1, done);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Array operators. The operator codes are those of the ADD ... REMAINDER constants. Arrays of
+    // the same rank are combined element-wise, a dimension of size 1 being broadcast against the
+    // corresponding dimension of the other operand. An operand of lower rank (including scalars)
+    // is combined with each row of the other operand.
+
+    public static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2, DIVIDE = 3, REMAINDER = 4;
+
+    private static int broadcast (int a, int b) {
+        if (a != b && a != 1 && b != 1)
+            throw new IllegalArgumentException(
+                "Try to operate on two arrays with different sizes: " + a + " and " + b);
+        return a == 1 ? b : a;
+    }
+
+    private static long[] expand (long[] array, int length) {
+        if (array.length == length) return array;
+        long[] result = new long[length];
+        Arrays.fill(result, array[0]);
+        return result;
+    }
+
+    private static double[] expand (double[] array, int length) {
+        if (array.length == length) return array;
+        double[] result = new double[length];
+        Arrays.fill(result, array[0]);
+        return result;
+    }
+
+    private static void nonZero (long[] divisors) {
+        for (long x: divisors)
+            if (x == 0) throw new ArithmeticException("Division by zero");
+    }
+
+    private static void nonZero (double[] divisors) {
+        for (double x: divisors)
+            if (x == 0) throw new ArithmeticException("Division by zero");
+    }
+
+    private static void scalarDividend (int op) {
+        if (op == DIVIDE || op == REMAINDER)
+            throw new ArithmeticException("Try to divide a scalar by an array");
+    }
+
+    public static long[] operate (long[] a, long[] b, int op) {
+        int length = broadcast(a.length, b.length);
+        a = expand(a, length);
+        b = expand(b, length);
+        long[] r = new long[length];
+        switch (op) {
+            case ADD:       for (int i = 0; i < length; ++i) r[i] = a[i] + b[i]; break;
+            case SUBTRACT:  for (int i = 0; i < length; ++i) r[i] = a[i] - b[i]; break;
+            case MULTIPLY:  for (int i = 0; i < length; ++i) r[i] = a[i] * b[i]; break;
+            case DIVIDE:
+                nonZero(b);
+                for (int i = 0; i < length; ++i) r[i] = a[i] / b[i];
+                break;
+            case REMAINDER:
+                nonZero(b);
+                for (int i = 0; i < length; ++i) r[i] = a[i] % b[i];
+                break;
+            default:
+                throw new Error("should not reach here");
+        }
+        return r;
+    }
+
+    public static long[] operate (long[] a, long b, int op) {
+        return operate(a, new long[] { b }, op);
+    }
+
+    public static long[] operate (long a, long[] b, int op) {
+        scalarDividend(op);
+        return operate(new long[] { a }, b, op);
+    }
+
+    public static double[] operate (double[] a, double[] b, int op) {
+        int length = broadcast(a.length, b.length);
+        a = expand(a, length);
+        b = expand(b, length);
+        double[] r = new double[length];
+        switch (op) {
+            case ADD:       for (int i = 0; i < length; ++i) r[i] = a[i] + b[i]; break;
+            case SUBTRACT:  for (int i = 0; i < length; ++i) r[i] = a[i] - b[i]; break;
+            case MULTIPLY:  for (int i = 0; i < length; ++i) r[i] = a[i] * b[i]; break;
+            case DIVIDE:
+                nonZero(b);
+                for (int i = 0; i < length; ++i) r[i] = a[i] / b[i];
+                break;
+            case REMAINDER:
+                nonZero(b);
+                for (int i = 0; i < length; ++i) r[i] = a[i] % b[i];
+                break;
+            default:
+                throw new Error("should not reach here");
+        }
+        return r;
+    }
+
+    public static double[] operate (double[] a, double b, int op) {
+        return operate(a, new double[] { b }, op);
+    }
+
+    public static double[] operate (double a, double[] b, int op) {
+        scalarDividend(op);
+        return operate(new double[] { a }, b, op);
+    }
+
+    /**
+     * Operator for multi-dimensional arrays ({@code long[][]}, {@code double[][][]}, ...), whose
+     * scalar operands are boxed. The rows are combined recursively, down to the one-dimensional
+     * kernels above.
+     */
+    public static Object operate (Object a, Object b, int op) {
+        if (a instanceof long[] && b instanceof long[])
+            return operate((long[]) a, (long[]) b, op);
+        if (a instanceof long[] && b instanceof Long)
+            return operate((long[]) a, (long) b, op);
+        if (a instanceof Long && b instanceof long[])
+            return operate((long) a, (long[]) b, op);
+        if (a instanceof double[] && b instanceof double[])
+            return operate((double[]) a, (double[]) b, op);
+        if (a instanceof double[] && b instanceof Double)
+            return operate((double[]) a, (double) b, op);
+        if (a instanceof Double && b instanceof double[])
+            return operate((double) a, (double[]) b, op);
+
+        int aRank = rank(a), bRank = rank(b);
+        if (Math.max(aRank, bRank) <= 1)
+            throw new IllegalArgumentException("Try to operate on two arrays with different "
+                + "types: " + a.getClass().getSimpleName() + " and "
+                + b.getClass().getSimpleName());
+
+        Object[] rows = (Object[]) (aRank >= bRank ? a : b);
+        int length = aRank == bRank
+            ? broadcast(rows.length, ((Object[]) b).length)
+            : rows.length;
+        Object[] result = (Object[]) Array.newInstance(rows.getClass().getComponentType(), length);
+        for (int i = 0; i < length; ++i)
+            result[i] = operate(
+                aRank < bRank ? a : row((Object[]) a, i),
+                bRank < aRank ? b : row((Object[]) b, i), op);
+        return result;
+    }
+
+    private static int rank (Object value) {
+        String name = value.getClass().getName();
+        int rank = 0;
+        while (name.charAt(rank) == '[') ++rank;
+        return rank;
+    }
+
+    private static Object row (Object[] array, int i) {
+        return array[array.length == 1 ? 0 : i];
+    }
+
+    /**
+     * Implements {@code @} for two vectors (dot product), or a vector and a matrix, with the
+     * first column of the matrix.
+     */
+    public static long dot (long[] a, long[] b) {
+        checkDot(a.length, b.length);
+        long sum = 0;
+        for (int i = 0; i < a.length; ++i) sum += a[i] * b[i];
+        return sum;
+    }
+
+    /** See {@link #dot(long[], long[])}. */
+    public static double dot (double[] a, double[] b) {
+        checkDot(a.length, b.length);
+        double sum = 0;
+        for (int i = 0; i < a.length; ++i) sum += a[i] * b[i];
+        return sum;
+    }
+
+    /** See {@link #dot(long[], long[])}. */
+    public static long dot (long[] a, long[][] b) {
+        checkDot(a.length, b.length);
+        long sum = 0;
+        for (int i = 0; i < a.length; ++i) sum += a[i] * b[i][0];
+        return sum;
+    }
+
+    /** See {@link #dot(long[], long[])}. */
+    public static double dot (double[] a, double[][] b) {
+        checkDot(a.length, b.length);
+        double sum = 0;
+        for (int i = 0; i < a.length; ++i) sum += a[i] * b[i][0];
+        return sum;
+    }
+
+    private static void checkDot (int a, int b) {
+        if (a != b)
+            throw new IllegalArgumentException(
+                "Trying to operate on arrays with different dimensions: " + a + " and " + b);
+    }
+
+    /**
+     * Implements {@code @} for two matrices. The loops are ordered (i, k, j) so that the innermost
+     * one runs along rows of the right operand and of the result.
+     */
+    public static long[][] matmul (long[][] a, long[][] b) {
+        int n = checkMatmul(a, b), m = b.length == 0 ? 0 : b[0].length;
+        long[][] r = new long[a.length][m];
+        for (int i = 0; i < a.length; ++i) {
+            long[] ri = r[i];
+            for (int k = 0; k < n; ++k) {
+                long aik = a[i][k];
+                long[] bk = b[k];
+                for (int j = 0; j < m; ++j) ri[j] += aik * bk[j];
+            }
+        }
+        return r;
+    }
+
+    /** See {@link #matmul(long[][], long[][])}. */
+    public static double[][] matmul (double[][] a, double[][] b) {
+        int n = checkMatmul(a, b), m = b.length == 0 ? 0 : b[0].length;
+        double[][] r = new double[a.length][m];
+        for (int i = 0; i < a.length; ++i) {
+            double[] ri = r[i];
+            for (int k = 0; k < n; ++k) {
+                double aik = a[i][k];
+                double[] bk = b[k];
+                for (int j = 0; j < m; ++j) ri[j] += aik * bk[j];
+            }
+        }
+        return r;
+    }
+
+    private static int checkMatmul (Object[] a, Object[] b) {
+        for (Object row: a)
+            if (Array.getLength(row) != b.length)
+                throw new IllegalArgumentException("Trying to use @ operation on matrix with "
+                    + "uncompatible sizes: " + a.length + "x" + Array.getLength(row) + " and "
+                    + b.length + "x" + (b.length == 0 ? 0 : Array.getLength(b[0])));
+        return b.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Slices. Java arrays cannot be strided views of one another, so a slice is a copy of the
+    // elements it keeps: unlike in the interpreter, assignments through a slice do not reach the
+    // sliced array. The compiler passes one component per dimension of the array.
+
+    /** The end of a range whose end is omitted ({@code x[1:]}). */
+    public static final long END = Long.MIN_VALUE;
+
+    /**
+     * Returns a copy of the slice of the (possibly nested) array. {@code bounds} holds the start
+     * and end of each dimension ({@link #END} for an omitted end, and the index only for a
+     * dimension that is indexed), and {@code ranges} whether each dimension is a range or an
+     * index. At least one dimension must be a range.
+     */
+    public static Object slice (Object array, long[] bounds, boolean[] ranges) {
+        return slice(array, bounds, ranges, 0);
+    }
+
+    private static Object slice (Object array, long[] bounds, boolean[] ranges, int dim) {
+        int length = Array.getLength(array);
+        long start = bounds[2 * dim];
+        if (start < 0 || start >= length)
+            throw new ArrayIndexOutOfBoundsException(
+                "Index " + start + " out of bounds for length " + length);
+        boolean last = dim == ranges.length - 1;
+        if (!ranges[dim])
+            return last
+                ? Array.get(array, (int) start)
+                : slice(((Object[]) array)[(int) start], bounds, ranges, dim + 1);
+
+        long end = bounds[2 * dim + 1] == END ? length : bounds[2 * dim + 1];
+        if (end <= start || end > length)
+            throw new ArrayIndexOutOfBoundsException("Range " + start + ":" + end
+                + " empty or out of bounds for length " + length);
+        int n = (int) (end - start);
+        if (last) {
+            Object result = Array.newInstance(array.getClass().getComponentType(), n);
+            System.arraycopy(array, (int) start, result, 0, n);
+            return result;
+        }
+
+        // the rows are sliced in turn, and are elements if the last dimensions are indexed
+        Object[] rows = (Object[]) array;
+        Object first = slice(rows[(int) start], bounds, ranges, dim + 1);
+        Class<?> component = first instanceof Long ? long.class
+            : first instanceof Double ? double.class
+            : first.getClass();
+        Object result = Array.newInstance(component, n);
+        Array.set(result, 0, first);
+        for (int i = 1; i < n; ++i)
+            Array.set(result, i, slice(rows[(int) start + i], bounds, ranges, dim + 1));
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Mapping built-ins. Java arrays cannot share the memory of a mapped file, so the file is
+    // copied into the array (row by row for multi-dimensional arrays), and unmapAll copies back
+    // the blocks of the array that differ from the file, so that the pages of a file that the
+    // program only reads are never written. The run method of the generated class calls it when
+    // it finishes, and so do the function handles of a CompiledProgram that maps files.
+    //
+    // The file is mapped in segments of SEGMENT elements, as a single buffer cannot address more
+    // than 2GB, so the size of the array is only limited by the length of Java arrays (along each
+    // dimension) and by the heap. Files that are not writable are mapped read-only, and unmapAll
+    // throws if the program changed such an array.
+
+    private static final int SEGMENT_SHIFT = 27;
+
+    /** Number of elements (of 8 bytes) in each mapped segment of a file. */
+    private static final long SEGMENT = 1L << SEGMENT_SHIFT;
+
+    private static final int SEGMENT_MASK = (int) SEGMENT - 1;
+
+    /** Number of elements that unmapAll compares, and writes back if they differ, at once. */
+    private static final int BLOCK = 512;
+
+    /** An array mapped from a file, with the mapped segments of the file. */
+    private static final class Mapping {
+        final String path;
+        final Object array;
+        final int[] shape;
+        final MappedByteBuffer[] segments;
+        final Buffer[] views;
+
+        Mapping (String path, Object array, int[] shape, MappedByteBuffer[] segments) {
+            this.path = path;
+            this.array = array;
+            this.shape = shape;
+            this.segments = segments;
+            this.views = new Buffer[segments.length];
+            boolean longs = leaf(array) instanceof long[];
+            for (int i = 0; i < segments.length; ++i)
+                views[i] = longs ? segments[i].asLongBuffer() : segments[i].asDoubleBuffer();
+        }
+
+        private static Object leaf (Object array) {
+            while (array instanceof Object[]) array = ((Object[]) array)[0];
+            return array;
+        }
+    }
+
+    /** The arrays mapped by the running program. */
+    private static final ThreadLocal<ArrayList<Mapping>> MAPPED =
+        ThreadLocal.withInitial(ArrayList::new);
+
+    /**
+     * Maps the file at the given path, which must hold {@code size} elements unless it is
+     * writable, in segments of {@link #SEGMENT} elements.
+     */
+    private static MappedByteBuffer[] map (String path, long size) {
+        Path file = Paths.get(path);
+        boolean writable = Files.notExists(file) || Files.isWritable(file);
+        try (FileChannel channel = writable
+                ? FileChannel.open(file, READ, WRITE, CREATE)
+                : FileChannel.open(file, READ)) {
+            if (!writable && channel.size() < size * 8)
+                throw new IllegalArgumentException(
+                    "Read-only file " + path + " holds fewer than " + size + " elements");
+            FileChannel.MapMode mode = writable
+                ? FileChannel.MapMode.READ_WRITE
+                : FileChannel.MapMode.READ_ONLY;
+            MappedByteBuffer[] segments =
+                new MappedByteBuffer[(int) ((size - 1 >>> SEGMENT_SHIFT) + 1)];
+            for (int i = 0; i < segments.length; ++i) {
+                long start = (long) i << SEGMENT_SHIFT;
+                long length = Math.min(SEGMENT, size - start);
+                segments[i] = channel.map(mode, start * 8, length * 8);
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return segments;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Maps the file at the given path into a new array of the given element type ({@code long}
+     * or {@code double}) and dimensions, which is nested if there are several dimensions.
+     */
+    private static Object map (String path, long[] dimensions, Class<?> element) {
+        int[] shape = new int[dimensions.length];
+        long size = 1;
+        for (int i = 0; i < dimensions.length; ++i) {
+            if (dimensions[i] <= 0 || dimensions[i] > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException(
+                    "Invalid dimension " + dimensions[i] + " for a mapped array");
+            shape[i] = (int) dimensions[i];
+            size = Math.multiplyExact(size, dimensions[i]);
+        }
+        Object array = Array.newInstance(element, shape);
+        Mapping mapping = new Mapping(path, array, shape, map(path, size));
+        copy(mapping, array, false, 0, 0);
+        MAPPED.get().add(mapping);
+        return array;
+    }
+
+    /**
+     * Copies the rows of the array, which starts at the given position of the mapped file, from
+     * the file or (if {@code store} is true) to it, in row-major order, and returns the position
+     * that follows the array. When storing, only the blocks of {@link #BLOCK} elements that differ
+     * from the file are written, and the method throws if the file is read-only. The rows must
+     * have the lengths given by the shape, as they may have been replaced by the program.
+     */
+    private static long copy (Mapping mapping, Object array, boolean store, int dim,
+                              long position) {
+        int length = Array.getLength(array);
+        if (length != mapping.shape[dim])
+            throw new IllegalStateException("Row of length " + length
+                + " in a mapped array whose dimension " + dim + " is " + mapping.shape[dim]);
+        if (array instanceof Object[]) {
+            for (Object row: (Object[]) array)
+                position = copy(mapping, row, store, dim + 1, position);
+            return position;
+        }
+        for (int done = 0; done < length; ) {
+            int segment = (int) (position >>> SEGMENT_SHIFT);
+            int index = (int) position & SEGMENT_MASK;
+            int run = (int) Math.min(length - done, Math.min(SEGMENT - index, BLOCK));
+            Buffer view = mapping.views[segment];
+            if (!store)
+                load(view, index, array, done, run);
+            else if (differs(view, index, array, done, run)) {
+                if (view.isReadOnly())
+                    throw new IllegalStateException("Trying to write back to an array mapped from"
+                        + " the read-only file " + mapping.path);
+                view.position(index);
+                if (view instanceof LongBuffer)
+                    ((LongBuffer) view).put((long[]) array, done, run);
+                else
+                    ((DoubleBuffer) view).put((double[]) array, done, run);
+            }
+            done += run;
+            position += run;
+        }
+        return position;
+    }
+
+    private static void load (Buffer view, int index, Object row, int from, int length) {
+        view.position(index);
+        if (view instanceof LongBuffer)
+            ((LongBuffer) view).get((long[]) row, from, length);
+        else
+            ((DoubleBuffer) view).get((double[]) row, from, length);
+    }
+
+    /**
+     * Returns whether the elements {@code [from, from + length)} of the row differ from those at
+     * {@code [index, index + length)} in the view, comparing the bits of floating-point numbers.
+     */
+    private static boolean differs (Buffer view, int index, Object row, int from, int length) {
+        if (view instanceof LongBuffer) {
+            LongBuffer longs = (LongBuffer) view;
+            long[] values = (long[]) row;
+            for (int i = 0; i < length; ++i)
+                if (longs.get(index + i) != values[from + i]) return true;
+        } else {
+            DoubleBuffer doubles = (DoubleBuffer) view;
+            double[] values = (double[]) row;
+            for (int i = 0; i < length; ++i)
+                if (Double.doubleToRawLongBits(doubles.get(index + i))
+                        != Double.doubleToRawLongBits(values[from + i]))
+                    return true;
+        }
+        return false;
+    }
+
+    /**
+     * Maps the file at the given path, holding little-endian 64-bit integers, into an array of
+     * the given length. The file is created if it does not exist, and extended with zeros if it
+     * is too short.
+     */
+    public static long[] mapInts (String path, long length) {
+        return (long[]) map(path, new long[] { length }, long.class);
+    }
+
+    /** See {@link #mapInts}, for little-endian 64-bit floating-point numbers. */
+    public static double[] mapFloats (String path, long length) {
+        return (double[]) map(path, new long[] { length }, double.class);
+    }
+
+    /**
+     * See {@link #mapInts(String, long)}, for a multi-dimensional array ({@code long[][]}, ...)
+     * whose elements are stored in row-major order.
+     */
+    public static Object mapInts (String path, long[] dimensions) {
+        return map(path, dimensions, long.class);
+    }
+
+    /** See {@link #mapInts(String, long[])}, for {@code double} elements. */
+    public static Object mapFloats (String path, long[] dimensions) {
+        return map(path, dimensions, double.class);
+    }
+
+    /**
+     * Copies the changes made to the arrays mapped by the running program back to their files,
+     * and writes the files to storage.
+     */
+    public static void unmapAll () {
+        ArrayList<Mapping> mapped = MAPPED.get();
+        if (mapped.isEmpty()) return;
+        try {
+            for (Mapping mapping: mapped) {
+                copy(mapping, mapping.array, true, 0, 0);
+                if (!mapping.segments[0].isReadOnly())
+                    for (MappedByteBuffer segment: mapping.segments)
+                        segment.force();
+            }
+        } finally {
+            mapped.clear();
+        }
+    }
 }
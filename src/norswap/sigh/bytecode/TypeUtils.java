@@ -78,7 +78,7 @@ public final class TypeUtils {
         else if (type instanceof NullType)
             return Null[].class;
         else if (type instanceof ArrayType)
-            return Array.newInstance(javaClass(((ArrayType) type).componentType)).getClass();
+            return Array.newInstance(javaClass(type), 0).getClass();
         else if (type instanceof TypeType)
             return Type[].class;
         else if (type instanceof FunType)
@@ -91,6 +91,32 @@ public final class TypeUtils {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the type of the scalar elements of the given type, which is the type itself if it is
+     * not an array type.
+     */
+    static Type elementType (Type type)
+    {
+        while (type instanceof ArrayType)
+            type = ((ArrayType) type).componentType;
+        return type;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of dimensions of the given type, which is 0 if it is not an array type.
+     */
+    static int rank (Type type)
+    {
+        int rank = 0;
+        for (; type instanceof ArrayType; type = ((ArrayType) type).componentType)
+            ++rank;
+        return rank;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns the JVM field descriptor the runtime representation of the given Sigh {@link Type}.
      */
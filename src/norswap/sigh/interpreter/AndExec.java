@@ -0,0 +1,23 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Short-circuiting boolean conjunction ({@code left && right}).
+ */
+final class AndExec extends ExecNode
+{
+    private final ExecNode left;
+    private final ExecNode right;
+
+    AndExec (ExecNode left, ExecNode right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return executeBoolean(frame);
+    }
+
+    @Override boolean executeBoolean (ScopeStorage frame) {
+        return left.executeBoolean(frame) && right.executeBoolean(frame);
+    }
+}
@@ -0,0 +1,102 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.BinaryOperator;
+
+/**
+ * Arithmetic operator ({@code + - * / %}) on numbers.
+ *
+ * <p>The operation is selected statically: each operator is its own subclass, and whether it
+ * operates on longs or doubles is derived from the static types of the operands. Operands are
+ * evaluated through their unboxed entry points ({@link ExecNode#executeLong}, {@link
+ * ExecNode#executeDouble}), so that nested arithmetic does not allocate. {@code Int} operands of a
+ * float operation are converted by {@link ExecNode#executeDouble}.
+ */
+abstract class ArithmeticExec extends ExecNode
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether one of the operands is statically a float, making this a float operation. */
+    private final boolean floating;
+    private final ExecNode left;
+    private final ExecNode right;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ArithmeticExec (boolean floating, ExecNode left, ExecNode right) {
+        this.floating = floating;
+        this.left = left;
+        this.right = right;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static ArithmeticExec create
+            (BinaryOperator operator, boolean floating, ExecNode left, ExecNode right)
+    {
+        switch (operator) {
+            case ADD:       return new Add(floating, left, right);
+            case SUBTRACT:  return new Subtract(floating, left, right);
+            case MULTIPLY:  return new Multiply(floating, left, right);
+            case DIVIDE:    return new Divide(floating, left, right);
+            case REMAINDER: return new Remainder(floating, left, right);
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    abstract long longOp (long left, long right);
+
+    abstract double doubleOp (double left, double right);
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override final Object execute (ScopeStorage frame) {
+        return floating ? (Object) executeDouble(frame) : (Object) executeLong(frame);
+    }
+
+    @Override final long executeLong (ScopeStorage frame) {
+        return longOp(left.executeLong(frame), right.executeLong(frame));
+    }
+
+    @Override final double executeDouble (ScopeStorage frame) {
+        return floating
+            ? doubleOp(left.executeDouble(frame), right.executeDouble(frame))
+            : longOp(left.executeLong(frame), right.executeLong(frame));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Add extends ArithmeticExec {
+        Add (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override long longOp (long left, long right) { return left + right; }
+        @Override double doubleOp (double left, double right) { return left + right; }
+    }
+
+    private static final class Subtract extends ArithmeticExec {
+        Subtract (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override long longOp (long left, long right) { return left - right; }
+        @Override double doubleOp (double left, double right) { return left - right; }
+    }
+
+    private static final class Multiply extends ArithmeticExec {
+        Multiply (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override long longOp (long left, long right) { return left * right; }
+        @Override double doubleOp (double left, double right) { return left * right; }
+    }
+
+    private static final class Divide extends ArithmeticExec {
+        Divide (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override long longOp (long left, long right) { return left / right; }
+        @Override double doubleOp (double left, double right) { return left / right; }
+    }
+
+    private static final class Remainder extends ArithmeticExec {
+        Remainder (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override long longOp (long left, long right) { return left % right; }
+        @Override double doubleOp (double left, double right) { return left % right; }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
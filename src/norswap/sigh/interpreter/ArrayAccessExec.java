@@ -0,0 +1,182 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Reads an array element, or a sub-array, through a chain of indexing operations ({@code
+ * array[i][j]...}).
+ *
+ * <p>When the array is a {@link Tensor} with at least as many dimensions as there are indices, the
+ * position of the element is computed directly from the indices, without creating intermediate
+ * views. The same goes for {@link SparseTensor}s and {@link MappedTensor}s. Otherwise, the array is
+ * indexed one dimension at a time.
+ */
+final class ArrayAccessExec extends ExecNode
+{
+    private final ExecNode array;
+    private final ExecNode[] indices;
+
+    ArrayAccessExec (ExecNode array, ExecNode[] indices) {
+        this.array = array;
+        this.indices = indices;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return access(array.execute(frame), frame);
+    }
+
+    @Override long executeLong (ScopeStorage frame)
+    {
+        Object array = this.array.execute(frame);
+        if (array instanceof Tensor) {
+            Tensor tensor = (Tensor) array;
+            if (tensor.longs != null && tensor.rank() == indices.length)
+                return tensor.longs[position(tensor, indices, frame)];
+        }
+        if (array instanceof SparseTensor) {
+            SparseTensor tensor = (SparseTensor) array;
+            if (tensor.type == Primitive.INT && tensor.rank() == indices.length)
+                return tensor.getLong(position(tensor, indices, frame));
+        }
+        if (array instanceof MappedTensor) {
+            MappedTensor tensor = (MappedTensor) array;
+            if (tensor.type == Primitive.INT && tensor.rank() == indices.length)
+                return tensor.getLong(position(tensor, indices, frame));
+        }
+        return (Long) access(array, frame);
+    }
+
+    @Override double executeDouble (ScopeStorage frame)
+    {
+        Object array = this.array.execute(frame);
+        if (array instanceof Tensor) {
+            Tensor tensor = (Tensor) array;
+            if (tensor.rank() == indices.length) {
+                int position = position(tensor, indices, frame);
+                return tensor.doubles != null ? tensor.doubles[position] : tensor.longs[position];
+            }
+        }
+        if (array instanceof SparseTensor) {
+            SparseTensor tensor = (SparseTensor) array;
+            if (tensor.rank() == indices.length)
+                return tensor.getDouble(position(tensor, indices, frame));
+        }
+        if (array instanceof MappedTensor) {
+            MappedTensor tensor = (MappedTensor) array;
+            if (tensor.rank() == indices.length)
+                return tensor.getDouble(position(tensor, indices, frame));
+        }
+        return ((Number) access(array, frame)).doubleValue();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object access (Object array, ScopeStorage frame)
+    {
+        if (array instanceof Tensor && ((Tensor) array).rank() >= indices.length) {
+            Tensor tensor = (Tensor) array;
+            return tensor.get(indices.length, position(tensor, indices, frame));
+        }
+        if (array instanceof SparseTensor && ((SparseTensor) array).rank() >= indices.length) {
+            SparseTensor tensor = (SparseTensor) array;
+            return tensor.get(indices.length, position(tensor, indices, frame));
+        }
+        if (array instanceof MappedTensor && ((MappedTensor) array).rank() >= indices.length) {
+            MappedTensor tensor = (MappedTensor) array;
+            return tensor.get(indices.length, position(tensor, indices, frame));
+        }
+        for (ExecNode index: indices)
+            array = element(array, index(index.executeLong(frame)));
+        return array;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position in storage of the element or view of the tensor designated by the
+     * given indices, which must not be more than the rank of the tensor.
+     */
+    static int position (Tensor tensor, ExecNode[] indices, ScopeStorage frame)
+    {
+        int position = tensor.offset;
+        for (int i = 0; i < indices.length; ++i)
+            position = tensor.step(position, i, index(indices[i].executeLong(frame)));
+        return position;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position of the element or view of the sparse tensor designated by the given
+     * indices, which must not be more than the rank of the tensor.
+     */
+    static long position (SparseTensor tensor, ExecNode[] indices, ScopeStorage frame)
+    {
+        long position = tensor.offset;
+        for (int i = 0; i < indices.length; ++i)
+            position = tensor.step(position, i, index(indices[i].executeLong(frame)));
+        return position;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position of the element or view of the mapped tensor designated by the given
+     * indices, which must not be more than the rank of the tensor.
+     */
+    static long position (MappedTensor tensor, ExecNode[] indices, ScopeStorage frame)
+    {
+        long position = tensor.offset;
+        for (int i = 0; i < indices.length; ++i)
+            position = tensor.step(position, i, index(indices[i].executeLong(frame)));
+        return position;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the element at the given index of the given array (a tensor, a sparse tensor, a
+     * mapped tensor or an {@code Object[]}).
+     */
+    static Object element (Object array, int index)
+    {
+        if (array instanceof Tensor) {
+            Tensor tensor = (Tensor) array;
+            return tensor.get(1, tensor.step(tensor.offset, 0, index));
+        }
+        if (array instanceof SparseTensor) {
+            SparseTensor tensor = (SparseTensor) array;
+            return tensor.get(1, tensor.step(tensor.offset, 0, index));
+        }
+        if (array instanceof MappedTensor) {
+            MappedTensor tensor = (MappedTensor) array;
+            return tensor.get(1, tensor.step(tensor.offset, 0, index));
+        }
+        Object[] elements = nonNullArray(array);
+        try {
+            return elements[index];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new PassthroughException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static Object[] nonNullArray (Object object)
+    {
+        if (object == Null.INSTANCE)
+            throw new PassthroughException(new NullPointerException("indexing null array"));
+        return (Object[]) object;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static int index (long index)
+    {
+        if (index < 0)
+            throw new PassthroughException(
+                new ArrayIndexOutOfBoundsException("Negative index: " + index));
+        if (index >= Integer.MAX_VALUE - 1)
+            throw new PassthroughException(new ArrayIndexOutOfBoundsException(
+                "Index exceeds max array index (2ˆ31 - 2): " + index));
+        return (int) index;
+    }
+}
@@ -0,0 +1,377 @@
+package norswap.sigh.interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * A tree of element-wise arithmetic operators ({@code + - * / %}) on arrays, such as {@code 2 * x
+ * + y}, evaluated as a whole.
+ *
+ * <p>The operands of the tree (its sub-expressions that are not element-wise array arithmetic) are
+ * evaluated once, from left to right. When the array operands are tensors (or rectangular numeric
+ * arrays) that all have the same type and shapes that broadcast together (see {@link
+ * Tensor#broadcast}), and the scalar operands have that same type, the tree is evaluated in a
+ * single pass, chunk by chunk: each operator computes its values for the current chunk of elements
+ * into a small buffer, using {@link Kernels}. Only the final result is allocated, and the operands
+ * of each operator are still in cache when it runs. Slices and broadcast operands (views with
+ * strides of 0) are read through their strides, without being copied first. The elements of
+ * {@link MappedTensor}s are read from the mapped file a chunk at a time, unless they are broadcast.
+ *
+ * <p>Otherwise (arrays of structs, ragged arrays, mismatched types or shapes, ...) the operators
+ * are applied one at a time through {@link Interpreter#arrayOperate}, which also reports errors.
+ */
+final class ArrayArithmeticExec extends ExecNode
+{
+    /** Number of elements that each operator computes at once. */
+    private static final int CHUNK = 1024;
+
+    private final Interpreter interpreter;
+    private final Node tree;
+    private final ExecNode[] operands;
+
+    private ArrayArithmeticExec (Interpreter interpreter, Node tree, ExecNode[] operands) {
+        this.interpreter = interpreter;
+        this.tree = tree;
+        this.operands = operands;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a node applying the given operator (see {@link Kernels}) to the given operands. The
+     * operands that are themselves element-wise array arithmetic are merged into the new node.
+     */
+    static ArrayArithmeticExec create
+            (Interpreter interpreter, int op, ExecNode left, ExecNode right)
+    {
+        ArrayList<ExecNode> operands = new ArrayList<>();
+        Node leftNode  = merge(left, operands);
+        Node rightNode = merge(right, operands);
+        Node tree = new Node(op, -1, leftNode, rightNode);
+        return new ArrayArithmeticExec(interpreter, tree, operands.toArray(new ExecNode[0]));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Node merge (ExecNode node, ArrayList<ExecNode> operands)
+    {
+        if (node instanceof ArrayArithmeticExec) {
+            ArrayArithmeticExec exec = (ArrayArithmeticExec) node;
+            int base = operands.size();
+            Collections.addAll(operands, exec.operands);
+            return exec.tree.shift(base);
+        }
+        operands.add(node);
+        return new Node(-1, operands.size() - 1, null, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        Object[] values = new Object[operands.length];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = operands[i].execute(frame);
+
+        if (tree.left.isLeaf() && tree.right.isLeaf() && contiguous(values))
+            return interpreter.arrayOperate(frame, values[0], values[1], tree.op);
+
+        Tensor[] tensors = new Tensor[values.length];
+        MappedTensor[] mapped = new MappedTensor[values.length];
+        Primitive type = null;
+        int[] shape = null;
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] instanceof Number) continue;
+            if (values[i] instanceof MappedTensor)
+                mapped[i] = (MappedTensor) values[i];
+            else if (values[i] instanceof Tensor)
+                tensors[i] = (Tensor) values[i];
+            else if (values[i] instanceof Object[])
+                tensors[i] = Tensor.of((Object[]) values[i]);
+            Primitive elementType = mapped[i] != null ? mapped[i].type
+                : tensors[i] != null ? tensors[i].type : null;
+            if (elementType == null || type != null && elementType != type)
+                return eager(tree, values, frame);
+            type = elementType;
+            int[] operandShape = mapped[i] != null ? mapped[i].shape : tensors[i].shape;
+            shape = shape == null ? operandShape : Tensor.broadcast(shape, operandShape);
+            if (shape == null)
+                return eager(tree, values, frame);
+        }
+
+        if (type == null || !fusable(tree, values, type))
+            return eager(tree, values, frame);
+
+        for (int i = 0; i < tensors.length; ++i) {
+            if (mapped[i] != null && !Arrays.equals(mapped[i].shape, shape)) {
+                tensors[i] = mapped[i].toTensor();
+                mapped[i] = null;
+            }
+            if (tensors[i] != null)
+                tensors[i] = tensors[i].broadcastTo(shape);
+        }
+
+        Tensor result = Tensor.zeros(type, shape);
+        Chunk root = chunk(tree, values, tensors, mapped, type, Math.min(CHUNK, result.size));
+        for (int start = 0; start < result.size; start += CHUNK) {
+            int length = Math.min(CHUNK, result.size - start);
+            root.compute(start, length);
+            if (result.longs != null)
+                System.arraycopy(root.longs, 0, result.longs, start, length);
+            else
+                System.arraycopy(root.doubles, 0, result.doubles, start, length);
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether none of the values is a non-contiguous tensor (a slice) or a mapped tensor, and the
+     * tensors have the same shape, so that the operators applied one at a time would not copy nor
+     * broadcast them.
+     */
+    private static boolean contiguous (Object[] values)
+    {
+        int[] shape = null;
+        for (Object value: values) {
+            if (value instanceof MappedTensor) return false;
+            if (!(value instanceof Tensor)) continue;
+            Tensor tensor = (Tensor) value;
+            if (!tensor.contiguous() || shape != null && !Arrays.equals(shape, tensor.shape))
+                return false;
+            shape = tensor.shape;
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Applies the operators of the tree one at a time, on the already evaluated operands.
+     */
+    private Object eager (Node node, Object[] values, ScopeStorage frame)
+    {
+        if (node.isLeaf())
+            return values[node.operand];
+        Object left  = eager(node.left, values, frame);
+        Object right = eager(node.right, values, frame);
+        return interpreter.arrayOperate(frame, left, right, node.op);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the scalar operands of the tree have the given element type, and none is divided by
+     * an array (an error that {@link Interpreter#arrayOperate} reports).
+     */
+    private static boolean fusable (Node node, Object[] values, Primitive type)
+    {
+        if (node.isLeaf()) {
+            Object value = values[node.operand];
+            return !(value instanceof Number)
+                || (type == Primitive.INT ? value instanceof Long : value instanceof Double);
+        }
+        if ((node.op == Kernels.DIVIDE || node.op == Kernels.REMAINDER)
+                && node.left.isLeaf() && values[node.left.operand] instanceof Number)
+            return false;
+        return fusable(node.left, values, type) && fusable(node.right, values, type);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Chunk chunk (Node node, Object[] values, Tensor[] tensors,
+                                MappedTensor[] mapped, Primitive type, int capacity)
+    {
+        if (node.isLeaf())
+            return tensors[node.operand] != null
+                ? new TensorChunk(tensors[node.operand], capacity)
+                : mapped[node.operand] != null
+                    ? new MappedChunk(mapped[node.operand], capacity)
+                    : new ScalarChunk((Number) values[node.operand]);
+        return new OperatorChunk(node.op,
+            chunk(node.left, values, tensors, mapped, type, capacity),
+            chunk(node.right, values, tensors, mapped, type, capacity),
+            type, capacity);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A node of the operator tree: either an operator (a {@link Kernels} code) and its operands,
+     * or a leaf referring to one of the evaluated operands.
+     */
+    private static final class Node
+    {
+        final int op;
+        final int operand;
+        final Node left;
+        final Node right;
+
+        Node (int op, int operand, Node left, Node right) {
+            this.op = op;
+            this.operand = operand;
+            this.left = left;
+            this.right = right;
+        }
+
+        boolean isLeaf () {
+            return left == null;
+        }
+
+        /** Returns a copy of this tree whose leaves refer to operands {@code base} places later. */
+        Node shift (int base) {
+            return isLeaf()
+                ? new Node(-1, operand + base, null, null)
+                : new Node(op, -1, left.shift(base), right.shift(base));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The values of a node of the tree for the current chunk of elements, which start at {@code
+     * offset} in {@code longs} or {@code doubles} (depending on the element type).
+     */
+    private static abstract class Chunk
+    {
+        long[] longs;
+        double[] doubles;
+        int offset;
+
+        /** Makes the values of the elements {@code [start, start + length[} available. */
+        abstract void compute (int start, int length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The elements of a tensor operand. The elements of a contiguous tensor are read in place,
+     * while those of a slice are gathered into a buffer, one chunk at a time.
+     */
+    private static final class TensorChunk extends Chunk
+    {
+        private final Tensor tensor;
+        private final boolean contiguous;
+
+        TensorChunk (Tensor tensor, int capacity)
+        {
+            this.tensor = tensor;
+            this.contiguous = tensor.contiguous();
+            if (contiguous) {
+                longs = tensor.longs;
+                doubles = tensor.doubles;
+            } else {
+                if (tensor.longs != null)
+                    longs = new long[capacity];
+                else
+                    doubles = new double[capacity];
+            }
+        }
+
+        @Override void compute (int start, int length)
+        {
+            if (contiguous)
+                offset = tensor.offset + start;
+            else
+                tensor.gather(start, length, longs, doubles);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The elements of a mapped tensor operand, read from the mapped file into a buffer, one chunk
+     * at a time.
+     */
+    private static final class MappedChunk extends Chunk
+    {
+        private final MappedTensor tensor;
+
+        MappedChunk (MappedTensor tensor, int capacity)
+        {
+            this.tensor = tensor;
+            if (tensor.type == Primitive.INT)
+                longs = new long[capacity];
+            else
+                doubles = new double[capacity];
+        }
+
+        @Override void compute (int start, int length) {
+            tensor.read(start, length, longs, doubles);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class ScalarChunk extends Chunk
+    {
+        final Number value;
+
+        ScalarChunk (Number value) {
+            this.value = value;
+        }
+
+        @Override void compute (int start, int length) {}
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class OperatorChunk extends Chunk
+    {
+        private final int op;
+        private final Chunk left;
+        private final Chunk right;
+
+        OperatorChunk (int op, Chunk left, Chunk right, Primitive type, int capacity)
+        {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            if (type == Primitive.INT)
+                longs = new long[capacity];
+            else
+                doubles = new double[capacity];
+        }
+
+        @Override void compute (int start, int length)
+        {
+            left.compute(start, length);
+            right.compute(start, length);
+
+            if (longs != null) {
+                if (left instanceof ScalarChunk) {
+                    long a = (Long) ((ScalarChunk) left).value;
+                    if (op == Kernels.SUBTRACT)
+                        Kernels.subtract(a, right.longs, right.offset, longs, length);
+                    else // ADD or MULTIPLY, which commute
+                        Kernels.apply(op, right.longs, right.offset, a, longs, length);
+                }
+                else if (right instanceof ScalarChunk)
+                    Kernels.apply(op, left.longs, left.offset,
+                        (Long) ((ScalarChunk) right).value, longs, length);
+                else
+                    Kernels.apply(op, left.longs, left.offset,
+                        right.longs, right.offset, longs, length);
+            }
+            else {
+                if (left instanceof ScalarChunk) {
+                    double a = (Double) ((ScalarChunk) left).value;
+                    if (op == Kernels.SUBTRACT)
+                        Kernels.subtract(a, right.doubles, right.offset, doubles, length);
+                    else // ADD or MULTIPLY, which commute
+                        Kernels.apply(op, right.doubles, right.offset, a, doubles, length);
+                }
+                else if (right instanceof ScalarChunk)
+                    Kernels.apply(op, left.doubles, left.offset,
+                        (Double) ((ScalarChunk) right).value, doubles, length);
+                else
+                    Kernels.apply(op, left.doubles, left.offset,
+                        right.doubles, right.offset, doubles, length);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,129 @@
+package norswap.sigh.interpreter;
+
+import static norswap.sigh.interpreter.ArrayAccessExec.element;
+import static norswap.sigh.interpreter.ArrayAccessExec.index;
+import static norswap.sigh.interpreter.ArrayAccessExec.nonNullArray;
+import static norswap.sigh.interpreter.ArrayAccessExec.position;
+
+/**
+ * Assigns an array element, or a sub-array, through a chain of indexing operations ({@code
+ * array[i][j]... = value}).
+ *
+ * <p>As in {@link ArrayAccessExec}, the position of the element is computed directly when the
+ * array is a {@link Tensor}. Elements of tensors are then stored without boxing the value, unless
+ * the value of the assignment is needed. The same goes for {@link SparseTensor}s and {@link
+ * MappedTensor}s.
+ *
+ * <p>Assignments through the slices of arrays that are copied to be sliced (see {@link
+ * ArraySliceExec}) are rejected, as they would not reach the array.
+ */
+final class ArrayAssignExec extends ExecNode
+{
+    private final ExecNode array;
+    private final ExecNode[] indices;
+    private final ExecNode value;
+
+    ArrayAssignExec (ExecNode array, ExecNode[] indices, ExecNode value) {
+        this.array = array;
+        this.indices = indices;
+        this.value = value;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return assign(frame, true);
+    }
+
+    @Override void executeVoid (ScopeStorage frame) {
+        assign(frame, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Performs the assignment, and returns the assigned value if {@code result} is true.
+     */
+    private Object assign (ScopeStorage frame, boolean result)
+    {
+        Object array = this.array.execute(frame);
+
+        if (array instanceof Tensor && ((Tensor) array).rank() >= indices.length) {
+            Tensor tensor = (Tensor) array;
+            tensor.checkWritable();
+            int position = position(tensor, indices, frame);
+            if (tensor.rank() > indices.length) {
+                Object value = this.value.execute(frame);
+                tensor.set(indices.length, position, value);
+                return value;
+            }
+            if (tensor.longs != null) {
+                long value = this.value.executeLong(frame);
+                tensor.longs[position] = value;
+                return result ? value : null;
+            } else {
+                double value = this.value.executeDouble(frame);
+                tensor.doubles[position] = value;
+                return result ? value : null;
+            }
+        }
+
+        if (array instanceof SparseTensor && ((SparseTensor) array).rank() >= indices.length) {
+            SparseTensor tensor = (SparseTensor) array;
+            long position = position(tensor, indices, frame);
+            if (tensor.rank() > indices.length) {
+                Object value = this.value.execute(frame);
+                tensor.set(indices.length, position, value);
+                return value;
+            }
+            if (tensor.type == Primitive.INT) {
+                long value = this.value.executeLong(frame);
+                tensor.setLong(position, value);
+                return result ? value : null;
+            } else {
+                double value = this.value.executeDouble(frame);
+                tensor.setDouble(position, value);
+                return result ? value : null;
+            }
+        }
+
+        if (array instanceof MappedTensor && ((MappedTensor) array).rank() >= indices.length) {
+            MappedTensor tensor = (MappedTensor) array;
+            tensor.checkWritable();
+            long position = position(tensor, indices, frame);
+            if (tensor.rank() > indices.length) {
+                Object value = this.value.execute(frame);
+                tensor.set(indices.length, position, value);
+                return value;
+            }
+            if (tensor.type == Primitive.INT) {
+                long value = this.value.executeLong(frame);
+                tensor.setLong(position, value);
+                return result ? value : null;
+            } else {
+                double value = this.value.executeDouble(frame);
+                tensor.setDouble(position, value);
+                return result ? value : null;
+            }
+        }
+
+        int last = indices.length - 1;
+        for (int i = 0; i < last; ++i)
+            array = element(array, index(indices[i].executeLong(frame)));
+
+        if (array instanceof Tensor) {
+            Tensor tensor = (Tensor) array;
+            tensor.checkWritable();
+            int position = tensor.step(tensor.offset, 0, index(indices[last].executeLong(frame)));
+            Object value = this.value.execute(frame);
+            tensor.set(1, position, value);
+            return value;
+        }
+
+        Object[] elements = nonNullArray(array);
+        int index = index(indices[last].executeLong(frame));
+        try {
+            return elements[index] = value.execute(frame);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new PassthroughException(e);
+        }
+    }
+}
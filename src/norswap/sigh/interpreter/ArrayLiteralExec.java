@@ -0,0 +1,31 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Builds a new array from the values of its components.
+ *
+ * <p>The literals whose components are numbers or nested literals of numbers yield a {@link
+ * Tensor} when they are rectangular, so that their slices and the views obtained by indexing them
+ * share their storage. Other literals yield an {@code Object[]}.
+ */
+final class ArrayLiteralExec extends ExecNode
+{
+    private final ExecNode[] components;
+
+    /** Whether to convert the array to a tensor, if it is rectangular. */
+    private final boolean tensor;
+
+    ArrayLiteralExec (ExecNode[] components, boolean tensor) {
+        this.components = components;
+        this.tensor = tensor;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        Object[] array = new Object[components.length];
+        for (int i = 0; i < components.length; ++i)
+            array[i] = components[i].execute(frame);
+        if (!tensor) return array;
+        Tensor result = Tensor.of(array);
+        return result != null ? result : array;
+    }
+}
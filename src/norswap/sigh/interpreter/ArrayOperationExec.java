@@ -0,0 +1,37 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.BinaryOperator;
+
+/**
+ * Binary operator where at least one operand is an array, other than element-wise arithmetic
+ * (see {@link ArrayArithmeticExec}): matrix product ({@code @}) and (reference) equality.
+ */
+final class ArrayOperationExec extends ExecNode
+{
+    private final Interpreter interpreter;
+    private final BinaryOperator operator;
+    private final ExecNode left;
+    private final ExecNode right;
+
+    ArrayOperationExec
+            (Interpreter interpreter, BinaryOperator operator, ExecNode left, ExecNode right) {
+        this.interpreter = interpreter;
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        Object left  = this.left.execute(frame);
+        Object right = this.right.execute(frame);
+
+        switch (operator) {
+            case DOTPRODUCT: return interpreter.matrixOperate(left, right);
+            case EQUALITY:   return left == right;
+            case NOT_EQUALS: return left != right;
+        }
+
+        throw new InterpreterException("Operation not possible on arrays", new Exception());
+    }
+}
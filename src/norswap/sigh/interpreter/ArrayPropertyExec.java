@@ -0,0 +1,204 @@
+package norswap.sigh.interpreter;
+
+import static norswap.sigh.interpreter.StructFieldExec.nonNullStruct;
+
+/**
+ * Reads one of the built-in properties of arrays: {@code length}, {@code count}, {@code sum},
+ * {@code avg} and {@code nDim}.
+ *
+ * <p>On a {@link Tensor}, {@code length}, {@code count} and {@code nDim} are read from its shape,
+ * while {@code sum} and {@code avg} take a single pass over its storage, in parallel for large
+ * tensors (see {@link Reductions}). On a {@link SparseTensor}, they only visit its non-zero
+ * elements, and on a {@link MappedTensor}, they read its elements a window at a time.
+ */
+final class ArrayPropertyExec extends ExecNode
+{
+    private final ExecNode stem;
+    private final String property;
+
+    /** Whether the property has static type Float: {@code avg}, or {@code sum} on floats. */
+    private final boolean floating;
+
+    ArrayPropertyExec (ExecNode stem, String property, boolean floating) {
+        this.stem = stem;
+        this.property = property;
+        this.floating = floating;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        return floating
+            ? (Object) executeDouble(frame)
+            : (Object) executeLong(frame);
+    }
+
+    @Override long executeLong (ScopeStorage frame)
+    {
+        Object stem = nonNullStruct(this.stem.execute(frame));
+        if (stem instanceof Tensor)
+            return tensorProperty((Tensor) stem);
+        if (stem instanceof SparseTensor)
+            return sparseProperty((SparseTensor) stem);
+        if (stem instanceof MappedTensor)
+            return mappedProperty((MappedTensor) stem);
+
+        Object[] array = (Object[]) stem;
+        switch (property) {
+            case "length":
+                return array.length;
+            case "count":
+                return count(array);
+            case "sum":
+                return sumLong(array);
+            case "nDim":
+                return nDim(array, 1);
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    @Override double executeDouble (ScopeStorage frame)
+    {
+        if (!floating)
+            return executeLong(frame);
+
+        Object stem = nonNullStruct(this.stem.execute(frame));
+        if (stem instanceof Tensor) {
+            Tensor tensor = (Tensor) stem;
+            if (property.equals("sum"))
+                return tensor.sumDouble();
+            return tensor.size == 0 ? 0 : tensor.sumDouble() / tensor.size;
+        }
+        if (stem instanceof SparseTensor) {
+            SparseTensor tensor = (SparseTensor) stem;
+            if (property.equals("sum"))
+                return tensor.sumDouble();
+            return tensor.size == 0 ? 0 : tensor.sumDouble() / tensor.size;
+        }
+        if (stem instanceof MappedTensor) {
+            MappedTensor tensor = (MappedTensor) stem;
+            if (property.equals("sum"))
+                return tensor.sumDouble();
+            return tensor.sumDouble() / tensor.size;
+        }
+
+        Object[] array = (Object[]) stem;
+        return property.equals("avg") ? average(array) : sumFloat(array);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private long tensorProperty (Tensor tensor)
+    {
+        switch (property) {
+            case "length":
+                return tensor.shape[0];
+            case "count":
+                return tensor.size;
+            case "sum":
+                return tensor.sumLong();
+            case "nDim":
+                return tensor.rank();
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private long sparseProperty (SparseTensor tensor)
+    {
+        switch (property) {
+            case "length":
+                return tensor.shape[0];
+            case "count":
+                return tensor.size;
+            case "sum":
+                return tensor.sumLong();
+            case "nDim":
+                return tensor.rank();
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private long mappedProperty (MappedTensor tensor)
+    {
+        switch (property) {
+            case "length":
+                return tensor.shape[0];
+            case "count":
+                return tensor.size;
+            case "sum":
+                return tensor.sumLong();
+            case "nDim":
+                return tensor.rank();
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static double average (Object[] tab) {
+        if (tab.length == 0) return 0;
+        double[] sumAndCount = new double[2];
+        accumulate(tab, sumAndCount);
+        return sumAndCount[0] / sumAndCount[1];
+    }
+
+    /** Adds the sum and the number of the elements of {@code tab} to {@code sumAndCount}. */
+    private static void accumulate (Object[] tab, double[] sumAndCount) {
+        for (Object o: tab) {
+            if (o instanceof Object[]) {
+                accumulate((Object[]) o, sumAndCount);
+                continue;
+            }
+            if (o instanceof Number)
+                sumAndCount[0] += ((Number) o).doubleValue();
+            ++sumAndCount[1];
+        }
+    }
+
+    private static long sumLong (Object[] tab) {
+        long a = 0;
+        for (Object o: tab) {
+            if (o instanceof Object[])
+                a += sumLong((Object[]) o);
+            else if (o instanceof Long)
+                a += (long) o;
+        }
+        return a;
+    }
+
+    private static double sumFloat (Object[] tab) {
+        double a = 0;
+        for (Object o: tab) {
+            if (o instanceof Object[])
+                a += sumFloat((Object[]) o);
+            else if (o instanceof Long)
+                a += (double) (long) o;
+            else if (o instanceof Double)
+                a += (double) o;
+        }
+        return a;
+    }
+
+    private static long count (Object[] tab) {
+        if (tab.length == 0) return 0;
+        if (!(tab[0] instanceof Object[])) return tab.length;
+        long n = 0;
+        for (Object o: tab)
+            n += count((Object[]) o);
+        return n;
+    }
+
+    private static long nDim (Object[] tab, long n) {
+        if (tab.length == 0) return n;
+        if (tab[0] instanceof Object[])
+            return nDim((Object[]) tab[0], n + 1);
+        return n;
+    }
+}
@@ -0,0 +1,88 @@
+package norswap.sigh.interpreter;
+
+import static norswap.sigh.interpreter.ArrayAccessExec.index;
+import static norswap.sigh.interpreter.ArrayAccessExec.nonNullArray;
+
+/**
+ * Slices an array ({@code x[1:3]}, {@code x[:, 2]}, ...), yielding a view that shares the storage
+ * of the array (see {@link Tensor#slice}, {@link SparseTensor#slice} and {@link
+ * MappedTensor#slice}), or an element if every dimension is indexed.
+ *
+ * <p>Nested {@code Object[]} arrays are converted to a tensor first, so that their slices are
+ * views of a copy. These slices are read-only ({@link Tensor#readOnly}), so that assignments
+ * through them fail instead of being lost.
+ */
+final class ArraySliceExec extends ExecNode
+{
+    private final ExecNode array;
+
+    /** The index or the start of the range for each component, null for an omitted start. */
+    private final ExecNode[] starts;
+
+    /** The end of the range for each component, null for an omitted end or an index. */
+    private final ExecNode[] ends;
+
+    /** Whether each component is a range or an index. */
+    private final boolean[] ranges;
+
+    ArraySliceExec (ExecNode array, ExecNode[] starts, ExecNode[] ends, boolean[] ranges) {
+        this.array = array;
+        this.starts = starts;
+        this.ends = ends;
+        this.ranges = ranges;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        Object array = this.array.execute(frame);
+        if (array instanceof MappedTensor) {
+            MappedTensor tensor = (MappedTensor) array;
+            int[] from = new int[ranges.length];
+            int[] to = new int[ranges.length];
+            bounds(frame, tensor.shape, from, to);
+            MappedTensor slice = tensor.slice(from, to, ranges);
+            return slice.rank() == 0 ? slice.get(0, slice.offset) : slice;
+        }
+        if (array instanceof SparseTensor) {
+            SparseTensor tensor = (SparseTensor) array;
+            int[] from = new int[ranges.length];
+            int[] to = new int[ranges.length];
+            bounds(frame, tensor.shape, from, to);
+            SparseTensor slice = tensor.slice(from, to, ranges);
+            return slice.rank() == 0 ? slice.get(0, slice.offset) : slice;
+        }
+
+        Tensor tensor = array instanceof Tensor
+            ? (Tensor) array
+            : Tensor.of(nonNullArray(array));
+        if (tensor == null)
+            throw new InterpreterException(
+                "Slicing is only supported on rectangular arrays of Int or Float values",
+                new UnsupportedOperationException());
+        if (!(array instanceof Tensor))
+            tensor = tensor.readOnly();
+
+        int[] from = new int[ranges.length];
+        int[] to = new int[ranges.length];
+        bounds(frame, tensor.shape, from, to);
+        Tensor slice = tensor.slice(from, to, ranges);
+        return slice.rank() == 0 ? slice.box(slice.offset) : slice;
+    }
+
+    /**
+     * Evaluates the start (or index) and end of each component into {@code from} and {@code to},
+     * for an array of the given shape.
+     */
+    private void bounds (ScopeStorage frame, int[] shape, int[] from, int[] to)
+    {
+        if (ranges.length > shape.length)
+            throw new InterpreterException("Trying to slice " + ranges.length
+                + " dimensions of an array with " + shape.length, new IllegalArgumentException());
+
+        for (int i = 0; i < ranges.length; ++i) {
+            from[i] = starts[i] == null ? 0 : index(starts[i].executeLong(frame));
+            if (ranges[i])
+                to[i] = ends[i] == null ? shape[i] : index(ends[i].executeLong(frame));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.SighNode;
+
+/**
+ * Executes a sequence of statements. Unexpected runtime exceptions raised by a statement are
+ * wrapped in an {@link InterpreterException} mentioning that statement.
+ */
+final class BlockExec extends StatementExec
+{
+    private final ExecNode[] statements;
+    private final SighNode[] sources;
+
+    BlockExec (ExecNode[] statements, SighNode[] sources) {
+        this.statements = statements;
+        this.sources = sources;
+    }
+
+    @Override Completion executeStatement (ScopeStorage frame)
+    {
+        for (int i = 0; i < statements.length; ++i) {
+            Completion completion;
+            try {
+                completion = statements[i].executeStatement(frame);
+            } catch (InterpreterException | PassthroughException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new InterpreterException("exception while executing " + sources[i], e);
+            }
+            if (completion != Completion.NORMAL)
+                return completion;
+        }
+        return Completion.NORMAL;
+    }
+}
@@ -0,0 +1,23 @@
+package norswap.sigh.interpreter;
+
+import static norswap.sigh.interpreter.CallExec.evaluate;
+
+/**
+ * Call to a built-in function declared in the root scope.
+ */
+final class BuiltinCallExec extends ExecNode
+{
+    private final Interpreter interpreter;
+    private final String name;
+    private final ExecNode[] arguments;
+
+    BuiltinCallExec (Interpreter interpreter, String name, ExecNode[] arguments) {
+        this.interpreter = interpreter;
+        this.name = name;
+        this.arguments = arguments;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return interpreter.builtin(frame, name, evaluate(arguments, frame));
+    }
+}
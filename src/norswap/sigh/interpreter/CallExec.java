@@ -0,0 +1,42 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Call to a function known statically (the callee is a direct reference to its declaration).
+ */
+final class CallExec extends ExecNode
+{
+    private final Function function;
+    private final ExecNode[] arguments;
+
+    CallExec (Function function, ExecNode[] arguments) {
+        this.function = function;
+        this.arguments = arguments;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return function.call(frame, null, arguments);
+    }
+
+    @Override long executeLong (ScopeStorage frame) {
+        return function.callPrimitive(frame, null, arguments);
+    }
+
+    @Override double executeDouble (ScopeStorage frame) {
+        long bits = function.callPrimitive(frame, null, arguments);
+        return function.returnType == Primitive.FLOAT ? Double.longBitsToDouble(bits) : bits;
+    }
+
+    @Override boolean executeBoolean (ScopeStorage frame) {
+        return function.callPrimitive(frame, null, arguments) != 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static Object[] evaluate (ExecNode[] arguments, ScopeStorage frame)
+    {
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; ++i)
+            values[i] = arguments[i].execute(frame);
+        return values;
+    }
+}
@@ -0,0 +1,100 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.BinaryOperator;
+
+/**
+ * Comparison ({@code < <= > >=}) or equality ({@code == !=}) operator on numbers, which evaluates
+ * its operands unboxed, in the same way as {@link ArithmeticExec}.
+ */
+abstract class ComparisonExec extends ExecNode
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether one of the operands is statically a float, making this a float operation. */
+    private final boolean floating;
+    private final ExecNode left;
+    private final ExecNode right;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ComparisonExec (boolean floating, ExecNode left, ExecNode right) {
+        this.floating = floating;
+        this.left = left;
+        this.right = right;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static ComparisonExec create
+            (BinaryOperator operator, boolean floating, ExecNode left, ExecNode right)
+    {
+        switch (operator) {
+            case GREATER:       return new Greater(floating, left, right);
+            case GREATER_EQUAL: return new GreaterEqual(floating, left, right);
+            case LOWER:         return new Lower(floating, left, right);
+            case LOWER_EQUAL:   return new LowerEqual(floating, left, right);
+            case EQUALITY:      return new Equal(floating, left, right);
+            case NOT_EQUALS:    return new NotEqual(floating, left, right);
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    abstract boolean longOp (long left, long right);
+
+    abstract boolean doubleOp (double left, double right);
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override final Object execute (ScopeStorage frame) {
+        return executeBoolean(frame);
+    }
+
+    @Override final boolean executeBoolean (ScopeStorage frame) {
+        return floating
+            ? doubleOp(left.executeDouble(frame), right.executeDouble(frame))
+            : longOp(left.executeLong(frame), right.executeLong(frame));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Greater extends ComparisonExec {
+        Greater (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override boolean longOp (long left, long right) { return left > right; }
+        @Override boolean doubleOp (double left, double right) { return left > right; }
+    }
+
+    private static final class GreaterEqual extends ComparisonExec {
+        GreaterEqual (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override boolean longOp (long left, long right) { return left >= right; }
+        @Override boolean doubleOp (double left, double right) { return left >= right; }
+    }
+
+    private static final class Lower extends ComparisonExec {
+        Lower (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override boolean longOp (long left, long right) { return left < right; }
+        @Override boolean doubleOp (double left, double right) { return left < right; }
+    }
+
+    private static final class LowerEqual extends ComparisonExec {
+        LowerEqual (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override boolean longOp (long left, long right) { return left <= right; }
+        @Override boolean doubleOp (double left, double right) { return left <= right; }
+    }
+
+    private static final class Equal extends ComparisonExec {
+        Equal (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override boolean longOp (long left, long right) { return left == right; }
+        @Override boolean doubleOp (double left, double right) { return left == right; }
+    }
+
+    private static final class NotEqual extends ComparisonExec {
+        NotEqual (boolean floating, ExecNode l, ExecNode r) { super(floating, l, r); }
+        @Override boolean longOp (long left, long right) { return left != right; }
+        @Override boolean doubleOp (double left, double right) { return left != right; }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,26 @@
+package norswap.sigh.interpreter;
+
+/**
+ * How the execution of a statement completed, as returned by {@link ExecNode#executeStatement}.
+ *
+ * <p>Non-local control flow is signalled by returning a completion other than {@link #NORMAL},
+ * which enclosing statements propagate until it reaches the construct that handles it, instead of
+ * throwing an exception.
+ */
+enum Completion
+{
+    /** Execution continues with the next statement. */
+    NORMAL,
+
+    /**
+     * A return statement was executed: the function must return the value stored in {@link
+     * ScopeStorage#returnValue}.
+     */
+    RETURN,
+
+    /**
+     * A self tail call was executed (see {@link TailCallExec}): the parameters of the function
+     * have been rebound, and its body must run again in the same frame.
+     */
+    TAIL_CALL
+}
@@ -0,0 +1,23 @@
+package norswap.sigh.interpreter;
+
+/**
+ * String concatenation ({@code left + right} where at least one operand is a string).
+ */
+final class ConcatExec extends ExecNode
+{
+    private final Interpreter interpreter;
+    private final ExecNode left;
+    private final ExecNode right;
+
+    ConcatExec (Interpreter interpreter, ExecNode left, ExecNode right) {
+        this.interpreter = interpreter;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        Object left  = this.left.execute(frame);
+        Object right = this.right.execute(frame);
+        return interpreter.convertToString(frame, left) + interpreter.convertToString(frame, right);
+    }
+}
@@ -0,0 +1,17 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Evaluates to a fixed value: literals, but also references to functions and types.
+ */
+final class ConstantExec extends ExecNode
+{
+    private final Object value;
+
+    ConstantExec (Object value) {
+        this.value = value;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return value;
+    }
+}
@@ -0,0 +1,24 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Call to a struct constructor ({@code $Struct(arguments)}). The arguments are evaluated straight
+ * into the fields of the new instance.
+ */
+final class ConstructExec extends ExecNode
+{
+    private final StructShape shape;
+    private final ExecNode[] arguments;
+
+    ConstructExec (StructShape shape, ExecNode[] arguments) {
+        this.shape = shape;
+        this.arguments = arguments;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        Object[] values = shape.newValues();
+        for (int i = 0; i < arguments.length; ++i)
+            values[i] = arguments[i].execute(frame);
+        return new StructInstance(shape, values);
+    }
+}
@@ -0,0 +1,39 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+
+import static norswap.sigh.interpreter.CallExec.evaluate;
+
+/**
+ * Call whose callee is only known at runtime (e.g. a function stored in a variable).
+ */
+final class DynamicCallExec extends ExecNode
+{
+    private final Interpreter interpreter;
+    private final ExecNode function;
+    private final ExecNode[] arguments;
+
+    DynamicCallExec (Interpreter interpreter, ExecNode function, ExecNode[] arguments) {
+        this.interpreter = interpreter;
+        this.function = function;
+        this.arguments = arguments;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        Object decl = function.execute(frame);
+        Object[] args = evaluate(arguments, frame);
+
+        if (decl == Null.INSTANCE)
+            throw new PassthroughException(new NullPointerException("calling a null function"));
+
+        if (decl instanceof SyntheticDeclarationNode)
+            return interpreter.builtin(frame, ((SyntheticDeclarationNode) decl).name(), args);
+
+        if (decl instanceof Constructor)
+            return interpreter.shape(((Constructor) decl).declaration).instantiate(args);
+
+        return interpreter.function((FunDeclarationNode) decl).call(frame, null, args);
+    }
+}
@@ -0,0 +1,28 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Equality ({@code ==}) or inequality ({@code !=}) on non-numeric values. Primitive values
+ * (booleans and strings) are compared by value, all others by reference.
+ */
+final class EqualityExec extends ExecNode
+{
+    private final boolean primitive;
+    private final boolean negated;
+    private final ExecNode left;
+    private final ExecNode right;
+
+    EqualityExec (boolean primitive, boolean negated, ExecNode left, ExecNode right) {
+        this.primitive = primitive;
+        this.negated = negated;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        Object left  = this.left.execute(frame);
+        Object right = this.right.execute(frame);
+        boolean equal = primitive ? left.equals(right) : left == right;
+        return equal != negated;
+    }
+}
@@ -0,0 +1,62 @@
+package norswap.sigh.interpreter;
+
+/**
+ * A node of the execution tree that the {@link Interpreter} builds from an analysed AST.
+ *
+ * <p>Execution nodes are pre-bound: everything that can be derived from the AST and its semantic
+ * attributes (operators, operand types, variable addresses, call targets) is resolved when the
+ * node is built. Running the tree therefore requires neither visitor dispatch nor {@link
+ * norswap.uranium.Reactor} lookups.
+ *
+ * <p>Besides {@link #execute}, which returns boxed values, nodes have typed entry points that
+ * parents call when the static type of the node is known to be {@code Int}, {@code Float} or
+ * {@code Bool}. Nodes that can produce these values without boxing them (arithmetic, comparisons,
+ * reads of primitive variables, ...) override these entry points, so that a chain of primitive
+ * operations allocates nothing. Boxing only occurs at the boundary with code that handles generic
+ * values (e.g. storing into an array or a struct).
+ */
+abstract class ExecNode
+{
+    /**
+     * Executes the node in the given frame and returns its value ({@code null} for statements).
+     */
+    abstract Object execute (ScopeStorage frame);
+
+    /**
+     * Executes a node whose static type is {@code Int}.
+     */
+    long executeLong (ScopeStorage frame) {
+        return (Long) execute(frame);
+    }
+
+    /**
+     * Executes a node whose static type is {@code Float}, or {@code Int} (the value is then
+     * converted).
+     */
+    double executeDouble (ScopeStorage frame) {
+        return ((Number) execute(frame)).doubleValue();
+    }
+
+    /**
+     * Executes a node whose static type is {@code Bool}.
+     */
+    boolean executeBoolean (ScopeStorage frame) {
+        return (Boolean) execute(frame);
+    }
+
+    /**
+     * Executes the node for its side effects only, e.g. for expression statements.
+     */
+    void executeVoid (ScopeStorage frame) {
+        execute(frame);
+    }
+
+    /**
+     * Executes the node as a statement, and returns how it completed. Expression statements
+     * always complete normally.
+     */
+    Completion executeStatement (ScopeStorage frame) {
+        executeVoid(frame);
+        return Completion.NORMAL;
+    }
+}
@@ -0,0 +1,248 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.scopes.Scope;
+import norswap.utils.exceptions.Exceptions;
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+
+/**
+ * The runtime counterpart of a {@link FunDeclarationNode}: holds the compiled body of the function
+ * and knows how to set up a frame to call it.
+ *
+ * <p>The body is compiled lazily on the first call, which handles functions that are called
+ * before being declared, as well as recursion.
+ *
+ * <p>Each function keeps a pool of frames ({@link ScopeStorage}) that are reused across calls, so
+ * that a call whose arguments and body do not allocate does not allocate either. A frame is taken
+ * from the pool when a call begins and returned to it when the call completes. Frames cannot
+ * outlive their call (there are no closures), so at most one frame per active invocation of the
+ * function is in use, and the pool grows to the maximum recursion depth of the function.
+ *
+ * <p>Self tail calls do not recurse: they run the body again in the same frame (see {@link
+ * TailCallExec}), so they use neither Java stack nor additional frames.
+ *
+ * <p>When tiered execution is enabled (see {@link Tiering}), the function counts its calls and the
+ * back-edges taken in its body, and once it is promoted, calls run its compiled code instead.
+ */
+final class Function
+{
+    // ---------------------------------------------------------------------------------------------
+
+    final FunDeclarationNode declaration;
+    private final Interpreter interpreter;
+    private final Scope scope;
+    final int[] parameterSlots;
+
+    /** The {@link Primitive} type of each parameter, or null for parameters of other types. */
+    final Primitive[] parameterTypes;
+
+    /** The {@link Primitive} return type of the function, or null for other return types. */
+    final Primitive returnType;
+
+    private ExecNode body;
+
+    /** Counts of calls and back-edges (loop iterations, self tail calls), used for tiering. */
+    long calls, backEdges;
+
+    /** Whether the promotion of the function has been attempted. */
+    private boolean promoted;
+
+    /** Once promoted, the compiled function (see {@link Tiering#promote}). */
+    private MethodHandle compiled;
+
+    /** Stack of unused frames, in {@code pool[0 .. pooled - 1]}. */
+    private ScopeStorage[] pool = new ScopeStorage[4];
+    private int pooled = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    Function (Interpreter interpreter, FunDeclarationNode declaration, Scope scope,
+              int[] parameterSlots, Primitive[] parameterTypes, Primitive returnType) {
+        this.interpreter = interpreter;
+        this.declaration = declaration;
+        this.scope = scope;
+        this.parameterSlots = parameterSlots;
+        this.parameterTypes = parameterTypes;
+        this.returnType = returnType;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the function from the given frame, with the given receiver (null if this is not a
+     * method call) and arguments.
+     */
+    Object call (ScopeStorage caller, Object receiver, Object[] args)
+    {
+        if (receiver == null && hot())
+            return callCompiled(args);
+
+        ScopeStorage frame = frame(caller, receiver);
+        for (int i = 0; i < parameterSlots.length; ++i) {
+            Primitive type = parameterTypes[i];
+            if (type == null)
+                frame.values[parameterSlots[i]] = args[i];
+            else
+                frame.primitives[parameterSlots[i]] = type.unbox(args[i]);
+        }
+        invoke(frame);
+        return result(frame);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the function from the given frame, with the given receiver (null if this is not a
+     * method call), evaluating the given argument nodes in the calling frame. Unlike the other
+     * overload, this evaluates arguments straight into the callee frame, without boxing arguments
+     * of primitive type.
+     */
+    Object call (ScopeStorage caller, Object receiver, ExecNode[] args)
+    {
+        if (receiver == null && hot())
+            return callCompiled(evaluate(caller, args));
+
+        ScopeStorage frame = frame(caller, receiver, args);
+        invoke(frame);
+        return result(frame);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #call(ScopeStorage, Object, ExecNode[])}, for a function whose return type is a
+     * {@link Primitive}, whose encoded return value is returned without boxing.
+     */
+    long callPrimitive (ScopeStorage caller, Object receiver, ExecNode[] args)
+    {
+        if (receiver == null && hot())
+            return returnType.unbox(callCompiled(evaluate(caller, args)));
+
+        ScopeStorage frame = frame(caller, receiver, args);
+        invoke(frame);
+        long result = frame.primitiveReturnValue;
+        release(frame);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ScopeStorage frame (ScopeStorage caller, Object receiver)
+    {
+        ScopeStorage parent = caller.frame(scope.depth - 1);
+        if (pooled == 0)
+            return new ScopeStorage(scope, parent, receiver);
+        ScopeStorage frame = pool[--pooled];
+        frame.reset(parent, receiver);
+        return frame;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ScopeStorage frame (ScopeStorage caller, Object receiver, ExecNode[] args)
+    {
+        ScopeStorage frame = frame(caller, receiver);
+        for (int i = 0; i < parameterSlots.length; ++i) {
+            Primitive type = parameterTypes[i];
+            if (type == null)
+                frame.values[parameterSlots[i]] = args[i].execute(caller);
+            else
+                frame.primitives[parameterSlots[i]] = type.evaluate(args[i], caller);
+        }
+        return frame;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void invoke (ScopeStorage frame)
+    {
+        if (body == null)
+            body = interpreter.compileBody(this);
+
+        // Self tail calls rebind the parameters and ask for the body to run again.
+        while (body.executeStatement(frame) == Completion.TAIL_CALL)
+            ++backEdges;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Counts a call and indicates whether it should run the compiled function, promoting the
+     * function if it just became hot.
+     */
+    private boolean hot ()
+    {
+        if (compiled != null)
+            return true;
+        Tiering tiering = interpreter.tiering;
+        if (tiering == null || promoted || ++calls + backEdges < tiering.threshold)
+            return false;
+        promoted = true;
+        compiled = interpreter.promote(this);
+        return compiled != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Evaluates the given argument nodes in the calling frame, boxing their values.
+     */
+    private Object[] evaluate (ScopeStorage caller, ExecNode[] args)
+    {
+        Object[] values = new Object[args.length];
+        for (int i = 0; i < args.length; ++i) {
+            Primitive type = parameterTypes[i];
+            values[i] = type == null
+                ? args[i].execute(caller)
+                : type.box(type.evaluate(args[i], caller));
+        }
+        return values;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the compiled function. The exceptions it throws are wrapped like those of the
+     * interpreter.
+     */
+    private Object callCompiled (Object[] args)
+    {
+        try {
+            return (Object) compiled.invokeExact(args);
+        } catch (RuntimeException e) {
+            throw new InterpreterException(e.getMessage(), e);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw Exceptions.runtime(t);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object result (ScopeStorage frame)
+    {
+        Object result = returnType == null
+            ? frame.returnValue
+            : returnType.box(frame.primitiveReturnValue);
+        release(frame);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the frame to the pool once the call has completed. If the body threw, the frame is
+     * simply never returned to the pool.
+     */
+    private void release (ScopeStorage frame)
+    {
+        frame.clear();
+        if (pooled == pool.length)
+            pool = Arrays.copyOf(pool, pooled * 2);
+        pool[pooled++] = frame;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,26 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Conditional statement, the false branch is optional.
+ */
+final class IfExec extends StatementExec
+{
+    private final ExecNode condition;
+    private final ExecNode trueStatement;
+    private final ExecNode falseStatement;
+
+    IfExec (ExecNode condition, ExecNode trueStatement, ExecNode falseStatement) {
+        this.condition = condition;
+        this.trueStatement = trueStatement;
+        this.falseStatement = falseStatement;
+    }
+
+    @Override Completion executeStatement (ScopeStorage frame)
+    {
+        if (condition.executeBoolean(frame))
+            return trueStatement.executeStatement(frame);
+        else if (falseStatement != null)
+            return falseStatement.executeStatement(frame);
+        return Completion.NORMAL;
+    }
+}
@@ -1,6 +1,5 @@
 package norswap.sigh.interpreter;
 
-import norswap.sigh.SighGrammar;
 import norswap.sigh.ast.*;
 import norswap.sigh.scopes.DeclarationKind;
 import norswap.sigh.scopes.RootScope;
@@ -10,20 +9,21 @@ import norswap.sigh.types.ArrayType;
 import norswap.sigh.types.FloatType;
 import norswap.sigh.types.IntType;
 import norswap.sigh.types.StringType;
+import norswap.sigh.types.StructType;
 import norswap.sigh.types.Type;
 import norswap.uranium.Reactor;
-import norswap.utils.Util;
 import norswap.utils.exceptions.Exceptions;
-import norswap.utils.exceptions.NoStackException;
 import norswap.utils.visitors.ValuedVisitor;
+import java.lang.invoke.MethodHandle;
 import java.util.*;
 
-import static norswap.utils.Util.cast;
-import static norswap.utils.Vanilla.coIterate;
-import static norswap.utils.Vanilla.map;
-
 /**
- * Implements a simple but inefficient interpreter for Sigh.
+ * Implements an interpreter for Sigh.
+ *
+ * <p>The interpreter does not walk the AST when running a program. Instead, it first translates
+ * the analysed AST into a tree of {@link ExecNode}s, in which operators, types, variable
+ * addresses and call targets are resolved once and for all, then executes that tree. The
+ * translation is performed once per program (and once per function, on its first call).
  *
  * <h2>Limitations</h2>
  * <ul>
@@ -34,11 +34,19 @@ import static norswap.utils.Vanilla.map;
  *
  * <p>Runtime value representation:
  * <ul>
- *     <li>{@code Int}, {@code Float}, {@code Bool}: {@link Long}, {@link Double}, {@link Boolean}</li>
+ *     <li>{@code Int}, {@code Float}, {@code Bool}: {@link Long}, {@link Double}, {@link Boolean}
+ *     when boxed, but local variables and parameters of these types are stored unboxed (see
+ *     {@link Primitive}) and expressions of these types are evaluated unboxed when possible (see
+ *     {@link ExecNode})</li>
  *     <li>{@code String}: {@link String}</li>
  *     <li>{@code null}: {@link Null#INSTANCE}</li>
- *     <li>Arrays: {@code Object[]}</li>
- *     <li>Structs: {@code HashMap<String, Object>}</li>
+ *     <li>Arrays: {@link Tensor} for the arrays of {@code Int} and {@code Float} created by array
+ *     declarations, rectangular literals of numbers and array operations ({@link SparseTensor}
+ *     for very large declarations, {@link MappedTensor} for the arrays mapped from files by
+ *     {@code mapInts} and {@code mapFloats}), nested {@code Object[]} otherwise (other literals,
+ *     arrays of other types, ragged arrays)</li>
+ *     <li>Structs: {@link StructInstance}, which can be viewed as a {@code Map<String, Object>}
+ *     </li>
  *     <li>Functions: the corresponding {@link DeclarationNode} ({@link FunDeclarationNode} or
  *     {@link SyntheticDeclarationNode}), excepted structure constructors, which are
  *     represented by {@link Constructor}</li>
@@ -49,16 +57,48 @@ public final class Interpreter
 {
     // ---------------------------------------------------------------------------------------------
 
-    private final ValuedVisitor<SighNode, Object> visitor = new ValuedVisitor<>();
+    private final ValuedVisitor<SighNode, ExecNode> visitor = new ValuedVisitor<>();
     private final Reactor reactor;
-    private ScopeStorage storage = null;
+    private final IdentityHashMap<FunDeclarationNode, Function> functions = new IdentityHashMap<>();
+    private final IdentityHashMap<StructDeclarationNode, StructShape> shapes =
+        new IdentityHashMap<>();
     private RootScope rootScope;
-    private ScopeStorage rootStorage;
-    private Object obj;
+    private SighNode programRoot;
+    private ExecNode program;
+
+    /** The tiered execution configuration, or null if tiering is disabled. */
+    final Tiering tiering;
+
+    /** The arrays mapped from files by the running program, forced when it finishes. */
+    private final ArrayList<MappedTensor> mapped = new ArrayList<>();
+
+    /**
+     * The {@link Primitive} return type of the function whose body is being translated, or null
+     * if it has another type or if the main program is being translated.
+     */
+    private Primitive returnType;
+
+    /**
+     * The function whose body is being translated, whose loops count their iterations if tiering
+     * is enabled, or null if the main program is being translated.
+     */
+    private Function currentFunction;
+
     // ---------------------------------------------------------------------------------------------
 
     public Interpreter (Reactor reactor) {
+        this(reactor, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an interpreter that promotes hot functions to bytecode as configured by {@code
+     * tiering}, or that never does if it is null.
+     */
+    public Interpreter (Reactor reactor, Tiering tiering) {
         this.reactor = reactor;
+        this.tiering = tiering;
 
         // expressions
         visitor.register(IntLiteralNode.class,           this::intLiteral);
@@ -70,6 +110,7 @@ public final class Interpreter
         visitor.register(ParenthesizedNode.class,        this::parenthesized);
         visitor.register(FieldAccessNode.class,          this::fieldAccess);
         visitor.register(ArrayAccessNode.class,          this::arrayAccess);
+        visitor.register(ArraySliceNode.class,           this::arraySlice);
         visitor.register(FunCallNode.class,              this::funCall);
         visitor.register(UnaryExpressionNode.class,      this::unaryExpression);
         visitor.register(BinaryExpressionNode.class,     this::binaryExpression);
@@ -93,73 +134,568 @@ public final class Interpreter
 
     // ---------------------------------------------------------------------------------------------
 
-    public Object interpret (SighNode root) {
+    /**
+     * Runs the given program (a {@link RootNode} that has been through semantic analysis) and
+     * returns the value it returns, if any.
+     */
+    public Object interpret (SighNode root)
+    {
+        if (root != programRoot) {
+            rootScope = reactor.get(root, "scope");
+            program = compile(root);
+            programRoot = root;
+        }
+
+        ScopeStorage frame = new ScopeStorage(rootScope, null, null);
+        frame.initRoot(rootScope);
+        if (tiering != null)
+            tiering.start = System.nanoTime();
+
         try {
-            return run(root);
+            // allow returning from the main script
+            program.executeStatement(frame);
+            return frame.returnValue;
         } catch (PassthroughException e) {
             throw Exceptions.runtime(e.getCause());
+        } finally {
+            for (MappedTensor tensor: mapped)
+                tensor.force();
+            mapped.clear();
         }
     }
 
+    // =============================================================================================
+    // Translation to execution nodes
+    // =============================================================================================
+
+    private ExecNode compile (SighNode node) {
+        return visitor.apply(node);
+    }
+
     // ---------------------------------------------------------------------------------------------
 
-    private Object run (SighNode node) {
+    private ExecNode[] compile (List<? extends SighNode> nodes) {
+        ExecNode[] result = new ExecNode[nodes.size()];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = compile(nodes.get(i));
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the runtime representation of the given function, creating it if necessary.
+     */
+    Function function (FunDeclarationNode decl)
+    {
+        Function function = functions.get(decl);
+        if (function == null) {
+            Scope scope = reactor.get(decl, "scope");
+            int[] parameterSlots = new int[decl.parameters.size()];
+            Primitive[] parameterTypes = new Primitive[parameterSlots.length];
+            for (int i = 0; i < parameterSlots.length; ++i) {
+                parameterSlots[i] = reactor.get(decl.parameters.get(i), "slot");
+                parameterTypes[i] = primitiveType(decl.parameters.get(i));
+            }
+            Primitive returnType = Primitive.of(reactor.get(decl.returnType, "value"));
+            function = new Function(
+                this, decl, scope, parameterSlots, parameterTypes, returnType);
+            functions.put(decl, function);
+        }
+        return function;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Translates the body of the given function. Called by {@link Function} on first call.
+     */
+    ExecNode compileBody (Function function)
+    {
+        Primitive outerReturnType = this.returnType;
+        Function outerFunction = currentFunction;
+        this.returnType = function.returnType;
+        currentFunction = function;
         try {
-            return visitor.apply(node);
-        } catch (InterpreterException | Return | PassthroughException e) {
-            throw e;
-        } catch (RuntimeException e) {
-            throw new InterpreterException("exception while executing " + node, e);
+            return compile(function.declaration.block);
+        } finally {
+            this.returnType = outerReturnType;
+            currentFunction = outerFunction;
         }
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Used to implement the control flow of the return statement.
+     * Compiles the given hot function to bytecode (see {@link Tiering#promote}).
      */
-    private static class Return extends NoStackException {
-        final Object value;
-        private Return (Object value) {
-            this.value = value;
+    MethodHandle promote (Function function) {
+        return tiering.promote(reactor, function);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode intLiteral (IntLiteralNode node) {
+        return new ConstantExec(node.value);
+    }
+
+    private ExecNode floatLiteral (FloatLiteralNode node) {
+        return new ConstantExec(node.value);
+    }
+
+    private ExecNode stringLiteral (StringLiteralNode node) {
+        return new ConstantExec(node.value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode parenthesized (ParenthesizedNode node) {
+        return compile(node.expression);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode arrayLiteral (ArrayLiteralNode node)
+    {
+        return numericLiteral(node)
+            ? new ArrayLiteralExec(literalComponents(node), true)
+            : new ArrayLiteralExec(compile(node.components), false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the components of the literal are numbers or nested literals of numbers, in which
+     * case converting it to a tensor does not copy any array that could be referenced elsewhere.
+     */
+    private boolean numericLiteral (ArrayLiteralNode node)
+    {
+        for (ExpressionNode component: node.components) {
+            if (component instanceof ArrayLiteralNode) {
+                if (!numericLiteral((ArrayLiteralNode) component)) return false;
+                continue;
+            }
+            Type type = reactor.get(component, "type");
+            if (!(type instanceof IntType || type instanceof FloatType)) return false;
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the components of a literal that is converted to a tensor as a whole, so that its
+     * nested literals are not converted on their own.
+     */
+    private ExecNode[] literalComponents (ArrayLiteralNode node)
+    {
+        ExecNode[] components = new ExecNode[node.components.size()];
+        for (int i = 0; i < components.length; ++i) {
+            ExpressionNode component = node.components.get(i);
+            components[i] = component instanceof ArrayLiteralNode
+                ? new ArrayLiteralExec(literalComponents((ArrayLiteralNode) component), false)
+                : compile(component);
         }
+        return components;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode reference (ReferenceNode node)
+    {
+        Scope scope = reactor.get(node, "scope");
+        DeclarationNode decl = reactor.get(node, "decl");
+
+        if (decl == rootScope._true)
+            return new ConstantExec(true);
+        if (decl == rootScope._false)
+            return new ConstantExec(false);
+        if (decl == rootScope._null)
+            return new ConstantExec(Null.INSTANCE);
+
+        if (isVariable(decl)) {
+            Primitive type = primitiveType(decl);
+            return type != null
+                ? new ReadPrimitiveExec(scope.depth, reactor.get(decl, "slot"), type)
+                : new ReadVariableExec(scope.depth, reactor.get(decl, "slot"));
+        }
+        if (decl instanceof FieldDeclarationNode)
+            return new ReadFieldExec(node.name);
+
+        return new ConstantExec(decl); // structure or function
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isVariable (DeclarationNode decl)
+    {
+        return decl instanceof VarDeclarationNode
+            || decl instanceof ParameterNode
+            || decl instanceof ArrayDeclarationNode
+            || decl instanceof SyntheticDeclarationNode
+                && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.VARIABLE;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private <T> T get(SighNode node) {
-        return cast(run(node));
+    /**
+     * Returns the {@link Primitive} type of the given variable declaration if its values are
+     * stored unboxed, or null otherwise.
+     */
+    private Primitive primitiveType (DeclarationNode decl)
+    {
+        return decl instanceof VarDeclarationNode || decl instanceof ParameterNode
+            ? Primitive.of(reactor.get(decl, "type"))
+            : null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Long intLiteral (IntLiteralNode node) {
-        return node.value;
+    private ExecNode writeVariable (Scope scope, DeclarationNode decl, ExecNode value)
+    {
+        int slot = reactor.get(decl, "slot");
+        Primitive type = primitiveType(decl);
+        return type != null
+            ? new WritePrimitiveExec(scope.depth, slot, type, value)
+            : new WriteVariableExec(scope.depth, slot, value);
     }
 
-    private Double floatLiteral (FloatLiteralNode node) {
-        return node.value;
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode constructor (ConstructorNode node) {
+        // guaranteed safe by semantic analysis
+        return new ConstantExec(new Constructor(reactor.get(node.ref, "decl")));
     }
 
-    private String stringLiteral (StringLiteralNode node) {
-        return node.value;
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode fieldAccess (FieldAccessNode node)
+    {
+        ExecNode stem = compile(node.stem);
+        Type stemType = reactor.get(node.stem, "type");
+        if (!(stemType instanceof StructType))
+            return new ArrayPropertyExec(stem, node.fieldName,
+                reactor.get(node, "type") instanceof FloatType);
+
+        // methods used as values are not stored in the instances
+        FunDeclarationNode method = method(((StructType) stemType).node, node.fieldName);
+        if (method != null)
+            return new ConstantExec(method);
+
+        return new StructFieldExec(stem, fieldIndex((StructType) stemType, node.fieldName));
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object parenthesized (ParenthesizedNode node) {
-        return get(node.expression);
+    private ExecNode arrayAccess (ArrayAccessNode node) {
+        ExpressionNode array = arrayBase(node);
+        return new ArrayAccessExec(compile(array), arrayIndices(node));
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object[] arrayLiteral (ArrayLiteralNode node) {
-        return map(node.components, new Object[0], visitor);
+    private ExecNode arraySlice (ArraySliceNode node)
+    {
+        int n = node.components.size();
+        ExecNode[] starts = new ExecNode[n];
+        ExecNode[] ends = new ExecNode[n];
+        boolean[] ranges = new boolean[n];
+        for (int i = 0; i < n; ++i) {
+            ExpressionNode component = node.components.get(i);
+            if (component instanceof RangeNode) {
+                RangeNode range = (RangeNode) component;
+                ranges[i] = true;
+                starts[i] = range.start == null ? null : compile(range.start);
+                ends[i] = range.end == null ? null : compile(range.end);
+            }
+            else
+                starts[i] = compile(component);
+        }
+        return new ArraySliceExec(compile(node.array), starts, ends, ranges);
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object[] arrayScalarOperation(Object array,Number scalar, int op){
+    /**
+     * Returns the array indexed by a chain of indexing operations ({@code array} in {@code
+     * array[i][j]}).
+     */
+    private static ExpressionNode arrayBase (ArrayAccessNode node)
+    {
+        ExpressionNode array = node.array;
+        while (array instanceof ArrayAccessNode)
+            array = ((ArrayAccessNode) array).array;
+        return array;
+    }
+
+    /**
+     * Translates the indices of a chain of indexing operations, from the outermost array inwards
+     * ({@code i} then {@code j} in {@code array[i][j]}).
+     */
+    private ExecNode[] arrayIndices (ArrayAccessNode node)
+    {
+        ArrayList<ExecNode> indices = new ArrayList<>();
+        for (ExpressionNode it = node; it instanceof ArrayAccessNode;
+                it = ((ArrayAccessNode) it).array)
+            indices.add(0, compile(((ArrayAccessNode) it).index));
+        return indices.toArray(new ExecNode[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode funCall (FunCallNode node)
+    {
+        ExecNode[] args = compile(node.arguments);
+
+        if (node.function instanceof ReferenceNode) {
+            DeclarationNode decl = reactor.get(node.function, "decl");
+            if (decl instanceof FunDeclarationNode)
+                return new CallExec(function((FunDeclarationNode) decl), args);
+            if (decl instanceof SyntheticDeclarationNode
+                    && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.FUNCTION)
+                return new BuiltinCallExec(this, decl.name(), args);
+        }
+
+        if (node.function instanceof ConstructorNode) {
+            ConstructorNode constructor = (ConstructorNode) node.function;
+            return new ConstructExec(shape(reactor.get(constructor.ref, "decl")), args);
+        }
+
+        if (node.function instanceof FieldAccessNode) {
+            FieldAccessNode access = (FieldAccessNode) node.function;
+            Type stemType = reactor.get(access.stem, "type");
+            if (stemType instanceof StructType
+                    && method(((StructType) stemType).node, access.fieldName) != null)
+                return new MethodCallExec(compile(access.stem), access.fieldName, args);
+        }
+
+        return new DynamicCallExec(this, compile(node.function), args);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the given field in the instances of the given struct type.
+     */
+    private int fieldIndex (StructType type, String name) {
+        return shape(type.node).index(name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the method with the given name of the given struct, or null if there is none or if
+     * it is hidden by a field with the same name.
+     */
+    private static FunDeclarationNode method (StructDeclarationNode struct, String name)
+    {
+        for (FieldDeclarationNode field: struct.fields)
+            if (field.name.equals(name)) return null;
+        for (FunDeclarationNode fun: struct.fun)
+            if (fun.name.equals(name)) return fun;
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode unaryExpression (UnaryExpressionNode node)
+    {
+        // there is only NOT
+        assert node.operator == UnaryOperator.NOT;
+        return new NotExec(compile(node.operand));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode binaryExpression (BinaryExpressionNode node)
+    {
+        Type leftType  = reactor.get(node.left, "type");
+        Type rightType = reactor.get(node.right, "type");
+        ExecNode left  = compile(node.left);
+        ExecNode right = compile(node.right);
+
+        // Cases where both operands should not be evaluated.
+        switch (node.operator) {
+            case OR:  return new OrExec(left, right);
+            case AND: return new AndExec(left, right);
+        }
+
+        if (node.operator == BinaryOperator.ADD
+                && (leftType instanceof StringType || rightType instanceof StringType))
+            return new ConcatExec(this, left, right);
+        else if (leftType instanceof ArrayType || rightType instanceof ArrayType)
+            return arrayExpression(node.operator, left, right);
+
+        boolean floating = leftType instanceof FloatType || rightType instanceof FloatType;
+        boolean numeric  = floating || leftType instanceof IntType;
+
+        if (numeric)
+            return isArithmetic(node.operator)
+                ? ArithmeticExec.create(node.operator, floating, left, right)
+                : ComparisonExec.create(node.operator, floating, left, right);
+
+        switch (node.operator) {
+            case EQUALITY:
+                return new EqualityExec(leftType.isPrimitive(), false, left, right);
+            case NOT_EQUALS:
+                return new EqualityExec(leftType.isPrimitive(), true, left, right);
+        }
+
+        throw new Error("should not reach here");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode arrayExpression (BinaryOperator operator, ExecNode left, ExecNode right)
+    {
+        switch (operator) {
+            case ADD:       return ArrayArithmeticExec.create(this, Kernels.ADD, left, right);
+            case SUBTRACT:  return ArrayArithmeticExec.create(this, Kernels.SUBTRACT, left, right);
+            case MULTIPLY:  return ArrayArithmeticExec.create(this, Kernels.MULTIPLY, left, right);
+            case DIVIDE:    return ArrayArithmeticExec.create(this, Kernels.DIVIDE, left, right);
+            case REMAINDER: return ArrayArithmeticExec.create(this, Kernels.REMAINDER, left, right);
+            default:        return new ArrayOperationExec(this, operator, left, right);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isArithmetic (BinaryOperator op) {
+        return op == BinaryOperator.ADD || op == BinaryOperator.SUBTRACT
+            || op == BinaryOperator.MULTIPLY || op == BinaryOperator.DIVIDE
+            || op == BinaryOperator.REMAINDER;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode assignment (AssignmentNode node)
+    {
+        ExecNode right = compile(node.right);
+
+        if (node.left instanceof ReferenceNode) {
+            Scope scope = reactor.get(node.left, "scope");
+            DeclarationNode decl = reactor.get(node.left, "decl");
+            if (decl instanceof FieldDeclarationNode)
+                return new WriteFieldExec(decl.name(), right);
+            return writeVariable(scope, decl, right);
+        }
+
+        if (node.left instanceof ArrayAccessNode) {
+            ArrayAccessNode arrayAccess = (ArrayAccessNode) node.left;
+            return new ArrayAssignExec(
+                compile(arrayBase(arrayAccess)), arrayIndices(arrayAccess), right);
+        }
+
+        if (node.left instanceof FieldAccessNode) {
+            FieldAccessNode fieldAccess = (FieldAccessNode) node.left;
+            StructType type = reactor.get(fieldAccess.stem, "type");
+            return new StructAssignExec(
+                compile(fieldAccess.stem), fieldIndex(type, fieldAccess.fieldName), right);
+        }
+
+        throw new Error("should not reach here");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode root (RootNode node) {
+        return statements(node.statements);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode block (BlockNode node) {
+        // Block variables live in the frame of the enclosing function: no new storage needed.
+        return statements(node.statements);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private BlockExec statements (List<StatementNode> nodes)
+    {
+        ArrayList<ExecNode> statements = new ArrayList<>();
+        ArrayList<SighNode> sources = new ArrayList<>();
+        for (StatementNode node: nodes) {
+            ExecNode statement = compile(node);
+            if (statement == null) continue; // function and struct declarations
+            statements.add(statement);
+            sources.add(node);
+        }
+        return new BlockExec(
+            statements.toArray(new ExecNode[0]), sources.toArray(new SighNode[0]));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode expressionStmt (ExpressionStatementNode node) {
+        return compile(node.expression);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode ifStmt (IfNode node) {
+        return new IfExec(
+            compile(node.condition),
+            compile(node.trueStatement),
+            node.falseStatement == null ? null : compile(node.falseStatement));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode whileStmt (WhileNode node) {
+        return new WhileExec(compile(node.condition), compile(node.body),
+            tiering == null ? null : currentFunction);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode returnStmt (ReturnNode node)
+    {
+        if (node.expression == null)
+            return new ReturnExec(null, null);
+
+        if (reactor.get(node, "tailCall")) {
+            ExpressionNode expression = node.expression;
+            while (expression instanceof ParenthesizedNode)
+                expression = ((ParenthesizedNode) expression).expression;
+            FunCallNode call = (FunCallNode) expression;
+            FunDeclarationNode decl = reactor.get(call.function, "decl");
+            return new TailCallExec(function(decl), compile(call.arguments));
+        }
+
+        return new ReturnExec(compile(node.expression), returnType);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecNode varDecl (VarDeclarationNode node)
+    {
+        return writeVariable(reactor.get(node, "scope"), node, compile(node.initializer));
+    }
+
+    private ExecNode arrayDecl (ArrayDeclarationNode node)
+    {
+        Scope scope = reactor.get(node, "scope");
+        int[] dimensions = new int[node.initializer.size()];
+        for (int i = 0; i < dimensions.length; ++i)
+            dimensions[i] = Integer.parseInt(((StringLiteralNode) node.initializer.get(i)).value);
+
+        Type type = reactor.get(node, "type");
+        while (type instanceof ArrayType)
+            type = ((ArrayType) type).componentType;
+        Primitive elementType = Primitive.of(type);
+        if (elementType == Primitive.BOOL)
+            elementType = null;
+
+        return new WriteVariableExec(scope.depth, reactor.get(node, "slot"),
+            new NewArrayExec(elementType, dimensions));
+    }
+
+    // =============================================================================================
+    // Runtime support
+    // =============================================================================================
+
+    private static Object[] arrayScalarOperation(Object array,Number scalar, int op){
         Object[] a = (Object[]) array;
         if(a[0] instanceof Double ){
             if (scalar instanceof Double) {
@@ -253,7 +789,47 @@ public final class Interpreter
         return null;
     }
 
-    private Object[] arrayOperate(Object lArray,Object rArray, int op){
+    /**
+     * Returns the given value as a tensor if it is one or if it is a rectangular array of {@code
+     * Int} or {@code Float} values, or null otherwise.
+     */
+    private static Tensor tensor (Object value)
+    {
+        if (value instanceof Tensor)
+            return (Tensor) value;
+        if (value instanceof Object[])
+            return Tensor.of((Object[]) value);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    Object arrayOperate (ScopeStorage frame, Object lArray, Object rArray, int op)
+    {
+        if (lArray instanceof SparseTensor || rArray instanceof SparseTensor)
+            return SparseTensor.operate(this, frame, lArray, rArray, op);
+        if (lArray instanceof MappedTensor || rArray instanceof MappedTensor)
+            return arrayOperate(frame, MappedTensor.dense(lArray), MappedTensor.dense(rArray), op);
+
+        Tensor left = tensor(lArray);
+        Tensor right = tensor(rArray);
+        if (left != null && right != null)
+            return left.operate(right, op);
+        if (left != null && rArray instanceof Number)
+            return left.operate((Number) rArray, op);
+        if (right != null && lArray instanceof Number) {
+            if (op == Kernels.SUBTRACT)
+                return right.subtractFrom((Number) lArray);
+            if (op == Kernels.DIVIDE || op == Kernels.REMAINDER)
+                throw new InterpreterException(
+                    "Try to divide a scalar by an array", new ArithmeticException());
+            return right.operate((Number) lArray, op);
+        }
+
+        // arrays of structs and ragged arrays
+        if (lArray instanceof Tensor) lArray = ((Tensor) lArray).toArray();
+        if (rArray instanceof Tensor) rArray = ((Tensor) rArray).toArray();
+
         if(lArray instanceof Number && rArray instanceof  Object[]){
             if(op==1) {
                 return arrayScalarOperation(arrayScalarOperation((Object[]) rArray,-1,5),(Number) lArray,0);
@@ -348,16 +924,15 @@ public final class Interpreter
             if(rightArray[0] instanceof Object[]){
                 Object[] result=new Object[leftArray.length];
                 for(int i=0;i<leftArray.length;i++){
-                    result[i]=arrayOperate(leftArray[i],rightArray[i],op);
+                    result[i]=arrayOperate(frame,leftArray[i],rightArray[i],op);
                 }
                 return result;
             }
         }
-        else if (leftArray[0] instanceof HashMap && rightArray[0] instanceof HashMap  ){
+        else if (leftArray[0] instanceof StructInstance && rightArray[0] instanceof StructInstance){
             Object[] result = new Object[leftArray.length];
-            Object oldobj = obj;
             for (int i=0;i< leftArray.length;i++){
-                Object decl = null;
+                String decl = null;
                 switch (op) {
                     case 0: decl = "plus"; break;
                     case 1: decl = "minus"; break;
@@ -366,27 +941,12 @@ public final class Interpreter
                     case 4: decl = "modulo"; break;
 
                 }
-                FunDeclarationNode b1 = (FunDeclarationNode) ((HashMap)leftArray[i]).get(decl);
+                Function b1 = ((StructInstance)leftArray[i]).shape.method(decl);
                 if(b1==null){
                     throw new InterpreterException("You must implement "+ decl+ " method",new Exception());
                 }
-                Object[] args = new Object[]{rightArray[i]};
-                ScopeStorage oldStorage = storage;
-                Scope scope = reactor.get(b1, "scope");
-                storage = new ScopeStorage(scope, storage);
-                coIterate(args, b1.parameters,
-                    (arg, param) -> storage.set(scope, param.name, arg));
-
-                obj = leftArray[i];
-                try {
-                    get(b1.block);
-                } catch (Return r) {
-                    result[i]= r.value;
-                } finally {
-                    storage = oldStorage;
-                }
+                result[i] = b1.call(frame, leftArray[i], new Object[]{rightArray[i]});
             }
-            obj=oldobj;
             return result;
         }
         else{
@@ -395,531 +955,107 @@ public final class Interpreter
         return null;
     }
 
-    private Object matrixOperate(Object lArray, Object rArray, int op){
-        if(!(lArray instanceof Object[]) || !(rArray instanceof  Object[]))
-            throw new InterpreterException("Trying to operate on non-array type", new Exception());
-        Object[] leftArray=(Object[]) lArray;
-        Object[] rightArray=(Object[]) rArray;
-        if(leftArray[0] instanceof Long && rightArray[0] instanceof Long){
-            if(leftArray.length!=rightArray.length){
-                throw new InterpreterException("Trying to operate on arrays with different dimensions", new Exception());
-            }
-            Long result=Long.valueOf(0);
-            for(int i=0;i<leftArray.length;i++){
-                result+=(Long)leftArray[i]*(Long)rightArray[i];
-            }
-            return result;
-        }
-        if(leftArray[0] instanceof Long && (rightArray[0] instanceof Object[]) ){
-            if(rightArray.length>1 && ((Object[])rightArray).length!=leftArray.length){
-                throw new InterpreterException("Trying to operate on arrays with different dimensions", new Exception());
-            }
-            Long result=Long.valueOf(0);
-            for(int i=0;i<leftArray.length;i++){
-                result+=(Long)leftArray[i]*(Long)((Object[])rightArray[i])[0];
-            }
-            return result;
-        }
-        if(!(leftArray[0] instanceof Object[])||!(rightArray[0] instanceof Object[])
-            ||(((Object[])leftArray[0])[0] instanceof Object[]) ||(((Object[])rightArray[0])[0] instanceof Object[]))
-            throw new InterpreterException("Trying to operate on non-array type", new Exception());
-
-        switch (op) {
-            case 0:
-                if (((Object[]) leftArray[0])[0] instanceof Long && (((Object[]) rightArray[0])[0] instanceof Long)) {
-                    Long[][] lA = new Long[leftArray.length][((Object[]) leftArray[0]).length];
-                    Long[][] rA = new Long[rightArray.length][((Object[]) rightArray[0]).length];
-                    for (int i = 0; i < lA.length; i++) {
-                        Object[] line=(Object[])leftArray[i];
-                        for(int j=0;j<line.length;j++){
-                            lA[i][j]=(Long)line[j];
-                        }
-
-                    }
-                    for (int i = 0; i < rA.length; i++) {
-                        Object[] line=(Object[])rightArray[i];
-                        for(int j=0;j<line.length;j++){
-                            rA[i][j]=(Long)line[j];
-                        }
-                    }
-                    if (lA[0].length != rA.length)
-                    throw new InterpreterException("Trying to use @ operation on matrix with uncompatible sizes:" +
-                        "[" + lA.length + ", " + lA[0].length + "] and [" + rA.length + ", " + rA[0].length + "]", new Exception());
-                    Long[][] result = new Long[lA.length][rA[0].length];
-                    for (int i = 0; i < lA.length; i++) {
-                        for (int j = 0; j < rA.length; j++) {
-                            result[i][j]=Long.valueOf(0);
-                            for (int k = 0; k < lA[0].length; k++) {
-                                result[i][j] += lA[i][k] * rA[k][j];
-                            }
-                        }
-                    }
-                    return result;
-
-                }
-
-                if (((Object[]) leftArray[0])[0] instanceof Long && (((Object[]) rightArray[0])[0] instanceof Long)) {
-                    Double[][] lA = new Double[leftArray.length][];
-                    Double[][] rA = new Double[rightArray.length][];
-                    for (int i = 0; i < lA.length; i++) {
-                        Object[] line=(Object[])leftArray[i];
-                        for(int j=0;j<line.length;j++){
-                            lA[i][j]=(Double)line[j];
-                        }
-
-                    }
-                    for (int i = 0; i < rA.length; i++) {
-                        Object[] line=(Object[])rightArray[i];
-                        for(int j=0;j<line.length;j++){
-                            rA[i][j]=(Double)line[j];
-                        }
-                    }
-                    Double[][] result = new Double[lA.length][rA[0].length];
-
-                    for (int i = 0; i < lA.length; i++) {
-                        for (int j = 0; j < rA.length; j++) {
-                            result[i][j]=Double.valueOf(0);
-                            for(int k=0;k<lA[0].length;k++){
-                                result[i][j]+=lA[i][k]*rA[k][j];
-                            }
-                        }
-                    }
-                    return result;
-                }
-                else
-                    throw new InterpreterException("Operation @ not defined for this type",new Exception());
-            default:
-                return new Object[leftArray.length][rightArray.length];
-        }
-    }
-
-    private Object arrayExpression( BinaryExpressionNode node){
-        Type leftType  = reactor.get(node.left, "type");
-        Type rightType = reactor.get(node.right, "type");
-
-        Object left  = get(node.left);
-        Object right = get(node.right);
-
-        switch (node.operator) {
-            case  ADD:
-                return arrayOperate(left,right,0);
-            case MULTIPLY:
-                return arrayOperate(left,right,2);
-            case SUBTRACT:
-                return arrayOperate(left,right,1);
-            case DIVIDE:
-                return arrayOperate(left,right,3);
-            case DOTPRODUCT:
-                return matrixOperate(left,right,0);
-            case REMAINDER:
-                return arrayOperate(left,right,4);
-
-            case EQUALITY:
-                return  leftType.isPrimitive() ? left.equals(right) : left == right;
-            case NOT_EQUALS:
-                return  leftType.isPrimitive() ? !left.equals(right) : left != right;
-
-        }
-
-
-        throw new InterpreterException("Operation not possible on arrays", new Exception());
-    }
-
-    private Object binaryExpression (BinaryExpressionNode node)
-    {
-        Type leftType  = reactor.get(node.left, "type");
-        Type rightType = reactor.get(node.right, "type");
-
-        // Cases where both operands should not be evaluated.
-        switch (node.operator) {
-            case OR:  return booleanOp(node, false);
-            case AND: return booleanOp(node, true);
-        }
-
-        Object left  = get(node.left);
-        Object right = get(node.right);
-
-        if (node.operator == BinaryOperator.ADD
-                && (leftType instanceof StringType || rightType instanceof StringType))
-            return convertToString(left) + convertToString(right);
-        else if (leftType instanceof ArrayType || rightType instanceof ArrayType) {
-            return arrayExpression(node);
-        }
-        boolean floating = leftType instanceof FloatType || rightType instanceof FloatType;
-        boolean numeric  = floating || leftType instanceof IntType;
-
-        if (numeric)
-            return numericOp(node, floating, (Number) left, (Number) right);
-
-        switch (node.operator) {
-            case EQUALITY:
-                return  leftType.isPrimitive() ? left.equals(right) : left == right;
-            case NOT_EQUALS:
-                return  leftType.isPrimitive() ? !left.equals(right) : left != right;
-        }
-
-        throw new Error("should not reach here");
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private boolean booleanOp (BinaryExpressionNode node, boolean isAnd)
-    {
-        boolean left = get(node.left);
-        return isAnd
-                ? left && (boolean) get(node.right)
-                : left || (boolean) get(node.right);
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Object numericOp
-            (BinaryExpressionNode node, boolean floating, Number left, Number right)
-    {
-        long ileft, iright;
-        double fleft, fright;
-
-        if (floating) {
-            fleft  = left.doubleValue();
-            fright = right.doubleValue();
-            ileft = iright = 0;
-        } else {
-            ileft  = left.longValue();
-            iright = right.longValue();
-            fleft = fright = 0;
-        }
-
-        Object result;
-        if (floating)
-            switch (node.operator) {
-                case MULTIPLY:      return fleft *  fright;
-                case DIVIDE:        return fleft /  fright;
-                case REMAINDER:     return fleft %  fright;
-                case ADD:           return fleft +  fright;
-                case SUBTRACT:      return fleft -  fright;
-                case GREATER:       return fleft >  fright;
-                case LOWER:         return fleft <  fright;
-                case GREATER_EQUAL: return fleft >= fright;
-                case LOWER_EQUAL:   return fleft <= fright;
-                case EQUALITY:      return fleft == fright;
-                case NOT_EQUALS:    return fleft != fright;
-                default:
-                    throw new Error("should not reach here");
-            }
-        else
-            switch (node.operator) {
-                case MULTIPLY:      return ileft *  iright;
-                case DIVIDE:        return ileft /  iright;
-                case REMAINDER:     return ileft %  iright;
-                case ADD:           return ileft +  iright;
-                case SUBTRACT:      return ileft -  iright;
-                case GREATER:       return ileft >  iright;
-                case LOWER:         return ileft <  iright;
-                case GREATER_EQUAL: return ileft >= iright;
-                case LOWER_EQUAL:   return ileft <= iright;
-                case EQUALITY:      return ileft == iright;
-                case NOT_EQUALS:    return ileft != iright;
-                default:
-                    throw new Error("should not reach here");
-            }
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    public Object assignment (AssignmentNode node)
-    {
-        if (node.left instanceof ReferenceNode) {
-            Scope scope = reactor.get(node.left, "scope");
-            String name = ((ReferenceNode) node.left).name;
-            Object rvalue = get(node.right);
-            assign(scope, name, rvalue, reactor.get(node, "type"));
-            return rvalue;
-        }
-
-        if (node.left instanceof ArrayAccessNode) {
-            ArrayAccessNode arrayAccess = (ArrayAccessNode) node.left;
-            Object[] array = getNonNullArray(arrayAccess.array);
-            int index = getIndex(arrayAccess.index);
-            try {
-                return array[index] =(Object) get(node.right);
-            } catch (ArrayIndexOutOfBoundsException e) {
-                throw new PassthroughException(e);
-            }
-        }
-
-        if (node.left instanceof FieldAccessNode) {
-            FieldAccessNode fieldAccess = (FieldAccessNode) node.left;
-            Object object = get(fieldAccess.stem);
-            if (object == Null.INSTANCE)
-                throw new PassthroughException(
-                    new NullPointerException("accessing field of null object"));
-            Map<String, Object> struct = cast(object);
-            Object right = get(node.right);
-            struct.put(fieldAccess.fieldName, right);
-            return right;
-        }
-
-        throw new Error("should not reach here");
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private int getIndex (ExpressionNode node)
-    {
-        long index = get(node);
-        if (index < 0)
-            throw new ArrayIndexOutOfBoundsException("Negative index: " + index);
-        if (index >= Integer.MAX_VALUE - 1)
-            throw new ArrayIndexOutOfBoundsException("Index exceeds max array index (2ˆ31 - 2): " + index);
-        return (int) index;
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Object[] getNonNullArray (ExpressionNode node)
-    {
-        Object object = get(node);
-        if (object == Null.INSTANCE)
-            throw new PassthroughException(new NullPointerException("indexing null array"));
-        return (Object[]) object;
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Object unaryExpression (UnaryExpressionNode node)
-    {
-        // there is only NOT
-        assert node.operator == UnaryOperator.NOT;
-        return ! (boolean) get(node.operand);
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Object arrayAccess (ArrayAccessNode node)
+    Object matrixOperate (Object lArray, Object rArray)
     {
-        Object[] array = getNonNullArray(node.array);
-        try {
-            return array[getIndex(node.index)];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            throw new PassthroughException(e);
-        }
+        if (lArray instanceof SparseTensor || rArray instanceof SparseTensor)
+            return SparseTensor.matmul(lArray, rArray);
+        if (lArray instanceof MappedTensor || rArray instanceof MappedTensor)
+            return MappedTensor.matmul(lArray, rArray);
+        Tensor left = tensor(lArray);
+        Tensor right = tensor(rArray);
+        if (left == null || right == null)
+            throw new InterpreterException("Trying to operate on non-array type", new Exception());
+        return left.matmul(right);
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object root (RootNode node)
+    Object builtin (ScopeStorage frame, String name, Object[] args)
     {
-        assert storage == null;
-        rootScope = reactor.get(node, "scope");
-        storage = rootStorage = new ScopeStorage(rootScope, null);
-        storage.initRoot(rootScope);
-
-        try {
-            node.statements.forEach(this::run);
-        } catch (Return r) {
-            return r.value;
-            // allow returning from the main script
-        } finally {
-            storage = null;
+        switch (name) {
+            case "print":
+                String out = convertToString(frame, args[0]);
+                System.out.println(out);
+                return out;
+            case "sum":    return reduce(name, args, Reductions.SUM);
+            case "min":    return reduce(name, args, Reductions.MIN);
+            case "max":    return reduce(name, args, Reductions.MAX);
+            case "argmax": return reduce(name, args, Reductions.ARGMAX);
+            case "stats":
+                return args[0] instanceof MappedTensor
+                    ? Reductions.stats((MappedTensor) args[0])
+                    : args[0] instanceof SparseTensor
+                        ? Reductions.stats((SparseTensor) args[0])
+                        : Reductions.stats(numericArray(name, args[0]));
+            case "mapInts":   return map(Primitive.INT, args);
+            case "mapFloats": return map(Primitive.FLOAT, args);
+            default:
+                throw new Error("should not reach here");
         }
-        return null;
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Void block (BlockNode node) {
-        Scope scope = reactor.get(node, "scope");
-        storage = new ScopeStorage(scope, storage);
-        node.statements.forEach(this::run);
-        storage = storage.parent;
-        return null;
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Constructor constructor (ConstructorNode node) {
-        // guaranteed safe by semantic analysis
-        return new Constructor(get(node.ref));
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Object expressionStmt(ExpressionStatementNode node) {
-        get(node.expression);
-        return null;  // discard value
     }
 
     // ---------------------------------------------------------------------------------------------
-    private double average(Object[] tab){
-        if(tab.length==0) return 0;
-        double a=sumFloat(tab);
-        long n=count(tab);
-        return a/(double)n;
-    }
-
-    private long sumLong(Object[] tab){
-        if(tab.length==0) return 0;
-        long a=0;
-        for(Object o:tab){
-            if(o instanceof Object[]){
-                a+=sumLong((Object[])o);
-            }
-            if(o instanceof Long) a=a+(long)o;
-        }
-        return a;
-    }
 
-    private double sumFloat(Object[] tab){
-        if(tab.length==0)return 0;
-        double a=0;
-        for(Object o:tab){
-            if(o instanceof Object[]){
-                a+=sumFloat((Object[])o);
-            }
-            else if (o instanceof Long)
-                a=a+(double)((long)o);
-            else if(o instanceof Double)a=a+(double)(o);
-        }
-        return a;
-    }
-
-    private long count(Object[] tab){
-        if(tab.length==0)return new Long(0);
-        long n=0;
-        if(tab[0] instanceof Object[]){
-            for(Object o:tab)
-                n+=count((Object[])o);
-        }
-        else n+=tab.length;
-        return n;
-    }
-
-    private long nDim(Object[] tab, long n){
-        if(tab.length==0)return n;
-        if (tab[0] instanceof Object[]){
-            return nDim((Object[])tab[0],n+1);
-        }
-        return n;
-    }
-
-
-    private Object fieldAccess (FieldAccessNode node)
+    /**
+     * Implements the reduction built-ins whose arguments are an array and an axis.
+     */
+    private static Object reduce (String builtin, Object[] args, int op)
     {
-
-        Object stem = get(node.stem);
-        if (stem == Null.INSTANCE)
-            throw new PassthroughException(
-                    new NullPointerException("accessing field of null object"));
-        if(! (stem instanceof  Map)){
-            String fieldName=node.fieldName;
-            if(fieldName.equals("length"))
-                return (long) ((Object[]) stem).length;
-            else if(fieldName.equals("count"))
-                return (long) count((Object[]) stem);
-            else if(fieldName.equals("avg"))
-                return (Double) average((Object[]) stem);
-            else if(fieldName.equals("sum")) {
-
-                if (((Object[]) stem).length > 0 &&( ((Object[]) stem)[0] instanceof Double || ((Object[]) stem)[0] instanceof Float))
-                    return sumFloat((Object[]) stem);
-                else
-                    return (long) sumLong((Object[]) stem);
-            }
-            else if(fieldName.equals("nDim"))
-                return (long) nDim((Object[]) stem,1);
-        }
-        if(stem instanceof HashMap){
-            if (((HashMap)stem).get(node.fieldName) instanceof FunDeclarationNode){
-                obj = stem;
-            }
-        }
-
-        return Util.<Map<String, Object>>cast(stem).get(node.fieldName);
-        /*return stem instanceof Map
-                ? Util.<Map<String, Object>>cast(stem).get(node.fieldName)
-                :(long) ((Object[]) stem).length;  // only field on arrays*/
+        if (args[0] instanceof SparseTensor)
+            return ((SparseTensor) args[0]).reduce(op, (Long) args[1]);
+        if (args[0] instanceof MappedTensor)
+            return Reductions.reduce((MappedTensor) args[0], op, (Long) args[1]);
+        return Reductions.reduce(numericArray(builtin, args[0]), op, (Long) args[1]);
     }
 
-
     // ---------------------------------------------------------------------------------------------
 
-    private Object funCall (FunCallNode node)
+    /**
+     * Implements the {@code mapInts} and {@code mapFloats} built-ins, whose arguments are the path
+     * of the file and the dimensions of the array.
+     */
+    private Object map (Primitive type, Object[] args)
     {
-        Object decl = get(node.function);
-
-
-        node.arguments.forEach(this::run);
-        Object[] args = map(node.arguments, new Object[0], visitor);
-
-        if (decl == Null.INSTANCE)
-            throw new PassthroughException(new NullPointerException("calling a null function"));
-
-        if (decl instanceof SyntheticDeclarationNode)
-            return builtin(((SyntheticDeclarationNode) decl).name(), args);
-
-        if (decl instanceof Constructor)
-            return buildStruct(((Constructor) decl).declaration, args);
-
-        ScopeStorage oldStorage = storage;
-        Scope scope = reactor.get(decl, "scope");
-        storage = new ScopeStorage(scope, storage);
-
-        FunDeclarationNode funDecl = (FunDeclarationNode) decl;
-        coIterate(args, funDecl.parameters,
-                (arg, param) -> storage.set(scope, param.name, arg));
-
-        try {
-            get(funDecl.block);
-        } catch (Return r) {
-            return r.value;
-        } finally {
-            storage = oldStorage;
-        }
-        return null;
+        long[] dimensions = new long[args.length - 1];
+        for (int i = 0; i < dimensions.length; ++i)
+            dimensions[i] = (Long) args[i + 1];
+        MappedTensor tensor = MappedTensor.map(type, (String) args[0], dimensions);
+        mapped.add(tensor);
+        return tensor;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object builtin (String name, Object[] args)
+    /**
+     * Returns the array argument of a reduction built-in as a tensor, throwing if it is not a
+     * non-empty rectangular array of {@code Int} or {@code Float} values.
+     */
+    private static Tensor numericArray (String builtin, Object value)
     {
-        assert name.equals("print"); // only one at the moment
-        String out = convertToString(args[0]);
-        System.out.println(out);
-        return out;
+        Tensor tensor = tensor(SparseTensor.dense(value));
+        if (tensor == null)
+            throw new InterpreterException(builtin + " expects a non-empty rectangular array of "
+                + "Int or Float values", new IllegalArgumentException());
+        return tensor;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private String convertToString (Object arg)
+    String convertToString (ScopeStorage frame, Object arg)
     {
         if (arg == Null.INSTANCE)
             return "null";
         else if (arg instanceof Object[]) {
 
-            if (((Object[]) arg)[0] instanceof HashMap) {
-                Object oldobj = obj;
+            if (((Object[]) arg)[0] instanceof StructInstance) {
                 Object[] result = new Object[((Object[])arg).length];
                 for (int i = 0; i <((Object[])arg).length;i++){
-                    FunDeclarationNode toprint = (FunDeclarationNode) ((HashMap)((Object[])arg)[i]).get("to_Number");
+                    Function toprint = ((StructInstance)((Object[])arg)[i]).shape.method("to_Number");
                     if(toprint==null){
                         throw new InterpreterException("You must implement to_Number method",new NoSuchMethodException());
                     }
-
-                    ScopeStorage oldStorage = storage;
-                    Scope scope = reactor.get(toprint, "scope");
-                    storage = new ScopeStorage(scope, storage);
-
-
-                    obj = ((Object[])arg)[i];
-                    try {
-                        get(toprint.block);
-                    } catch (Return r) {
-                        result[i]= r.value;
-                    } finally {
-                        storage = oldStorage;
-                    }
+                    result[i] = toprint.call(frame, ((Object[])arg)[i], new Object[0]);
                 }
-                obj=oldobj;
                 return Arrays.deepToString(result);
             }
 
@@ -938,86 +1074,11 @@ public final class Interpreter
 
     // ---------------------------------------------------------------------------------------------
 
-    private HashMap<String, Object> buildStruct (StructDeclarationNode node, Object[] args)
-    {
-        HashMap<String, Object> struct = new HashMap<>();
-        for (int i = 0; i < node.fields.size(); ++i)
-            struct.put(node.fields.get(i).name, args[i]);
-        for (int i = 0; i < node.fun.size(); ++i)
-            struct.put(node.fun.get(i).name, node.fun.get(i));
-        return struct;
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Void ifStmt (IfNode node)
-    {
-        if (get(node.condition))
-            get(node.trueStatement);
-        else if (node.falseStatement != null)
-            get(node.falseStatement);
-        return null;
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Void whileStmt (WhileNode node)
-    {
-        while (get(node.condition))
-            get(node.body);
-        return null;
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Object reference (ReferenceNode node)
-    {
-        Scope scope = reactor.get(node, "scope");
-        DeclarationNode decl = reactor.get(node, "decl");
-
-        if (decl instanceof VarDeclarationNode
-        || decl instanceof ParameterNode
-        || decl instanceof ArrayDeclarationNode
-        || decl instanceof SyntheticDeclarationNode
-                && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.VARIABLE)
-            return scope == rootScope
-                ? rootStorage.get(scope, node.name)
-                : storage.get(scope, node.name);
-        if (decl instanceof FieldDeclarationNode){
-            return ((HashMap<?, ?>)obj).get(node.name);//((HashMap)rootStorage.get(scope, var.name)).get(node.name);
-        }
-        return decl; // structure or function
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Void returnStmt (ReturnNode node) {
-        throw new Return(node.expression == null ? null : get(node.expression));
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Void varDecl (VarDeclarationNode node)
-    {
-        Scope scope = reactor.get(node, "scope");
-        assign(scope, node.name, get(node.initializer), reactor.get(node, "type"));
-        return null;
-    }
-
-    private Void arrayDecl (ArrayDeclarationNode node)
-    {
-        Scope scope = reactor.get(node, "scope");
-        assign(scope, node.name, node.createArray(0), reactor.get(node, "type"));
-        return null;
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private void assign (Scope scope, String name, Object value, Type targetType)
-    {
-        if (value instanceof Long && targetType instanceof FloatType)
-            value = ((Long) value).doubleValue();
-        storage.set(scope, name, value);
+    /**
+     * Returns the shape of the instances of the given struct, creating it if necessary.
+     */
+    StructShape shape (StructDeclarationNode decl) {
+        return shapes.computeIfAbsent(decl, it -> new StructShape(this, it));
     }
 
     // ---------------------------------------------------------------------------------------------
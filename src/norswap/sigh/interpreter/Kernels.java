@@ -0,0 +1,262 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Element-wise arithmetic kernels over the storage of {@link Tensor}s.
+ *
+ * <p>There is one loop per operator, element type and operand kind (array or scalar), with no
+ * branch and no allocation in its body, so that the JIT compiler can vectorize it. The operator is
+ * selected once per operation ({@link #apply}), not once per element.
+ *
+ * <p>In every kernel, arrays are given with the position of their first element, and {@code
+ * length} elements are processed.
+ */
+final class Kernels
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private Kernels () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Operator codes, as used by {@link Interpreter#arrayOperate}. */
+    static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2, DIVIDE = 3, REMAINDER = 4;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Computes {@code r[i] = a[i] op b[i]}.
+     */
+    static void apply (int op, long[] a, int aOffset, long[] b, int bOffset, long[] r, int length)
+    {
+        switch (op) {
+            case ADD:       add(a, aOffset, b, bOffset, r, length); return;
+            case SUBTRACT:  subtract(a, aOffset, b, bOffset, r, length); return;
+            case MULTIPLY:  multiply(a, aOffset, b, bOffset, r, length); return;
+            case DIVIDE:
+                nonZero(b, bOffset, length);
+                divide(a, aOffset, b, bOffset, r, length);
+                return;
+            case REMAINDER:
+                nonZero(b, bOffset, length);
+                remainder(a, aOffset, b, bOffset, r, length);
+                return;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    /**
+     * Computes {@code r[i] = a[i] op b}.
+     */
+    static void apply (int op, long[] a, int aOffset, long b, long[] r, int length)
+    {
+        switch (op) {
+            case ADD:       add(a, aOffset, b, r, length); return;
+            case SUBTRACT:  subtract(a, aOffset, b, r, length); return;
+            case MULTIPLY:  multiply(a, aOffset, b, r, length); return;
+            case DIVIDE:    divide(a, aOffset, nonZero(b), r, length); return;
+            case REMAINDER: remainder(a, aOffset, nonZero(b), r, length); return;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    /**
+     * Computes {@code r[i] = a[i] op b[i]}.
+     */
+    static void apply (int op, double[] a, int aOffset, double[] b, int bOffset, double[] r,
+                       int length)
+    {
+        switch (op) {
+            case ADD:       add(a, aOffset, b, bOffset, r, length); return;
+            case SUBTRACT:  subtract(a, aOffset, b, bOffset, r, length); return;
+            case MULTIPLY:  multiply(a, aOffset, b, bOffset, r, length); return;
+            case DIVIDE:
+                nonZero(b, bOffset, length);
+                divide(a, aOffset, b, bOffset, r, length);
+                return;
+            case REMAINDER:
+                nonZero(b, bOffset, length);
+                remainder(a, aOffset, b, bOffset, r, length);
+                return;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    /**
+     * Computes {@code r[i] = a[i] op b}.
+     */
+    static void apply (int op, double[] a, int aOffset, double b, double[] r, int length)
+    {
+        switch (op) {
+            case ADD:       add(a, aOffset, b, r, length); return;
+            case SUBTRACT:  subtract(a, aOffset, b, r, length); return;
+            case MULTIPLY:  multiply(a, aOffset, b, r, length); return;
+            case DIVIDE:    divide(a, aOffset, nonZero(b), r, length); return;
+            case REMAINDER: remainder(a, aOffset, nonZero(b), r, length); return;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static void add (long[] a, int aOffset, long[] b, int bOffset, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] + b[bOffset + i];
+    }
+
+    static void subtract (long[] a, int aOffset, long[] b, int bOffset, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] - b[bOffset + i];
+    }
+
+    static void multiply (long[] a, int aOffset, long[] b, int bOffset, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] * b[bOffset + i];
+    }
+
+    static void divide (long[] a, int aOffset, long[] b, int bOffset, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] / b[bOffset + i];
+    }
+
+    static void remainder (long[] a, int aOffset, long[] b, int bOffset, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] % b[bOffset + i];
+    }
+
+    static void add (long[] a, int aOffset, long b, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] + b;
+    }
+
+    static void subtract (long[] a, int aOffset, long b, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] - b;
+    }
+
+    static void multiply (long[] a, int aOffset, long b, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] * b;
+    }
+
+    static void divide (long[] a, int aOffset, long b, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] / b;
+    }
+
+    static void remainder (long[] a, int aOffset, long b, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] % b;
+    }
+
+    /**
+     * Computes {@code r[i] = a - b[i]}.
+     */
+    static void subtract (long a, long[] b, int bOffset, long[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a - b[bOffset + i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static void add (double[] a, int aOffset, double[] b, int bOffset, double[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] + b[bOffset + i];
+    }
+
+    static void subtract (double[] a, int aOffset, double[] b, int bOffset, double[] r,
+                          int length)
+    {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] - b[bOffset + i];
+    }
+
+    static void multiply (double[] a, int aOffset, double[] b, int bOffset, double[] r,
+                          int length)
+    {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] * b[bOffset + i];
+    }
+
+    static void divide (double[] a, int aOffset, double[] b, int bOffset, double[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] / b[bOffset + i];
+    }
+
+    static void remainder (double[] a, int aOffset, double[] b, int bOffset, double[] r,
+                           int length)
+    {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] % b[bOffset + i];
+    }
+
+    static void add (double[] a, int aOffset, double b, double[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] + b;
+    }
+
+    static void subtract (double[] a, int aOffset, double b, double[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] - b;
+    }
+
+    static void multiply (double[] a, int aOffset, double b, double[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] * b;
+    }
+
+    static void divide (double[] a, int aOffset, double b, double[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] / b;
+    }
+
+    static void remainder (double[] a, int aOffset, double b, double[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a[aOffset + i] % b;
+    }
+
+    /**
+     * Computes {@code r[i] = a - b[i]}.
+     */
+    static void subtract (double a, double[] b, int bOffset, double[] r, int length) {
+        for (int i = 0; i < length; ++i)
+            r[i] = a - b[bOffset + i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long nonZero (long divisor) {
+        if (divisor == 0)
+            throw new InterpreterException("Division by zero", new ArithmeticException());
+        return divisor;
+    }
+
+    /**
+     * Checks that none of the divisors is zero, before running a division kernel.
+     */
+    private static void nonZero (long[] divisors, int offset, int length) {
+        for (int i = offset; i < offset + length; ++i)
+            if (divisors[i] == 0)
+                throw new InterpreterException("Division by zero", new ArithmeticException());
+    }
+
+    private static double nonZero (double divisor) {
+        if (divisor == 0)
+            throw new InterpreterException("Division by zero", new ArithmeticException());
+        return divisor;
+    }
+
+    /**
+     * Checks that none of the divisors is zero, before running a division kernel.
+     */
+    private static void nonZero (double[] divisors, int offset, int length) {
+        for (int i = offset; i < offset + length; ++i)
+            if (divisors[i] == 0)
+                throw new InterpreterException("Division by zero", new ArithmeticException());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
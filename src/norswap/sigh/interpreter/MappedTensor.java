@@ -0,0 +1,637 @@
+package norswap.sigh.interpreter;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Runtime representation of the arrays of {@code Int} or {@code Float} values created by the
+ * {@code mapInts} and {@code mapFloats} built-ins: the elements live in a binary file, as
+ * little-endian 64-bit integers or floating-point numbers in row-major order, and are read and
+ * written in place through memory-mapped buffers ({@link FileChannel#map}).
+ *
+ * <p>The file is mapped in segments of {@link #SEGMENT} elements, as a single buffer cannot
+ * address more than 2GB. As with tensors, indexing or slicing a mapped array yields a view that
+ * shares its storage, addressed through its offset and the stride of each of its dimensions.
+ *
+ * <p>The element-wise operators, the reductions and the matrix product read the elements one
+ * window of {@link #WINDOW} elements at a time ({@link #read}), so that the array is never copied
+ * as a whole and may be larger than the heap. Broadcast operands and the right operand of a matrix
+ * product are converted to dense tensors first ({@link #toTensor}).
+ *
+ * <p>Writes go to the page cache, and are written to the file by {@link #force}, which the
+ * interpreter calls when the program finishes. Files that are not writable are mapped read-only,
+ * and assigning to their elements throws ({@link #checkWritable}).
+ */
+final class MappedTensor
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int SEGMENT_SHIFT = 27;
+
+    /** Number of elements (of 8 bytes) in each mapped segment of the file. */
+    private static final long SEGMENT = 1L << SEGMENT_SHIFT;
+
+    private static final int SEGMENT_MASK = (int) SEGMENT - 1;
+
+    /** Number of elements that the operations read at once. */
+    static final int WINDOW = 1 << 16;
+
+    /** Either {@link Primitive#INT} or {@link Primitive#FLOAT}. */
+    final Primitive type;
+
+    private final String path;
+    private final MappedByteBuffer[] segments;
+
+    /** The segments, viewed as {@code long}s if {@link #type} is {@link Primitive#INT}, or null. */
+    private final LongBuffer[] longs;
+
+    /** The segments, viewed as {@code double}s if {@link #type} is {@link Primitive#FLOAT}. */
+    private final DoubleBuffer[] doubles;
+
+    /** The position of the first element of the tensor in the file. */
+    final long offset;
+
+    final int[] shape;
+
+    /** The distance between consecutive elements along each dimension. */
+    private final long[] strides;
+
+    /** The number of elements of the tensor. */
+    final long size;
+
+    /** Whether the elements are laid out in row-major order without gaps (i.e. not a slice). */
+    private final boolean contiguous;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private MappedTensor (Primitive type, String path, MappedByteBuffer[] segments,
+                          LongBuffer[] longs, DoubleBuffer[] doubles, long offset, int[] shape,
+                          long[] strides)
+    {
+        this.type = type;
+        this.path = path;
+        this.segments = segments;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.offset = offset;
+        this.shape = shape;
+        this.strides = strides;
+        this.size = SparseTensor.size(shape);
+        this.contiguous = Arrays.equals(strides, strides(shape));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long[] strides (int[] shape)
+    {
+        long[] strides = new long[shape.length];
+        long stride = 1;
+        for (int i = shape.length - 1; i >= 0; --i) {
+            strides[i] = stride;
+            stride *= shape[i];
+        }
+        return strides;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the view of the tensor obtained by indexing its first {@code dims} dimensions, whose
+     * first element is at the given position.
+     */
+    private MappedTensor view (int dims, long position)
+    {
+        return new MappedTensor(type, path, segments, longs, doubles, position,
+            Arrays.copyOfRange(shape, dims, shape.length),
+            Arrays.copyOfRange(strides, dims, strides.length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maps the file at the given path into an array of the given type and dimensions. The file is
+     * created if it does not exist, and extended with zeros if it is too short, unless it is not
+     * writable: it is then mapped read-only, and must hold all the elements.
+     */
+    static MappedTensor map (Primitive type, String path, long[] dimensions)
+    {
+        int[] shape = new int[dimensions.length];
+        for (int i = 0; i < shape.length; ++i) {
+            if (dimensions[i] <= 0 || dimensions[i] > Integer.MAX_VALUE)
+                throw new InterpreterException("Invalid dimension " + dimensions[i]
+                    + " for a mapped array", new IllegalArgumentException());
+            shape[i] = (int) dimensions[i];
+        }
+
+        long size = SparseTensor.size(shape);
+        int count = (int) ((size - 1 >>> SEGMENT_SHIFT) + 1);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        LongBuffer[] longs = type == Primitive.INT ? new LongBuffer[count] : null;
+        DoubleBuffer[] doubles = type == Primitive.FLOAT ? new DoubleBuffer[count] : null;
+        Path file = Paths.get(path);
+        boolean writable = Files.notExists(file) || Files.isWritable(file);
+        try (FileChannel channel = writable
+                ? FileChannel.open(file, READ, WRITE, CREATE)
+                : FileChannel.open(file, READ)) {
+            if (!writable && channel.size() < size * 8)
+                throw new InterpreterException("Read-only file " + path + " holds fewer than "
+                    + size + " elements", new IllegalArgumentException());
+            FileChannel.MapMode mode = writable
+                ? FileChannel.MapMode.READ_WRITE
+                : FileChannel.MapMode.READ_ONLY;
+            for (int i = 0; i < segments.length; ++i) {
+                long start = (long) i << SEGMENT_SHIFT;
+                long length = Math.min(SEGMENT, size - start);
+                segments[i] = channel.map(mode, start * 8, length * 8);
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+                if (longs != null)
+                    longs[i] = segments[i].asLongBuffer();
+                else
+                    doubles[i] = segments[i].asDoubleBuffer();
+            }
+        } catch (IOException e) {
+            throw new InterpreterException("Could not map " + path + ": " + e, e);
+        }
+        return new MappedTensor(type, path, segments, longs, doubles, 0, shape, strides(shape));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of dimensions of the tensor.
+     */
+    int rank () {
+        return shape.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String elementType () {
+        return type == Primitive.INT ? "Int" : "Float";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position of the element at the given (non-negative) index along the given
+     * dimension, relative to {@code position}, throwing if the index is out of bounds.
+     */
+    long step (long position, int dim, int index)
+    {
+        if (index >= shape[dim])
+            throw new PassthroughException(new ArrayIndexOutOfBoundsException(
+                "Index " + index + " out of bounds for length " + shape[dim]));
+        return position + index * strides[dim];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the view of the tensor that keeps the elements in {@code [from[d], to[d])} along
+     * each dimension {@code d} for which {@code ranges[d]} is true, and the elements at index
+     * {@code from[d]} along the others, as {@link Tensor#slice} does. The view shares the storage
+     * of the tensor, so that assignments through it are written to the file.
+     */
+    MappedTensor slice (int[] from, int[] to, boolean[] ranges)
+    {
+        int kept = shape.length;
+        for (boolean range: ranges)
+            if (!range) --kept;
+
+        int[] shape = new int[kept];
+        long[] strides = new long[kept];
+        long position = offset;
+        for (int dim = 0, j = 0; dim < this.shape.length; ++dim) {
+            if (dim >= ranges.length) {
+                shape[j] = this.shape[dim];
+                strides[j++] = this.strides[dim];
+                continue;
+            }
+            position = step(position, dim, from[dim]);
+            if (!ranges[dim]) continue;
+            if (to[dim] <= from[dim] || to[dim] > this.shape[dim])
+                throw new PassthroughException(new ArrayIndexOutOfBoundsException(
+                    "Range " + from[dim] + ":" + to[dim] + " empty or out of bounds for length "
+                        + this.shape[dim]));
+            shape[j] = to[dim] - from[dim];
+            strides[j++] = this.strides[dim];
+        }
+        return new MappedTensor(type, path, segments, longs, doubles, position, shape, strides);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the element (if {@code dims} is the rank) or the view at the given position, obtained
+     * by indexing the first {@code dims} dimensions of the tensor.
+     */
+    Object get (int dims, long position)
+    {
+        if (dims < shape.length)
+            return view(dims, position);
+        return type == Primitive.INT
+            ? (Object) getLong(position)
+            : (Object) getDouble(position);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Throws if the file was mapped read-only, because it is not writable.
+     */
+    void checkWritable ()
+    {
+        if (segments[0].isReadOnly())
+            throw new InterpreterException("Trying to assign to an array mapped from the read-only "
+                + "file " + path, new UnsupportedOperationException());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    long getLong (long position) {
+        return longs[(int) (position >>> SEGMENT_SHIFT)].get((int) position & SEGMENT_MASK);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    double getDouble (long position)
+    {
+        if (type == Primitive.INT)
+            return getLong(position);
+        return doubles[(int) (position >>> SEGMENT_SHIFT)].get((int) position & SEGMENT_MASK);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    void setLong (long position, long value) {
+        longs[(int) (position >>> SEGMENT_SHIFT)].put((int) position & SEGMENT_MASK, value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    void setDouble (long position, double value) {
+        doubles[(int) (position >>> SEGMENT_SHIFT)].put((int) position & SEGMENT_MASK, value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Assigns the element (if {@code dims} is the rank) or the sub-array at the given position,
+     * obtained by indexing the first {@code dims} dimensions of the tensor. Sub-arrays are assigned
+     * by copying the elements of the value, which must have the same shape.
+     */
+    void set (int dims, long position, Object value)
+    {
+        if (dims == shape.length) {
+            if (type == Primitive.INT)
+                setLong(position, (Long) value);
+            else
+                setDouble(position, ((Number) value).doubleValue());
+            return;
+        }
+
+        int[] shape = Arrays.copyOfRange(this.shape, dims, this.shape.length);
+        Object dense = dense(value);
+        Tensor source = dense instanceof Tensor
+            ? (Tensor) dense
+            : dense instanceof Object[] ? Tensor.of((Object[]) dense) : null;
+        if (source == null || source.type != type || !Arrays.equals(source.shape, shape))
+            throw new InterpreterException(
+                "Trying to assign a value that is not an array of shape "
+                    + Arrays.toString(shape) + " to part of a mapped " + elementType()
+                    + " array of shape " + Arrays.toString(this.shape),
+                new ArrayStoreException());
+
+        source = source.compact();
+        view(dims, position).write(0, source.size, source.longs, source.doubles, source.offset);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Copies the elements {@code [start, start + length)} of the tensor, in row-major order, to
+     * {@code longs[0, length)} or {@code doubles[0, length)} (depending on the element type).
+     */
+    void read (long start, int length, long[] longs, double[] doubles) {
+        transfer(start, length, longs, doubles, 0, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Copies {@code longs[from, from + length)} or {@code doubles[from, from + length)} (depending
+     * on the element type) to the elements {@code [start, start + length)} of the tensor.
+     */
+    private void write (long start, int length, long[] longs, double[] doubles, int from) {
+        transfer(start, length, longs, doubles, from, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Copies the elements {@code [start, start + length)} of the tensor, in row-major order, to
+     * (or from, if {@code write} is true) {@code longs[from, from + length)} or {@code
+     * doubles[from, from + length)}. Unless the tensor is contiguous, the elements are copied a
+     * row (along the last dimension) at a time, as in {@link Tensor#gather}.
+     */
+    private void transfer (long start, int length, long[] longs, double[] doubles, int from,
+                           boolean write)
+    {
+        if (contiguous) {
+            copy(offset + start, length, longs, doubles, from, write);
+            return;
+        }
+
+        int last = shape.length - 1;
+        int[] index = new int[shape.length];
+        long position = offset;
+        long rest = start;
+        for (int dim = last; dim >= 0; --dim) {
+            index[dim] = (int) (rest % shape[dim]);
+            rest /= shape[dim];
+            position += index[dim] * strides[dim];
+        }
+        long stride = strides[last];
+        for (int done = 0; done < length; ) {
+            int run = Math.min(shape[last] - index[last], length - done);
+            if (stride == 1)
+                copy(position, run, longs, doubles, from + done, write);
+            else
+                for (int i = 0; i < run; ++i)
+                    copy(position + i * stride, 1, longs, doubles, from + done + i, write);
+            done += run;
+            // move to the start of the next row
+            position -= index[last] * stride;
+            index[last] = 0;
+            for (int dim = last - 1; dim >= 0; --dim) {
+                position += strides[dim];
+                if (++index[dim] < shape[dim]) break;
+                position -= index[dim] * strides[dim];
+                index[dim] = 0;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Copies the elements at the positions {@code [position, position + length)} of the file to
+     * (or from, if {@code write} is true) {@code longs[from, from + length)} or {@code
+     * doubles[from, from + length)}.
+     */
+    private void copy (long position, int length, long[] longs, double[] doubles, int from,
+                       boolean write)
+    {
+        for (int done = 0; done < length; ) {
+            int segment = (int) (position >>> SEGMENT_SHIFT);
+            int index = (int) position & SEGMENT_MASK;
+            int run = (int) Math.min(length - done, SEGMENT - index);
+            if (longs != null && write)
+                at(this.longs[segment], index).put(longs, from + done, run);
+            else if (longs != null)
+                at(this.longs[segment], index).get(longs, from + done, run);
+            else if (write)
+                at(this.doubles[segment], index).put(doubles, from + done, run);
+            else
+                at(this.doubles[segment], index).get(doubles, from + done, run);
+            done += run;
+            position += run;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Positions the buffer at the given index. The buffer is typed through {@link Buffer}, whose
+     * {@code position} method is the only one in Java 8.
+     */
+    private static <T extends Buffer> T at (T buffer, int index) {
+        buffer.position(index);
+        return buffer;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a one-dimensional tensor holding the elements {@code [start, start + length)} of the
+     * tensor, in row-major order.
+     */
+    Tensor window (long start, int length)
+    {
+        Tensor window = Tensor.zeros(type, new int[] { length });
+        read(start, length, window.longs, window.doubles);
+        return window;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a dense tensor holding a copy of the elements of this tensor, throwing if it has too
+     * many elements for a Java array.
+     */
+    Tensor toTensor ()
+    {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new InterpreterException("Mapped array of shape " + Arrays.toString(shape)
+                + " is too large for this operation", new UnsupportedOperationException());
+        Tensor result = Tensor.zeros(type, shape);
+        read(0, result.size, result.longs, result.doubles);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the given value as a dense tensor if it is a mapped tensor, or the value itself.
+     */
+    static Object dense (Object value) {
+        return value instanceof MappedTensor ? ((MappedTensor) value).toTensor() : value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the sum of the elements of an {@code Int} mapped tensor.
+     */
+    long sumLong ()
+    {
+        long[] window = new long[(int) Math.min(WINDOW, size)];
+        long sum = 0;
+        for (long start = 0; start < size; start += WINDOW) {
+            int length = (int) Math.min(WINDOW, size - start);
+            read(start, length, window, null);
+            sum += Reductions.sum(window, 0, length);
+        }
+        return sum;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the sum of the elements of the mapped tensor, as a {@code Float}.
+     */
+    double sumDouble ()
+    {
+        if (type == Primitive.INT)
+            return sumLong();
+        double[] window = new double[(int) Math.min(WINDOW, size)];
+        double sum = 0;
+        for (long start = 0; start < size; start += WINDOW) {
+            int length = (int) Math.min(WINDOW, size - start);
+            read(start, length, null, window);
+            sum += Reductions.sum(window, 0, length);
+        }
+        return sum;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements the {@code @} operator when at least one of the operands is a mapped tensor (see
+     * {@link Tensor#matmul}).
+     *
+     * <p>The dot product of two vectors reads both a window at a time. The product of a mapped
+     * matrix by a matrix multiplies a block of rows of the mapped matrix at a time (see {@link
+     * MatMul}), after converting the right matrix to a dense tensor if needed. Other products
+     * convert their mapped operands to dense tensors.
+     */
+    static Object matmul (Object left, Object right)
+    {
+        Object a = left instanceof MappedTensor ? left : tensor(left);
+        Object b = right instanceof MappedTensor ? right : tensor(right);
+        if (a == null || b == null)
+            throw new InterpreterException("Trying to operate on non-array type", new Exception());
+        if (type(a) != type(b))
+            throw new InterpreterException(
+                "Operation @ not defined for this type", new Exception());
+
+        int[] aShape = shape(a), bShape = shape(b);
+        if (aShape.length == 1 && bShape.length == 1) {
+            if (aShape[0] != bShape[0])
+                throw new InterpreterException(
+                    "Trying to operate on arrays with different dimensions", new Exception());
+            return dot(a, b, aShape[0]);
+        }
+
+        if (!(a instanceof MappedTensor) || aShape.length != 2 || bShape.length != 2
+                || aShape[1] != bShape[0])
+            return ((Tensor) dense(a)).matmul((Tensor) dense(b));
+
+        MappedTensor matrix = (MappedTensor) a;
+        Tensor other = (Tensor) dense(b);
+        int n = aShape[0], inner = aShape[1], m = bShape[1];
+        Tensor result = Tensor.zeros(matrix.type, new int[] { n, m });
+        int rows = Math.max(1, WINDOW / inner);
+        for (int from = 0; from < n; from += rows) {
+            int count = Math.min(rows, n - from);
+            Tensor block = Tensor.zeros(matrix.type, new int[] { count, inner });
+            matrix.read((long) from * inner, block.size, block.longs, block.doubles);
+            Tensor product = MatMul.multiply(block, other);
+            if (result.longs != null)
+                System.arraycopy(product.longs, 0, result.longs, from * m, product.size);
+            else
+                System.arraycopy(product.doubles, 0, result.doubles, from * m, product.size);
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the dot product of two vectors of the given length, each a mapped tensor or a
+     * tensor, read a window at a time.
+     */
+    private static Object dot (Object a, Object b, int length)
+    {
+        Primitive type = type(a);
+        Tensor x = Tensor.zeros(type, new int[] { Math.min(WINDOW, length) });
+        Tensor y = Tensor.zeros(type, new int[] { Math.min(WINDOW, length) });
+        long longSum = 0;
+        double doubleSum = 0;
+        for (int start = 0; start < length; start += WINDOW) {
+            int count = Math.min(WINDOW, length - start);
+            read(a, start, count, x);
+            read(b, start, count, y);
+            if (type == Primitive.INT)
+                for (int i = 0; i < count; ++i) longSum += x.longs[i] * y.longs[i];
+            else
+                for (int i = 0; i < count; ++i) doubleSum += x.doubles[i] * y.doubles[i];
+        }
+        return type == Primitive.INT ? (Object) longSum : (Object) doubleSum;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Copies the elements {@code [start, start + length)} of the given mapped tensor or tensor to
+     * the storage of {@code into}.
+     */
+    private static void read (Object array, int start, int length, Tensor into)
+    {
+        if (array instanceof MappedTensor)
+            ((MappedTensor) array).read(start, length, into.longs, into.doubles);
+        else
+            ((Tensor) array).gather(start, length, into.longs, into.doubles);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Tensor tensor (Object value)
+    {
+        if (value instanceof Tensor)
+            return (Tensor) value;
+        return value instanceof Object[] ? Tensor.of((Object[]) value) : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Primitive type (Object array) {
+        return array instanceof MappedTensor ? ((MappedTensor) array).type : ((Tensor) array).type;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int[] shape (Object array)
+    {
+        return array instanceof MappedTensor
+            ? ((MappedTensor) array).shape
+            : ((Tensor) array).shape;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the changes made to the elements of the tensor (and of every view of the same file)
+     * to the file.
+     */
+    void force ()
+    {
+        for (MappedByteBuffer segment: segments)
+            segment.force();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString ()
+    {
+        if (size <= 1 << 16)
+            return toTensor().toString();
+        return elementType() + " array of shape " + Arrays.toString(shape) + " mapped from "
+            + path;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
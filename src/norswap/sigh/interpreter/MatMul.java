@@ -0,0 +1,161 @@
+package norswap.sigh.interpreter;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The matrix product kernel of the {@code @} operator, for two-dimensional {@link Tensor}s.
+ *
+ * <p>The loops are in i-k-j order: the innermost loop adds a multiple of a row of the right
+ * operand to a row of the result. Both rows are contiguous, and the loop has no dependency between
+ * iterations, so that the JIT compiler can vectorize it. The loops are tiled, so that the block of
+ * the right operand used by a block of rows of the result stays in cache while these rows are
+ * computed.
+ *
+ * <p>Above {@link #PARALLEL_THRESHOLD} multiply-adds, blocks of rows of the result are computed in
+ * parallel on the common {@link ForkJoinPool}. Each task writes a disjoint part of the result.
+ */
+final class MatMul
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of rows of the result, and of rows of the right operand, in a block. */
+    private static final int BLOCK = 64;
+
+    /** Number of columns of the right operand and of the result in a block. */
+    private static final int COLUMNS = 256;
+
+    /** Number of multiply-adds above which the product is computed in parallel. */
+    static final long PARALLEL_THRESHOLD = 1L << 21;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private MatMul () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the product of the two given matrices, which must have the same type and compatible
+     * shapes ({@code [n, inner]} and {@code [inner, m]}). The elements of each row of the matrices
+     * must be contiguous, but the rows may be further apart, as in a slice of a larger matrix.
+     */
+    static Tensor multiply (Tensor a, Tensor b)
+    {
+        int n = a.shape[0], inner = a.shape[1], m = b.shape[1];
+        int aRow = a.strides[0], bRow = b.strides[0];
+        Tensor result = Tensor.zeros(a.type, new int[] { n, m });
+        long work = (long) n * inner * m;
+
+        if (a.longs != null)
+            run(n, work, (from, to) -> multiply(
+                a.longs, a.offset, aRow, b.longs, b.offset, bRow, result.longs, inner, m,
+                from, to));
+        else
+            run(n, work, (from, to) -> multiply(
+                a.doubles, a.offset, aRow, b.doubles, b.offset, bRow, result.doubles, inner, m,
+                from, to));
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Computes rows {@code [from, to)} of {@code c = a @ b}, where the rows of {@code a} and
+     * {@code b} start every {@code aRow} and {@code bRow} elements.
+     */
+    private static void multiply (long[] a, int aOffset, int aRow, long[] b, int bOffset, int bRow,
+                                  long[] c, int inner, int m, int from, int to)
+    {
+        for (int i0 = from; i0 < to; i0 += BLOCK)
+        for (int k0 = 0; k0 < inner; k0 += BLOCK)
+        for (int j0 = 0; j0 < m; j0 += COLUMNS) {
+            int iEnd = Math.min(i0 + BLOCK, to);
+            int kEnd = Math.min(k0 + BLOCK, inner);
+            int jEnd = Math.min(j0 + COLUMNS, m);
+            for (int i = i0; i < iEnd; ++i) {
+                int row = i * m;
+                for (int k = k0; k < kEnd; ++k) {
+                    long factor = a[aOffset + i * aRow + k];
+                    int right = bOffset + k * bRow;
+                    for (int j = j0; j < jEnd; ++j)
+                        c[row + j] += factor * b[right + j];
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Computes rows {@code [from, to)} of {@code c = a @ b}, where the rows of {@code a} and
+     * {@code b} start every {@code aRow} and {@code bRow} elements.
+     */
+    private static void multiply
+            (double[] a, int aOffset, int aRow, double[] b, int bOffset, int bRow, double[] c,
+             int inner, int m, int from, int to)
+    {
+        for (int i0 = from; i0 < to; i0 += BLOCK)
+        for (int k0 = 0; k0 < inner; k0 += BLOCK)
+        for (int j0 = 0; j0 < m; j0 += COLUMNS) {
+            int iEnd = Math.min(i0 + BLOCK, to);
+            int kEnd = Math.min(k0 + BLOCK, inner);
+            int jEnd = Math.min(j0 + COLUMNS, m);
+            for (int i = i0; i < iEnd; ++i) {
+                int row = i * m;
+                for (int k = k0; k < kEnd; ++k) {
+                    double factor = a[aOffset + i * aRow + k];
+                    int right = bOffset + k * bRow;
+                    for (int j = j0; j < jEnd; ++j)
+                        c[row + j] += factor * b[right + j];
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Computes a range of rows of the result. */
+    private interface RowKernel {
+        void compute (int from, int to);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void run (int rows, long work, RowKernel kernel)
+    {
+        if (work < PARALLEL_THRESHOLD || rows <= BLOCK)
+            kernel.compute(0, rows);
+        else
+            ForkJoinPool.commonPool().invoke(new Rows(kernel, 0, rows));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Splits a range of rows in halves aligned on blocks, until the range is a single block.
+     */
+    private static final class Rows extends RecursiveAction
+    {
+        private final RowKernel kernel;
+        private final int from, to;
+
+        Rows (RowKernel kernel, int from, int to) {
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override protected void compute ()
+        {
+            if (to - from <= BLOCK) {
+                kernel.compute(from, to);
+                return;
+            }
+            int half = (to - from) / 2;
+            int middle = from + Math.max(BLOCK, half - half % BLOCK);
+            invokeAll(new Rows(kernel, from, middle), new Rows(kernel, middle, to));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,34 @@
+package norswap.sigh.interpreter;
+
+import static norswap.sigh.interpreter.StructFieldExec.nonNullStruct;
+
+/**
+ * Method call on a struct instance ({@code stem.name(arguments)}).
+ *
+ * <p>The method is looked up in the method table of the receiver's shape. The call site caches the
+ * method for the shape of the last receiver, so that monomorphic calls skip the lookup.
+ */
+final class MethodCallExec extends ExecNode
+{
+    private final ExecNode stem;
+    private final String name;
+    private final ExecNode[] arguments;
+    private StructShape shape;
+    private Function method;
+
+    MethodCallExec (ExecNode stem, String name, ExecNode[] arguments) {
+        this.stem = stem;
+        this.name = name;
+        this.arguments = arguments;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        StructInstance receiver = (StructInstance) nonNullStruct(stem.execute(frame));
+        if (receiver.shape != shape) {
+            method = receiver.shape.method(name);
+            shape = receiver.shape;
+        }
+        return method.call(frame, receiver, arguments);
+    }
+}
@@ -0,0 +1,38 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Creates the default-initialized array of an array declaration ({@code var x: Int[2][3]}).
+ *
+ * <p>Arrays of {@code Int} and {@code Float} are zero-filled {@link Tensor}s, or {@link
+ * SparseTensor}s if they have more than {@link SparseTensor#THRESHOLD} elements. Other arrays are
+ * nested {@code Object[]} whose elements are null.
+ */
+final class NewArrayExec extends ExecNode
+{
+    /** The element type if it is {@code Int} or {@code Float}, or null. */
+    private final Primitive type;
+    private final int[] dimensions;
+
+    NewArrayExec (Primitive type, int[] dimensions) {
+        this.type = type;
+        this.dimensions = dimensions;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        if (type == null)
+            return newArray(0);
+        return SparseTensor.isSparse(dimensions)
+            ? SparseTensor.zeros(type, dimensions)
+            : Tensor.zeros(type, dimensions);
+    }
+
+    private Object[] newArray (int dim)
+    {
+        Object[] array = new Object[dimensions[dim]];
+        if (dim < dimensions.length - 1)
+            for (int i = 0; i < array.length; ++i)
+                array[i] = newArray(dim + 1);
+        return array;
+    }
+}
@@ -0,0 +1,21 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Boolean negation ({@code !operand}).
+ */
+final class NotExec extends ExecNode
+{
+    private final ExecNode operand;
+
+    NotExec (ExecNode operand) {
+        this.operand = operand;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return executeBoolean(frame);
+    }
+
+    @Override boolean executeBoolean (ScopeStorage frame) {
+        return !operand.executeBoolean(frame);
+    }
+}
@@ -0,0 +1,81 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.types.BoolType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.Type;
+
+/**
+ * The primitive types whose values the interpreter can handle unboxed, and their encoding in the
+ * {@code long} slots of a {@link ScopeStorage}: {@code Int} values are stored as is, {@code Float}
+ * values as their raw bits, and {@code Bool} values as 0 or 1.
+ */
+enum Primitive
+{
+    INT, FLOAT, BOOL;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the primitive corresponding to the given type, or null if it is not one of {@code
+     * Int}, {@code Float} or {@code Bool}.
+     */
+    static Primitive of (Type type) {
+        if (type instanceof IntType)   return INT;
+        if (type instanceof FloatType) return FLOAT;
+        if (type instanceof BoolType)  return BOOL;
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the boxed value encoded by the given slot content.
+     */
+    Object box (long bits)
+    {
+        switch (this) {
+            case INT:   return bits;
+            case FLOAT: return Double.longBitsToDouble(bits);
+            case BOOL:  return bits != 0;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the slot encoding of the given boxed value. {@code Int} values are converted when
+     * encoding a {@code Float}.
+     */
+    long unbox (Object value)
+    {
+        switch (this) {
+            case INT:   return (Long) value;
+            case FLOAT: return Double.doubleToRawLongBits(((Number) value).doubleValue());
+            case BOOL:  return (Boolean) value ? 1 : 0;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Evaluates the given node, whose static type must be assignable to this primitive, and
+     * returns the slot encoding of its value, without boxing.
+     */
+    long evaluate (ExecNode node, ScopeStorage frame)
+    {
+        switch (this) {
+            case INT:   return node.executeLong(frame);
+            case FLOAT: return Double.doubleToRawLongBits(node.executeDouble(frame));
+            case BOOL:  return node.executeBoolean(frame) ? 1 : 0;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,28 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Reads a field of the method receiver, referenced by its bare name within the method.
+ *
+ * <p>Fields are not scoped to their struct, so the struct is only known at runtime, from the
+ * receiver. The index of the field is cached for the shape of the last receiver.
+ */
+final class ReadFieldExec extends ExecNode
+{
+    private final String name;
+    private StructShape shape;
+    private int index;
+
+    ReadFieldExec (String name) {
+        this.name = name;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        StructInstance receiver = (StructInstance) frame.receiver;
+        if (receiver.shape != shape) {
+            index = receiver.shape.index(name);
+            shape = receiver.shape;
+        }
+        return receiver.values[index];
+    }
+}
@@ -0,0 +1,35 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Reads the variable of {@link Primitive} type stored at the given slot of the frame at the given
+ * depth.
+ */
+final class ReadPrimitiveExec extends ExecNode
+{
+    private final int depth;
+    private final int slot;
+    private final Primitive type;
+
+    ReadPrimitiveExec (int depth, int slot, Primitive type) {
+        this.depth = depth;
+        this.slot = slot;
+        this.type = type;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return type.box(frame.getPrimitive(depth, slot));
+    }
+
+    @Override long executeLong (ScopeStorage frame) {
+        return frame.getPrimitive(depth, slot);
+    }
+
+    @Override double executeDouble (ScopeStorage frame) {
+        long bits = frame.getPrimitive(depth, slot);
+        return type == Primitive.FLOAT ? Double.longBitsToDouble(bits) : (double) bits;
+    }
+
+    @Override boolean executeBoolean (ScopeStorage frame) {
+        return frame.getPrimitive(depth, slot) != 0;
+    }
+}
@@ -0,0 +1,19 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Reads the variable stored at the given slot of the frame at the given depth.
+ */
+final class ReadVariableExec extends ExecNode
+{
+    private final int depth;
+    private final int slot;
+
+    ReadVariableExec (int depth, int slot) {
+        this.depth = depth;
+        this.slot = slot;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return frame.get(depth, slot);
+    }
+}
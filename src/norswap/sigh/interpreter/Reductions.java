@@ -0,0 +1,574 @@
+package norswap.sigh.interpreter;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The reduction kernels on {@link Tensor}s: the sums behind the {@code sum} and {@code avg}
+ * properties, the reductions along an axis of the {@code sum}, {@code min}, {@code max} and {@code
+ * argmax} built-ins, and the statistics of the {@code stats} built-in.
+ *
+ * <p>The {@code Float} sum loop keeps four partial sums, so that consecutive additions do not wait
+ * on each other. Above {@link #PARALLEL_THRESHOLD} elements, the range is split in halves on the
+ * common {@link ForkJoinPool}. The split points only depend on the size of the range, so that a
+ * {@code Float} sum always adds its elements in the same order, whatever the number of threads.
+ *
+ * <p>A reduction along an axis sees the tensor as a {@code [outer, n, inner]} array, where {@code
+ * n} is the length of the axis. For each of the {@code outer} blocks, the {@code n} rows of {@code
+ * inner} contiguous elements are combined element-wise, so that the innermost loop runs over
+ * contiguous memory whatever the axis.
+ *
+ * <p>The reductions of a {@link MappedTensor} read its elements a window at a time, and combine
+ * each window as above. Those of a {@link SparseTensor} only visit its non-zero elements (see
+ * {@link SparseTensor#reduce}).
+ */
+final class Reductions
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of elements above which a sum is computed in parallel. */
+    static final int PARALLEL_THRESHOLD = 1 << 18;
+
+    /** Number of elements below which a range is no longer split. */
+    private static final int LEAF = 1 << 16;
+
+    /** Reductions along an axis, see {@link #reduce}. */
+    static final int SUM = 0, MIN = 1, MAX = 2, ARGMAX = 3;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Reductions () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the sum of {@code a[from, to)}.
+     */
+    static long sum (long[] a, int from, int to)
+    {
+        if (to - from < PARALLEL_THRESHOLD)
+            return sequentialSum(a, from, to);
+        return ForkJoinPool.commonPool().invoke(new LongSum(a, from, to));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the sum of {@code a[from, to)}.
+     */
+    static double sum (double[] a, int from, int to)
+    {
+        if (to - from < PARALLEL_THRESHOLD)
+            return sequentialSum(a, from, to);
+        return ForkJoinPool.commonPool().invoke(new DoubleSum(a, from, to));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long sequentialSum (long[] a, int from, int to)
+    {
+        long sum = 0;
+        for (int i = from; i < to; ++i)
+            sum += a[i];
+        return sum;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static double sequentialSum (double[] a, int from, int to)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+        }
+        for (; i < to; ++i)
+            s0 += a[i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class LongSum extends RecursiveTask<Long>
+    {
+        private final long[] a;
+        private final int from, to;
+
+        LongSum (long[] a, int from, int to) {
+            this.a = a;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override protected Long compute ()
+        {
+            if (to - from <= LEAF)
+                return sequentialSum(a, from, to);
+            int middle = from + (to - from) / 2;
+            LongSum right = new LongSum(a, middle, to);
+            right.fork();
+            long left = new LongSum(a, from, middle).compute();
+            return left + right.join();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class DoubleSum extends RecursiveTask<Double>
+    {
+        private final double[] a;
+        private final int from, to;
+
+        DoubleSum (double[] a, int from, int to) {
+            this.a = a;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override protected Double compute ()
+        {
+            if (to - from <= LEAF)
+                return sequentialSum(a, from, to);
+            int middle = from + (to - from) / 2;
+            DoubleSum right = new DoubleSum(a, middle, to);
+            right.fork();
+            double left = new DoubleSum(a, from, middle).compute();
+            return left + right.join();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reduces the tensor along the given axis with one of {@link #SUM}, {@link #MIN}, {@link #MAX}
+     * or {@link #ARGMAX} (which returns {@code Int} indices along the axis, the first one in case
+     * of ties). Returns a tensor whose shape is that of the tensor without the axis, or a boxed
+     * scalar if the tensor has a single dimension.
+     */
+    static Object reduce (Tensor tensor, int op, long axis)
+    {
+        int rank = tensor.rank();
+        checkAxis(rank, axis);
+
+        Tensor a = tensor.compact();
+        int dim = (int) axis;
+        int n = a.shape[dim];
+        int inner = 1;
+        for (int i = dim + 1; i < rank; ++i)
+            inner *= a.shape[i];
+        int outer = a.size / (n * inner);
+
+        Tensor result = Tensor.zeros(op == ARGMAX ? Primitive.INT : a.type, without(a.shape, dim));
+        if (op == ARGMAX && a.longs != null)
+            argmax(a.longs, a.offset, result.longs, outer, n, inner);
+        else if (op == ARGMAX)
+            argmax(a.doubles, a.offset, result.longs, outer, n, inner);
+        else if (a.longs != null)
+            reduce(op, a.longs, a.offset, result.longs, outer, n, inner);
+        else
+            reduce(op, a.doubles, a.offset, result.doubles, outer, n, inner);
+
+        return rank == 1 ? result.box(0) : result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void checkAxis (int rank, long axis)
+    {
+        if (axis < 0 || axis >= rank)
+            throw new InterpreterException(
+                "Reduction axis " + axis + " out of range for an array with " + rank
+                    + " dimensions", new IndexOutOfBoundsException());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the given shape without the given dimension.
+     */
+    private static int[] without (int[] shape, int dim)
+    {
+        int[] result = new int[shape.length - 1];
+        for (int i = 0, j = 0; i < shape.length; ++i)
+            if (i != dim) result[j++] = shape[i];
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reduces the mapped tensor along the given axis, as {@link #reduce(Tensor, int, long)}.
+     *
+     * <p>For each of the {@code outer} blocks, each window holds as many consecutive rows of {@code
+     * inner} elements as fit in {@link MappedTensor#WINDOW} elements (or a part of a single row if
+     * it does not fit), which are then combined into the result one at a time.
+     */
+    static Object reduce (MappedTensor tensor, int op, long axis)
+    {
+        int rank = tensor.rank();
+        checkAxis(rank, axis);
+
+        int dim = (int) axis;
+        long n = tensor.shape[dim];
+        long inner = 1;
+        for (int i = dim + 1; i < rank; ++i)
+            inner *= tensor.shape[i];
+        long outer = tensor.size / (n * inner);
+
+        Tensor result =
+            Tensor.zeros(op == ARGMAX ? Primitive.INT : tensor.type, without(tensor.shape, dim));
+        int width = (int) Math.min(inner, MappedTensor.WINDOW);
+        int rows = (int) Math.min(n, MappedTensor.WINDOW / width);
+        Tensor window = Tensor.zeros(tensor.type, new int[] { rows * width });
+        Tensor best = Tensor.zeros(tensor.type, new int[] { width });
+
+        for (long o = 0; o < outer; ++o)
+            for (long column = 0; column < inner; column += width) {
+                int length = (int) Math.min(width, inner - column);
+                int target = (int) (o * inner + column);
+                for (long k = 0; k < n; k += rows) {
+                    int count = (int) Math.min(rows, n - k);
+                    tensor.read((o * n + k) * inner + column, count * length,
+                        window.longs, window.doubles);
+                    if (inner == 1 && op != ARGMAX) {
+                        // a window of single-element rows is reduced at once
+                        if (window.longs != null)
+                            window.longs[0] = reduceRow(op, window.longs, 0, count);
+                        else
+                            window.doubles[0] = reduceRow(op, window.doubles, 0, count);
+                        fold(op, k, window, 0, result, best, target, 1);
+                        continue;
+                    }
+                    for (int j = 0; j < count; ++j)
+                        fold(op, k + j, window, j * length, result, best, target, length);
+                }
+            }
+
+        return rank == 1 ? result.box(0) : result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Combines row {@code k} of a reduction, held at {@code window[from, from + length)}, into
+     * {@code result[target, target + length)}. For {@link #ARGMAX}, {@code best} holds the maximum
+     * values of the previous rows.
+     */
+    private static void fold (int op, long k, Tensor window, int from, Tensor result, Tensor best,
+                              int target, int length)
+    {
+        if (op == ARGMAX) {
+            if (k == 0) {
+                if (window.longs != null)
+                    System.arraycopy(window.longs, from, best.longs, 0, length);
+                else
+                    System.arraycopy(window.doubles, from, best.doubles, 0, length);
+            }
+            else if (window.longs != null) {
+                for (int i = 0; i < length; ++i)
+                    if (window.longs[from + i] > best.longs[i]) {
+                        best.longs[i] = window.longs[from + i];
+                        result.longs[target + i] = k;
+                    }
+            }
+            else {
+                for (int i = 0; i < length; ++i)
+                    if (window.doubles[from + i] > best.doubles[i]) {
+                        best.doubles[i] = window.doubles[from + i];
+                        result.longs[target + i] = k;
+                    }
+            }
+        }
+        else if (k == 0) {
+            if (window.longs != null)
+                System.arraycopy(window.longs, from, result.longs, target, length);
+            else
+                System.arraycopy(window.doubles, from, result.doubles, target, length);
+        }
+        else if (window.longs != null)
+            combine(op, result.longs, target, window.longs, from, length);
+        else
+            combine(op, result.doubles, target, window.doubles, from, length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void reduce (int op, long[] a, int offset, long[] r, int outer, int n, int inner)
+    {
+        for (int o = 0; o < outer; ++o) {
+            int block = offset + o * n * inner;
+            if (inner == 1) {
+                r[o] = reduceRow(op, a, block, block + n);
+                continue;
+            }
+            int row = o * inner;
+            System.arraycopy(a, block, r, row, inner);
+            for (int k = 1; k < n; ++k)
+                combine(op, r, row, a, block + k * inner, inner);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void reduce
+            (int op, double[] a, int offset, double[] r, int outer, int n, int inner)
+    {
+        for (int o = 0; o < outer; ++o) {
+            int block = offset + o * n * inner;
+            if (inner == 1) {
+                r[o] = reduceRow(op, a, block, block + n);
+                continue;
+            }
+            int row = o * inner;
+            System.arraycopy(a, block, r, row, inner);
+            for (int k = 1; k < n; ++k)
+                combine(op, r, row, a, block + k * inner, inner);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reduces the non-empty range {@code a[from, to)} to a single value.
+     */
+    private static long reduceRow (int op, long[] a, int from, int to)
+    {
+        if (op == SUM)
+            return sequentialSum(a, from, to);
+        long acc = a[from];
+        if (op == MIN)
+            for (int i = from + 1; i < to; ++i) acc = Math.min(acc, a[i]);
+        else
+            for (int i = from + 1; i < to; ++i) acc = Math.max(acc, a[i]);
+        return acc;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reduces the non-empty range {@code a[from, to)} to a single value.
+     */
+    private static double reduceRow (int op, double[] a, int from, int to)
+    {
+        if (op == SUM)
+            return sequentialSum(a, from, to);
+        double acc = a[from];
+        if (op == MIN)
+            for (int i = from + 1; i < to; ++i) acc = Math.min(acc, a[i]);
+        else
+            for (int i = from + 1; i < to; ++i) acc = Math.max(acc, a[i]);
+        return acc;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Combines {@code a[aOffset, aOffset + length)} into {@code r[rOffset, rOffset + length)}.
+     */
+    private static void combine (int op, long[] r, int rOffset, long[] a, int aOffset, int length)
+    {
+        switch (op) {
+            case SUM:
+                for (int i = 0; i < length; ++i) r[rOffset + i] += a[aOffset + i];
+                break;
+            case MIN:
+                for (int i = 0; i < length; ++i)
+                    r[rOffset + i] = Math.min(r[rOffset + i], a[aOffset + i]);
+                break;
+            case MAX:
+                for (int i = 0; i < length; ++i)
+                    r[rOffset + i] = Math.max(r[rOffset + i], a[aOffset + i]);
+                break;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Combines {@code a[aOffset, aOffset + length)} into {@code r[rOffset, rOffset + length)}.
+     */
+    private static void combine
+            (int op, double[] r, int rOffset, double[] a, int aOffset, int length)
+    {
+        switch (op) {
+            case SUM:
+                for (int i = 0; i < length; ++i) r[rOffset + i] += a[aOffset + i];
+                break;
+            case MIN:
+                for (int i = 0; i < length; ++i)
+                    r[rOffset + i] = Math.min(r[rOffset + i], a[aOffset + i]);
+                break;
+            case MAX:
+                for (int i = 0; i < length; ++i)
+                    r[rOffset + i] = Math.max(r[rOffset + i], a[aOffset + i]);
+                break;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void argmax (long[] a, int offset, long[] r, int outer, int n, int inner)
+    {
+        long[] best = new long[inner];
+        for (int o = 0; o < outer; ++o) {
+            int block = offset + o * n * inner;
+            int row = o * inner;
+            System.arraycopy(a, block, best, 0, inner);
+            for (int k = 1; k < n; ++k) {
+                int from = block + k * inner;
+                for (int i = 0; i < inner; ++i)
+                    if (a[from + i] > best[i]) {
+                        best[i] = a[from + i];
+                        r[row + i] = k;
+                    }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void argmax (double[] a, int offset, long[] r, int outer, int n, int inner)
+    {
+        double[] best = new double[inner];
+        for (int o = 0; o < outer; ++o) {
+            int block = offset + o * n * inner;
+            int row = o * inner;
+            System.arraycopy(a, block, best, 0, inner);
+            for (int k = 1; k < n; ++k) {
+                int from = block + k * inner;
+                for (int i = 0; i < inner; ++i)
+                    if (a[from + i] > best[i]) {
+                        best[i] = a[from + i];
+                        r[row + i] = k;
+                    }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a {@code Float} tensor holding the count, mean, (population) variance, minimum and
+     * maximum of the elements of the tensor, computed in a single pass with Welford's algorithm.
+     */
+    static Tensor stats (Tensor tensor)
+    {
+        Tensor a = tensor.compact();
+        Tensor result = statsAccumulator();
+        accumulate(result.doubles, a, a.offset, a.offset + a.size);
+        return statsResult(result);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the statistics of the elements of the mapped tensor, as {@link #stats(Tensor)}, read
+     * a window at a time.
+     */
+    static Tensor stats (MappedTensor tensor)
+    {
+        Tensor result = statsAccumulator();
+        Tensor window = Tensor.zeros(tensor.type,
+            new int[] { (int) Math.min(MappedTensor.WINDOW, tensor.size) });
+        for (long start = 0; start < tensor.size; start += MappedTensor.WINDOW) {
+            int length = (int) Math.min(MappedTensor.WINDOW, tensor.size - start);
+            tensor.read(start, length, window.longs, window.doubles);
+            accumulate(result.doubles, window, 0, length);
+        }
+        return statsResult(result);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the statistics of the elements of the sparse tensor, as {@link #stats(Tensor)}:
+     * the non-zero elements are accumulated, then merged with the zeros, which are only counted.
+     */
+    static Tensor stats (SparseTensor tensor)
+    {
+        Tensor values = tensor.nonZeros();
+        Tensor result = statsAccumulator();
+        accumulate(result.doubles, values, 0, values.size);
+        addZeros(result.doubles, tensor.size - values.size);
+        return statsResult(result);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the given number of zeros to the state of {@link #accumulate}, by merging the state with
+     * that of the zeros (whose mean and sum of squared differences are zero).
+     */
+    private static void addZeros (double[] state, long zeros)
+    {
+        if (zeros == 0) return;
+        double count = state[0];
+        double total = count + zeros;
+        double delta = -state[1];
+        state[0] = total;
+        state[1] += delta * zeros / total;
+        state[2] += delta * delta * count * zeros / total;
+        state[3] = Math.min(state[3], 0);
+        state[4] = Math.max(state[4], 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the initial state of {@link #accumulate}, in the tensor that will hold the
+     * statistics.
+     */
+    private static Tensor statsAccumulator ()
+    {
+        Tensor result = Tensor.zeros(Primitive.FLOAT, new int[] { 5 });
+        result.doubles[3] = Double.POSITIVE_INFINITY;
+        result.doubles[4] = Double.NEGATIVE_INFINITY;
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the elements {@code [from, to)} of the storage of the tensor to the state of Welford's
+     * algorithm: the count, mean, sum of squared differences from the mean, minimum and maximum.
+     */
+    private static void accumulate (double[] state, Tensor a, int from, int to)
+    {
+        long count = (long) state[0];
+        double mean = state[1], m2 = state[2], min = state[3], max = state[4];
+        for (int i = from; i < to; ++i) {
+            double x = a.longs != null ? a.longs[i] : a.doubles[i];
+            double delta = x - mean;
+            mean += delta / ++count;
+            m2 += delta * (x - mean);
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        state[0] = count;
+        state[1] = mean;
+        state[2] = m2;
+        state[3] = min;
+        state[4] = max;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Turns the final state of {@link #accumulate} into the statistics (the variance instead of
+     * the sum of squared differences).
+     */
+    private static Tensor statsResult (Tensor state)
+    {
+        state.doubles[2] /= state.doubles[0];
+        return state;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,27 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Return statement, with an optional value.
+ *
+ * <p>In functions with a {@link Primitive} return type, the value is stored unboxed in {@link
+ * ScopeStorage#primitiveReturnValue} instead of {@link ScopeStorage#returnValue}.
+ */
+final class ReturnExec extends StatementExec
+{
+    private final ExecNode value;
+    private final Primitive type;
+
+    ReturnExec (ExecNode value, Primitive type) {
+        this.value = value;
+        this.type = type;
+    }
+
+    @Override Completion executeStatement (ScopeStorage frame)
+    {
+        if (type != null)
+            frame.primitiveReturnValue = type.evaluate(value, frame);
+        else
+            frame.returnValue = value == null ? null : value.execute(frame);
+        return Completion.RETURN;
+    }
+}
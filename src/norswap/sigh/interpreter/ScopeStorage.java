@@ -2,61 +2,162 @@ package norswap.sigh.interpreter;
 
 import norswap.sigh.scopes.RootScope;
 import norswap.sigh.scopes.Scope;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
- * The concrete instantiation of a {@link Scope} at runtime.
+ * The concrete instantiation of a frame-introducing {@link Scope} (the root scope or a function
+ * scope) at runtime.
  *
  * <p>The scope itself cannot be used directly, as many "copies" of the scope will be needed
  * at runtime (for instance, one for each function invocation), sometimes at the same type,
  * in the presence of recursion.
+ *
+ * <p>Values are stored in a flat array, at the slot index assigned to their declaration during
+ * semantic analysis (see {@link Scope#slot}). Variables declared in nested blocks live in the
+ * storage of the enclosing function (or of the root scope). The {@link #parent} of a storage
+ * is the storage of the lexically enclosing frame, so that a variable declared at depth {@code d}
+ * is always found exactly {@code this.depth - d} parent hops away.
+ *
+ * <p>The storages of function calls are pooled and reused across calls (see {@link Function}):
+ * they are {@link #reset} when a call begins and {@link #clear}ed when it completes.
  */
 public final class ScopeStorage
 {
     // ---------------------------------------------------------------------------------------------
 
     public final Scope scope;
-    public final ScopeStorage parent;
+    public final int depth;
+
+    /**
+     * The storage of the lexically enclosing frame, or null for the root frame.
+     */
+    ScopeStorage parent;
+
+    /**
+     * The struct instance on which the method owning this frame was invoked, or the receiver of
+     * the lexically enclosing frame if this frame does not belong to a method call.
+     */
+    Object receiver;
+
+    /**
+     * The values of the variables of the frame, indexed by slot.
+     */
+    final Object[] values;
+
+    /**
+     * The values of the variables of the frame that have a {@link Primitive} type, indexed by
+     * slot and encoded as described in {@link Primitive}. The corresponding entries of {@link
+     * #values} are unused.
+     */
+    final long[] primitives;
+
+    /**
+     * The value of the last return statement executed in the frame (see {@link
+     * Completion#RETURN}).
+     */
+    Object returnValue;
+
+    /**
+     * The encoded value of the last return statement executed in the frame, if the function has
+     * a {@link Primitive} return type.
+     */
+    long primitiveReturnValue;
+
+    /**
+     * Scratch space in which {@link TailCallExec} evaluates the arguments of a self tail call
+     * before rebinding the parameters, allocated on first use. Kept across calls when the storage
+     * is pooled.
+     */
+    Object[] tailValues;
+    long[] tailPrimitives;
 
     // ---------------------------------------------------------------------------------------------
 
-    private final HashMap<String, Object> values = new HashMap<>();
+    ScopeStorage (Scope scope, ScopeStorage parent, Object receiver) {
+        this.scope = scope.frameScope;
+        this.depth = scope.depth;
+        this.values = new Object[scope.frameSize()];
+        this.primitives = new long[scope.frameSize()];
+        reset(parent, receiver);
+    }
 
     // ---------------------------------------------------------------------------------------------
 
-    ScopeStorage (Scope scope, ScopeStorage parent) {
-        this.scope = scope;
+    /**
+     * Prepares the storage for a new call, with the given parent and receiver (inherited from the
+     * parent if null).
+     */
+    void reset (ScopeStorage parent, Object receiver) {
         this.parent = parent;
+        this.receiver = receiver != null || parent == null ? receiver : parent.receiver;
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Returns the value with the given name, defined in the given scope (determined by semantic
-     * analysis), which should be this scope or one of its ancestors.
+     * Drops the references held by the storage once its call has completed, so that a pooled
+     * storage does not keep values alive. Primitive values hold no references and are left as is:
+     * semantic analysis guarantees that variables are assigned before being read.
      */
-    Object get (Scope scope, String name)
-    {
-        if (scope == this.scope)
-            return values.get(name);
-        else if (parent != null)
-            return parent.get(scope, name);
-        else
-            throw new Error("[implementation bug] could not lookup name: " + name);
+    void clear () {
+        Arrays.fill(values, null);
+        if (tailValues != null)
+            Arrays.fill(tailValues, null);
+        parent = null;
+        receiver = null;
+        returnValue = null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Sets the value with the given name, defined in the given scope (determined by semantic
-     * analysis), which should be this scope or one of its ancestors.
+     * Returns the storage for the frame at the given depth, which must be this storage or one
+     * of its ancestors.
      */
-    void set (Scope scope, String name, Object value)
+    ScopeStorage frame (int depth)
     {
-        if (scope == this.scope)
-            values.put(name, value);
-        else
-            parent.set(scope, name, value);
+        ScopeStorage frame = this;
+        for (int i = this.depth - depth; i > 0; --i)
+            frame = frame.parent;
+        return frame;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value at the given slot of the frame at the given depth (determined by semantic
+     * analysis), which should be this frame or one of its ancestors.
+     */
+    Object get (int depth, int slot) {
+        return frame(depth).values[slot];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the value at the given slot of the frame at the given depth (determined by semantic
+     * analysis), which should be this frame or one of its ancestors.
+     */
+    void set (int depth, int slot, Object value) {
+        frame(depth).values[slot] = value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the encoded value at the given primitive slot of the frame at the given depth.
+     */
+    long getPrimitive (int depth, int slot) {
+        return frame(depth).primitives[slot];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the encoded value at the given primitive slot of the frame at the given depth.
+     */
+    void setPrimitive (int depth, int slot, long bits) {
+        frame(depth).primitives[slot] = bits;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -66,9 +167,9 @@ public final class ScopeStorage
      */
     void initRoot(RootScope root)
     {
-        set(root, root._true  .name(), true);
-        set(root, root._false .name(), false);
-        set(root, root._null  .name(), Null.INSTANCE);
+        values[root.slot(root._true)]  = true;
+        values[root.slot(root._false)] = false;
+        values[root.slot(root._null)]  = Null.INSTANCE;
 
         // Function and types are not assigned values in frames - instead they derive
         // their runtime value values from the corresponding DeclarationNode.
@@ -77,7 +178,7 @@ public final class ScopeStorage
     // ---------------------------------------------------------------------------------------------
 
     @Override public String toString() {
-        return "ScopeStorage " + values.toString();
+        return "ScopeStorage " + Arrays.toString(values);
     }
 
     // ---------------------------------------------------------------------------------------------
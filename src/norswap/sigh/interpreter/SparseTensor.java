@@ -0,0 +1,1043 @@
+package norswap.sigh.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Sparse runtime representation of large rectangular arrays of {@code Int} or {@code Float}
+ * values: only the elements that have been assigned are stored, in a hash table keyed by their
+ * position in the row-major order of the array. The other elements are zero.
+ *
+ * <p>Array declarations create a sparse tensor instead of a {@link Tensor} when the array has more
+ * than {@link #THRESHOLD} elements (see {@link NewArrayExec}), so that a large and mostly untouched
+ * array, such as the adjacency matrix of a graph, only takes memory for its non-zero elements.
+ *
+ * <p>As with tensors, indexing or slicing a sparse tensor yields a view that shares its storage,
+ * addressed through its offset and the stride of each of its dimensions in the table.
+ *
+ * <p>The element-wise operators, the matrix product and the reductions have sparse kernels that
+ * only visit the non-zero elements, in row-major order (see {@link Coordinates}), and account for
+ * the zeros by counting them. The operations whose result is mostly non-zero (adding a scalar or
+ * a dense array, ...) return a dense tensor, and the others convert their sparse operands to dense
+ * tensors first ({@link #toDense}).
+ */
+final class SparseTensor
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of elements above which array declarations create a sparse tensor. */
+    static final long THRESHOLD = 1L << 24;
+
+    /** Either {@link Primitive#INT} or {@link Primitive#FLOAT}. */
+    final Primitive type;
+
+    private final Entries entries;
+
+    /** The position of the first element of the tensor in {@link #entries}. */
+    final long offset;
+
+    final int[] shape;
+
+    /** The distance between consecutive elements along each dimension. */
+    private final long[] strides;
+
+    /** The number of elements of the tensor. */
+    final long size;
+
+    /** Whether the elements are laid out in row-major order without gaps (i.e. not a slice). */
+    private final boolean contiguous;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private SparseTensor (Primitive type, Entries entries, long offset, int[] shape,
+                          long[] strides)
+    {
+        this.type = type;
+        this.entries = entries;
+        this.offset = offset;
+        this.shape = shape;
+        this.strides = strides;
+        this.size = size(shape);
+        this.contiguous = Arrays.equals(strides, strides(shape));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private SparseTensor (Primitive type, Entries entries, int[] shape) {
+        this(type, entries, 0, shape, strides(shape));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long[] strides (int[] shape)
+    {
+        long[] strides = new long[shape.length];
+        long stride = 1;
+        for (int i = shape.length - 1; i >= 0; --i) {
+            strides[i] = stride;
+            stride = Math.multiplyExact(stride, shape[i]);
+        }
+        return strides;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a sparse tensor of the given type and shape, whose elements are all zero.
+     */
+    static SparseTensor zeros (Primitive type, int[] shape) {
+        return new SparseTensor(type, new Entries(type, 16), shape);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether the declared arrays of {@code Int} or {@code Float} values of the given shape
+     * are sparse, because they have more than {@link #THRESHOLD} elements (see {@link
+     * NewArrayExec}). Unlike {@link #size}, this never overflows.
+     */
+    static boolean isSparse (int[] shape)
+    {
+        long size = 1;
+        for (int length: shape) {
+            if (length == 0) return false;
+            size = Math.min(size * length, THRESHOLD + 1);
+        }
+        return size > THRESHOLD;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of elements of an array of the given shape.
+     */
+    static long size (int[] shape)
+    {
+        long size = 1;
+        for (int length: shape)
+            size = Math.multiplyExact(size, length);
+        return size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of dimensions of the tensor.
+     */
+    int rank () {
+        return shape.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String elementType () {
+        return type == Primitive.INT ? "Int" : "Float";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position of the element at the given (non-negative) index along the given
+     * dimension, relative to {@code position}, throwing if the index is out of bounds.
+     */
+    long step (long position, int dim, int index)
+    {
+        if (index >= shape[dim])
+            throw new PassthroughException(new ArrayIndexOutOfBoundsException(
+                "Index " + index + " out of bounds for length " + shape[dim]));
+        return position + index * strides[dim];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the view of the tensor obtained by indexing its first {@code dims} dimensions, whose
+     * first element is at the given position.
+     */
+    private SparseTensor view (int dims, long position)
+    {
+        return new SparseTensor(type, entries, position, suffix(shape, dims),
+            Arrays.copyOfRange(strides, dims, strides.length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the view of the tensor that keeps the elements in {@code [from[d], to[d])} along
+     * each dimension {@code d} for which {@code ranges[d]} is true, and the elements at index
+     * {@code from[d]} along the others, as {@link Tensor#slice} does. The view shares the storage
+     * of the tensor.
+     */
+    SparseTensor slice (int[] from, int[] to, boolean[] ranges)
+    {
+        int kept = shape.length;
+        for (boolean range: ranges)
+            if (!range) --kept;
+
+        int[] shape = new int[kept];
+        long[] strides = new long[kept];
+        long position = offset;
+        for (int dim = 0, j = 0; dim < this.shape.length; ++dim) {
+            if (dim >= ranges.length) {
+                shape[j] = this.shape[dim];
+                strides[j++] = this.strides[dim];
+                continue;
+            }
+            position = step(position, dim, from[dim]);
+            if (!ranges[dim]) continue;
+            if (to[dim] <= from[dim] || to[dim] > this.shape[dim])
+                throw new PassthroughException(new ArrayIndexOutOfBoundsException(
+                    "Range " + from[dim] + ":" + to[dim] + " empty or out of bounds for length "
+                        + this.shape[dim]));
+            shape[j] = to[dim] - from[dim];
+            strides[j++] = this.strides[dim];
+        }
+        return new SparseTensor(type, entries, position, shape, strides);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position in the table of the element at the given index in the row-major order
+     * of the tensor.
+     */
+    private long position (long index)
+    {
+        if (contiguous)
+            return offset + index;
+        long position = offset;
+        for (int dim = shape.length - 1; dim >= 0; --dim) {
+            position += index % shape[dim] * strides[dim];
+            index /= shape[dim];
+        }
+        return position;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index in the row-major order of the tensor of the element at the given position
+     * in the table, or -1 if it is not an element of the tensor. As the strides of a view are
+     * those of some dimensions of a row-major array, the indices are found by dividing by the
+     * strides in turn.
+     */
+    private long index (long position)
+    {
+        long rest = position - offset;
+        if (contiguous)
+            return rest >= 0 && rest < size ? rest : -1;
+        if (rest < 0)
+            return -1;
+        long index = 0;
+        for (int dim = 0; dim < shape.length; ++dim) {
+            long i = rest / strides[dim];
+            if (i >= shape[dim]) return -1;
+            rest -= i * strides[dim];
+            index = index * shape[dim] + i;
+        }
+        return rest == 0 ? index : -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the element (if {@code dims} is the rank) or the view at the given position, obtained
+     * by indexing the first {@code dims} dimensions of the tensor.
+     */
+    Object get (int dims, long position)
+    {
+        if (dims < shape.length)
+            return view(dims, position);
+        return type == Primitive.INT
+            ? (Object) entries.getLong(position)
+            : (Object) entries.getDouble(position);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    long getLong (long position) {
+        return entries.getLong(position);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    double getDouble (long position) {
+        return type == Primitive.INT ? entries.getLong(position) : entries.getDouble(position);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    void setLong (long position, long value) {
+        entries.putLong(position, value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    void setDouble (long position, double value) {
+        entries.putDouble(position, value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Assigns the element (if {@code dims} is the rank) or the sub-array at the given position,
+     * obtained by indexing the first {@code dims} dimensions of the tensor. Sub-arrays are assigned
+     * by copying the elements of the value, which must have the same shape.
+     */
+    void set (int dims, long position, Object value)
+    {
+        if (dims == shape.length) {
+            if (type == Primitive.INT)
+                entries.putLong(position, (Long) value);
+            else
+                entries.putDouble(position, ((Number) value).doubleValue());
+            return;
+        }
+
+        int[] shape = suffix(this.shape, dims);
+        SparseTensor target = view(dims, position);
+        Coordinates source = coordinates(value);
+        if (source == null || source.type != type || !Arrays.equals(source.shape, shape))
+            throw new InterpreterException(
+                "Trying to assign a value that is not an array of shape "
+                    + Arrays.toString(shape) + " to part of a " + elementType()
+                    + " array of shape " + Arrays.toString(this.shape),
+                new ArrayStoreException());
+
+        Coordinates old = target.coordinates();
+        for (int i = 0; i < old.count; ++i)
+            entries.clear(target.position(old.keys[i]));
+        for (int i = 0; i < source.count; ++i)
+            if (type == Primitive.INT)
+                entries.putLong(target.position(source.keys[i]), source.longs[i]);
+            else
+                entries.putDouble(target.position(source.keys[i]), source.doubles[i]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int[] suffix (int[] array, int from) {
+        return Arrays.copyOfRange(array, from, array.length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the non-zero elements of the tensor.
+     */
+    Coordinates coordinates ()
+    {
+        long end = offset + 1;
+        for (int dim = 0; dim < shape.length; ++dim)
+            end += (shape[dim] - 1) * strides[dim];
+        long[] keys = entries.keys(offset, end);
+        long[] indices = new long[keys.length];
+        int count = 0;
+        for (long key: keys) {
+            long index = index(key);
+            if (index < 0) continue;
+            keys[count] = key;
+            indices[count++] = index;
+        }
+
+        Coordinates result = new Coordinates(type, shape, count);
+        for (int i = 0; i < count; ++i) {
+            result.keys[i] = indices[i];
+            if (type == Primitive.INT)
+                result.longs[i] = entries.getLong(keys[i]);
+            else
+                result.doubles[i] = entries.getDouble(keys[i]);
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the non-zero elements of the given sparse tensor, tensor or rectangular numeric
+     * array, or null if the value is none of these.
+     */
+    private static Coordinates coordinates (Object value)
+    {
+        if (value instanceof SparseTensor)
+            return ((SparseTensor) value).coordinates();
+        Tensor tensor = value instanceof Tensor
+            ? (Tensor) value
+            : value instanceof Object[] ? Tensor.of((Object[]) value) : null;
+        if (tensor == null)
+            return null;
+
+        tensor = tensor.compact();
+        int count = 0;
+        for (int i = 0; i < tensor.size; ++i)
+            if (tensor.longs != null ? tensor.longs[tensor.offset + i] != 0
+                                     : tensor.doubles[tensor.offset + i] != 0)
+                ++count;
+        Coordinates result = new Coordinates(tensor.type, tensor.shape, count);
+        for (int i = 0, j = 0; i < tensor.size; ++i) {
+            int position = tensor.offset + i;
+            if (tensor.longs != null && tensor.longs[position] != 0) {
+                result.keys[j] = i;
+                result.longs[j++] = tensor.longs[position];
+            } else if (tensor.doubles != null && tensor.doubles[position] != 0) {
+                result.keys[j] = i;
+                result.doubles[j++] = tensor.doubles[position];
+            }
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a dense tensor holding the elements of this tensor, throwing if it has too many
+     * elements (see {@link #fitsDense}).
+     */
+    Tensor toDense ()
+    {
+        if (!fitsDense(size))
+            throw new InterpreterException("Sparse array of shape " + Arrays.toString(shape)
+                + " is too large for this operation", new UnsupportedOperationException());
+        Tensor result = Tensor.zeros(type, shape);
+        Coordinates coordinates = coordinates();
+        for (int i = 0; i < coordinates.count; ++i)
+            if (type == Primitive.INT)
+                result.longs[(int) coordinates.keys[i]] = coordinates.longs[i];
+            else
+                result.doubles[(int) coordinates.keys[i]] = coordinates.doubles[i];
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether a dense tensor with the given number of elements fits in a Java array, and in half
+     * of the maximum heap size, so that failing to allocate it is reported as an interpreter error
+     * rather than exhausting the memory.
+     */
+    private static boolean fitsDense (long size) {
+        return size <= Integer.MAX_VALUE - 8 && size * 8 <= Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the given value as a dense tensor if it is a sparse tensor, or the value itself.
+     */
+    static Object dense (Object value) {
+        return value instanceof SparseTensor ? ((SparseTensor) value).toDense() : value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the sum of the elements of an {@code Int} sparse tensor.
+     */
+    long sumLong ()
+    {
+        Coordinates coordinates = coordinates();
+        long sum = 0;
+        for (int i = 0; i < coordinates.count; ++i)
+            sum += coordinates.longs[i];
+        return sum;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the sum of the elements of the sparse tensor, as a {@code Float}.
+     */
+    double sumDouble ()
+    {
+        if (type == Primitive.INT)
+            return sumLong();
+        Coordinates coordinates = coordinates();
+        double sum = 0;
+        for (int i = 0; i < coordinates.count; ++i)
+            sum += coordinates.doubles[i];
+        return sum;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a one-dimensional tensor holding the non-zero elements of the tensor, in row-major
+     * order.
+     */
+    Tensor nonZeros ()
+    {
+        Coordinates coordinates = coordinates();
+        Tensor result = Tensor.zeros(type, new int[] { coordinates.count });
+        if (type == Primitive.INT)
+            System.arraycopy(coordinates.longs, 0, result.longs, 0, coordinates.count);
+        else
+            System.arraycopy(coordinates.doubles, 0, result.doubles, 0, coordinates.count);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements the {@code sum}, {@code min}, {@code max} and {@code argmax} built-ins along the
+     * given axis (see {@link Reductions#reduce(Tensor, int, long)}): returns a dense tensor whose
+     * shape is that of this tensor without the axis, or a boxed scalar if this tensor has a single
+     * dimension.
+     *
+     * <p>Only the non-zero elements are visited. For the other reductions than {@code sum}, the
+     * number of non-zero elements reduced into each element of the result is counted, and the
+     * result is combined with zero if it is less than the length of the axis. For {@code argmax},
+     * the index of the first zero is tracked as well: as the elements are visited in row-major
+     * order, this is the number of non-zero elements at the start of the axis.
+     */
+    Object reduce (int op, long axis)
+    {
+        int rank = shape.length;
+        if (axis < 0 || axis >= rank)
+            throw new InterpreterException(
+                "Reduction axis " + axis + " out of range for an array with " + rank
+                    + " dimensions", new IndexOutOfBoundsException());
+
+        int dim = (int) axis;
+        int[] shape = new int[rank - 1];
+        for (int i = 0, j = 0; i < rank; ++i)
+            if (i != dim) shape[j++] = this.shape[i];
+        if (!fitsDense(size(shape)))
+            throw new InterpreterException("Reduction of a sparse array of shape "
+                + Arrays.toString(this.shape) + " along axis " + axis + " is too large",
+                new UnsupportedOperationException());
+
+        // a position [outer, k, inner] maps to [outer, inner]
+        long n = this.shape[dim];
+        long inner = size(suffix(this.shape, dim + 1));
+        boolean argmax = op == Reductions.ARGMAX;
+        Tensor result = Tensor.zeros(argmax ? Primitive.INT : type, shape);
+        Tensor best = argmax ? Tensor.zeros(type, shape) : result;
+        int[] counts = op == Reductions.SUM ? null : new int[result.size];
+        int[] zeros = argmax ? new int[result.size] : null;
+        Coordinates coordinates = coordinates();
+
+        for (int i = 0; i < coordinates.count; ++i) {
+            long key = coordinates.keys[i];
+            int target = (int) (key / (inner * n) * inner + key % inner);
+            if (op == Reductions.SUM) {
+                if (type == Primitive.INT)
+                    result.longs[target] += coordinates.longs[i];
+                else
+                    result.doubles[target] += coordinates.doubles[i];
+                continue;
+            }
+            boolean better = counts[target]++ == 0 || (type == Primitive.INT
+                ? op == Reductions.MIN
+                    ? coordinates.longs[i] < best.longs[target]
+                    : coordinates.longs[i] > best.longs[target]
+                : op == Reductions.MIN
+                    ? coordinates.doubles[i] < best.doubles[target]
+                    : coordinates.doubles[i] > best.doubles[target]);
+            long k = key / inner % n;
+            if (better) {
+                if (type == Primitive.INT)
+                    best.longs[target] = coordinates.longs[i];
+                else
+                    best.doubles[target] = coordinates.doubles[i];
+                if (argmax)
+                    result.longs[target] = k;
+            }
+            if (argmax && zeros[target] == k)
+                ++zeros[target];
+        }
+
+        if (counts != null)
+            for (int i = 0; i < result.size; ++i) {
+                if (counts[i] == n) continue;
+                // some elements are zero
+                double value = type == Primitive.INT ? best.longs[i] : best.doubles[i];
+                if (argmax && (counts[i] == 0 || value < 0))
+                    result.longs[i] = zeros[i];
+                else if (!argmax && (op == Reductions.MIN ? value > 0 : value < 0)) {
+                    if (type == Primitive.INT)
+                        result.longs[i] = 0;
+                    else
+                        result.doubles[i] = 0;
+                }
+            }
+
+        return rank == 1 ? result.box(0) : result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements the element-wise operator {@code op} (see {@link Kernels}) when at least one of
+     * the operands is a sparse tensor.
+     *
+     * <p>Multiplying by a scalar or an array and dividing by a scalar only visits the non-zero
+     * elements and returns a sparse tensor, as does adding or subtracting two sparse tensors.
+     * Adding or subtracting a sparse tensor and a scalar or a dense array returns a dense tensor.
+     * Other operations, and operands of different shapes, use the dense kernels.
+     */
+    static Object operate (Interpreter interpreter, ScopeStorage frame,
+                           Object left, Object right, int op)
+    {
+        if (left instanceof SparseTensor && right instanceof Number)
+            return operate((SparseTensor) left, (Number) right, op, false, interpreter, frame);
+        if (right instanceof SparseTensor && left instanceof Number)
+            return operate((SparseTensor) right, (Number) left, op, true, interpreter, frame);
+
+        Coordinates a = coordinates(left), b = coordinates(right);
+        if (a == null || b == null || !Arrays.equals(a.shape, b.shape))
+            return interpreter.arrayOperate(frame, dense(left), dense(right), op);
+        if (a.type != b.type)
+            throw new InterpreterException("Try to operate on two arrays with different types: "
+                + a.elementType() + "[] and " + b.elementType() + "[]",
+                new ArithmeticException());
+
+        boolean sparseLeft = left instanceof SparseTensor;
+        boolean sparseRight = right instanceof SparseTensor;
+        switch (op) {
+            case Kernels.MULTIPLY:
+                return sparse(a.type, a.shape, Coordinates.intersect(a, b));
+            case Kernels.ADD:
+            case Kernels.SUBTRACT:
+                if (sparseLeft && sparseRight)
+                    return sparse(a.type, a.shape, Coordinates.merge(a, b, op));
+                // the dense operand (negated for sparse - dense), plus or minus the sparse one
+                Tensor result;
+                if (!sparseLeft)
+                    result = copy(tensor(left));
+                else if (op == Kernels.ADD)
+                    result = copy(tensor(right));
+                else
+                    result = tensor(right).subtractFrom(zero(a.type));
+                (sparseLeft ? a : b).addTo(result, op == Kernels.SUBTRACT && !sparseLeft);
+                return result;
+            default:
+                return interpreter.arrayOperate(frame, dense(left), dense(right), op);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object operate (SparseTensor tensor, Number scalar, int op, boolean scalarLeft,
+                                   Interpreter interpreter, ScopeStorage frame)
+    {
+        if (tensor.type == Primitive.INT ? !(scalar instanceof Long) : !(scalar instanceof Double))
+            throw new InterpreterException("Try to operate on an array and a scalar with different "
+                + "types: " + tensor.elementType() + "[] and " + scalar.getClass(),
+                new ArithmeticException());
+
+        boolean division = op == Kernels.DIVIDE || op == Kernels.REMAINDER;
+        if (op == Kernels.MULTIPLY || division && !scalarLeft) {
+            if (division && scalar.doubleValue() == 0)
+                throw new InterpreterException("Division by zero", new ArithmeticException());
+            Coordinates coordinates = tensor.coordinates();
+            if (coordinates.longs != null)
+                Kernels.apply(op, coordinates.longs, 0, (Long) scalar, coordinates.longs,
+                    coordinates.count);
+            else
+                Kernels.apply(op, coordinates.doubles, 0, (Double) scalar, coordinates.doubles,
+                    coordinates.count);
+            return sparse(tensor.type, tensor.shape, coordinates);
+        }
+
+        return scalarLeft
+            ? interpreter.arrayOperate(frame, scalar, tensor.toDense(), op)
+            : interpreter.arrayOperate(frame, tensor.toDense(), scalar, op);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the given tensor, or rectangular numeric array converted to a tensor.
+     */
+    private static Tensor tensor (Object value) {
+        return value instanceof Tensor ? (Tensor) value : Tensor.of((Object[]) value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Number zero (Primitive type) {
+        return type == Primitive.INT ? (Number) 0L : (Number) 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Tensor copy (Tensor tensor) {
+        return tensor.operate(zero(tensor.type), Kernels.ADD);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a sparse tensor holding the given elements.
+     */
+    private static SparseTensor sparse (Primitive type, int[] shape, Coordinates coordinates)
+    {
+        Entries entries = new Entries(type, coordinates.count);
+        for (int i = 0; i < coordinates.count; ++i)
+            if (type == Primitive.INT)
+                entries.putLong(coordinates.keys[i], coordinates.longs[i]);
+            else
+                entries.putDouble(coordinates.keys[i], coordinates.doubles[i]);
+        return new SparseTensor(type, entries, shape);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements the {@code @} operator when at least one of the operands is a sparse tensor: the
+     * product of two matrices, or the dot product of a vector with a vector or a column matrix (see
+     * {@link Tensor#matmul}).
+     *
+     * <p>The product of two sparse matrices is a sparse matrix: each non-zero element {@code
+     * a[i][k]} of the left matrix is multiplied with the non-zero elements of row {@code k} of the
+     * right matrix. When one of the matrices is dense, so is the result, and each non-zero element
+     * of the sparse matrix adds a multiple of a row (or a column) of the dense matrix to the
+     * result.
+     */
+    static Object matmul (Object left, Object right)
+    {
+        Coordinates a = coordinates(left), b = coordinates(right);
+        if (a == null || b == null)
+            throw new InterpreterException("Trying to operate on non-array type", new Exception());
+        if (a.type != b.type)
+            throw new InterpreterException(
+                "Operation @ not defined for this type", new Exception());
+
+        if (a.shape.length == 1 && b.shape.length <= 2) {
+            if (a.shape[0] != b.shape[0])
+                throw new InterpreterException(
+                    "Trying to operate on arrays with different dimensions", new Exception());
+            return Coordinates.dot(a, b);
+        }
+
+        if (a.shape.length != 2 || b.shape.length != 2)
+            throw new InterpreterException("Trying to operate on non-array type", new Exception());
+        if (a.shape[1] != b.shape[0])
+            throw new InterpreterException("Trying to use @ operation on matrix with uncompatible "
+                + "sizes:" + Arrays.toString(a.shape) + " and " + Arrays.toString(b.shape),
+                new Exception());
+
+        int n = a.shape[0], inner = a.shape[1], m = b.shape[1];
+        int[] shape = { n, m };
+        if (left instanceof SparseTensor && right instanceof SparseTensor) {
+            int[] rows = b.rowStarts(inner);
+            Entries entries = new Entries(a.type, a.count + b.count);
+            for (int e = 0; e < a.count; ++e) {
+                long i = a.keys[e] / inner;
+                int k = (int) (a.keys[e] % inner);
+                for (int f = rows[k]; f < rows[k + 1]; ++f) {
+                    long key = i * m + b.keys[f] % m;
+                    if (a.longs != null)
+                        entries.addLong(key, a.longs[e] * b.longs[f]);
+                    else
+                        entries.addDouble(key, a.doubles[e] * b.doubles[f]);
+                }
+            }
+            return new SparseTensor(a.type, entries, shape);
+        }
+
+        if (!fitsDense(size(shape)))
+            throw new InterpreterException("Product of shape " + Arrays.toString(shape)
+                + " is too large for a dense array", new UnsupportedOperationException());
+        Tensor result = Tensor.zeros(a.type, shape);
+
+        if (left instanceof SparseTensor) {
+            // row i of the result += a[i][k] * row k of the right matrix
+            Tensor dense = tensor(right).compact();
+            for (int e = 0; e < a.count; ++e) {
+                int row = (int) (a.keys[e] / inner) * m;
+                int from = dense.offset + (int) (a.keys[e] % inner) * m;
+                if (a.longs != null)
+                    for (int j = 0; j < m; ++j)
+                        result.longs[row + j] += a.longs[e] * dense.longs[from + j];
+                else
+                    for (int j = 0; j < m; ++j)
+                        result.doubles[row + j] += a.doubles[e] * dense.doubles[from + j];
+            }
+        } else {
+            // column j of the result += column k of the left matrix * b[k][j]
+            Tensor dense = tensor(left).compact();
+            for (int f = 0; f < b.count; ++f) {
+                int k = (int) (b.keys[f] / m), j = (int) (b.keys[f] % m);
+                for (int i = 0; i < n; ++i)
+                    if (b.longs != null)
+                        result.longs[i * m + j] +=
+                            dense.longs[dense.offset + i * inner + k] * b.longs[f];
+                    else
+                        result.doubles[i * m + j] +=
+                            dense.doubles[dense.offset + i * inner + k] * b.doubles[f];
+            }
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString ()
+    {
+        if (size <= 1 << 16)
+            return toDense().toString();
+        return "sparse " + elementType() + " array of shape " + Arrays.toString(shape) + " with "
+            + coordinates().count + " non-zero elements";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The non-zero elements of an array, in row-major order: their positions in the array, and
+     * their values in {@code longs} or {@code doubles} (depending on the element type).
+     */
+    private static final class Coordinates
+    {
+        final Primitive type;
+        final int[] shape;
+        final long[] keys;
+        final long[] longs;
+        final double[] doubles;
+        final int count;
+
+        Coordinates (Primitive type, int[] shape, int count)
+        {
+            this.type = type;
+            this.shape = shape;
+            this.keys = new long[count];
+            this.longs = type == Primitive.INT ? new long[count] : null;
+            this.doubles = type == Primitive.INT ? null : new double[count];
+            this.count = count;
+        }
+
+        /** Returns the elements that are non-zero in both {@code a} and {@code b}, multiplied. */
+        static Coordinates intersect (Coordinates a, Coordinates b)
+        {
+            Coordinates result = new Coordinates(a.type, a.shape, Math.min(a.count, b.count));
+            int n = 0;
+            for (int i = 0, j = 0; i < a.count && j < b.count; ) {
+                if (a.keys[i] < b.keys[j]) { ++i; continue; }
+                if (a.keys[i] > b.keys[j]) { ++j; continue; }
+                result.keys[n] = a.keys[i];
+                if (a.longs != null)
+                    result.longs[n++] = a.longs[i++] * b.longs[j++];
+                else
+                    result.doubles[n++] = a.doubles[i++] * b.doubles[j++];
+            }
+            return result.truncate(n);
+        }
+
+        /** Returns the elements of {@code a + b} or {@code a - b}, depending on {@code op}. */
+        static Coordinates merge (Coordinates a, Coordinates b, int op)
+        {
+            long sign = op == Kernels.SUBTRACT ? -1 : 1;
+            Coordinates result = new Coordinates(a.type, a.shape, a.count + b.count);
+            int n = 0, i = 0, j = 0;
+            while (i < a.count || j < b.count) {
+                boolean left  = j == b.count || i < a.count && a.keys[i] <= b.keys[j];
+                boolean right = i == a.count || j < b.count && b.keys[j] <= a.keys[i];
+                result.keys[n] = left ? a.keys[i] : b.keys[j];
+                if (a.longs != null)
+                    result.longs[n++] =
+                        (left ? a.longs[i++] : 0) + (right ? sign * b.longs[j++] : 0);
+                else
+                    result.doubles[n++] =
+                        (left ? a.doubles[i++] : 0) + (right ? sign * b.doubles[j++] : 0);
+            }
+            return result.truncate(n);
+        }
+
+        /**
+         * Returns the dot product of the vector {@code a} and the vector or column matrix {@code
+         * b}, which must have the same length.
+         */
+        static Object dot (Coordinates a, Coordinates b)
+        {
+            long stride = b.shape.length == 2 ? b.shape[1] : 1;
+            long longSum = 0;
+            double doubleSum = 0;
+            for (int i = 0, j = 0; i < a.count && j < b.count; ) {
+                long key = a.keys[i] * stride;
+                if (key < b.keys[j]) { ++i; continue; }
+                if (key > b.keys[j]) { ++j; continue; }
+                if (a.longs != null)
+                    longSum += a.longs[i++] * b.longs[j++];
+                else
+                    doubleSum += a.doubles[i++] * b.doubles[j++];
+            }
+            return a.longs != null ? (Object) longSum : (Object) doubleSum;
+        }
+
+        /**
+         * Returns, for a matrix with {@code rows} rows, the index of the first element of each row,
+         * followed by {@link #count}.
+         */
+        int[] rowStarts (int rows)
+        {
+            long columns = shape[1];
+            int[] starts = new int[rows + 1];
+            for (int i = 0; i < count; ++i)
+                ++starts[(int) (keys[i] / columns) + 1];
+            for (int row = 0; row < rows; ++row)
+                starts[row + 1] += starts[row];
+            return starts;
+        }
+
+        /** Adds (or subtracts, if {@code negate}) the elements to the contiguous tensor. */
+        void addTo (Tensor tensor, boolean negate)
+        {
+            for (int i = 0; i < count; ++i) {
+                int position = tensor.offset + (int) keys[i];
+                if (longs != null)
+                    tensor.longs[position] += negate ? -longs[i] : longs[i];
+                else
+                    tensor.doubles[position] += negate ? -doubles[i] : doubles[i];
+            }
+        }
+
+        String elementType () {
+            return type == Primitive.INT ? "Int" : "Float";
+        }
+
+        private Coordinates truncate (int count)
+        {
+            if (count == this.count) return this;
+            Coordinates result = new Coordinates(type, shape, count);
+            System.arraycopy(keys, 0, result.keys, 0, count);
+            if (longs != null)
+                System.arraycopy(longs, 0, result.longs, 0, count);
+            else
+                System.arraycopy(doubles, 0, result.doubles, 0, count);
+            return result;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Hash table from the positions of the elements to their values (in {@code longs} or {@code
+     * doubles}, depending on the element type), with open addressing and linear probing.
+     */
+    private static final class Entries
+    {
+        private static final long FREE = -1;
+
+        private long[] keys;
+        private long[] longs;
+        private double[] doubles;
+        private int count;
+        private int shift;
+
+        Entries (Primitive type, int expected) {
+            allocate(type == Primitive.INT, Integer.highestOneBit(Math.max(8, expected)) * 4);
+        }
+
+        private void allocate (boolean ints, int capacity)
+        {
+            keys = new long[capacity];
+            Arrays.fill(keys, FREE);
+            longs = ints ? new long[capacity] : null;
+            doubles = ints ? null : new double[capacity];
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        /** Returns the slot of the key, or the free slot where it would be inserted. */
+        private int slot (long key)
+        {
+            int mask = keys.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+            while (keys[slot] != FREE && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        /** Returns the slot of the key, inserting it with a zero value if it is absent. */
+        private int insert (long key)
+        {
+            int slot = slot(key);
+            if (keys[slot] != FREE)
+                return slot;
+            if (2 * (count + 1) > keys.length) {
+                grow();
+                slot = slot(key);
+            }
+            keys[slot] = key;
+            ++count;
+            return slot;
+        }
+
+        private void grow ()
+        {
+            long[] keys = this.keys, longs = this.longs;
+            double[] doubles = this.doubles;
+            allocate(longs != null, keys.length * 2);
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i] == FREE) continue;
+                int slot = slot(keys[i]);
+                this.keys[slot] = keys[i];
+                if (longs != null)
+                    this.longs[slot] = longs[i];
+                else
+                    this.doubles[slot] = doubles[i];
+            }
+        }
+
+        long getLong (long key) {
+            int slot = slot(key);
+            return keys[slot] == FREE ? 0 : longs[slot];
+        }
+
+        double getDouble (long key) {
+            int slot = slot(key);
+            return keys[slot] == FREE ? 0 : doubles[slot];
+        }
+
+        // The slot is computed before indexing the values, as inserting may reallocate them.
+
+        void putLong (long key, long value)
+        {
+            if (value == 0 && keys[slot(key)] == FREE) return;
+            int slot = insert(key);
+            longs[slot] = value;
+        }
+
+        void putDouble (long key, double value)
+        {
+            if (value == 0 && keys[slot(key)] == FREE) return;
+            int slot = insert(key);
+            doubles[slot] = value;
+        }
+
+        void addLong (long key, long value) {
+            int slot = insert(key);
+            longs[slot] += value;
+        }
+
+        void addDouble (long key, double value) {
+            int slot = insert(key);
+            doubles[slot] += value;
+        }
+
+        /** Sets the value of the key to zero, if it is present. */
+        void clear (long key)
+        {
+            int slot = slot(key);
+            if (keys[slot] == FREE) return;
+            if (longs != null)
+                longs[slot] = 0;
+            else
+                doubles[slot] = 0;
+        }
+
+        /** Returns the keys in {@code [from, to)} whose value is not zero, in increasing order. */
+        long[] keys (long from, long to)
+        {
+            long[] result = new long[count];
+            int n = 0;
+            for (int i = 0; i < keys.length; ++i)
+                if (keys[i] >= from && keys[i] < to
+                        && (longs != null ? longs[i] != 0 : doubles[i] != 0))
+                    result[n++] = keys[i];
+            result = Arrays.copyOf(result, n);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
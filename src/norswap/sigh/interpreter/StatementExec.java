@@ -0,0 +1,14 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Base class for the nodes of statements that can alter the control flow of the program, which
+ * only have a meaning through {@link #executeStatement}.
+ */
+abstract class StatementExec extends ExecNode
+{
+    @Override final Object execute (ScopeStorage frame) {
+        throw new Error("should not reach here");
+    }
+
+    @Override abstract Completion executeStatement (ScopeStorage frame);
+}
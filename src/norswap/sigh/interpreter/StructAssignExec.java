@@ -0,0 +1,28 @@
+package norswap.sigh.interpreter;
+
+import static norswap.sigh.interpreter.StructFieldExec.nonNullStruct;
+
+/**
+ * Assigns a field of a struct instance ({@code stem.name = value}), at an index resolved from the
+ * static type of the stem.
+ */
+final class StructAssignExec extends ExecNode
+{
+    private final ExecNode stem;
+    private final int index;
+    private final ExecNode value;
+
+    StructAssignExec (ExecNode stem, int index, ExecNode value) {
+        this.stem = stem;
+        this.index = index;
+        this.value = value;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        StructInstance struct = (StructInstance) nonNullStruct(stem.execute(frame));
+        Object value = this.value.execute(frame);
+        struct.values[index] = value;
+        return value;
+    }
+}
@@ -0,0 +1,30 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Reads a field of a struct instance ({@code stem.name}), at an index resolved from the static type
+ * of the stem.
+ */
+final class StructFieldExec extends ExecNode
+{
+    private final ExecNode stem;
+    private final int index;
+
+    StructFieldExec (ExecNode stem, int index) {
+        this.stem = stem;
+        this.index = index;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return ((StructInstance) nonNullStruct(stem.execute(frame))).values[index];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static Object nonNullStruct (Object object)
+    {
+        if (object == Null.INSTANCE)
+            throw new PassthroughException(
+                new NullPointerException("accessing field of null object"));
+        return object;
+    }
+}
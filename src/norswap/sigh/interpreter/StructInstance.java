@@ -0,0 +1,76 @@
+package norswap.sigh.interpreter;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Runtime representation of a struct instance: a reference to the {@link StructShape} of its
+ * declaration and a compact array holding the value of each field at the index given by the
+ * shape. Methods are found in the method table of the shape.
+ *
+ * <p>For the benefit of the users of the interpreter, an instance can also be viewed as an
+ * immutable map from field names to values.
+ */
+public final class StructInstance extends AbstractMap<String, Object>
+{
+    // ---------------------------------------------------------------------------------------------
+
+    final StructShape shape;
+    final Object[] values;
+
+    // ---------------------------------------------------------------------------------------------
+
+    StructInstance (StructShape shape, Object[] values) {
+        this.shape = shape;
+        this.values = values;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Object get (Object key) {
+        int index = shape.index(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override public boolean containsKey (Object key) {
+        return shape.index(key) >= 0;
+    }
+
+    @Override public int size () {
+        return values.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Set<Entry<String, Object>> entrySet ()
+    {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override public int size () {
+                return values.length;
+            }
+
+            @Override public Iterator<Entry<String, Object>> iterator () {
+                return new Iterator<Entry<String, Object>>() {
+                    private int i = 0;
+
+                    @Override public boolean hasNext () {
+                        return i < values.length;
+                    }
+
+                    @Override public Entry<String, Object> next () {
+                        if (i >= values.length) throw new NoSuchElementException();
+                        Entry<String, Object> entry =
+                            new SimpleImmutableEntry<>(shape.fields[i], values[i]);
+                        ++i;
+                        return entry;
+                    }
+                };
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
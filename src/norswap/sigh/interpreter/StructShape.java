@@ -0,0 +1,82 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.ast.StructDeclarationNode;
+import java.util.HashMap;
+
+/**
+ * The layout shared by all instances ({@link StructInstance}) of a struct declaration: the names
+ * of the fields of the struct, the index at which each field is stored in an instance, and the
+ * method table of the struct.
+ *
+ * <p>Methods are not stored in instances: the method table maps each method name to its {@link
+ * Function}, and is built once per declaration. The memory used by an instance therefore only
+ * depends on its number of fields.
+ *
+ * <p>Shapes are created once per declaration by the interpreter, so that field indices can be
+ * resolved when translating the program, whenever the struct type is known statically.
+ */
+final class StructShape
+{
+    // ---------------------------------------------------------------------------------------------
+
+    final StructDeclarationNode declaration;
+    final String[] fields;
+    private final HashMap<String, Integer> indices = new HashMap<>();
+    private final HashMap<String, Function> methods = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    StructShape (Interpreter interpreter, StructDeclarationNode declaration)
+    {
+        this.declaration = declaration;
+        fields = new String[declaration.fields.size()];
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = declaration.fields.get(i).name;
+            indices.put(fields[i], i);
+        }
+        for (FunDeclarationNode method: declaration.fun)
+            methods.put(method.name, interpreter.function(method));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the field with the given name, or -1 if there is no such field.
+     */
+    int index (Object name) {
+        Integer index = indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the method with the given name, or null if there is no such method.
+     */
+    Function method (String name) {
+        return methods.get(name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new array of field values for an instance, which must be initialized by the
+     * caller.
+     */
+    Object[] newValues () {
+        return new Object[fields.length];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an instance whose fields are initialized to the given values. The instance takes
+     * ownership of the array.
+     */
+    StructInstance instantiate (Object[] fieldValues) {
+        return new StructInstance(this, fieldValues);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
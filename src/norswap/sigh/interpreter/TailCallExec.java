@@ -0,0 +1,51 @@
+package norswap.sigh.interpreter;
+
+/**
+ * A return statement whose value is the result of a call to the function that contains it (a self
+ * tail call, as identified by the {@code tailCall} attribute of semantic analysis).
+ *
+ * <p>Instead of performing the call, the node rebinds the parameters of the current frame to the
+ * arguments and completes with {@link Completion#TAIL_CALL}, upon which {@link Function} runs the
+ * body again. All arguments are evaluated before any parameter is rebound, as arguments may refer
+ * to the current value of the parameters.
+ */
+final class TailCallExec extends StatementExec
+{
+    private final Function function;
+    private final ExecNode[] arguments;
+
+    TailCallExec (Function function, ExecNode[] arguments) {
+        this.function = function;
+        this.arguments = arguments;
+    }
+
+    @Override Completion executeStatement (ScopeStorage frame)
+    {
+        int n = arguments.length;
+        int[] slots = function.parameterSlots;
+        Primitive[] types = function.parameterTypes;
+
+        if (frame.tailValues == null) {
+            frame.tailValues = new Object[n];
+            frame.tailPrimitives = new long[n];
+        }
+        Object[] values = frame.tailValues;
+        long[] primitives = frame.tailPrimitives;
+
+        for (int i = 0; i < n; ++i) {
+            if (types[i] == null)
+                values[i] = arguments[i].execute(frame);
+            else
+                primitives[i] = types[i].evaluate(arguments[i], frame);
+        }
+
+        for (int i = 0; i < n; ++i) {
+            if (types[i] == null)
+                frame.values[slots[i]] = values[i];
+            else
+                frame.primitives[slots[i]] = primitives[i];
+        }
+
+        return Completion.TAIL_CALL;
+    }
+}
@@ -0,0 +1,643 @@
+package norswap.sigh.interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Runtime representation of rectangular arrays of {@code Int} or {@code Float} values: the
+ * elements are stored unboxed in a single {@code long[]} or {@code double[]}, and are addressed
+ * through the shape of the array and the stride of each of its dimensions (row-major order).
+ *
+ * <p>Indexing a tensor along fewer dimensions than it has yields a view that shares the storage
+ * of the tensor, so that writes through the view (e.g. {@code x[0][1] = 3}) update the tensor.
+ *
+ * <p>Tensors are created by array declarations ({@code var x: Float[1000][1000]}), by the
+ * rectangular array literals of numbers ({@code [[1, 2], [3, 4]]}) and by the operations on
+ * arrays. Other arrays (literals with array-valued components, arrays of other types, ragged
+ * arrays) are represented as nested {@code Object[]}. Operations convert their rectangular
+ * numeric operands to tensors ({@link #of}).
+ */
+public final class Tensor
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Either {@link Primitive#INT} or {@link Primitive#FLOAT}. */
+    final Primitive type;
+
+    /** The storage of the elements if {@link #type} is {@link Primitive#INT}, or null. */
+    final long[] longs;
+
+    /** The storage of the elements if {@link #type} is {@link Primitive#FLOAT}, or null. */
+    final double[] doubles;
+
+    /** The position of the first element of the tensor in its storage. */
+    final int offset;
+
+    final int[] shape;
+    final int[] strides;
+
+    /** The number of elements of the tensor. */
+    final int size;
+
+    /**
+     * Whether the tensor is a slice of a copy of an array (see {@link ArraySliceExec}), which must
+     * not be assigned to, as the assignments would not reach the array.
+     */
+    final boolean readOnly;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Tensor (Primitive type, long[] longs, double[] doubles, int offset, int[] shape,
+                    int[] strides, boolean readOnly)
+    {
+        this.type = type;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.offset = offset;
+        this.shape = shape;
+        this.strides = strides;
+        this.size = size(shape);
+        this.readOnly = readOnly;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a tensor of the given type and shape, whose elements are all zero.
+     */
+    static Tensor zeros (Primitive type, int[] shape)
+    {
+        int size = size(shape);
+        return type == Primitive.INT
+            ? new Tensor(type, new long[size], null, 0, shape, strides(shape), false)
+            : new Tensor(type, null, new double[size], 0, shape, strides(shape), false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int size (int[] shape)
+    {
+        int size = 1;
+        for (int length: shape)
+            size = Math.multiplyExact(size, length);
+        return size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int[] strides (int[] shape)
+    {
+        int[] strides = new int[shape.length];
+        int stride = 1;
+        for (int i = shape.length - 1; i >= 0; --i) {
+            strides[i] = stride;
+            stride *= shape[i];
+        }
+        return strides;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Converts the given nested array to a tensor, or returns null if it is empty, ragged or if its
+     * elements are not either all {@code Long} or all {@code Double}. The nested array may itself
+     * contain tensors.
+     */
+    static Tensor of (Object[] array)
+    {
+        ArrayList<Integer> dimensions = new ArrayList<>();
+        Object element = array;
+        while (element instanceof Object[]) {
+            Object[] elements = (Object[]) element;
+            if (elements.length == 0) return null;
+            dimensions.add(elements.length);
+            element = elements[0];
+        }
+
+        Primitive type;
+        if (element instanceof Tensor) {
+            Tensor tensor = (Tensor) element;
+            for (int length: tensor.shape) dimensions.add(length);
+            type = tensor.type;
+        }
+        else if (element instanceof Long)
+            type = Primitive.INT;
+        else if (element instanceof Double)
+            type = Primitive.FLOAT;
+        else
+            return null;
+
+        int[] shape = new int[dimensions.size()];
+        for (int i = 0; i < shape.length; ++i)
+            shape[i] = dimensions.get(i);
+
+        Tensor tensor = zeros(type, shape);
+        return tensor.fill(0, 0, array) ? tensor : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Copies the elements of {@code value}, which must have shape {@code shape[dim:]}, starting at
+     * the given position. Returns false if the value has a different shape or element type.
+     */
+    private boolean fill (int dim, int position, Object value)
+    {
+        if (value instanceof Tensor) {
+            Tensor tensor = (Tensor) value;
+            if (tensor.type != type || !Arrays.equals(tensor.shape, suffix(shape, dim)))
+                return false;
+            view(dim, position).copy(tensor);
+            return true;
+        }
+
+        if (dim == shape.length) {
+            if (type == Primitive.INT && value instanceof Long)
+                longs[position] = (Long) value;
+            else if (type == Primitive.FLOAT && value instanceof Double)
+                doubles[position] = (Double) value;
+            else
+                return false;
+            return true;
+        }
+
+        if (!(value instanceof Object[]) || ((Object[]) value).length != shape[dim])
+            return false;
+        Object[] elements = (Object[]) value;
+        for (int i = 0; i < elements.length; ++i)
+            if (!fill(dim + 1, position + i * strides[dim], elements[i]))
+                return false;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int[] suffix (int[] array, int from) {
+        return Arrays.copyOfRange(array, from, array.length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the name of the Sigh type of the elements.
+     */
+    private String elementType () {
+        return type == Primitive.INT ? "Int" : "Float";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of dimensions of the tensor.
+     */
+    int rank () {
+        return shape.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position in storage of the element at the given (non-negative) index along the
+     * given dimension, relative to {@code position}, throwing if the index is out of bounds.
+     */
+    int step (int position, int dim, int index)
+    {
+        if (index >= shape[dim])
+            throw new PassthroughException(new ArrayIndexOutOfBoundsException(
+                "Index " + index + " out of bounds for length " + shape[dim]));
+        return position + index * strides[dim];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the boxed value of the element at the given position.
+     */
+    Object box (int position) {
+        return longs != null ? (Object) longs[position] : (Object) doubles[position];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the view of the tensor obtained by indexing its first {@code dims} dimensions, whose
+     * first element is at the given position.
+     */
+    Tensor view (int dims, int position) {
+        return new Tensor(type, longs, doubles, position, suffix(shape, dims),
+            suffix(strides, dims), readOnly);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the element (if {@code dims} is the rank) or the view at the given position, obtained
+     * by indexing the first {@code dims} dimensions of the tensor.
+     */
+    Object get (int dims, int position) {
+        return dims == shape.length ? box(position) : view(dims, position);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Assigns the element (if {@code dims} is the rank) or the sub-array at the given position,
+     * obtained by indexing the first {@code dims} dimensions of the tensor. Sub-arrays are assigned
+     * by copying the elements of the value, which must have the same shape.
+     */
+    void set (int dims, int position, Object value)
+    {
+        if (dims == shape.length) {
+            if (longs != null)
+                longs[position] = (Long) value;
+            else
+                doubles[position] = ((Number) value).doubleValue();
+        }
+        else if (!fill(dims, position, value))
+            throw new InterpreterException(
+                "Trying to assign a value that is not an array of shape "
+                    + Arrays.toString(suffix(shape, dims)) + " to part of a " + elementType()
+                    + " array of shape " + Arrays.toString(shape),
+                new ArrayStoreException());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the given action with the position in storage of every element of the tensor, in
+     * row-major order.
+     */
+    private void forEachPosition (int dim, int position, IntConsumer action)
+    {
+        if (dim == shape.length) {
+            action.accept(position);
+            return;
+        }
+        for (int i = 0; i < shape[dim]; ++i)
+            forEachPosition(dim + 1, position + i * strides[dim], action);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Copies the elements {@code [start, start + length)} of the tensor, in row-major order, to
+     * {@code longs[0, length)} or {@code doubles[0, length)} (depending on the element type). The
+     * elements are copied a row (along the last dimension) at a time.
+     */
+    void gather (int start, int length, long[] longs, double[] doubles)
+    {
+        int rank = shape.length;
+        int last = rank - 1;
+        int[] index = new int[rank];
+        int position = offset;
+        for (int dim = last, rest = start; dim >= 0; --dim) {
+            index[dim] = rest % shape[dim];
+            rest /= shape[dim];
+            position += index[dim] * strides[dim];
+        }
+        int stride = strides[last];
+        for (int done = 0; done < length; ) {
+            int run = Math.min(shape[last] - index[last], length - done);
+            if (stride == 1 && longs != null)
+                System.arraycopy(this.longs, position, longs, done, run);
+            else if (stride == 1)
+                System.arraycopy(this.doubles, position, doubles, done, run);
+            else if (longs != null)
+                for (int i = 0; i < run; ++i) longs[done + i] = this.longs[position + i * stride];
+            else
+                for (int i = 0; i < run; ++i)
+                    doubles[done + i] = this.doubles[position + i * stride];
+            done += run;
+            // move to the start of the next row
+            position -= index[last] * stride;
+            index[last] = 0;
+            for (int dim = last - 1; dim >= 0; --dim) {
+                position += strides[dim];
+                if (++index[dim] < shape[dim]) break;
+                position -= index[dim] * strides[dim];
+                index[dim] = 0;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the view of the tensor that keeps the elements in {@code [from[d], to[d])} along
+     * each dimension {@code d} for which {@code ranges[d]} is true, and the elements at index
+     * {@code from[d]} along the others (dropping these dimensions). The arrays may be shorter than
+     * the rank: the remaining dimensions are kept whole. The view shares the storage of the tensor.
+     */
+    Tensor slice (int[] from, int[] to, boolean[] ranges)
+    {
+        int kept = shape.length;
+        for (boolean range: ranges)
+            if (!range) --kept;
+
+        int[] shape = new int[kept];
+        int[] strides = new int[kept];
+        int position = offset;
+        for (int dim = 0, j = 0; dim < this.shape.length; ++dim) {
+            if (dim >= ranges.length) {
+                shape[j] = this.shape[dim];
+                strides[j++] = this.strides[dim];
+                continue;
+            }
+            position = step(position, dim, from[dim]);
+            if (!ranges[dim]) continue;
+            if (to[dim] <= from[dim] || to[dim] > this.shape[dim])
+                throw new PassthroughException(new ArrayIndexOutOfBoundsException(
+                    "Range " + from[dim] + ":" + to[dim] + " empty or out of bounds for length "
+                        + this.shape[dim]));
+            shape[j] = to[dim] - from[dim];
+            strides[j++] = this.strides[dim];
+        }
+        return new Tensor(type, longs, doubles, position, shape, strides, readOnly);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a read-only view of the whole tensor (see {@link #readOnly}).
+     */
+    Tensor readOnly () {
+        return new Tensor(type, longs, doubles, offset, shape, strides, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Throws if the tensor is {@link #readOnly}.
+     */
+    void checkWritable ()
+    {
+        if (readOnly)
+            throw new InterpreterException("Trying to assign to a slice of an array built from "
+                + "other arrays, which is a copy", new UnsupportedOperationException());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the shape to which tensors of the two given shapes broadcast, or null if they are
+     * incompatible. The shapes are aligned on the right, and each pair of dimensions must be equal
+     * or contain a 1 (missing dimensions count as 1).
+     */
+    static int[] broadcast (int[] a, int[] b)
+    {
+        int rank = Math.max(a.length, b.length);
+        int[] shape = new int[rank];
+        for (int i = 0; i < rank; ++i) {
+            int x = i < rank - a.length ? 1 : a[i - rank + a.length];
+            int y = i < rank - b.length ? 1 : b[i - rank + b.length];
+            if (x != y && x != 1 && y != 1)
+                return null;
+            shape[i] = x == 1 ? y : x;
+        }
+        return shape;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a view of the tensor with the given shape, to which its own shape must broadcast
+     * (see {@link #broadcast(int[], int[])}). The elements are repeated along the new dimensions
+     * and the dimensions of length 1 by giving them a stride of 0, so nothing is copied.
+     */
+    Tensor broadcastTo (int[] shape)
+    {
+        if (Arrays.equals(shape, this.shape))
+            return this;
+        int shift = shape.length - this.shape.length;
+        int[] strides = new int[shape.length];
+        for (int dim = shift; dim < shape.length; ++dim)
+            if (this.shape[dim - shift] == shape[dim])
+                strides[dim] = this.strides[dim - shift];
+        return new Tensor(type, longs, doubles, offset, shape, strides, readOnly);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the elements of the tensor are laid out in row-major order without gaps, as is the
+     * case for the tensors created by the interpreter and the views obtained by indexing them
+     * (but not for most slices).
+     */
+    boolean contiguous () {
+        return Arrays.equals(strides, strides(shape));
+    }
+
+    /**
+     * Returns this tensor if it is contiguous, or a contiguous copy of it.
+     */
+    Tensor compact ()
+    {
+        if (contiguous()) return this;
+        Tensor copy = zeros(type, shape);
+        gather(0, size, copy.longs, copy.doubles);
+        return copy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Copies the elements of the given tensor, which must have the same type and shape.
+     */
+    private void copy (Tensor source)
+    {
+        if (contiguous() && source.contiguous()) {
+            if (longs != null)
+                System.arraycopy(source.longs, source.offset, longs, offset, size);
+            else
+                System.arraycopy(source.doubles, source.offset, doubles, offset, size);
+            return;
+        }
+        int[] targets = new int[size];
+        int[] count = new int[1];
+        forEachPosition(0, offset, position -> targets[count[0]++] = position);
+        count[0] = 0;
+        source.forEachPosition(0, source.offset, position -> {
+            if (longs != null)
+                longs[targets[count[0]++]] = source.longs[position];
+            else
+                doubles[targets[count[0]++]] = source.doubles[position];
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Applies the given arithmetic operator (see {@link Kernels}) element-wise on this tensor and
+     * the given tensor, which must have the same type, and shapes that broadcast together (see
+     * {@link #broadcast(int[], int[])}).
+     */
+    Tensor operate (Tensor other, int op)
+    {
+        if (type != other.type)
+            throw new InterpreterException("Try to operate on two arrays with different types: "
+                + elementType() + "[] and " + other.elementType() + "[]",
+                new ArithmeticException());
+        int[] shape = broadcast(this.shape, other.shape);
+        if (shape == null)
+            throw new InterpreterException("Try to operate on two arrays with different sizes: "
+                + Arrays.toString(this.shape) + " and " + Arrays.toString(other.shape),
+                new Exception());
+
+        Tensor a = broadcastTo(shape).compact(), b = other.broadcastTo(shape).compact();
+        Tensor result = zeros(type, shape);
+        if (longs != null)
+            Kernels.apply(op, a.longs, a.offset, b.longs, b.offset, result.longs, result.size);
+        else
+            Kernels.apply(op, a.doubles, a.offset, b.doubles, b.offset, result.doubles,
+                result.size);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Applies the given arithmetic operator (see {@link Kernels}) on each element of this tensor
+     * (left operand) and the given scalar (right operand), which must have the same type as the
+     * elements.
+     */
+    Tensor operate (Number scalar, int op)
+    {
+        checkScalar(scalar);
+        Tensor a = compact();
+        Tensor result = zeros(type, shape);
+        if (longs != null)
+            Kernels.apply(op, a.longs, a.offset, (Long) scalar, result.longs, size);
+        else
+            Kernels.apply(op, a.doubles, a.offset, (Double) scalar, result.doubles, size);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a tensor holding the difference between the given scalar, which must have the same
+     * type as the elements, and each element of this tensor.
+     */
+    Tensor subtractFrom (Number scalar)
+    {
+        checkScalar(scalar);
+        Tensor b = compact();
+        Tensor result = zeros(type, shape);
+        if (longs != null)
+            Kernels.subtract((Long) scalar, b.longs, b.offset, result.longs, size);
+        else
+            Kernels.subtract((Double) scalar, b.doubles, b.offset, result.doubles, size);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void checkScalar (Number scalar)
+    {
+        if (longs != null ? !(scalar instanceof Long) : !(scalar instanceof Double))
+            throw new InterpreterException("Try to operate on an array and a scalar with different "
+                + "types: " + elementType() + "[] and " + scalar.getClass(),
+                new ArithmeticException());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the sum of the elements of an {@code Int} tensor (see {@link Reductions}).
+     */
+    long sumLong ()
+    {
+        Tensor a = compact();
+        return Reductions.sum(a.longs, a.offset, a.offset + size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the sum of the elements of the tensor, as a {@code Float} (see {@link Reductions}).
+     */
+    double sumDouble ()
+    {
+        if (longs != null)
+            return sumLong();
+        Tensor a = compact();
+        return Reductions.sum(a.doubles, a.offset, a.offset + size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements the {@code @} operator: the dot product of two vectors, the product of a vector
+     * and a column matrix (both returning a scalar), or the product of two matrices (see {@link
+     * MatMul}).
+     */
+    Object matmul (Tensor other)
+    {
+        if (type != other.type)
+            throw new InterpreterException(
+                "Operation @ not defined for this type", new Exception());
+
+        if (rank() == 1 && other.rank() <= 2) {
+            if (shape[0] != other.shape[0])
+                throw new InterpreterException(
+                    "Trying to operate on arrays with different dimensions", new Exception());
+            int aStride = strides[0], bStride = other.strides[0];
+            if (longs != null) {
+                long sum = 0;
+                for (int i = 0; i < shape[0]; ++i)
+                    sum += longs[offset + i * aStride] * other.longs[other.offset + i * bStride];
+                return sum;
+            } else {
+                double sum = 0;
+                for (int i = 0; i < shape[0]; ++i)
+                    sum += doubles[offset + i * aStride]
+                        * other.doubles[other.offset + i * bStride];
+                return sum;
+            }
+        }
+
+        if (rank() != 2 || other.rank() != 2)
+            throw new InterpreterException("Trying to operate on non-array type", new Exception());
+
+        if (shape[1] != other.shape[0])
+            throw new InterpreterException("Trying to use @ operation on matrix with uncompatible "
+                + "sizes:" + Arrays.toString(shape) + " and " + Arrays.toString(other.shape),
+                new Exception());
+
+        // slices whose rows are contiguous are multiplied in place
+        Tensor a = strides[1] == 1 ? this : compact();
+        Tensor b = other.strides[1] == 1 ? other : other.compact();
+        return MatMul.multiply(a, b);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the content of the tensor as nested arrays, whose innermost arrays are {@code Long[]}
+     * or {@code Double[]}.
+     */
+    public Object[] toArray () {
+        return toArray(0, offset);
+    }
+
+    private Object[] toArray (int dim, int position)
+    {
+        Object[] array = dim < shape.length - 1
+            ? new Object[shape[dim]]
+            : longs != null ? new Long[shape[dim]] : new Double[shape[dim]];
+        for (int i = 0; i < shape[dim]; ++i) {
+            int element = position + i * strides[dim];
+            array[i] = dim < shape.length - 1 ? toArray(dim + 1, element) : box(element);
+        }
+        return array;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        return Arrays.deepToString(toArray());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,257 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.*;
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.scopes.Scope;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.sigh.types.BoolType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.FunType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.StringType;
+import norswap.sigh.types.StructType;
+import norswap.sigh.types.Type;
+import norswap.sigh.types.VoidType;
+import norswap.uranium.Reactor;
+import norswap.utils.visitors.ReflectiveFieldWalker;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
+
+/**
+ * Configuration and metrics of tiered execution, in which an {@link Interpreter} promotes the hot
+ * functions of the program to JVM bytecode.
+ *
+ * <p>Programs start in the interpreter, which counts the calls of each function and the
+ * back-edges taken in its body (loop iterations and self tail calls). When the sum of these
+ * counts reaches {@link #threshold}, the function is compiled by the {@link BytecodeCompiler},
+ * together with the functions it calls, into a new class, and its later calls run the compiled
+ * code. Calls that are running when the function is promoted complete in the interpreter.
+ *
+ * <p>Only functions whose values can be passed between the interpreter and the compiled code, and
+ * that the bytecode backend supports, are promoted: top-level functions whose parameters and
+ * result are {@code Int}, {@code Float}, {@code Bool} or {@code String}, that only use their own
+ * variables, only call such functions and built-ins (excepted {@code mapInts} and {@code
+ * mapFloats}), and use neither structures, slices, array properties, nested functions nor sparse
+ * arrays. Other functions, and functions whose compilation fails, keep running in the interpreter.
+ */
+public final class Tiering
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of calls and back-edges after which a function is promoted. */
+    public final int threshold;
+
+    private final ArrayList<Promotion> promotions = new ArrayList<>();
+
+    /** Time at which the current run started, set by {@link Interpreter#interpret}. */
+    long start = System.nanoTime();
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Tiering () {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public Tiering (int threshold) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("threshold must be positive, got " + threshold);
+        this.threshold = threshold;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the promotions performed so far, in order.
+     */
+    public List<Promotion> promotions () {
+        return Collections.unmodifiableList(promotions);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records the promotion of a function to bytecode.
+     */
+    public static final class Promotion
+    {
+        /** The name of the promoted function. */
+        public final String function;
+
+        /** The number of calls and back-edges counted before the promotion. */
+        public final long calls, backEdges;
+
+        /** Time elapsed between the start of the run and the promotion, in nanoseconds. */
+        public final long time;
+
+        /** Time taken to compile and load the function, in nanoseconds. */
+        public final long compilationTime;
+
+        Promotion (String function, long calls, long backEdges, long time, long compilationTime) {
+            this.function = function;
+            this.calls = calls;
+            this.backEdges = backEdges;
+            this.time = time;
+            this.compilationTime = compilationTime;
+        }
+
+        @Override public String toString () {
+            return String.format("%s promoted after %d calls and %d back-edges, at %.3f ms "
+                + "(compiled in %.3f ms)", function, calls, backEdges, time / 1e6,
+                compilationTime / 1e6);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the given function, and returns a handle that takes its arguments as an {@code
+     * Object[]} and returns its (boxed) result, or null if the function cannot be promoted.
+     */
+    MethodHandle promote (Reactor reactor, Function function)
+    {
+        long begin = System.nanoTime();
+        FunDeclarationNode decl = function.declaration;
+        List<FunDeclarationNode> functions = new ArrayList<>();
+        if (!supported(reactor, decl, functions))
+            return null;
+
+        MethodHandle handle;
+        try {
+            String name = "Tier" + (promotions.size() + 1) + "$" + decl.name;
+            Class<?> klass = new BytecodeCompiler(reactor)
+                .compileFunctions(name, functions)
+                .load(new ByteArrayClassLoader());
+            Method method = null;
+            for (Method m: klass.getMethods())
+                if (m.getName().equals(decl.name)) method = m;
+            handle = MethodHandles.publicLookup().unreflect(method)
+                .asSpreader(Object[].class, decl.parameters.size())
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (RuntimeException | IllegalAccessException e) {
+            return null; // features the bytecode backend does not support
+        }
+
+        long end = System.nanoTime();
+        promotions.add(new Promotion(
+            decl.name, function.calls, function.backEdges, end - start, end - begin));
+        return handle;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether the given function can be promoted, and adds it and the functions it
+     * calls (transitively) to {@code functions}.
+     */
+    private static boolean supported (
+            Reactor reactor, FunDeclarationNode decl, List<FunDeclarationNode> functions) {
+
+        Set<FunDeclarationNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        functions.add(decl);
+        seen.add(decl);
+
+        for (int i = 0; i < functions.size(); ++i) {
+            FunDeclarationNode function = functions.get(i);
+            Scope scope = reactor.get(function, "scope");
+            if (!(scope.parent.node instanceof RootNode))
+                return false;
+
+            FunType type = reactor.get(function, "type");
+            if (!(type.returnType instanceof VoidType || exchangeable(type.returnType)))
+                return false;
+            for (Type paramType: type.paramTypes)
+                if (!exchangeable(paramType))
+                    return false;
+
+            Set<SighNode> callees = Collections.newSetFromMap(new IdentityHashMap<>());
+            boolean[] ok = { true };
+            ReflectiveFieldWalker<SighNode> walker =
+                new ReflectiveFieldWalker<>(SighNode.class, PRE_VISIT);
+            walker.registerFallback(PRE_VISIT, node -> {
+                if (ok[0] && !supported(reactor, scope, node, callees)) {
+                    ok[0] = false;
+                    return;
+                }
+                if (!(node instanceof ReferenceNode)) return;
+                DeclarationNode callee = reactor.get(node, "decl");
+                if (callee instanceof FunDeclarationNode && seen.add((FunDeclarationNode) callee))
+                    functions.add((FunDeclarationNode) callee);
+            });
+            walker.walk(function.block);
+            if (!ok[0])
+                return false;
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether the given node, in the body of the function with the given scope, can be
+     * promoted. The references to called functions are added to {@code callees}.
+     */
+    private static boolean supported (
+            Reactor reactor, Scope scope, SighNode node, Set<SighNode> callees) {
+
+        if (node instanceof ArraySliceNode || node instanceof RangeNode
+                || node instanceof FieldAccessNode || node instanceof ConstructorNode
+                || node instanceof FunDeclarationNode || node instanceof StructDeclarationNode)
+            return false;
+
+        if (node instanceof FunCallNode)
+            callees.add(((FunCallNode) node).function);
+
+        if (node instanceof ArrayDeclarationNode) {
+            List<?> initializer = ((ArrayDeclarationNode) node).initializer;
+            int[] dimensions = new int[initializer.size()];
+            for (int i = 0; i < dimensions.length; ++i)
+                dimensions[i] = Integer.parseInt(((StringLiteralNode) initializer.get(i)).value);
+            if (SparseTensor.isSparse(dimensions)) return false;
+        }
+
+        if (node instanceof ExpressionNode) {
+            Type type = reactor.get(node, "type");
+            if (type instanceof StructType || type instanceof FunType && !callees.contains(node))
+                return false;
+        }
+
+        if (node instanceof ReferenceNode) {
+            DeclarationNode decl = reactor.get(node, "decl");
+            if (decl instanceof SyntheticDeclarationNode)
+                return !decl.name().equals("mapInts") && !decl.name().equals("mapFloats");
+            if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode
+                    || decl instanceof ArrayDeclarationNode)
+                return ((Scope) reactor.get(node, "scope")).frameScope == scope;
+            return decl instanceof FunDeclarationNode;
+        }
+
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether values of the given type have the same representation in the interpreter
+     * and in compiled code (up to boxing).
+     */
+    private static boolean exchangeable (Type type) {
+        return type instanceof IntType || type instanceof FloatType || type instanceof BoolType
+            || type instanceof StringType;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
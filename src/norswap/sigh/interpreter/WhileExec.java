@@ -0,0 +1,34 @@
+package norswap.sigh.interpreter;
+
+/**
+ * While loop statement.
+ *
+ * <p>When tiering is enabled, the loops of functions count their iterations as back-edges of the
+ * function (see {@link Tiering}).
+ */
+final class WhileExec extends StatementExec
+{
+    private final ExecNode condition;
+    private final ExecNode body;
+
+    /** The function whose back-edges are counted, or null. */
+    private final Function function;
+
+    WhileExec (ExecNode condition, ExecNode body, Function function) {
+        this.condition = condition;
+        this.body = body;
+        this.function = function;
+    }
+
+    @Override Completion executeStatement (ScopeStorage frame)
+    {
+        while (condition.executeBoolean(frame)) {
+            Completion completion = body.executeStatement(frame);
+            if (completion != Completion.NORMAL)
+                return completion;
+            if (function != null)
+                ++function.backEdges;
+        }
+        return Completion.NORMAL;
+    }
+}
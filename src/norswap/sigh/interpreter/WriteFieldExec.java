@@ -0,0 +1,30 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Assigns a field of the method receiver, referenced by its bare name within the method. The
+ * index of the field is cached in the same way as in {@link ReadFieldExec}.
+ */
+final class WriteFieldExec extends ExecNode
+{
+    private final String name;
+    private final ExecNode value;
+    private StructShape shape;
+    private int index;
+
+    WriteFieldExec (String name, ExecNode value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        Object value = this.value.execute(frame);
+        StructInstance receiver = (StructInstance) frame.receiver;
+        if (receiver.shape != shape) {
+            index = receiver.shape.index(name);
+            shape = receiver.shape;
+        }
+        receiver.values[index] = value;
+        return value;
+    }
+}
@@ -0,0 +1,48 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Assigns a value to the variable of {@link Primitive} type stored at the given slot of the frame
+ * at the given depth, and evaluates to that value. Used for assignments as well as variable
+ * declarations.
+ */
+final class WritePrimitiveExec extends ExecNode
+{
+    private final int depth;
+    private final int slot;
+    private final Primitive type;
+    private final ExecNode value;
+
+    WritePrimitiveExec (int depth, int slot, Primitive type, ExecNode value) {
+        this.depth = depth;
+        this.slot = slot;
+        this.type = type;
+        this.value = value;
+    }
+
+    @Override Object execute (ScopeStorage frame) {
+        return type.box(write(frame));
+    }
+
+    @Override long executeLong (ScopeStorage frame) {
+        return write(frame);
+    }
+
+    @Override double executeDouble (ScopeStorage frame) {
+        long bits = write(frame);
+        return type == Primitive.FLOAT ? Double.longBitsToDouble(bits) : (double) bits;
+    }
+
+    @Override boolean executeBoolean (ScopeStorage frame) {
+        return write(frame) != 0;
+    }
+
+    @Override void executeVoid (ScopeStorage frame) {
+        write(frame);
+    }
+
+    private long write (ScopeStorage frame) {
+        long bits = type.evaluate(value, frame);
+        frame.setPrimitive(depth, slot, bits);
+        return bits;
+    }
+}
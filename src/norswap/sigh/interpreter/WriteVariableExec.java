@@ -0,0 +1,25 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Assigns a value to the variable stored at the given slot of the frame at the given depth, and
+ * evaluates to that value. Used for assignments as well as variable declarations.
+ */
+final class WriteVariableExec extends ExecNode
+{
+    private final int depth;
+    private final int slot;
+    private final ExecNode value;
+
+    WriteVariableExec (int depth, int slot, ExecNode value) {
+        this.depth = depth;
+        this.slot = slot;
+        this.value = value;
+    }
+
+    @Override Object execute (ScopeStorage frame)
+    {
+        Object value = this.value.execute(frame);
+        frame.set(depth, slot, value);
+        return value;
+    }
+}
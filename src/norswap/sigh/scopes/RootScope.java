@@ -3,6 +3,7 @@ package norswap.sigh.scopes;
 import norswap.sigh.ast.RootNode;
 import norswap.sigh.types.*;
 import norswap.uranium.Reactor;
+import java.util.Collections;
 
 import static norswap.sigh.scopes.DeclarationKind.*;
 
@@ -36,7 +37,18 @@ public final class RootScope extends Scope
     public final SyntheticDeclarationNode _null  = decl("null",  VARIABLE);
 
     // root scope functions
-    public final SyntheticDeclarationNode print = decl("print", FUNCTION);
+    public final SyntheticDeclarationNode print  = decl("print",  FUNCTION);
+
+    // arrays mapped from binary files, typed according to their arguments by SemanticAnalysis
+    public final SyntheticDeclarationNode mapInts   = decl("mapInts",   FUNCTION);
+    public final SyntheticDeclarationNode mapFloats = decl("mapFloats", FUNCTION);
+
+    // reductions of Int and Float arrays, typed according to their arguments by SemanticAnalysis
+    public final SyntheticDeclarationNode sum    = decl("sum",    FUNCTION);
+    public final SyntheticDeclarationNode min    = decl("min",    FUNCTION);
+    public final SyntheticDeclarationNode max    = decl("max",    FUNCTION);
+    public final SyntheticDeclarationNode argmax = decl("argmax", FUNCTION);
+    public final SyntheticDeclarationNode stats  = decl("stats",  FUNCTION);
 
     // ---------------------------------------------------------------------------------------------
 
@@ -61,7 +73,28 @@ public final class RootScope extends Scope
         reactor.set(_false, "type",       BoolType.INSTANCE);
         reactor.set(_null,  "type",       NullType.INSTANCE);
 
+        reactor.set(_true,  "slot",       slot(_true));
+        reactor.set(_false, "slot",       slot(_false));
+        reactor.set(_null,  "slot",       slot(_null));
+
         reactor.set(print,  "type", new FunType(StringType.INSTANCE, StringType.INSTANCE));
+
+        // the signatures for one-dimensional arrays, only used when not called directly
+        reactor.set(mapInts, "type", new FunType(
+            new ArrayType(IntType.INSTANCE, Collections.emptyList()),
+            StringType.INSTANCE, IntType.INSTANCE));
+        reactor.set(mapFloats, "type", new FunType(
+            new ArrayType(FloatType.INSTANCE, Collections.emptyList()),
+            StringType.INSTANCE, IntType.INSTANCE));
+
+        // the signatures for one-dimensional Float arrays, only used when not called directly
+        ArrayType floats = new ArrayType(FloatType.INSTANCE, Collections.emptyList());
+        FunType reduction = new FunType(FloatType.INSTANCE, floats, IntType.INSTANCE);
+        reactor.set(sum,    "type", reduction);
+        reactor.set(min,    "type", reduction);
+        reactor.set(max,    "type", reduction);
+        reactor.set(argmax, "type", new FunType(IntType.INSTANCE, floats, IntType.INSTANCE));
+        reactor.set(stats,  "type", new FunType(floats, floats));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -1,11 +1,19 @@
 package norswap.sigh.scopes;
 
 import norswap.sigh.ast.DeclarationNode;
+import norswap.sigh.ast.FunDeclarationNode;
 import norswap.sigh.ast.SighNode;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 /**
  * Represent a lexical scope in which declarations occurs.
+ *
+ * <p>Every declaration is also assigned a fixed <b>address</b>: a pair of the {@link #depth} of the
+ * frame that holds it and its {@link #slot(DeclarationNode) slot} index in that frame. Frames are
+ * introduced by the root scope and by function (parameter) scopes only: the declarations of nested
+ * block scopes are allocated in the frame of the innermost enclosing function (or in the root
+ * frame). This lets the interpreter store variables in flat arrays and access them by index.
  */
 public class Scope
 {
@@ -21,24 +29,48 @@ public class Scope
      */
     public final Scope parent;
 
+    /**
+     * The scope whose frame holds the declarations of this scope at runtime: either this scope
+     * (for the root scope and function scopes), or the frame scope of its parent.
+     */
+    public final Scope frameScope;
+
+    /**
+     * Nesting depth of the frame holding this scope's declarations: 0 for the root frame, 1 for
+     * the frames of top-level functions, etc.
+     */
+    public final int depth;
+
     // ---------------------------------------------------------------------------------------------
 
     private final HashMap<String, DeclarationNode> declarations = new HashMap<>();
+    private final IdentityHashMap<DeclarationNode, Integer> slots = new IdentityHashMap<>();
+
+    /** Number of slots allocated in the frame, only meaningful if {@code frameScope == this}. */
+    private int frameSize = 0;
 
     // ---------------------------------------------------------------------------------------------
 
     public Scope (SighNode node, Scope parent) {
         this.node = node;
         this.parent = parent;
+        if (parent == null || node instanceof FunDeclarationNode) {
+            this.frameScope = this;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+        } else {
+            this.frameScope = parent.frameScope;
+            this.depth = parent.depth;
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Adds a new declaration to this scope.
+     * Adds a new declaration to this scope, allocating it a new slot in its frame.
      */
     public void declare (String identifier, DeclarationNode node) {
         declarations.put(identifier, node);
+        slots.put(node, frameScope.frameSize++);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -69,6 +101,28 @@ public class Scope
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the index of the frame slot allocated to the given declaration, which must have been
+     * declared in this scope.
+     */
+    public int slot (DeclarationNode declaration) {
+        Integer slot = slots.get(declaration);
+        if (slot == null)
+            throw new Error("[implementation bug] no slot for declaration: " + declaration);
+        return slot;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of slots in the frame holding this scope's declarations.
+     */
+    public int frameSize () {
+        return frameScope.frameSize;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public String toString() {
         return "Scope " + declarations.toString();
     }
@@ -6,20 +6,42 @@ import norswap.sigh.SighGrammar;
 import norswap.sigh.ast.SighNode;
 import norswap.sigh.bytecode.ByteArrayClassLoader;
 import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationCache;
 import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.bytecode.CompiledProgram;
+import norswap.sigh.bytecode.ProgramCache;
 import norswap.uranium.Reactor;
 import norswap.utils.IO;
 import norswap.utils.visitors.Walker;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
-
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
 import static norswap.utils.Util.cast;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
 
 @SuppressWarnings("FieldCanBeLocal")
 public class BytecodeTests
 {
-    // TODO test multi dimensional arrays
-
     // ---------------------------------------------------------------------------------------------
 
     /**
@@ -222,6 +244,46 @@ public class BytecodeTests
         check("var x: Float[] = [1.0, 2.0]; x[0] = 3; print(\"\" + x[0])", "3.0");
     }
 
+    @Test public void testArrayOperators() {
+        checkExpr("[1, 2, 3] + [10, 20, 30]", "[11, 22, 33]");
+        checkExpr("[1, 2, 3] - 1", "[0, 1, 2]");
+        checkExpr("10 - [1, 2, 3]", "[9, 8, 7]");
+        checkExpr("[7, 8, 9] / [2, 2, 2]", "[3, 4, 4]");
+        checkExpr("[7, 8, 9] % 4", "[3, 0, 1]");
+        checkExpr("[1.5, 2.5] * 2.0", "[3.0, 5.0]");
+        checkExpr("[1.0, 2.0] / [4.0, 8.0]", "[0.25, 0.25]");
+        checkExpr("[1, 2, 3] * [2]", "[2, 4, 6]");
+
+        checkExpr("[[1, 2], [3, 4]] + [[10, 20], [30, 40]]", "[[11, 22], [33, 44]]");
+        checkExpr("[[1, 2], [3, 4]] * 2", "[[2, 4], [6, 8]]");
+        checkExpr("1.0 + [[1.0], [2.0]]", "[[2.0], [3.0]]");
+        checkExpr("[[1, 2], [3, 4]] - [1, 2]", "[[0, 0], [2, 2]]");
+        checkExpr("[[1, 2], [3, 4]] + [[10], [20]]", "[[11, 12], [23, 24]]");
+        checkExpr("[[1, 2], [3, 4]][1] * 3", "[9, 12]");
+
+        check("var x: Int[] = [1, 2, 3]; var y: Int[] = x * x + x; print(\"\" + sum(y, 0))",
+            "20");
+        check("var x: Float[] = [0.5, 1.5]; x = x + x; print(\"\" + x[1])", "3.0");
+    }
+
+    @Test public void testMatrices() {
+        checkExpr("[1, 2, 3] @ [4, 5, 6]", "32");
+        checkExpr("[1.0, 2.0] @ [0.5, 0.25]", "1.0");
+        checkExpr("[1, 2] @ [[3], [4]]", "11");
+        checkExpr("[[1, 2], [3, 4]] @ [[5, 6], [7, 8]]", "[[19, 22], [43, 50]]");
+        checkExpr("[[1, 2, 3]] @ [[1], [2], [3]]", "[[14]]");
+        checkExpr("[[1.0, 0.0], [0.0, 2.0]] @ [[1.5], [2.5]]", "[[1.5], [5.0]]");
+
+        check("var x: Int[2][3]; x[0][1] = 4; x[1][2] = 5; print(\"\" + x)",
+            "[[0, 4, 0], [0, 0, 5]]");
+        check("var x: Float[2][2]; x[0][0] = 1.0; x[1][1] = 1.0;"
+            + "var y: Float[][] = x @ [[2.0, 3.0], [4.0, 5.0]] * 2.0; print(\"\" + y)",
+            "[[4.0, 6.0], [8.0, 10.0]]");
+        check("var a: Int[][] = [[1, 1], [1, 0]]; var f: Int[][] = a; var i: Int = 0;"
+            + "while (i < 9) { f = f @ a; i = i + 1 }; print(\"\" + f[0][1])", "55");
+        check("var v: Int[3]; v[1] = 2; var d: Int = v @ [1, 2, 3]; print(\"\" + d)", "4");
+    }
+
     private final String printa = "print(\"a\")";
     private final String printb = "print(\"b\")";
     private final String printx = "print(\"\" + (x))";
@@ -258,6 +320,14 @@ public class BytecodeTests
         check("fun test () { fun foo() { print(\"a\") } foo() foo() } test()", "a\na");
     }
 
+    @Test public void testTailCall() {
+        // deep enough to overflow the stack if the calls were not eliminated
+        check("fun sum (n: Int, acc: Int): Int { if n == 0 { return acc } return sum(n - 1, acc + n) }"
+            + "print(\"\" + sum(1000000, 0))", "500000500000");
+        check("fun swap (a: Int, b: Float, n: Int): Float { if n == 0 { return a + b } "
+            + "return (swap(n, a, n - 1)) } print(\"\" + swap(1, 2.5, 3))", "3.0");
+    }
+
     private final String makePair =
         "struct Pair { var x: Int ; var y: Float }" +
         "var x: Pair = $Pair(1, 2.0) ;";
@@ -267,4 +337,336 @@ public class BytecodeTests
         check(makePair + "x.x = 3; print(\"\" + x.x)", "3");
         check(makePair + "x.y = 3; print(\"\" + x.y)", "3.0");
     }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testReductions() {
+        checkExpr("sum([3, 9, 2, 9], 0)", "23");
+        checkExpr("min([3, 9, 2, 9], 0) * 10 + max([3, 9, 2, 9], 0)", "29");
+        checkExpr("argmax([3, 9, 2, 9], 0)", "1");
+        checkExpr("sum([1.5, 2.5], 0)", "4.0");
+        check("var s: Float[] = stats([1, 2, 4, 5]);" +
+            "print(\"\" + s[0] + \" \" + s[1] + \" \" + s[2] + \" \" + s[3] + \" \" + s[4])",
+            "4.0 3.0 2.5 1.0 5.0");
+
+        String x = "var x: Int[2][3]; x[0][1] = 5; x[1][2] = 7; x[1][0] = -1;";
+        check(x + "var s: Int[] = sum(x, 0); print(\"\" + (s[0] * 100 + s[1] * 10 + s[2]))",
+            "-43");
+        check(x + "print(\"\" + (sum(x, 1)[1] * 10 + max(x, 1)[0]))", "65");
+        check(x + "print(\"\" + (min(x, 0)[0] * 10 + argmax(x, 1)[1]))", "-8");
+        check(x + "print(\"\" + (argmax(x, 0)[1] * 10 + argmax(x, 0)[2]))", "1");
+        check("var y: Float[2][3][4]; y[1][2][3] = 2.5; y[0][0][0] = -1.0;"
+            + "var m: Float[][] = max(y, 2);"
+            + "print(\"\" + (sum(y, 1)[1][3] + m[1][2] + min(y, 0)[0][0]))",
+            "4.0");
+        check("var s: Float[] = stats([[1, 2], [4, 5]]);"
+            + "print(\"\" + (s[0] + s[1] * 10 + s[2] * 100 + s[3] * 1000 + s[4] * 10000))",
+            "51284.0");
+
+        ProgramCache programs = new ProgramCache(2);
+        assertThrows(IndexOutOfBoundsException.class, () -> programs.get("ReductionRun",
+            "var x: Int[2][2]; var axis: Int = 2; return sum(x, axis)").run());
+        assertThrows(IllegalArgumentException.class, () -> programs.get("ReductionRun",
+            "return max([[1], [2, 3]], 0)").run());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testSlices() {
+        String x = "var x: Int[4][3]; var i: Int = 0;" +
+            "while i < 12 { x[i / 3][i % 3] = i; i = i + 1 }";
+        check(x + "print(\"\" + (x[1:3][1][2] * 100 + x[:, 2][3] * 10 + x[2, 1]))", "917");
+        check(x + "var y: Int[][] = x[1:, 1:]; print(\"\" + (y[2][0] * 10 + y[2][1]))", "111");
+        check(x + "var n: Int = 1; print(\"\" + sum(x[n:3, :2], 0)[1])", "11");
+        check("var f: Float[] = [1.5, 2.5, 3.5]; print(\"\" + f[1:][0] + \" \" + f[:2][1])",
+            "2.5 2.5");
+        check("var y: Float[2][2][2]; y[1][0][1] = 4.5; print(\"\" + y[1, :, 1][0])", "4.5");
+
+        // slices are copies in compiled code
+        check(x + "var y: Int[] = x[:, 1]; y[2] = 100; print(\"\" + x[2][1])", "7");
+
+        ProgramCache programs = new ProgramCache(2);
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> programs.get("SliceRun",
+            "var x: Int[4]; var n: Int = 5; return x[1:n]").run());
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> programs.get("SliceRun",
+            "var x: Int[4][2]; var n: Int = 4; return x[n, :]").run());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testMappedArrays() throws IOException {
+        Path file = Files.createTempFile("sigh", ".bin");
+        file.toFile().deleteOnExit();
+        String map = "var x: Int[] = mapInts(\"" + file.toString().replace('\\', '/') + "\", 4);";
+
+        // the writes of the first program are in the file when the second one maps it
+        check(map + "x[1] = 3; x[3] = 4; print(\"\" + sum(x, 0))", "7");
+        assertEquals(Files.size(file), 4 * 8);
+        check(map + "x[0] = x[3] * 10; print(\"\" + x[0] + \" \" + x[1])", "40 3");
+        check(map + "x[2] = 5; return", "");
+        check(map + "print(\"\" + (max(x, 0) + x[2]))", "45");
+
+        Path matrix = Files.createTempFile("sigh", ".bin");
+        matrix.toFile().deleteOnExit();
+        String path = matrix.toString().replace('\\', '/');
+        String m = "var m: Int[][] = mapInts(\"" + path + "\", 4, 3); var i: Int = 0;";
+        check(m + "while i < 12 { m[i / 3][i % 3] = i; i = i + 1 }"
+            + "print(\"\" + (m[2][1] + sum(m, 0)[2] * 100))", "2607");
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(matrix)).order(LITTLE_ENDIAN);
+        assertEquals(bytes.capacity(), 12 * 8);
+        assertEquals(bytes.getLong(7 * 8), 7L);
+        check(m + "var r: Int[] = m[1]; r[0] = 9; m[2] = [7, 7, 7]; print(\"\" + m[3][2])", "11");
+        check("var f: Int[] = mapInts(\"" + path + "\", 12);"
+            + "print(\"\" + f[3] + \" \" + f[8] + \" \" + f[11])", "9 7 11");
+        check("var y: Float[][][] = mapFloats(\"" + path + "\", 2, 2, 3); y[1][1][2] = 2.5;"
+            + "print(\"\" + y[1][1][2] + \" \" + y[0][0][0])",
+            "2.5 0.0");
+
+        // programs that only read a mapped array do not write to its file
+        Files.setLastModifiedTime(matrix, FileTime.fromMillis(0));
+        check("var f: Int[] = mapInts(\"" + path + "\", 12); print(\"\" + f[3])", "9");
+        assertEquals(Files.getLastModifiedTime(matrix).toMillis(), 0L);
+
+        ProgramCache programs = new ProgramCache(2);
+        assertThrows(IllegalStateException.class, () -> programs.get("MappedRun",
+            m + "m[0] = [1, 2]").run());
+        assertThrows(IllegalArgumentException.class, () -> programs.get("MappedRun",
+            "var z: Int[][] = mapInts(\"" + path + "\", 2, 0)").run());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testReadOnlyMappedArrays () throws IOException {
+        Path file = Files.createTempFile("sigh", ".bin");
+        file.toFile().deleteOnExit();
+        Files.write(file,
+            ByteBuffer.allocate(4 * 8).order(LITTLE_ENDIAN).putLong(2 * 8, 5).array());
+        if (!file.toFile().setWritable(false) || Files.isWritable(file))
+            throw new SkipException("Cannot make " + file + " read-only");
+        String map = "var x: Int[] = mapInts(\"" + file.toString().replace('\\', '/') + "\", ";
+
+        check(map + "4); print(\"\" + (x[2] + x[3]))", "5");
+        ProgramCache programs = new ProgramCache(2);
+        assertThrows(IllegalStateException.class, () -> programs.get("ReadOnlyRun",
+            map + "4); x[0] = 1").run());
+        assertThrows(IllegalArgumentException.class, () -> programs.get("ReadOnlyRun",
+            map + "5)").run());
+        assertEquals(Files.size(file), 4 * 8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testMappedFunctions () throws Throwable {
+        Path file = Files.createTempFile("sigh", ".bin");
+        file.toFile().deleteOnExit();
+        CompiledProgram program = new ProgramCache(1).get("MappedFunctions", String.join("\n",
+            "fun bump (path: String, i: Int): Int {",
+            "    var m: Int[][] = mapInts(path, 2, 2)",
+            "    m[i][1] = m[i][1] + 1",
+            "    return m[i][1] / (3 - m[i][1])",
+            "}"));
+        MethodHandle bump = program.function("bump");
+        String path = file.toString();
+
+        // the writes of each call are in the file when it returns, or throws
+        assertEquals((long) bump.invokeExact(path, 1L), 0L);
+        assertEquals((long) bump.invokeExact(path, 1L), 2L);
+        assertThrows(ArithmeticException.class, () -> {
+            long ignored = (long) bump.invokeExact(path, 1L);
+        });
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(LITTLE_ENDIAN);
+        assertEquals(bytes.getLong(3 * 8), 3L);
+        assertEquals(bytes.getLong(1 * 8), 0L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the main method of the given compilation result in a fresh class loader, and returns
+     * what it prints.
+     */
+    private static String run (CompilationResult result) {
+        Class<?> mainClass = result.load(new ByteArrayClassLoader());
+        return IO.captureStdout(() -> {
+            CompilationResult.callMain(mainClass);
+            return null;
+        }).a;
+    }
+
+    @Test public void testCompilationCache () throws IOException {
+        Path directory = Files.createTempDirectory("sigh-cache");
+        CompilationCache cache = new CompilationCache(directory);
+        String source = "struct P { var x: Int } var p: P = $P(4); print(\"\" + (p.x * 10))";
+
+        assertEquals(run(cache.compile("CachedRun", source)), "40\n");
+        assertEquals(run(cache.compile("CachedRun", source)), "40\n");
+        assertEquals(cache.hits(), 1);
+        assertEquals(cache.misses(), 1);
+        assertTrue(CompilationCache.compilerVersion().matches("[0-9a-f]{64}"));
+
+        // the entries persist across cache instances (e.g. processes)
+        CompilationCache other = new CompilationCache(directory);
+        CompilationResult result = other.compile("CachedRun", source);
+        assertEquals(other.hits(), 1);
+        assertEquals(result.structures.size(), 1);
+        assertEquals(run(result), "40\n");
+
+        // a different source, or main class name, is a different entry
+        assertEquals(run(cache.compile("CachedRun", source.replace("10", "100"))), "400\n");
+        cache.compile("OtherRun", source);
+        assertEquals(cache.misses(), 3);
+        Path[] entries = Files.list(directory).toArray(Path[]::new);
+        assertEquals(entries.length, 3);
+
+        // corrupted entries are recompiled
+        for (Path entry: entries)
+            Files.write(entry, new byte[] { 1, 2, 3 });
+        assertEquals(run(cache.compile("CachedRun", source)), "40\n");
+        assertEquals(cache.misses(), 4);
+        assertEquals(run(new CompilationCache(directory).compile("CachedRun", source)), "40\n");
+
+        assertThrows(IllegalArgumentException.class, () -> cache.compile("CachedRun", "return x"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testJar () throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("sigh-jar");
+        CompilationCache cache = new CompilationCache(directory.resolve("cache"));
+        Path jar = directory.resolve("program.jar");
+        cache.compile("Packaged", String.join("\n",
+            "struct P { var x: Int }",
+            "fun twice (p: P): Int { return p.x * 2 }",
+            "var a: Int[] = [1, 2, 3] + [10, 20, 30]",
+            "var m: Int[][] = [[1, 2], [3, 4]]",
+            "print(\"\" + twice($P(a[2])) + \" \" + sum(a, 0) + \" \" + sum(m, 1)[1])"))
+            .writeJar(jar);
+
+        // only the jar is on the classpath: neither the compiler nor its dependencies
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+            + "java";
+        Path log = directory.resolve("output.txt");
+        Process process = new ProcessBuilder(java, "-jar", jar.toString())
+            .redirectErrorStream(true)
+            .redirectOutput(log.toFile())
+            .start();
+        int status = process.waitFor();
+        String output = IO.slurp(log.toString());
+        assertEquals(status, 0, output);
+        assertEquals(output.trim(), "66 66 7");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testCompiledProgram () throws Throwable {
+        CompilationCache cache = new CompilationCache(Files.createTempDirectory("sigh-program"));
+        CompiledProgram program = new CompiledProgram(cache.compile("ProgramRun", String.join("\n",
+            "fun add (a: Int, b: Int): Int { return a + b }",
+            "fun scale (x: Float): Float { return x * 2.0 }",
+            "fun greet (name: String): String { return \"hi \" + name }",
+            "fun shout (name: String) { print(greet(name) + \"!\") }",
+            "return add(1, 2)")),
+            new ByteArrayClassLoader());
+
+        for (int i = 0; i < 3; ++i)
+            assertEquals(program.run(), 3L);
+        assertEquals(CompilationResult.callRun(program.mainClass), 3L);
+
+        MethodHandle add = program.function("add");
+        assertEquals(add.type(), MethodType.methodType(long.class, long.class, long.class));
+        long sum = 0;
+        for (long i = 0; i < 1000; ++i)
+            sum = (long) add.invokeExact(sum, i);
+        assertEquals(sum, 499500L);
+
+        assertEquals((double) program.function("scale").invokeExact(1.5), 3.0);
+        assertEquals((String) program.function("greet").invokeExact("you"), "hi you");
+        MethodHandle boxed = program.function("add",
+            MethodType.methodType(Object.class, Object.class, Object.class));
+        assertEquals(boxed.invoke(20L, 22L), 42L);
+
+        MethodHandle shout = program.function("shout");
+        String output = IO.captureStdout(() -> {
+            try {
+                shout.invokeExact("you");
+            } catch (Throwable t) {
+                throw new AssertionError(t);
+            }
+            return null;
+        }).a;
+        assertEquals(output, "hi you!\n");
+
+        assertThrows(IllegalArgumentException.class, () -> program.function("run"));
+        assertThrows(IllegalArgumentException.class, () -> program.function("missing"));
+
+        CompiledProgram failing = new CompiledProgram(
+            cache.compile("FailingRun", "return 1 / 0"), new ByteArrayClassLoader());
+        assertThrows(ArithmeticException.class, failing::run);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String numbered (int i) {
+        return "struct Box { var value: Int } return $Box(" + i + ").value";
+    }
+
+    /** Loads the given program, only keeping a weak reference to its main class. */
+    private static WeakReference<Class<?>> loadWeakly (ProgramCache cache, int i) {
+        CompiledProgram program = cache.get("CachedProgram", numbered(i));
+        assertEquals(program.run(), (long) i);
+        return new WeakReference<>(program.mainClass);
+    }
+
+    @Test public void testProgramCache () throws InterruptedException {
+        ProgramCache cache = new ProgramCache(4);
+        WeakReference<Class<?>> first = loadWeakly(cache, 0);
+        CompiledProgram second = cache.get("CachedProgram", numbered(1));
+        assertSame(cache.get("CachedProgram", numbered(1)), second);
+        assertEquals(cache.hits(), 1);
+        assertEquals(cache.misses(), 2);
+
+        // each program has its own loader, so programs with the same class names can coexist
+        assertNotSame(second.mainClass.getClassLoader(), first.get().getClassLoader());
+
+        for (int i = 2; i < 20; ++i) {
+            assertEquals(cache.get("CachedProgram", numbered(i)).run(), (long) i);
+            cache.get("CachedProgram", numbered(1)); // keeps the second program recently used
+        }
+        assertEquals(cache.size(), 4);
+        assertEquals(cache.evictions(), 16);
+        assertSame(cache.get("CachedProgram", numbered(1)), second);
+
+        // evicted programs can be unloaded
+        for (int i = 0; i < 10 && first.get() != null; ++i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(first.get());
+        assertThrows(IllegalArgumentException.class, () -> new ProgramCache(0));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testConcurrentCaches () throws Exception {
+        CompilationCache compilationCache =
+            new CompilationCache(Files.createTempDirectory("sigh-concurrent"));
+        ProgramCache cache = new ProgramCache(8, compilationCache);
+        int threads = 8, requests = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t)
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < requests; ++i)
+                        assertEquals(cache.get("ConcurrentRun", numbered(i % 12)).run(),
+                            (long) (i % 12));
+                }));
+            for (Future<?> future: futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(cache.hits() + cache.misses(), threads * requests);
+        assertEquals(compilationCache.hits() + compilationCache.misses(), cache.misses());
+    }
 }
@@ -158,6 +158,15 @@ public class GrammarTests extends AutumnTestFixture {
             new IntLiteralNode(null,0)));
         success("([[0,1],[2,3]] @ [[1,1],[2,2]])");
 
+        ReferenceNode x = new ReferenceNode(null, "x");
+        successExpect("x[1:3]", new ArraySliceNode(null, x,
+            asList(new RangeNode(null, intlit(1), intlit(3)))));
+        successExpect("x[:, 2]", new ArraySliceNode(null, x,
+            asList(new RangeNode(null, null, null), intlit(2))));
+        successExpect("x[1:, :n]", new ArraySliceNode(null, x, asList(
+            new RangeNode(null, intlit(1), null),
+            new RangeNode(null, null, new ReferenceNode(null, "n")))));
+
     }
 
     // ---------------------------------------------------------------------------------------------
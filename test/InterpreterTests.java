@@ -9,18 +9,28 @@ import norswap.sigh.ast.SighNode;
 import norswap.sigh.interpreter.Interpreter;
 import norswap.sigh.interpreter.InterpreterException;
 import norswap.sigh.interpreter.Null;
+import norswap.sigh.interpreter.Tensor;
+import norswap.sigh.interpreter.Tiering;
+import norswap.sigh.interpreter.Tiering.Promotion;
 import norswap.uranium.Reactor;
 import norswap.uranium.SemanticError;
 import norswap.utils.IO;
 import norswap.utils.TestFixture;
 import norswap.utils.data.wrappers.Pair;
 import norswap.utils.visitors.Walker;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 import javax.lang.model.type.NullType;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Set;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertThrows;
 
@@ -41,6 +51,9 @@ public final class InterpreterTests extends TestFixture {
 
     private Grammar.rule rule;
 
+    /** The tiering configuration of the interpreter, if any. */
+    private Tiering tiering;
+
     // ---------------------------------------------------------------------------------------------
 
     private void check (String input, Object expectedReturn) {
@@ -65,7 +78,7 @@ public final class InterpreterTests extends TestFixture {
 
         Reactor reactor = new Reactor();
         Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
-        Interpreter interpreter = new Interpreter(reactor);
+        Interpreter interpreter = new Interpreter(reactor, tiering);
         walker.walk(root);
         reactor.run();
         Set<SemanticError> errors = reactor.errors();
@@ -81,7 +94,9 @@ public final class InterpreterTests extends TestFixture {
         }
 
         Pair<String, Object> result = IO.captureStdout(() -> interpreter.interpret(root));
-        assertEquals(result.b, expectedReturn);
+        // tensors (e.g. rectangular array literals) are compared as nested arrays
+        Object value = result.b instanceof Tensor ? ((Tensor) result.b).toArray() : result.b;
+        assertEquals(value, expectedReturn);
         if (expectedOutput != null) assertEquals(result.a, expectedOutput);
     }
 
@@ -250,6 +265,16 @@ public final class InterpreterTests extends TestFixture {
                 "return add(4, 7)",
             11L);
 
+        check(
+            "fun half (x: Float): Float { return x / 2 } " +
+                "return half(3) + half(1.5)",
+            2.25D);
+
+        check(
+            "fun id (x: Float): Float { return x } " +
+                "return id(3)",
+            3.0D);
+
         HashMap<String, Object> point = new HashMap<>();
         point.put("x", 1L);
         point.put("y", 2L);
@@ -262,6 +287,30 @@ public final class InterpreterTests extends TestFixture {
         check("var str: String = null; return print(str + 1)", "null1", "null1\n");
     }
 
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testTailCalls () {
+        // deep enough to overflow the stack if the calls were not eliminated
+        check(
+            "fun sum (n: Int, acc: Int): Int { if n == 0 { return acc } return sum(n - 1, acc + n) }" +
+                "return sum(1000000, 0)",
+            500000500000L);
+
+        // all arguments are evaluated before the parameters are rebound
+        check(
+            "fun swap (a: Int, b: Float, n: Int): Float { if n == 0 { return a + b } " +
+                "return (swap(n, a, n - 1)) }" +
+                "return swap(1, 2.5, 3)",
+            3.0D);
+
+        // not a tail call
+        check(
+            "fun fact (n: Int): Int { if n == 0 { return 1 } return n * fact(n - 1) }" +
+                "return fact(10)",
+            3628800L);
+    }
+
     // ---------------------------------------------------------------------------------------------
     @Test public void testNullArray(){
         rule=grammar.root;
@@ -984,6 +1033,10 @@ public final class InterpreterTests extends TestFixture {
             ArrayIndexOutOfBoundsException.class);
         checkThrows("var x: Int[] = null; x[0] = 3",
             NullPointerException.class);
+        checkThrows("return [1, 2][-1]", ArrayIndexOutOfBoundsException.class);
+        checkThrows("var x: Int[] = [0, 1]; return x[-1]", ArrayIndexOutOfBoundsException.class);
+        checkThrows("var x: Int[] = [0, 1]; x[-1] = 3", ArrayIndexOutOfBoundsException.class);
+        checkThrows("var x: Int[2][3]; return x[-1][0]", ArrayIndexOutOfBoundsException.class);
 
         check(
             "struct P { var x: Int; var y: Int }" +
@@ -1060,7 +1113,7 @@ public final class InterpreterTests extends TestFixture {
         "x[0]=1;x[1]=1;" +
             "y[0]=4.0;y[1]=5.0;" +
             "var z:Int[]=x+y;" +
-            "return z[1]", InterpreterException.class);
+            "return z[1]", AssertionError.class);
 
         check("var x: Float[2]; var y: Float[2];" +
             "x[0]=1.5;x[1]=1.4;" +
@@ -1240,6 +1293,345 @@ public final class InterpreterTests extends TestFixture {
 
     // ---------------------------------------------------------------------------------------------
 
+    @Test public void testRectangularArrays () {
+        rule = grammar.root;
+
+        // rows are views sharing the storage of the array
+        check("var x: Int[2][3]; var r: Int[] = x[1]; r[2] = 7; return x[1][2]", 7L);
+        check("var x: Int[2][3]; x[1][2] = 7; var r: Int[] = x[1]; return r[2]", 7L);
+
+        // assigning a row copies it
+        check("var x: Int[2][3]; x[0] = [1, 2, 3]; return x[0][2] + x.sum", 9L);
+        checkThrows("var x: Int[2][3]; x[0] = [1, 2]", InterpreterException.class);
+
+        checkThrows("var x: Int[2][3]; return x[0][3]", ArrayIndexOutOfBoundsException.class);
+        checkThrows("var x: Int[2][3]; return x[2][0]", ArrayIndexOutOfBoundsException.class);
+        checkThrows("var x: Int[2][3]; x[2][0] = 1", ArrayIndexOutOfBoundsException.class);
+
+        check("var x: Float[2][2]; x[1][1] = 3; return x[1][1] + x.avg", 3.75D);
+        check("var x: Int[2][3]; return x.length + x[0].length * 10 + x.nDim * 100", 232L);
+        check("var x: Int[2][2]; x[0][1] = 1; print(\"\" + x)", null, "[[0, 1], [0, 0]]\n");
+
+        check("var x: Float[2][2]; var y: Float[2][2];" +
+            "x[0][0] = 1.5; x[1][1] = 2.0; y[0][1] = 4.0; y[1][0] = 0.5;" +
+            "var z: Float[][] = x @ y;" +
+            "return z[0][1] + z[1][0]", 7.0D);
+        check("return ([[1, 2], [3, 4]] @ [[5, 6], [7, 8]])[1][0]", 43L);
+        check("return ([1, 2] @ [[3], [4]])", 11L);
+        check("return (2.0 - [1.5, 0.5])[1] + (10 - [[1, 2]])[0][1]", 9.5D);
+        checkThrows("return [1.0, 2.0] / 0.0", InterpreterException.class);
+        checkThrows("return [[1], [2]] % [[1], [0]]", InterpreterException.class);
+
+        // nested element-wise operations, over more elements than are computed at once
+        check("var x: Int[3][1000]; var y: Int[3][1000]; x[2][999] = 5; y[2][999] = 3;" +
+            "var z: Int[][] = 2 * x + (1 - y) * (x % 3) - x / 2;" +
+            "return z[2][999] * 10 + z[0][0]", 40L);
+        check("var x: Float[4]; x[3] = 1.5; return (x * 2.0 - x / 0.5 + 1.0 - x)[3]", -0.5D);
+        check("var x: Int[2][2]; x[1][1] = 4; return (x[1] * 2 + [1, 2] + 3)[1]", 13L);
+        check("return ([1, 2] + [3, 4] * [5, 6] - 1)[1]", 25L);
+        checkThrows("var x: Int[2]; return x + 1 / (x + 1)", InterpreterException.class);
+        checkThrows("var x: Float[2]; return x + x / (x - x)", InterpreterException.class);
+
+        // large enough to be summed in parallel
+        check("var x: Int[700][1000]; x = x + 2; x[699][999] = 5; return x.sum + x.count",
+            2100003L);
+        check("var x: Float[700][1000]; x = x + 0.25; x[0][0] = 1.0; return x.avg * 700000",
+            175000.75D);
+        check("return [[1, 2], [3, 6]].avg", 3.0D);
+
+        // large enough to be computed in parallel, in blocks that do not divide the sizes
+        check("var a: Int[200][100]; var b: Int[100][150];" +
+            "a = a + 1; b = b + 2; a[150][99] = 5; b[99][140] = 3;" +
+            "var z: Int[][] = a @ b;" +
+            "return z[150][140] * 1000 + z[0][140]", 213201L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testReductions () {
+        rule = grammar.root;
+
+        String x = "var x: Int[2][3]; x[0][1] = 5; x[1][2] = 7; x[1][0] = -1;";
+        check(x + "var s: Int[] = sum(x, 0); return s[0] * 100 + s[1] * 10 + s[2]", -43L);
+        check(x + "return sum(x, 1)[1] * 10 + max(x, 1)[0]", 65L);
+        check(x + "return min(x, 0)[0] * 10 + argmax(x, 1)[1]", -8L);
+        check(x + "return argmax(x, 0)[1] * 10 + argmax(x, 0)[2]", 1L);
+        check("var y: Float[2][3][4]; y[1][2][3] = 2.5; y[0][0][0] = -1.0;" +
+            "return sum(y, 1)[1][3] + max(y, 2)[1][2] + min(y, 0)[0][0]", 4.0D);
+
+        check("return sum([1, 2, 3], 0)", 6L);
+        check("return argmax([1.0, 3.0, 3.0], 0)", 1L);
+        check("var s: Float[] = stats([[1, 2], [4, 5]]);" +
+            "return s[0] + s[1] * 10 + s[2] * 100 + s[3] * 1000 + s[4] * 10000", 51284.0D);
+
+        checkThrows("var x: Int[2]; var axis: Int = 1; return sum(x, axis)",
+            InterpreterException.class);
+        checkThrows("return max([[1], [2, 3]], 0)", InterpreterException.class);
+
+        // user-defined functions hide the built-ins
+        check("fun max (a: Int, b: Int): Int { if a > b { return a } return b } return max(2, 3)",
+            3L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testBroadcasting () {
+        rule = grammar.root;
+
+        check("var x: Int[][] = [1, 2, 3] * [[1], [2], [3]]; return x[2][1] * 10 + x[1][2]", 66L);
+        check("var x: Int[][] = [[1, 3], [2, 4], [3, 5]] + [[1], [2], [3]];" +
+            "return x[0][1] * 100 + x[2][0] * 10 + x[2][1]", 468L);
+        check("var x: Float[2][3]; x[1][2] = 4.0; var y: Float[] = [0.5, 1.0, 1.5];" +
+            "var z: Float[][] = x * 2.0 - y; return z[1][2] + z[0][0]", 6.0D);
+        check("var x: Int[2][1][3]; x[1][0][2] = 5; var y: Int[4][1]; y[3][0] = 7;" +
+            "var z: Int[][][] = x + y; return z[1][3][2] * 10 + z[0][2][1] + z.count", 144L);
+
+        // broadcasting a slice, and an operand that is itself a row of a matrix
+        check("var x: Int[3][3]; x[0][1] = 4; var y: Int[][] = x - x[0]; return y[2][1]", -4L);
+        check("var x: Int[3][3]; x[2][0] = 2; var y: Int[][] = x[:, :1] * x; return y[2][0]",
+            4L);
+
+        checkThrows("var x: Int[] = [1, 2, 3]; var y: Int[][] = [[1, 2], [3, 4]];" +
+            "var n: Int = 1; return x + y[n:]", InterpreterException.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testSparseArrays () {
+        rule = grammar.root;
+
+        // 400M elements: stored sparsely
+        String m = "var m: Int[20000][20000]; m[3][4] = 2; m[4][3] = 5; m[19999][0] = 1;";
+        check(m + "return m[3][4] * 10 + m[0][0] + m[19999][0]", 21L);
+        check(m + "return m.sum * 1000 + m[3].sum * 100 + m.length", 28200L);
+        check(m + "return m.count", 400000000L);
+        check(m + "var r: Int[] = m[3]; r[5] = 1; return m[3][5]", 1L);
+        check(m + "m[3] = m[4]; return m[3][3] * 10 + m[3][4]", 50L);
+        check(m + "m[3][4] = 0; return m.sum", 6L);
+        check(m + "return sum(m, 0)[3] * 10 + sum(m, 1)[3]", 52L);
+        check(m + "return max(m, 0)[3] * 1000 + min(m, 1)[3] * 100 + argmax(m, 0)[4] * 10"
+            + "+ argmax(m, 1)[19999]", 5030L);
+        check(m + "m[5][5] = -4; m[6][0] = -1; m[6][1] = -2;"
+            + "return min(m, 0)[5] * 100 + argmax(m, 1)[6] * 10 + argmax(m, 1)[7] + max(m[6], 0)",
+            -380L);
+        check(m + "var st: Float[] = stats(m); return st[0] + st[3] * 10 + st[4]", 400000005.0D);
+        check("var d: Int[20000][20000]; var i: Int = 0;" +
+            "while i < 1000 { d[i * 20][i] = i; i = i + 1 }" +
+            "return d.sum + d[19980][999] * 1000000 + d[20][1]", 999499501L);
+
+        // element-wise operators
+        check(m + "return (m * 3)[4][3] + (m / 2)[4][3] * 100", 215L);
+        check(m + "return (m + m)[3][4] * 10 + (m - m).sum", 40L);
+        check(m + "return (m * m).sum * 10 + (m - m * 2)[3][4]", 298L);
+
+        // matrix products
+        String a = "var a: Int[20000][20000]; a[0][1] = 1; a[1][2] = 3; a[2][0] = 2;";
+        check(a + "var p: Int[][] = a @ a; return p[0][2] * 10 + p[1][0] + p.sum", 47L);
+        check(a + "var v: Int[20000][1]; v[2][0] = 7; return (a @ v)[1][0]", 21L);
+        check(a + "var w: Int[1][20000]; w[0][0] = 3; return (w @ a)[0][1]", 3L);
+        check(a + "return a[1] @ a[1]", 9L);
+        check(a + "var u: Int[20000]; u[1] = 4; return a[0] @ u", 4L);
+
+        check("var x: Float[5000][5000]; x[1][1] = 1.5; x[2][3] = -0.5;" +
+            "return (x * 2.0)[1][1] + (x * x).sum + x.sum", 6.5D);
+        check("var x: Float[5000][5000]; x[1][1] = 1.5; x[2][3] = -0.5; var st: Float[] = stats(x);"
+            + "return st[0] + st[3] + st[4] == 25000001.0 && st[1] * 25000000.0 > 0.999999"
+            + "&& st[2] > 0.0000000999 && st[2] < 0.0000001", true);
+
+        // slices are views that share the storage of the array
+        check(m + "return m[1, 2] * 1000 + m[3, 4] * 10 + m[3, :][4] + m[:, 3][4]", 27L);
+        check(m + "var c: Int[] = m[:, 4]; c[7] = 9; var b: Int[][] = m[2:5, 3:5]; b[0][0] = 8;"
+            + "return m[7][4] * 100 + m[2][3] * 10 + b[1][1] + b[2][0]", 987L);
+        check(m + "var b: Int[][] = m[:, 3:5]; b[3] = [6, 7]; return m[3][3] * 10 + m[3][4]", 67L);
+        check(m + "return m[3:5, :].sum * 10 + sum(m[:, 3:5], 0)[0] + max(m[19990:, :2], 0)[0]",
+            76L);
+        check("var s: Int[5000][5000]; s[1][2] = 3; var r: Int[] = s[1, :]; r[0] = 1;"
+            + "return s[1][0] * 10 + s[1, 1:3][1]", 13L);
+
+        checkThrows(m + "return (m + 1)[0][0]", InterpreterException.class);
+        checkThrows(m + "return m / 0", InterpreterException.class);
+        checkThrows(m + "return m[20000][0]", ArrayIndexOutOfBoundsException.class);
+        checkThrows(m + "m[3] = [1, 2]", InterpreterException.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testMappedArrays () throws IOException {
+        rule = grammar.root;
+
+        Path file = Files.createTempFile("sigh", ".bin");
+        file.toFile().deleteOnExit();
+        String path = file.toString().replace('\\', '/');
+        String x = "var x: Int[][] = mapInts(\"" + path + "\", 4, 3); var i: Int = 0;" +
+            "while i < 12 { x[i / 3][i % 3] = i; i = i + 1 }";
+        check(x + "return x[2][1] + x.sum * 100 + x.count * 10000", 126607L);
+        check(x + "return sum(x, 0)[2] * 100 + max(x, 1)[3] + argmax(x, 0)[1] * 1000", 5611L);
+        check(x + "return stats(x)[1] + x.avg", 11.0D);
+        check(x + "var r: Int[] = x[1]; r[0] = 9; x[2] = [7, 7, 7]; return x[1][0] * 10 + x[2][2]",
+            97L);
+        check(x + "return x[1:3, 1][1]", 7L);
+
+        // element-wise operators and @ read the mapped file
+        check(x + "var y: Int[4][3] = x * 2 + x; return y[3][2]", 33L);
+        check(x + "var y: Int[4][3] = x + [1, 2, 3]; return y[1][2]", 8L);
+        check(x + "var y: Int[][] = x @ [[1], [0], [2]]; return y[2][0]", 22L);
+        check(x + "return x[1] @ x[2]", 86L);
+
+        // the writes are in the file once the program finishes
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(bytes.capacity(), 12 * 8);
+        assertEquals(bytes.getLong(11 * 8), 11L);
+        check("var f: Int[] = mapInts(\"" + path + "\", 12); return f[10] + f.length", 22L);
+
+        Path floats = Files.createTempFile("sigh", ".bin");
+        floats.toFile().deleteOnExit();
+        String y = "var y: Float[] = mapFloats(\"" + floats.toString().replace('\\', '/')
+            + "\", 3); y[0] = 1.5; y[2] = -2.0;";
+        check(y + "return (y * 2.0)[2] + y.sum", -4.5D);
+
+        checkThrows("var z: Int[] = mapInts(\"" + path + "\", 0)", InterpreterException.class);
+        checkThrows(x + "return x[4][0]", ArrayIndexOutOfBoundsException.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testReadOnlyMappedArrays () throws IOException {
+        rule = grammar.root;
+
+        Path file = Files.createTempFile("sigh", ".bin");
+        file.toFile().deleteOnExit();
+        Files.write(file,
+            ByteBuffer.allocate(4 * 8).order(ByteOrder.LITTLE_ENDIAN).putLong(2 * 8, 5).array());
+        if (!file.toFile().setWritable(false) || Files.isWritable(file))
+            throw new SkipException("Cannot make " + file + " read-only");
+        String x = "var x: Int[] = mapInts(\"" + file.toString().replace('\\', '/') + "\", ";
+
+        check(x + "4); return x[2] + x.sum", 10L);
+        checkThrows(x + "4); x[0] = 1", InterpreterException.class);
+        checkThrows(x + "5)", InterpreterException.class);
+        assertEquals(Files.size(file), 4L * 8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testSlices () throws IOException {
+        rule = grammar.root;
+
+        String x = "var x: Int[4][3]; var i: Int = 0;" +
+            "while i < 12 { x[i / 3][i % 3] = i; i = i + 1 }";
+        check(x + "return x[1:3][1][2]", 8L);
+        check(x + "return x[:, 2][3] + x[2, 1]", 18L);
+        check(x + "return x[1:, 1:][2][0]", 10L);
+        check(x + "return sum(x[1:3, 0:2], 0)[1]", 11L);
+
+        // slices share the storage of their array
+        check(x + "var y: Int[] = x[:, 1]; y[2] = 100; return x[2][1]", 100L);
+        check(x + "var y: Int[][] = x[2:]; x[3][0] = -1; return y[1][0]", -1L);
+
+        // so do the slices of array literals and of mapped arrays
+        check("var a: Int[] = [1, 2, 3, 4]; var b: Int[] = a[1:]; b[0] = 100; return a[1]", 100L);
+        check("var m: Float[][] = [[1.0, 2.0], [3.0, 4.0]]; var c: Float[] = m[:, 1]; c[1] = 0.5;"
+            + "return m[1][1] + m[0][1]", 2.5D);
+        Path file = Files.createTempFile("sigh", ".bin");
+        file.toFile().deleteOnExit();
+        String m = "var m: Int[][] = mapInts(\"" + file.toString().replace('\\', '/')
+            + "\", 4, 3); var i: Int = 0; while i < 12 { m[i / 3][i % 3] = i; i = i + 1 }";
+        check(m + "var y: Int[] = m[:, 1]; y[2] = 100; var z: Int[][] = m[1:, 1:]; z[2][1] = -5;"
+            + "z[0] = [7, 8]; return m[2][1] * 10 + m[3][2] + m[1][2]", 1003L);
+        check(m + "var y: Int[2][2] = m[2:, :2] * 2; return (m[:, 2] + 1)[3] * 100 + y[1][1]",
+            1220L);
+        check(m + "return sum(m[1:, 1:], 0)[1] * 100 + m[1:, 2].sum + m[:, 0][3]", 2433L);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(bytes.getLong(7 * 8), 7L);
+        check(m + "var y: Int[] = m[:, 1]; y[2] = 100", null);
+        bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(bytes.getLong(7 * 8), 100L);
+
+        // whether the array is stored densely or sparsely
+        for (String size: new String[] { "4000", "5000" })
+            check("var s: Int[" + size + "][" + size + "]; var r: Int[] = s[1, :]; r[0] = 1;"
+                + "var c: Int[][] = s[:, 2:4]; c[3][1] = 2; return s[1][0] * 10 + s[3][3]", 12L);
+
+        // the slices of arrays built from other arrays are read-only copies
+        check("var a: Int[] = [1, 2]; return [a, a][:, 1][0]", 2L);
+        checkThrows("var a: Int[] = [1, 2]; var r: Int[] = [a, a][:, 0]; r[0] = 5",
+            InterpreterException.class);
+
+        // element-wise operators and @ read slices in place
+        check(x + "var y: Int[2][2] = x[1:3, 0:2] * 2 + x[2:, 1:]; return y[1][0] * 100 + y[0][1]",
+            2216L);
+        check(x + "var y: Int[2][3] = x[1:3] - 1; return y[1][2]", 7L);
+        check(x + "var y: Int[2][2] = x[:2, 1:] @ x[2:, :2]; return y[0][0] * 100 + y[1][1]",
+            2478L);
+        check(x + "return x[0] @ x[:, 1][1:]", 27L);
+        check("return [[1.0, 2.0], [3.0, 4.0]][:, 0] @ [1.0, 1.0]", 4.0D);
+
+        // literal bounds are checked by the semantic analysis
+        checkThrows(x + "var n: Int = 5; return x[2:n]", ArrayIndexOutOfBoundsException.class);
+        checkThrows(x + "var n: Int = 2; return x[:, n:2]", ArrayIndexOutOfBoundsException.class);
+        checkThrows(x + "var n: Int = 5; return x[n, 0]", ArrayIndexOutOfBoundsException.class);
+        checkThrows("return [[1], [2, 3]][0:1]", InterpreterException.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testTiering () {
+        rule = grammar.root;
+        try {
+            // promoted during the recursion, the remaining calls run compiled code
+            tiering = new Tiering(10);
+            check("fun fib (n: Int): Int { if n < 2 { return n } return fib(n - 1) + fib(n - 2) }"
+                + "return fib(20)", 6765L);
+            assertEquals(tiering.promotions().size(), 1);
+            Promotion promotion = tiering.promotions().get(0);
+            assertEquals(promotion.function, "fib");
+            assertEquals(promotion.calls, 10L);
+
+            // loop iterations count towards promotion, and callees are compiled with the caller
+            tiering = new Tiering(10);
+            check("fun add (a: Int, b: Int): Int { return a + b }"
+                + "fun count (n: Int): Int {"
+                + "  var i: Int = 0; var s: Int = 0;"
+                + "  while i < n { s = add(s, i); i = i + 1 }"
+                + "  return s }"
+                + "return count(100) + count(5) + count(3)", 4963L);
+            assertEquals(tiering.promotions().get(0).function, "add");
+            promotion = tiering.promotions().get(1);
+            assertEquals(promotion.function, "count");
+            assertEquals(promotion.calls, 2L);
+            assertEquals(promotion.backEdges, 100L);
+
+            // arguments are converted, output and strings go through
+            tiering = new Tiering(3);
+            check("fun half (x: Float): Float { return x / 2 }"
+                + "fun greet (s: String, n: Int) { print(s + n) }"
+                + "var s: Float = 0.0; var i: Int = 0;"
+                + "while i < 20 { s = s + half(i); i = i + 1 }"
+                + "i = 0; while i < 4 { greet(\"hi \", i); i = i + 1 }"
+                + "return s", 95.0D, "hi 0\nhi 1\nhi 2\nhi 3\n");
+            assertEquals(tiering.promotions().size(), 2);
+
+            // functions using top-level variables, structures or sparse arrays stay interpreted
+            tiering = new Tiering(2);
+            check("var k: Int = 3; fun f (x: Int): Int { return x * k }"
+                + "struct P { var x: Int } fun g (p: P): Int { return p.x }"
+                + "fun h (i: Int): Int {"
+                + "  var x: Int[4097][4096]; x[i][i - 1] = i; return x[i][i - 1] }"
+                + "return f(1) + f(2) + f(3) + g($P(1)) + g($P(2)) + g($P(3)) + h(1) + h(4096)",
+                4121L);
+            assertEquals(tiering.promotions().size(), 0);
+
+            // errors in compiled code are reported like in the interpreter
+            tiering = new Tiering(2);
+            checkThrows("fun d (a: Int, b: Int): Int { return a / b } return d(4, 2) + d(1, 0)",
+                InterpreterException.class);
+        } finally {
+            tiering = null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test
     public void testIfWhile () {
         check("if (true) return 1 else return 2", 1L);
@@ -219,6 +219,8 @@ public final class SemanticAnalysisTests extends UraniumTestFixture
         successInput("return ([[0,1],[2,3]] @ [[1,1],[2,2]])[0][0]");
         successInput("return ([[0,1],[2,3]] @ [[1],[2]])[0]");
         successInput("return ([0,1] @ [[1],[2]])");
+        successInput("var d: Int = [0,1] @ [1,2]; return d + 1");
+        successInput("var d: Float = [0.5] @ [[1.0]]; return d");
         successInput("var x: Int[2][2][2]; var y: Int[2][2][2];" +
             "x[0][0][0]=1;x[1][0][0]=2;x[0][0][1]=3;x[1][0][1]=4;" +
             "x[0][1][0]=5;x[1][1][0]=6;x[0][1][1]=7;x[1][1][1]=8;"+
@@ -234,10 +236,16 @@ public final class SemanticAnalysisTests extends UraniumTestFixture
 
         failureInputWith("return [1][true]", "Indexing an array using a non-Int-valued expression");
         failureInputWith("return [1,2,3]*[1,2]", "Trying to operate on arrays with different dimensions: [3] and [2]");
-        failureInputWith("return [1,2,3]*[[1],[2],[3]]", "Trying to operate on arrays with different dimensions: [3] and [3, 1]");
-        failureInputWith("return [[1,3],[2,4],[3,5]]+[[1],[2],[3]]", "Trying to operate on arrays with different dimensions: [3, 2] and [3, 1]");
+        failureInputWith("return [1,2,3]*[[1,2],[2,3],[3,4]]", "Trying to operate on arrays with different dimensions: [3] and [3, 2]");
+        failureInputWith("return [[1,3],[2,4],[3,5]]+[[1],[2]]", "Trying to operate on arrays with different dimensions: [3, 2] and [2, 1]");
 
         failureInputWith("return (1 @ [[1],[2]])[0][0]","Trying to dotproduct Int with Int[][]");
+        failureInputWith("return [1.5] @ 2.0", "Trying to dotproduct Float[] with Float");
+        failureInputWith("return [[1, 2], [3, 4]] @ [1, 1]",
+            "Operator @ is only defined on a vector and a vector or a matrix, or on two matrices, "
+                + "not Int[][] and Int[]");
+        failureInputWith("return [1, 2] @ [1.5, 2.5]",
+            "Trying to dotproduct Int[] with Float[]: their elements have different types");
 
         successInput("return [].length");
 
@@ -245,6 +253,9 @@ public final class SemanticAnalysisTests extends UraniumTestFixture
         successInput("return [1, 2].length");
 
         successInput("return [4, 2].avg");
+        successInput("var x: Float = [4, 2].avg + [1.5].sum");
+        failureInputWith("var x: Int = [4, 2].avg", "expected Int but got Float");
+        failureInputWith("var x: Int = [1.5].sum", "expected Int but got Float");
         successInput("return [1, 3, 4, 2].count");
         successInput("return [4, 2].sum");
         successInput("return [4, 2].nDim");
@@ -341,6 +352,16 @@ public final class SemanticAnalysisTests extends UraniumTestFixture
         successInput("return (2/[1,2,3])[2]");
         successInput("return (2/[[1],[2],[3]])[0][0]");
         successInput("return (2/[[1],[2],[3]])[1][0]");
+        successInput("return (2.5*[[1.0],[2.0]])[1][0]");
+
+        failureInputWith("return [1, 2] + [1.5, 2.5]",
+            "Trying to add Int[] with Float[]: their elements have different types");
+        failureInputWith("return [1, 2] * 1.5",
+            "Trying to multiply Int[] with Float: their elements have different types");
+        failureInputWith("return 2 - [[1.0], [2.0]]",
+            "Trying to subtract Int with Float[][]: their elements have different types");
+        failureInputWith("var x: Int[2]; return x + x * 1.5",
+            "Trying to multiply Int[] with Float: their elements have different types");
     }
 
     @Test public void testClassDeclaration(){
@@ -418,6 +439,97 @@ public final class SemanticAnalysisTests extends UraniumTestFixture
             "return z[0][0]");
     }
 
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testReductions () {
+        successInput("var x: Int[2][3]; var s: Int[] = sum(x, 0); return s[0]");
+        successInput("var x: Float[2]; var m: Float = max(x, 0); var i: Int = argmax(x, 0)");
+        successInput("var x: Float[2][3][4]; var m: Float[][] = min(x, 1); return m[1][3]");
+        successInput("var s: Float[] = stats([[1, 2], [3, 4]]); return s[1]");
+        successInput("var x: Int[2][3]; var y: Int[3]; return sum(x, 0) + y");
+        successInput("fun max (a: Int, b: Int): Int { if a > b { return a } return b } " +
+            "return max(1, 2)");
+
+        failureInputWith("var x: Int[2][3]; var y: Int[2]; return sum(x, 0) + y",
+            "Trying to operate on arrays with different dimensions: [3] and [2]");
+        failureInputWith("return sum([\"a\"], 0)",
+            "sum expects an array of Int or Float, but got String[]");
+        failureInputWith("return stats(1)", "stats expects an array of Int or Float, but got Int");
+        failureInputWith("var x: Int[2]; return sum(x, 1.0)",
+            "sum expects an Int axis, but got Float");
+        failureInputWith("var x: Int[2]; return argmax(x, 1)",
+            "axis 1 out of range for an array with 1 dimensions");
+        failureInputWith("var x: Int[2]; return min(x)",
+            "wrong number of arguments, expected 2 but got 1");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testMappedArrays () {
+        successInput("var x: Int[] = mapInts(\"x.bin\", 10); return x[3]");
+        successInput("var n: Int = 4; var x: Float[][] = mapFloats(\"x.bin\", n, 3); return x[1]");
+        successInput("var x: Float[4][3] = mapFloats(\"x.bin\", 4, 3) * 2.0");
+        successInput("var x: Int[] = sum(mapInts(\"x.bin\", 4, 3), 0) + [1, 2, 3]");
+
+        failureInputWith("var x: Int[4][3] = mapInts(\"x.bin\", 4, 3) + [1, 2]",
+            "Trying to operate on arrays with different dimensions: [4, 3] and [2]");
+        failureInputWith("return mapInts(\"x.bin\")",
+            "mapInts expects a path and at least one dimension, but got 1 arguments");
+        failureInputWith("return mapFloats(1, 2)", "mapFloats expects a String path, but got Int");
+        failureInputWith("return mapInts(\"x.bin\", 2, 1.0)",
+            "mapInts expects Int dimensions, but got Float");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testBroadcasting () {
+        successInput("var x: Int[3][3] = [1, 2, 3] * [[1], [2], [3]]");
+        successInput("var x: Int[3][2] = [[1, 3], [2, 4], [3, 5]] + [[1], [2], [3]]");
+        successInput("var x: Float[4][3]; var y: Float[3]; var z: Float[4][3] = x - y");
+        successInput("var x: Float[2][1][3]; var y: Float[4][1]; var z: Float[2][4][3] = x * y");
+        successInput("var x: Int[][]; var y: Int[3]; var z: Int[][] = y + x");
+
+        failureInputWith("var x: Int[4][3]; var y: Int[4]; return x + y",
+            "Trying to operate on arrays with different dimensions: [4, 3] and [4]");
+        failureInputWith("var x: Int[2][1][3]; var y: Int[4][2]; return x * y",
+            "Trying to operate on arrays with different dimensions: [2, 1, 3] and [4, 2]");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testSlices () {
+        successInput("var x: Int[4][3]; var y: Int[2][3] = x[1:3]; return y[0][2]");
+        successInput("var x: Int[4][3]; var c: Int[] = x[:, 2]; var e: Int = x[1, 2]");
+        successInput("var x: Int[4][3]; var y: Int[2][2]; return x[1:3, 0:2] + y");
+        successInput("var x: Float[4][3]; var n: Int = 2; return x[:n, :] @ x[:, 1:]");
+        successInput("var x: Int[4][3]; var n: Int = 2; var y: Int[2][3]; return x[n:] + y");
+
+        failureInputWith("var x: Int[4][3]; var y: Int[3][3]; return x[1:3] + y",
+            "Trying to operate on arrays with different dimensions: [2, 3] and [3, 3]");
+        failureInputWith("var x: Int[4]; return x[1, 2]",
+            "Trying to slice 2 dimensions of an array with 1");
+        failureInputWith("var x: Int[4]; return x[1.0:]",
+            "Slicing an array using a non-Int-valued bound");
+        failureInputWith("var x: Int[4][3]; return x[:, true]",
+            "Indexing an array using a non-Int-valued expression");
+        failureInputWith("var x: Int = 1; return x[0:1]",
+            "Trying to slice a non-array expression of type Int");
+        failureInputWith("return [\"a\", \"b\", \"c\"][1:3]",
+            "Slicing is only supported on arrays of Int or Float values, not String[]");
+        failureInputWith("return [true, false, true][0:2]",
+            "Slicing is only supported on arrays of Int or Float values, not Bool[]");
+        failureInputWith("struct P {} var p: P[][] = [[$P()]]; return p[0, :]",
+            "Slicing is only supported on arrays of Int or Float values, not P[][]");
+        failureInputWith("var x: Int[4][3]; return x[:, 2:2]",
+            "Empty range 2:2");
+        failureInputWith("var x: Int[][] = [[1, 2]]; return x[:, 3:1]",
+            "Empty range 3:1");
+        failureInputWith("var x: Int[4][3]; return x[4:]",
+            "Empty range 4:4");
+        failureInputWith("var x: Int[4][3]; return x[1:5]",
+            "Range end 5 out of bounds for length 4");
+    }
+
 
 
     // ---------------------------------------------------------------------------------------------